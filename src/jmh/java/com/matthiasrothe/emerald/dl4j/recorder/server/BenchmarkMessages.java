@@ -0,0 +1,71 @@
+package com.matthiasrothe.emerald.dl4j.recorder.server;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+
+// sensor messages as Emerald Termux sends them
+final class BenchmarkMessages {
+	private static final String UUID_TEMPLATE = "00000000-0000-4000-8000-000000000000";
+	private static final byte[] HEX_DIGITS = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+	
+	private BenchmarkMessages() {
+	}
+	
+	// a single-value message for sampleCount 1, a batch message otherwise
+	static String message(final int sampleCount) {
+		StringBuilder message = new StringBuilder("{\"header\":{\"type\":\"")
+				.append(sampleCount == 1 ? "single-value" : "batch")
+				.append("\",\"uuid\":\"").append(UUID_TEMPLATE).append("\"},\"body\":");
+		
+		if (sampleCount == 1) {
+			appendSample(message, 0);
+		} else {
+			message.append('[');
+			
+			for (int i = 0; i < sampleCount; i++) {
+				if (i > 0) {
+					message.append(',');
+				}
+				
+				appendSample(message, i);
+			}
+			
+			message.append(']');
+		}
+		
+		return message.append('}').toString();
+	}
+	
+	private static void appendSample(final StringBuilder message, final int index) {
+		message.append("{\"sensor\":\"accelerometer\",\"timestamp\":\"").append(LocalDateTime.of(2024, 5, 1, 12, 0))
+				.append("\",\"values\":[").append(0.0123456 + index).append(',').append(-9.8065432)
+				.append(',').append(1.2345678 * index).append("]}");
+	}
+	
+	static int uuidOffset(final byte[] message) {
+		byte[] template = UUID_TEMPLATE.getBytes(StandardCharsets.US_ASCII);
+		
+		outer:
+		for (int i = 0; i <= message.length - template.length; i++) {
+			for (int j = 0; j < template.length; j++) {
+				if (message[i + j] != template[j]) {
+					continue outer;
+				}
+			}
+			
+			return i;
+		}
+		
+		throw new IllegalArgumentException("Message contains no UUID");
+	}
+	
+	// writes the counter as the last 12 hex digits of the UUID so that every message has a UUID of its own
+	static void setUuid(final byte[] message, final int uuidOffset, final long counter) {
+		long value = counter;
+		
+		for (int i = uuidOffset + UUID_TEMPLATE.length() - 1; i >= uuidOffset + UUID_TEMPLATE.length() - 12; i--) {
+			message[i] = HEX_DIGITS[(int) (value & 0xF)];
+			value >>>= 4;
+		}
+	}
+}
@@ -0,0 +1,126 @@
+package com.matthiasrothe.emerald.dl4j.recorder.server;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Samples per second a single client gets recorded over a loopback connection. Each invocation sends
+ * SAMPLES_PER_INVOCATION samples in messages of batchSize samples without waiting for the responses in between,
+ * then reads all responses.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class LoopbackThroughputBenchmark {
+	private static final int SAMPLES_PER_INVOCATION = 200;
+	private static final int PORT = 5032;
+	
+	@Param({ "1", "10", "100" })
+	public int batchSize;
+	
+	@Param({ "BLOCKING", "NON_BLOCKING" })
+	public IoMode ioMode;
+	
+	private RecordingFixture fixture;
+	private Socket socket;
+	private OutputStream out;
+	private InputStream in;
+	
+	private byte[] message;
+	private int uuidOffset;
+	private int messagesPerInvocation;
+	private long messageCounter;
+	private final byte[] responses = new byte[64 * 1024];
+	
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		fixture = new RecordingFixture(PORT);
+		fixture.getServer().setIoMode(ioMode);
+		fixture.getServer().start();
+		fixture.startRecording();
+		
+		message = (BenchmarkMessages.message(batchSize) + "\n").getBytes(StandardCharsets.UTF_8);
+		uuidOffset = BenchmarkMessages.uuidOffset(message);
+		messagesPerInvocation = SAMPLES_PER_INVOCATION / batchSize;
+		
+		socket = connect();
+		socket.setTcpNoDelay(true);
+		out = new BufferedOutputStream(socket.getOutputStream(), 64 * 1024);
+		in = socket.getInputStream();
+	}
+	
+	private Socket connect() throws Exception {
+		// the server starts listening asynchronously
+		for (int attempt = 0; ; attempt++) {
+			try {
+				return new Socket("localhost", PORT);
+			} catch (IOException e) {
+				if (attempt == 50) {
+					throw e;
+				}
+				
+				Thread.sleep(100);
+			}
+		}
+	}
+	
+	@TearDown(Level.Iteration)
+	public void restartRecording() throws IOException {
+		fixture.restartRecording();
+	}
+	
+	@TearDown(Level.Trial)
+	public void teardown() throws IOException {
+		socket.close();
+		fixture.close();
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(SAMPLES_PER_INVOCATION)
+	public void sendAndAwaitResponses() throws IOException {
+		for (int i = 0; i < messagesPerInvocation; i++) {
+			BenchmarkMessages.setUuid(message, uuidOffset, messageCounter++);
+			out.write(message);
+		}
+		
+		out.flush();
+		
+		int pendingResponses = messagesPerInvocation;
+		while (pendingResponses > 0) {
+			int read = in.read(responses);
+			
+			if (read < 0) {
+				throw new IOException("Server closed the connection");
+			}
+			
+			for (int i = 0; i < read; i++) {
+				if (responses[i] == '\n') {
+					pendingResponses--;
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,87 @@
+package com.matthiasrothe.emerald.dl4j.recorder.server;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.sf.jetro.tree.JsonElement;
+import net.sf.jetro.tree.builder.JsonTreeBuilder;
+
+// parsing and processing of a single message line, while a recording is in progress
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class MessageParsingBenchmark {
+	@Param({ "1", "10", "100" })
+	public int sampleCount;
+	
+	private RecordingFixture fixture;
+	private Server server;
+	private NullConnection connection;
+	private final SensorMessageDecoder decoder = new SensorMessageDecoder();
+	private final JsonTreeBuilder builder = new JsonTreeBuilder();
+	
+	private String line;
+	private byte[] bytes;
+	
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		fixture = new RecordingFixture(5030);
+		server = fixture.getServer();
+		connection = new NullConnection(server);
+		
+		line = BenchmarkMessages.message(sampleCount);
+		bytes = line.getBytes(StandardCharsets.UTF_8);
+		
+		fixture.startRecording();
+	}
+	
+	@TearDown(Level.Iteration)
+	public void restartRecording() throws IOException {
+		fixture.restartRecording();
+	}
+	
+	@TearDown(Level.Trial)
+	public void teardown() throws IOException {
+		fixture.close();
+	}
+	
+	@Benchmark
+	public boolean decode() {
+		return decoder.decode(bytes, 0, bytes.length);
+	}
+	
+	@Benchmark
+	public JsonElement buildTree() {
+		return builder.build(line);
+	}
+	
+	// the path every well-formed message takes
+	@Benchmark
+	public boolean processLineFastPath() throws IOException {
+		return server.processLine(bytes, 0, bytes.length, decoder, connection);
+	}
+	
+	// the path of every message the fast path doesn't handle
+	@Benchmark
+	public boolean processLineTreePath() throws IOException {
+		return server.processLine(line, connection);
+	}
+}
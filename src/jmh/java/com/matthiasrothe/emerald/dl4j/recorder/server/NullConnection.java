@@ -0,0 +1,23 @@
+package com.matthiasrothe.emerald.dl4j.recorder.server;
+
+// discards all responses, only counting their bytes so that encoding them can't be optimized away
+class NullConnection extends ClientConnection {
+	private long bytesWritten;
+	
+	NullConnection(final Server server) {
+		super(server, 0);
+	}
+	
+	@Override
+	protected void write(final byte[] bytes, final int offset, final int length) {
+		bytesWritten += length;
+	}
+	
+	@Override
+	protected void flushOutput() {
+	}
+	
+	long getBytesWritten() {
+		return bytesWritten;
+	}
+}
@@ -0,0 +1,53 @@
+package com.matthiasrothe.emerald.dl4j.recorder.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+// a server recording into a temporary directory, with a temporary config file to leave ./config/config.json alone
+class RecordingFixture {
+	private final Path configFile;
+	private final Path dataDirectory;
+	private final Server server;
+	
+	RecordingFixture(final int port) throws IOException {
+		configFile = Files.createTempFile("emerald-benchmark", ".json");
+		Files.write(configFile, "{\"nextFileNumber\":0}".getBytes(StandardCharsets.UTF_8));
+		dataDirectory = Files.createTempDirectory("emerald-benchmark");
+		server = new Server(port, dataDirectory.toString(), configFile);
+	}
+	
+	Server getServer() {
+		return server;
+	}
+	
+	void startRecording() throws IOException {
+		server.startRecording(0);
+	}
+	
+	// keeps the disk usage of long benchmark runs down
+	void restartRecording() throws IOException {
+		server.stopRecording();
+		deleteRecordedFiles();
+		server.startRecording(0);
+	}
+	
+	void close() throws IOException {
+		if (server.isRecording()) {
+			server.stopRecording();
+		}
+		
+		server.abort();
+		deleteRecordedFiles();
+		dataDirectory.toFile().delete();
+		Files.delete(configFile);
+	}
+	
+	private void deleteRecordedFiles() {
+		for (File file : dataDirectory.toFile().listFiles()) {
+			file.delete();
+		}
+	}
+}
@@ -0,0 +1,65 @@
+package com.matthiasrothe.emerald.dl4j.recorder.server;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.sf.jetro.tree.JsonString;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ResponseEncodingBenchmark {
+	private Server server;
+	private NullConnection connection;
+	private NullConnection cumulativeConnection;
+	private byte[] uuid;
+	private JsonString jsonUuid;
+	
+	@Setup
+	public void setup() throws IOException {
+		server = new Server(5031, System.getProperty("java.io.tmpdir"));
+		connection = new NullConnection(server);
+		cumulativeConnection = new NullConnection(server);
+		cumulativeConnection.configureAcks(AckMode.CUMULATIVE, ClientConnection.DEFAULT_ACK_COUNT, 0);
+		
+		String uuidString = UUID.randomUUID().toString();
+		uuid = uuidString.getBytes(StandardCharsets.US_ASCII);
+		jsonUuid = new JsonString(uuidString);
+	}
+	
+	// the pre-encoded response to a successful message
+	@Benchmark
+	public long acknowledge() throws IOException {
+		connection.acknowledge(uuid, 0, uuid.length);
+		return connection.getBytesWritten();
+	}
+	
+	@Benchmark
+	public long acknowledgeCumulatively() throws IOException {
+		cumulativeConnection.acknowledge(uuid, 0, uuid.length);
+		return cumulativeConnection.getBytesWritten();
+	}
+	
+	// error responses are still built as JSON trees
+	@Benchmark
+	public long respond() throws IOException {
+		server.respond("Bad Request: Malformed message.", Server.STATUS_CODE_MALFORMED_MESSAGE, jsonUuid, connection);
+		return connection.getBytesWritten();
+	}
+}
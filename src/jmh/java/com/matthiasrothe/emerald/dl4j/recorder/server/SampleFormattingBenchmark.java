@@ -0,0 +1,65 @@
+package com.matthiasrothe.emerald.dl4j.recorder.server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// formatting of a sample as a CSV line by the recording writer, without the cost of the file system
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class SampleFormattingBenchmark {
+	private Recording recording;
+	private CsvRecordingSink sink;
+	private final double[] values = new double[SampleRingBuffer.MAX_VALUES_PER_SAMPLE];
+	// readings as sensors send them, with a few decimals; varying values keep the formatting from being folded
+	private final double[] readings = new double[1024];
+	private int next;
+	
+	@Setup
+	public void setup() {
+		recording = new Recording(0, 0, (sensorSuffix, columns) -> new CsvRecordingSink(
+				OutputStream.nullOutputStream(), false, columns.size()));
+		sink = new CsvRecordingSink(OutputStream.nullOutputStream(), true, 3);
+		SplittableRandom random = new SplittableRandom(42);
+		
+		for (int i = 0; i < readings.length; i++) {
+			readings[i] = Math.round(random.nextDouble(-20, 20) * 10_000) / 10_000.0;
+		}
+	}
+	
+	@Benchmark
+	public int write() {
+		nextValues();
+		return recording.write("accelerometer", 1_714_564_800_000_000L, values, 3);
+	}
+	
+	// the sink alone; gc.alloc.rate.norm of the gc profiler shows what formatting a line allocates
+	@Benchmark
+	public int append() throws IOException {
+		nextValues();
+		return sink.append(1_714_564_800_000_000L, values, 0);
+	}
+	
+	private void nextValues() {
+		for (int i = 0; i < 3; i++) {
+			values[i] = readings[next];
+			next = (next + 1) & (readings.length - 1);
+		}
+	}
+}
@@ -4,17 +4,143 @@ import java.io.IOException;
 
 import javax.swing.SwingUtilities;
 
+import com.matthiasrothe.emerald.dl4j.recorder.format.ValueType;
 import com.matthiasrothe.emerald.dl4j.recorder.gui.RecorderFrame;
+import com.matthiasrothe.emerald.dl4j.recorder.server.CoalescingServerListener;
+import com.matthiasrothe.emerald.dl4j.recorder.server.Durability;
+import com.matthiasrothe.emerald.dl4j.recorder.server.RecordingFormat;
+import com.matthiasrothe.emerald.dl4j.recorder.server.SegmentRolling;
 import com.matthiasrothe.emerald.dl4j.recorder.server.Server;
+import com.matthiasrothe.emerald.dl4j.recorder.server.Windowing;
 
 public class RecorderLauncher {
-	public static void main(String[] args) throws IOException {
+	private static final String HEADLESS = "--headless";
+	private static final String ADMIN_PORT = "--admin-port=";
+	private static final String FORMAT = "--format=";
+	private static final String DURABILITY = "--durability=";
+	private static final String SEGMENT_MEGABYTES = "--segment-megabytes=";
+	private static final String SEGMENT_SAMPLES = "--segment-samples=";
+	private static final String SEGMENT_MINUTES = "--segment-minutes=";
+	private static final String PRE_ROLL_SECONDS = "--pre-roll-seconds=";
+	private static final String POST_ROLL_SECONDS = "--post-roll-seconds=";
+	private static final String WINDOW_LENGTH = "--window-length=";
+	private static final String WINDOW_STRIDE = "--window-stride=";
+	private static final String FEATURE_WINDOW = "--feature-window=";
+	private static final String FEATURE_STRIDE = "--feature-stride=";
+	private static final String RESAMPLE_HZ = "--resample-hz=";
+	private static final String UDP_PORT = "--udp-port=";
+	
+	public static void main(String[] args) throws IOException, InterruptedException {
+		boolean headless = false;
+		int adminPort = 5090;
+		RecordingFormat format = RecordingFormat.CSV;
+		Durability durability = Durability.BUFFERED;
+		long segmentBytes = 0;
+		long segmentSamples = 0;
+		long segmentMillis = 0;
+		long preRollMillis = 0;
+		long postRollMillis = 0;
+		int windowLength = 0;
+		int windowStride = 0;
+		int featureWindow = 0;
+		int featureStride = 0;
+		double resampleHertz = 0;
+		int udpPort = 0;
+		
+		for (String arg : args) {
+			if (arg.equals(HEADLESS)) {
+				headless = true;
+			} else if (arg.startsWith(ADMIN_PORT)) {
+				adminPort = Integer.parseInt(arg.substring(ADMIN_PORT.length()));
+			} else if (arg.startsWith(FORMAT)) {
+				// e.g. --format=columnar-double
+				format = RecordingFormat.valueOf(arg.substring(FORMAT.length()).toUpperCase().replace('-', '_'));
+			} else if (arg.startsWith(DURABILITY)) {
+				// e.g. --durability=ack-after-sync
+				durability = Durability.valueOf(arg.substring(DURABILITY.length()).toUpperCase().replace('-', '_'));
+			} else if (arg.startsWith(SEGMENT_MEGABYTES)) {
+				segmentBytes = Long.parseLong(arg.substring(SEGMENT_MEGABYTES.length())) * 1024 * 1024;
+			} else if (arg.startsWith(SEGMENT_SAMPLES)) {
+				segmentSamples = Long.parseLong(arg.substring(SEGMENT_SAMPLES.length()));
+			} else if (arg.startsWith(SEGMENT_MINUTES)) {
+				segmentMillis = Long.parseLong(arg.substring(SEGMENT_MINUTES.length())) * 60 * 1000;
+			} else if (arg.startsWith(PRE_ROLL_SECONDS)) {
+				preRollMillis = Long.parseLong(arg.substring(PRE_ROLL_SECONDS.length())) * 1000;
+			} else if (arg.startsWith(POST_ROLL_SECONDS)) {
+				postRollMillis = Long.parseLong(arg.substring(POST_ROLL_SECONDS.length())) * 1000;
+			} else if (arg.startsWith(WINDOW_LENGTH)) {
+				windowLength = Integer.parseInt(arg.substring(WINDOW_LENGTH.length()));
+			} else if (arg.startsWith(WINDOW_STRIDE)) {
+				windowStride = Integer.parseInt(arg.substring(WINDOW_STRIDE.length()));
+			} else if (arg.startsWith(FEATURE_WINDOW)) {
+				featureWindow = Integer.parseInt(arg.substring(FEATURE_WINDOW.length()));
+			} else if (arg.startsWith(FEATURE_STRIDE)) {
+				featureStride = Integer.parseInt(arg.substring(FEATURE_STRIDE.length()));
+			} else if (arg.startsWith(RESAMPLE_HZ)) {
+				resampleHertz = Double.parseDouble(arg.substring(RESAMPLE_HZ.length()));
+			} else if (arg.startsWith(UDP_PORT)) {
+				udpPort = Integer.parseInt(arg.substring(UDP_PORT.length()));
+			} else {
+				System.err.println("Unknown argument: " + arg);
+				System.err.println("Usage: RecorderLauncher [" + HEADLESS + "] [" + ADMIN_PORT + "<port>] [" + FORMAT
+						+ "csv|csv-timestamped|columnar-double|columnar-float|compressed-double|compressed-float] ["
+						+ DURABILITY + "buffered|group-commit|ack-after-sync] [" + SEGMENT_MEGABYTES + "<n>] ["
+						+ SEGMENT_SAMPLES + "<n>] [" + SEGMENT_MINUTES + "<n>] [" + PRE_ROLL_SECONDS + "<n>] ["
+						+ POST_ROLL_SECONDS + "<n>] [" + WINDOW_LENGTH + "<n>] [" + WINDOW_STRIDE + "<n>] ["
+						+ FEATURE_WINDOW + "<n>] [" + FEATURE_STRIDE + "<n>] [" + RESAMPLE_HZ + "<rate>] [" + UDP_PORT
+						+ "<port>]");
+				System.exit(1);
+			}
+		}
+		
 		Server server = new Server(5000, "./recorded-data");
+		server.setMetricsPort(5080);
+		server.setAdminPort(adminPort);
+		server.setRecordingFormat(format);
+		server.setDurability(durability);
+		server.setPreRollMillis(preRollMillis);
+		server.setPostRollMillis(postRollMillis);
+		server.setResampleRateHertz(resampleHertz);
+		
+		if (udpPort > 0) {
+			server.setUdpPort(udpPort);
+		}
+		
+		if (segmentBytes > 0 || segmentSamples > 0 || segmentMillis > 0) {
+			server.setSegmentRolling(new SegmentRolling(segmentBytes, segmentSamples, segmentMillis));
+		}
+		
+		if (windowLength > 0) {
+			// windows don't overlap unless a shorter stride is given
+			server.setWindowing(new Windowing(windowLength, windowStride > 0 ? windowStride : windowLength,
+					ValueType.FLOAT));
+		}
+		
+		if (featureWindow > 0) {
+			server.setFeatureWindowing(new Windowing(featureWindow, featureStride > 0 ? featureStride : featureWindow,
+					ValueType.FLOAT));
+		}
+		
+		if (headless) {
+			// recordings are controlled through the admin port only; no AWT class gets loaded
+			System.setProperty("java.awt.headless", "true");
+			server.start();
+			server.join();
+		} else {
+			startGui(server);
+			server.start();
+		}
+	}
+	
+	private static void startGui(final Server server) {
 		RecorderFrame frame = new RecorderFrame(server);
 		
-		server.setClientConnectionListener(frame);
+		// the frame gets at most one update per screen refresh no matter how fast data arrives
+		CoalescingServerListener listener = new CoalescingServerListener(frame,
+				CoalescingServerListener.DEFAULT_UPDATES_PER_SECOND);
+		server.setClientConnectionListener(listener);
+		listener.start();
 		
 		SwingUtilities.invokeLater(() -> frame.init());
-		server.start();
 	}
 }
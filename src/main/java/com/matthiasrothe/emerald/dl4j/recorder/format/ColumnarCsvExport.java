@@ -0,0 +1,119 @@
+package com.matthiasrothe.emerald.dl4j.recorder.format;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+// converts columnar recordings into CSV files of the same format as the ones the recorder writes itself
+public class ColumnarCsvExport {
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1 || args.length > 2) {
+			System.err.println("Usage: ColumnarCsvExport <data_N" + ColumnarFormat.FILE_EXTENSION + "|data_N"
+					+ CompressedFormat.FILE_EXTENSION + "> [<data_N.csv>]");
+			System.exit(1);
+		}
+		
+		Path input = Paths.get(args[0]);
+		Path output = args.length > 1 ? Paths.get(args[1]) : csvPath(input);
+		
+		long samples = export(input, output);
+		System.out.println(samples + " samples written to " + output);
+	}
+	
+	static Path csvPath(final Path input) {
+		String fileName = input.getFileName().toString();
+		
+		if (fileName.endsWith(ColumnarFormat.FILE_EXTENSION)) {
+			fileName = fileName.substring(0, fileName.length() - ColumnarFormat.FILE_EXTENSION.length());
+		} else if (fileName.endsWith(CompressedFormat.FILE_EXTENSION)) {
+			fileName = fileName.substring(0, fileName.length() - CompressedFormat.FILE_EXTENSION.length());
+		}
+		
+		return input.resolveSibling(fileName + ".csv");
+	}
+	
+	public static long export(final Path input, final Path output) throws IOException {
+		if (input.getFileName().toString().endsWith(CompressedFormat.FILE_EXTENSION)) {
+			try (CompressedReader reader = new CompressedReader(input);
+					BufferedWriter writer = Files.newBufferedWriter(output, StandardCharsets.UTF_8)) {
+				export(reader, writer);
+				return reader.getSampleCount();
+			}
+		}
+		
+		try (ColumnarReader reader = new ColumnarReader(input);
+				BufferedWriter writer = Files.newBufferedWriter(output, StandardCharsets.UTF_8)) {
+			export(reader, writer);
+			return reader.getSampleCount();
+		}
+	}
+	
+	public static void export(final ColumnarReader reader, final Writer writer) throws IOException {
+		int columns = reader.getColumnCount();
+		StringBuilder line = new StringBuilder();
+		
+		for (int block = 0; block < reader.getBlockCount(); block++) {
+			DoubleBuffer[] doubleColumns = new DoubleBuffer[columns];
+			FloatBuffer[] floatColumns = new FloatBuffer[columns];
+			
+			for (int column = 0; column < columns; column++) {
+				if (reader.getValueType() == ValueType.DOUBLE) {
+					doubleColumns[column] = reader.doubleColumn(block, column);
+				} else {
+					floatColumns[column] = reader.floatColumn(block, column);
+				}
+			}
+			
+			for (int sample = 0; sample < reader.getBlockSampleCount(block); sample++) {
+				line.setLength(0);
+				
+				for (int column = 0; column < columns; column++) {
+					if (column > 0) {
+						line.append(',');
+					}
+					
+					// Double.toString for doubles, as the recorder's CSV files; floats print their shortest form
+					if (reader.getValueType() == ValueType.DOUBLE) {
+						line.append(doubleColumns[column].get(sample));
+					} else {
+						line.append(floatColumns[column].get(sample));
+					}
+				}
+				
+				writer.append(line).append('\n');
+			}
+		}
+	}
+	
+	public static void export(final CompressedReader reader, final Writer writer) throws IOException {
+		StringBuilder line = new StringBuilder();
+		
+		for (int block = 0; block < reader.getBlockCount(); block++) {
+			double[][] columns = reader.readBlock(block);
+			
+			for (int sample = 0; sample < reader.getBlockSampleCount(block); sample++) {
+				line.setLength(0);
+				
+				for (int column = 0; column < columns.length; column++) {
+					if (column > 0) {
+						line.append(',');
+					}
+					
+					if (reader.getValueType() == ValueType.DOUBLE) {
+						line.append(columns[column][sample]);
+					} else {
+						line.append((float) columns[column][sample]);
+					}
+				}
+				
+				writer.append(line).append('\n');
+			}
+		}
+	}
+}
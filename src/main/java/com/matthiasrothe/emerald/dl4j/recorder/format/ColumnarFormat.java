@@ -0,0 +1,105 @@
+package com.matthiasrothe.emerald.dl4j.recorder.format;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/*
+ * Layout of columnar recording files. All numbers are little endian.
+ * 
+ * Header (64 bytes):
+ *    0  8 bytes  magic "EMRLDCOL"
+ *    8  int      format version
+ *   12  int      offset of the first block
+ *   16  int      label
+ *   20  int      block capacity (samples per block)
+ *   24  byte     value size (4 = float, 8 = double)
+ *   25  byte     column count
+ *   32  long     sample count, -1 until the file was closed properly
+ *   40  long     creation time in milliseconds since the epoch
+ * 
+ * Schema: for every column a short name length followed by the UTF-8 encoded name, padded to a multiple of 8 bytes.
+ * 
+ * Blocks of equal size follow: an int sample count, 4 bytes padding, then each column as block capacity values.
+ * The sample count of a block is updated with every sample, so an unclosed file can be read up to its last sample.
+ */
+public final class ColumnarFormat {
+	public static final String FILE_EXTENSION = ".col";
+	
+	static final byte[] MAGIC = "EMRLDCOL".getBytes(StandardCharsets.US_ASCII);
+	static final int VERSION = 1;
+	static final ByteOrder BYTE_ORDER = ByteOrder.LITTLE_ENDIAN;
+	
+	static final int HEADER_SIZE = 64;
+	static final int VERSION_OFFSET = 8;
+	static final int DATA_OFFSET_OFFSET = 12;
+	static final int LABEL_OFFSET = 16;
+	static final int BLOCK_CAPACITY_OFFSET = 20;
+	static final int VALUE_SIZE_OFFSET = 24;
+	static final int COLUMN_COUNT_OFFSET = 25;
+	static final int SAMPLE_COUNT_OFFSET = 32;
+	static final int CREATED_OFFSET = 40;
+	
+	static final int BLOCK_HEADER_SIZE = 8;
+	
+	public static final int DEFAULT_BLOCK_CAPACITY = 4096;
+	
+	private ColumnarFormat() {
+	}
+	
+	static long blockSize(final int blockCapacity, final int columnCount, final ValueType valueType) {
+		return BLOCK_HEADER_SIZE + (long) blockCapacity * columnCount * valueType.getSize();
+	}
+	
+	static int align(final int offset) {
+		return (offset + 7) & ~7;
+	}
+	
+	// header and schema up to the first block; compressed files share this layout with their own magic
+	static ByteBuffer header(final byte[] magic, final ValueType valueType, final List<String> columnNames,
+			final int label, final int blockCapacity) {
+		byte[][] names = new byte[columnNames.size()][];
+		int schemaSize = 0;
+		
+		for (int i = 0; i < names.length; i++) {
+			names[i] = columnNames.get(i).getBytes(StandardCharsets.UTF_8);
+			schemaSize += Short.BYTES + names[i].length;
+		}
+		
+		int dataOffset = align(HEADER_SIZE + schemaSize);
+		ByteBuffer header = ByteBuffer.allocate(dataOffset).order(BYTE_ORDER);
+		
+		header.put(magic);
+		header.putInt(VERSION_OFFSET, VERSION);
+		header.putInt(DATA_OFFSET_OFFSET, dataOffset);
+		header.putInt(LABEL_OFFSET, label);
+		header.putInt(BLOCK_CAPACITY_OFFSET, blockCapacity);
+		header.put(VALUE_SIZE_OFFSET, (byte) valueType.getSize());
+		header.put(COLUMN_COUNT_OFFSET, (byte) names.length);
+		header.putLong(SAMPLE_COUNT_OFFSET, -1);
+		header.putLong(CREATED_OFFSET, System.currentTimeMillis());
+		
+		header.position(HEADER_SIZE);
+		for (byte[] name : names) {
+			header.putShort((short) name.length);
+			header.put(name);
+		}
+		
+		return header.clear();
+	}
+	
+	static List<String> readSchema(final ByteBuffer schema, final int columnCount) {
+		List<String> names = new ArrayList<>(columnCount);
+		
+		for (int i = 0; i < columnCount; i++) {
+			byte[] name = new byte[schema.getShort()];
+			schema.get(name);
+			names.add(new String(name, StandardCharsets.UTF_8));
+		}
+		
+		return Collections.unmodifiableList(names);
+	}
+}
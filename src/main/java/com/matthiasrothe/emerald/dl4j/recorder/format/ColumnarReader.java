@@ -0,0 +1,205 @@
+package com.matthiasrothe.emerald.dl4j.recorder.format;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+ * Reads columnar recording files through read-only memory mappings. The column views of a block share the mapped
+ * memory, so no value is copied before it is used; readColumn copies a whole column into a primitive array.
+ */
+public class ColumnarReader implements Closeable {
+	private final FileChannel channel;
+	private final int label;
+	private final ValueType valueType;
+	private final List<String> columnNames;
+	private final int blockCapacity;
+	private final long blockSize;
+	private final long createdEpochMillis;
+	
+	// the blocks are mapped in segments of whole blocks because a single mapping is limited to 2 GB
+	private final MappedByteBuffer[] segments;
+	private final int blocksPerSegment;
+	private final int[] blockSampleCounts;
+	private final long sampleCount;
+	
+	public ColumnarReader(final Path file) throws IOException {
+		channel = FileChannel.open(file, StandardOpenOption.READ);
+		
+		try {
+			ByteBuffer header = ByteBuffer.allocate(ColumnarFormat.HEADER_SIZE).order(ColumnarFormat.BYTE_ORDER);
+			readFully(header, 0);
+			
+			byte[] magic = new byte[ColumnarFormat.MAGIC.length];
+			header.get(0, magic);
+			if (!Arrays.equals(magic, ColumnarFormat.MAGIC)) {
+				throw new IOException(file + " is no columnar recording");
+			}
+			
+			int version = header.getInt(ColumnarFormat.VERSION_OFFSET);
+			if (version != ColumnarFormat.VERSION) {
+				throw new IOException("Unsupported columnar format version " + version);
+			}
+			
+			int dataOffset = header.getInt(ColumnarFormat.DATA_OFFSET_OFFSET);
+			label = header.getInt(ColumnarFormat.LABEL_OFFSET);
+			blockCapacity = header.getInt(ColumnarFormat.BLOCK_CAPACITY_OFFSET);
+			valueType = ValueType.ofSize(header.get(ColumnarFormat.VALUE_SIZE_OFFSET));
+			int columnCount = Byte.toUnsignedInt(header.get(ColumnarFormat.COLUMN_COUNT_OFFSET));
+			createdEpochMillis = header.getLong(ColumnarFormat.CREATED_OFFSET);
+			
+			ByteBuffer schema = ByteBuffer.allocate(dataOffset - ColumnarFormat.HEADER_SIZE)
+					.order(ColumnarFormat.BYTE_ORDER);
+			readFully(schema, ColumnarFormat.HEADER_SIZE);
+			schema.flip();
+			
+			columnNames = ColumnarFormat.readSchema(schema, columnCount);
+			
+			blockSize = ColumnarFormat.blockSize(blockCapacity, columnCount, valueType);
+			int blockCount = (int) ((channel.size() - dataOffset) / blockSize);
+			blocksPerSegment = (int) Math.max(1, Integer.MAX_VALUE / blockSize);
+			segments = new MappedByteBuffer[(blockCount + blocksPerSegment - 1) / blocksPerSegment];
+			
+			for (int i = 0; i < segments.length; i++) {
+				int blocks = Math.min(blocksPerSegment, blockCount - i * blocksPerSegment);
+				segments[i] = channel.map(FileChannel.MapMode.READ_ONLY,
+						dataOffset + (long) i * blocksPerSegment * blockSize, blocks * blockSize);
+				segments[i].order(ColumnarFormat.BYTE_ORDER);
+			}
+			
+			// blocks after the first empty one were never written
+			int usedBlocks = 0;
+			long samples = 0;
+			int[] counts = new int[blockCount];
+			
+			while (usedBlocks < blockCount) {
+				int count = segment(usedBlocks).getInt(blockPosition(usedBlocks));
+				
+				if (count <= 0 || count > blockCapacity) {
+					break;
+				}
+				
+				counts[usedBlocks++] = count;
+				samples += count;
+			}
+			
+			blockSampleCounts = Arrays.copyOf(counts, usedBlocks);
+			sampleCount = samples;
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+	
+	private void readFully(final ByteBuffer buffer, final long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0) {
+				throw new IOException("Unexpected end of columnar recording");
+			}
+		}
+	}
+	
+	public int getLabel() {
+		return label;
+	}
+	
+	public ValueType getValueType() {
+		return valueType;
+	}
+	
+	public List<String> getColumnNames() {
+		return columnNames;
+	}
+	
+	public int getColumnCount() {
+		return columnNames.size();
+	}
+	
+	public long getCreatedEpochMillis() {
+		return createdEpochMillis;
+	}
+	
+	public int getBlockCount() {
+		return blockSampleCounts.length;
+	}
+	
+	public int getBlockSampleCount(final int block) {
+		return blockSampleCounts[block];
+	}
+	
+	public long getSampleCount() {
+		return sampleCount;
+	}
+	
+	// zero-copy view of a column of a block of a DOUBLE file
+	public DoubleBuffer doubleColumn(final int block, final int column) {
+		if (valueType != ValueType.DOUBLE) {
+			throw new IllegalStateException("Values are stored as " + valueType);
+		}
+		
+		return columnBytes(block, column).asDoubleBuffer();
+	}
+	
+	// zero-copy view of a column of a block of a FLOAT file
+	public FloatBuffer floatColumn(final int block, final int column) {
+		if (valueType != ValueType.FLOAT) {
+			throw new IllegalStateException("Values are stored as " + valueType);
+		}
+		
+		return columnBytes(block, column).asFloatBuffer();
+	}
+	
+	private ByteBuffer columnBytes(final int block, final int column) {
+		int start = blockPosition(block) + ColumnarFormat.BLOCK_HEADER_SIZE
+				+ column * blockCapacity * valueType.getSize();
+		
+		return segment(block).slice(start, blockSampleCounts[block] * valueType.getSize())
+				.order(ColumnarFormat.BYTE_ORDER);
+	}
+	
+	// copies all values of a column into one array
+	public double[] readColumn(final int column) {
+		if (sampleCount > Integer.MAX_VALUE - 8) {
+			throw new IllegalStateException("Column has too many values for an array");
+		}
+		
+		double[] values = new double[(int) sampleCount];
+		int offset = 0;
+		
+		for (int block = 0; block < blockSampleCounts.length; block++) {
+			if (valueType == ValueType.DOUBLE) {
+				doubleColumn(block, column).get(values, offset, blockSampleCounts[block]);
+				offset += blockSampleCounts[block];
+			} else {
+				FloatBuffer floats = floatColumn(block, column);
+				
+				while (floats.hasRemaining()) {
+					values[offset++] = floats.get();
+				}
+			}
+		}
+		
+		return values;
+	}
+	
+	private MappedByteBuffer segment(final int block) {
+		return segments[block / blocksPerSegment];
+	}
+	
+	private int blockPosition(final int block) {
+		return (int) ((block % blocksPerSegment) * blockSize);
+	}
+	
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+}
@@ -0,0 +1,199 @@
+package com.matthiasrothe.emerald.dl4j.recorder.format;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Objects;
+
+// appends samples to a columnar recording file through memory mapped chunks of blocks
+public class ColumnarWriter implements SampleWriter {
+	private static final int BLOCKS_PER_CHUNK = 16;
+	
+	private final FileChannel channel;
+	private final ValueType valueType;
+	private final int columnCount;
+	private final int blockCapacity;
+	private final long blockSize;
+	private final int dataOffset;
+	
+	private MappedByteBuffer chunk;
+	private long chunkOffset;
+	private int blockInChunk = -1;
+	private int blockPosition;
+	private int sampleInBlock;
+	private long blocks;
+	private long sampleCount;
+	private boolean closed;
+	// set by the first sync; from then on a chunk is forced before it is replaced, so that a sync covers all chunks
+	private boolean syncing;
+	
+	public ColumnarWriter(final Path file, final ValueType valueType, final List<String> columnNames, final int label)
+			throws IOException {
+		this(file, valueType, columnNames, label, ColumnarFormat.DEFAULT_BLOCK_CAPACITY);
+	}
+	
+	public ColumnarWriter(final Path file, final ValueType valueType, final List<String> columnNames, final int label,
+			final int blockCapacity) throws IOException {
+		Objects.requireNonNull(file, "file must not be null");
+		Objects.requireNonNull(valueType, "valueType must not be null");
+		
+		if (columnNames.isEmpty() || columnNames.size() > 255) {
+			throw new IllegalArgumentException("Between 1 and 255 columns are supported");
+		}
+		
+		if (blockCapacity < 1) {
+			throw new IllegalArgumentException("blockCapacity must be at least 1");
+		}
+		
+		this.valueType = valueType;
+		this.columnCount = columnNames.size();
+		this.blockCapacity = blockCapacity;
+		
+		blockSize = ColumnarFormat.blockSize(blockCapacity, columnCount, valueType);
+		
+		if (BLOCKS_PER_CHUNK * blockSize > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("blockCapacity is too large for " + columnCount + " columns");
+		}
+		
+		ByteBuffer header = ColumnarFormat.header(ColumnarFormat.MAGIC, valueType, columnNames, label, blockCapacity);
+		dataOffset = header.limit();
+		
+		channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.READ, StandardOpenOption.WRITE);
+		
+		try {
+			channel.write(header, 0);
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+	}
+	
+	@Override
+	public void append(final double x, final double y, final double z) throws IOException {
+		if (columnCount != 3) {
+			throw new IllegalStateException("File has " + columnCount + " columns");
+		}
+		
+		int position = nextSamplePosition();
+		put(position, x);
+		put(position + blockCapacity * valueType.getSize(), y);
+		put(position + 2 * blockCapacity * valueType.getSize(), z);
+		sampleAppended();
+	}
+	
+	@Override
+	public void append(final double[] values, final int offset) throws IOException {
+		int position = nextSamplePosition();
+		
+		for (int column = 0; column < columnCount; column++) {
+			put(position + column * blockCapacity * valueType.getSize(), values[offset + column]);
+		}
+		
+		sampleAppended();
+	}
+	
+	// position of the next sample's value in the first column within the current chunk
+	private int nextSamplePosition() throws IOException {
+		if (closed) {
+			throw new IOException("Writer is closed");
+		}
+		
+		if (blockInChunk < 0 || sampleInBlock == blockCapacity) {
+			nextBlock();
+		}
+		
+		return blockPosition + ColumnarFormat.BLOCK_HEADER_SIZE + sampleInBlock * valueType.getSize();
+	}
+	
+	private void put(final int position, final double value) {
+		if (valueType == ValueType.DOUBLE) {
+			chunk.putDouble(position, value);
+		} else {
+			chunk.putFloat(position, (float) value);
+		}
+	}
+	
+	private void sampleAppended() {
+		sampleInBlock++;
+		sampleCount++;
+		chunk.putInt(blockPosition, sampleInBlock);
+	}
+	
+	private void nextBlock() throws IOException {
+		if (blockInChunk < 0 || blockInChunk == BLOCKS_PER_CHUNK - 1) {
+			if (syncing && chunk != null) {
+				chunk.force();
+			}
+			
+			// mapping beyond the end of the file grows the file
+			chunkOffset = dataOffset + blocks * blockSize;
+			chunk = channel.map(FileChannel.MapMode.READ_WRITE, chunkOffset, BLOCKS_PER_CHUNK * blockSize);
+			chunk.order(ColumnarFormat.BYTE_ORDER);
+			blockInChunk = 0;
+		} else {
+			blockInChunk++;
+		}
+		
+		blockPosition = (int) (blockInChunk * blockSize);
+		sampleInBlock = 0;
+		blocks++;
+	}
+	
+	@Override
+	public long getSampleCount() {
+		return sampleCount;
+	}
+	
+	@Override
+	public void sync() throws IOException {
+		if (closed) {
+			throw new IOException("Writer is closed");
+		}
+		
+		if (!syncing) {
+			// chunks replaced before were never forced; writing back the file's dirty pages covers them on the
+			// common platforms
+			syncing = true;
+			channel.force(false);
+		}
+		
+		if (chunk != null) {
+			chunk.force();
+		}
+	}
+	
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		
+		closed = true;
+		
+		try {
+			if (chunk != null) {
+				chunk.force();
+			}
+			
+			// drop the blocks of the last chunk that were never used; readers skip empty blocks if the platform
+			// doesn't allow truncating a mapped file
+			try {
+				channel.truncate(dataOffset + blocks * blockSize);
+			} catch (IOException e) {
+				// keep the empty blocks
+			}
+			
+			ByteBuffer sampleCountField = ByteBuffer.allocate(Long.BYTES).order(ColumnarFormat.BYTE_ORDER);
+			sampleCountField.putLong(0, sampleCount);
+			channel.write(sampleCountField, ColumnarFormat.SAMPLE_COUNT_OFFSET);
+		} finally {
+			chunk = null;
+			channel.close();
+		}
+	}
+}
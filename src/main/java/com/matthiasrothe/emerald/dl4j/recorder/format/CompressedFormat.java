@@ -0,0 +1,37 @@
+package com.matthiasrothe.emerald.dl4j.recorder.format;
+
+import java.nio.charset.StandardCharsets;
+
+/*
+ * Layout of compressed columnar recording files. All numbers are little endian.
+ * 
+ * Header and schema are those of ColumnarFormat, except for the magic "EMRLDCMZ".
+ * 
+ * Blocks of up to block capacity samples follow, each one decodable on its own:
+ *    0  int      compressed length
+ *    4  int      sample count
+ *    8           zlib stream of the values, column after column, as many values per column as the block has samples.
+ *                Every value is stored XOR the previous value of its column, the first one of each column as is,
+ *                so that the equal sign, exponent and high mantissa bits of neighbouring samples become zero bytes.
+ * 
+ * Index footer, written when the file is closed:
+ *                for every block its long offset, int compressed length and int sample count
+ *    -16  long   offset of the index
+ *     -8  int    block count
+ *     -4  4 bytes magic "EIDX"
+ * 
+ * A file without the footer wasn't closed properly; its blocks can still be found by following the block lengths.
+ */
+public final class CompressedFormat {
+	public static final String FILE_EXTENSION = ".colz";
+	
+	static final byte[] MAGIC = "EMRLDCMZ".getBytes(StandardCharsets.US_ASCII);
+	static final byte[] INDEX_MAGIC = "EIDX".getBytes(StandardCharsets.US_ASCII);
+	
+	static final int BLOCK_HEADER_SIZE = 8;
+	static final int INDEX_ENTRY_SIZE = 16;
+	static final int TRAILER_SIZE = 16;
+	
+	private CompressedFormat() {
+	}
+}
@@ -0,0 +1,261 @@
+package com.matthiasrothe.emerald.dl4j.recorder.format;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/*
+ * Reads compressed columnar recording files. The block index lets readBlock decompress any block on its own, from
+ * any thread; readColumns decompresses all blocks in parallel.
+ */
+public class CompressedReader implements Closeable {
+	private final FileChannel channel;
+	private final int label;
+	private final ValueType valueType;
+	private final List<String> columnNames;
+	private final int blockCapacity;
+	private final long createdEpochMillis;
+	
+	private final long[] blockOffsets;
+	private final int[] blockLengths;
+	private final int[] blockSampleCounts;
+	private final long sampleCount;
+	
+	public CompressedReader(final Path file) throws IOException {
+		channel = FileChannel.open(file, StandardOpenOption.READ);
+		
+		try {
+			ByteBuffer header = ByteBuffer.allocate(ColumnarFormat.HEADER_SIZE).order(ColumnarFormat.BYTE_ORDER);
+			readFully(header, 0);
+			
+			byte[] magic = new byte[CompressedFormat.MAGIC.length];
+			header.get(0, magic);
+			if (!Arrays.equals(magic, CompressedFormat.MAGIC)) {
+				throw new IOException(file + " is no compressed recording");
+			}
+			
+			int version = header.getInt(ColumnarFormat.VERSION_OFFSET);
+			if (version != ColumnarFormat.VERSION) {
+				throw new IOException("Unsupported compressed format version " + version);
+			}
+			
+			int dataOffset = header.getInt(ColumnarFormat.DATA_OFFSET_OFFSET);
+			label = header.getInt(ColumnarFormat.LABEL_OFFSET);
+			blockCapacity = header.getInt(ColumnarFormat.BLOCK_CAPACITY_OFFSET);
+			valueType = ValueType.ofSize(header.get(ColumnarFormat.VALUE_SIZE_OFFSET));
+			int columnCount = Byte.toUnsignedInt(header.get(ColumnarFormat.COLUMN_COUNT_OFFSET));
+			createdEpochMillis = header.getLong(ColumnarFormat.CREATED_OFFSET);
+			
+			ByteBuffer schema = ByteBuffer.allocate(dataOffset - ColumnarFormat.HEADER_SIZE)
+					.order(ColumnarFormat.BYTE_ORDER);
+			readFully(schema, ColumnarFormat.HEADER_SIZE);
+			schema.flip();
+			columnNames = ColumnarFormat.readSchema(schema, columnCount);
+			
+			ByteBuffer index = readIndex(dataOffset);
+			int blockCount = index.remaining() / CompressedFormat.INDEX_ENTRY_SIZE;
+			blockOffsets = new long[blockCount];
+			blockLengths = new int[blockCount];
+			blockSampleCounts = new int[blockCount];
+			long samples = 0;
+			
+			for (int i = 0; i < blockCount; i++) {
+				blockOffsets[i] = index.getLong();
+				blockLengths[i] = index.getInt();
+				blockSampleCounts[i] = index.getInt();
+				samples += blockSampleCounts[i];
+			}
+			
+			sampleCount = samples;
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+	
+	// the index footer, or an index rebuilt from the block headers if the file wasn't closed properly
+	private ByteBuffer readIndex(final int dataOffset) throws IOException {
+		long size = channel.size();
+		
+		if (size >= dataOffset + CompressedFormat.TRAILER_SIZE) {
+			ByteBuffer trailer = ByteBuffer.allocate(CompressedFormat.TRAILER_SIZE).order(ColumnarFormat.BYTE_ORDER);
+			readFully(trailer, size - CompressedFormat.TRAILER_SIZE);
+			
+			byte[] magic = new byte[CompressedFormat.INDEX_MAGIC.length];
+			trailer.get(12, magic);
+			
+			if (Arrays.equals(magic, CompressedFormat.INDEX_MAGIC)) {
+				long indexOffset = trailer.getLong(0);
+				int blockCount = trailer.getInt(8);
+				ByteBuffer index = ByteBuffer.allocate(blockCount * CompressedFormat.INDEX_ENTRY_SIZE)
+						.order(ColumnarFormat.BYTE_ORDER);
+				readFully(index, indexOffset);
+				return index.flip();
+			}
+		}
+		
+		ByteBuffer index = ByteBuffer.allocate(64 * CompressedFormat.INDEX_ENTRY_SIZE).order(ColumnarFormat.BYTE_ORDER);
+		ByteBuffer blockHeader = ByteBuffer.allocate(CompressedFormat.BLOCK_HEADER_SIZE)
+				.order(ColumnarFormat.BYTE_ORDER);
+		long offset = dataOffset;
+		
+		while (offset + CompressedFormat.BLOCK_HEADER_SIZE <= size) {
+			readFully(blockHeader.clear(), offset);
+			int length = blockHeader.getInt(0);
+			int samples = blockHeader.getInt(4);
+			
+			// the last block may be incomplete
+			if (length <= 0 || samples <= 0 || samples > blockCapacity
+					|| offset + CompressedFormat.BLOCK_HEADER_SIZE + length > size) {
+				break;
+			}
+			
+			if (!index.hasRemaining()) {
+				index = ByteBuffer.allocate(index.capacity() * 2).order(ColumnarFormat.BYTE_ORDER).put(index.flip());
+			}
+			
+			index.putLong(offset).putInt(length).putInt(samples);
+			offset += CompressedFormat.BLOCK_HEADER_SIZE + length;
+		}
+		
+		return index.flip();
+	}
+	
+	private void readFully(final ByteBuffer buffer, final long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0) {
+				throw new IOException("Unexpected end of compressed recording");
+			}
+		}
+	}
+	
+	public int getLabel() {
+		return label;
+	}
+	
+	public ValueType getValueType() {
+		return valueType;
+	}
+	
+	public List<String> getColumnNames() {
+		return columnNames;
+	}
+	
+	public int getColumnCount() {
+		return columnNames.size();
+	}
+	
+	public long getCreatedEpochMillis() {
+		return createdEpochMillis;
+	}
+	
+	public int getBlockCount() {
+		return blockSampleCounts.length;
+	}
+	
+	public int getBlockSampleCount(final int block) {
+		return blockSampleCounts[block];
+	}
+	
+	public long getSampleCount() {
+		return sampleCount;
+	}
+	
+	// decompresses a block into one array per column; safe to call from several threads at once
+	public double[][] readBlock(final int block) throws IOException {
+		ByteBuffer compressed = ByteBuffer.allocate(blockLengths[block]);
+		readFully(compressed, blockOffsets[block] + CompressedFormat.BLOCK_HEADER_SIZE);
+		
+		int samples = blockSampleCounts[block];
+		ByteBuffer raw = ByteBuffer.allocate(samples * getColumnCount() * valueType.getSize())
+				.order(ColumnarFormat.BYTE_ORDER);
+		Inflater inflater = new Inflater();
+		
+		try {
+			inflater.setInput(compressed.flip());
+			while (raw.hasRemaining() && !inflater.finished()) {
+				if (inflater.inflate(raw) == 0 && inflater.needsInput()) {
+					break;
+				}
+			}
+		} catch (DataFormatException e) {
+			throw new IOException("Block " + block + " is corrupt", e);
+		} finally {
+			inflater.end();
+		}
+		
+		if (raw.hasRemaining()) {
+			throw new IOException("Block " + block + " is truncated");
+		}
+		
+		raw.flip();
+		double[][] columns = new double[getColumnCount()][samples];
+		
+		for (double[] column : columns) {
+			if (valueType == ValueType.DOUBLE) {
+				long bits = 0;
+				
+				for (int i = 0; i < samples; i++) {
+					bits ^= raw.getLong();
+					column[i] = Double.longBitsToDouble(bits);
+				}
+			} else {
+				int bits = 0;
+				
+				for (int i = 0; i < samples; i++) {
+					bits ^= raw.getInt();
+					column[i] = Float.intBitsToFloat(bits);
+				}
+			}
+		}
+		
+		return columns;
+	}
+	
+	// decompresses all blocks in parallel into one array per column
+	public double[][] readColumns() throws IOException {
+		if (sampleCount > Integer.MAX_VALUE - 8) {
+			throw new IllegalStateException("Columns have too many values for an array");
+		}
+		
+		double[][] columns = new double[getColumnCount()][(int) sampleCount];
+		int[] blockStarts = new int[getBlockCount()];
+		
+		for (int block = 1; block < blockStarts.length; block++) {
+			blockStarts[block] = blockStarts[block - 1] + blockSampleCounts[block - 1];
+		}
+		
+		try {
+			IntStream.range(0, getBlockCount()).parallel().forEach(block -> {
+				try {
+					double[][] blockColumns = readBlock(block);
+					
+					for (int column = 0; column < columns.length; column++) {
+						System.arraycopy(blockColumns[column], 0, columns[column], blockStarts[block],
+								blockSampleCounts[block]);
+					}
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+		
+		return columns;
+	}
+	
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+}
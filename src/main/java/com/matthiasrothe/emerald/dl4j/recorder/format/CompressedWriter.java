@@ -0,0 +1,385 @@
+package com.matthiasrothe.emerald.dl4j.recorder.format;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.zip.Deflater;
+
+/*
+ * Appends samples to a compressed columnar recording file. Appending only copies the values into the current block;
+ * full blocks are encoded, compressed and written by a thread of the writer's own, so compression never runs on the
+ * thread that receives the samples. That thread only waits if the compressor falls behind by more than a few blocks.
+ */
+public class CompressedWriter implements SampleWriter {
+	private static final int BLOCK_BUFFERS = 4;
+	private static final Block END = new Block(null, 0);
+	private static final Block SYNC = new Block(null, 0);
+	
+	private final FileChannel channel;
+	private final ValueType valueType;
+	private final int columnCount;
+	private final int blockCapacity;
+	
+	private final BlockingQueue<double[]> freeBuffers = new ArrayBlockingQueue<>(BLOCK_BUFFERS);
+	private final BlockingQueue<Block> fullBlocks = new ArrayBlockingQueue<>(BLOCK_BUFFERS + 1);
+	private final Thread compressor;
+	private final Semaphore synced = new Semaphore(0);
+	private volatile IOException failure;
+	
+	private double[] values;
+	private int sampleInBlock;
+	private long sampleCount;
+	private boolean closed;
+	
+	// only accessed by the compressor until it has terminated
+	private long position;
+	private long[] blockOffsets = new long[64];
+	private int[] blockLengths = new int[64];
+	private int[] blockSampleCounts = new int[64];
+	private int blocks;
+	
+	private record Block(double[] values, int sampleCount) {
+	}
+	
+	public CompressedWriter(final Path file, final ValueType valueType, final List<String> columnNames,
+			final int label) throws IOException {
+		this(file, valueType, columnNames, label, ColumnarFormat.DEFAULT_BLOCK_CAPACITY);
+	}
+	
+	public CompressedWriter(final Path file, final ValueType valueType, final List<String> columnNames,
+			final int label, final int blockCapacity) throws IOException {
+		Objects.requireNonNull(file, "file must not be null");
+		Objects.requireNonNull(valueType, "valueType must not be null");
+		
+		if (columnNames.isEmpty() || columnNames.size() > 255) {
+			throw new IllegalArgumentException("Between 1 and 255 columns are supported");
+		}
+		
+		if (blockCapacity < 1 || (long) blockCapacity * columnNames.size() * Double.BYTES > Integer.MAX_VALUE / 2) {
+			throw new IllegalArgumentException("blockCapacity must be between 1 and "
+					+ Integer.MAX_VALUE / 2 / Double.BYTES / columnNames.size());
+		}
+		
+		this.valueType = valueType;
+		this.columnCount = columnNames.size();
+		this.blockCapacity = blockCapacity;
+		
+		ByteBuffer header = ColumnarFormat.header(CompressedFormat.MAGIC, valueType, columnNames, label,
+				blockCapacity);
+		position = header.limit();
+		
+		for (int i = 0; i < BLOCK_BUFFERS; i++) {
+			freeBuffers.add(new double[blockCapacity * columnCount]);
+		}
+		
+		channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.WRITE);
+		
+		try {
+			writeFully(header, 0);
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+		
+		compressor = Thread.ofPlatform().daemon().name("recording-compressor").start(this::compress);
+	}
+	
+	@Override
+	public void append(final double x, final double y, final double z) throws IOException {
+		if (columnCount != 3) {
+			throw new IllegalStateException("File has " + columnCount + " columns");
+		}
+		
+		nextSample();
+		values[sampleInBlock] = x;
+		values[blockCapacity + sampleInBlock] = y;
+		values[2 * blockCapacity + sampleInBlock] = z;
+		sampleAppended();
+	}
+	
+	@Override
+	public void append(final double[] values, final int offset) throws IOException {
+		nextSample();
+		
+		for (int column = 0; column < columnCount; column++) {
+			this.values[column * blockCapacity + sampleInBlock] = values[offset + column];
+		}
+		
+		sampleAppended();
+	}
+	
+	private void nextSample() throws IOException {
+		if (closed) {
+			throw new IOException("Writer is closed");
+		}
+		
+		if (failure != null) {
+			throw new IOException("Compressing the recording failed", failure);
+		}
+		
+		if (values == null) {
+			values = take(freeBuffers);
+		}
+	}
+	
+	private void sampleAppended() throws IOException {
+		sampleCount++;
+		
+		if (++sampleInBlock == blockCapacity) {
+			submitBlock();
+		}
+	}
+	
+	private void submitBlock() throws IOException {
+		put(new Block(values, sampleInBlock));
+		values = null;
+		sampleInBlock = 0;
+	}
+	
+	private void put(final Block block) throws IOException {
+		try {
+			fullBlocks.put(block);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while handing over a block", e);
+		}
+	}
+	
+	private static <T> T take(final BlockingQueue<T> queue) throws IOException {
+		try {
+			return queue.take();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for a block", e);
+		}
+	}
+	
+	private void compress() {
+		Deflater deflater = new Deflater();
+		ByteBuffer raw = ByteBuffer.allocate(blockCapacity * columnCount * valueType.getSize())
+				.order(ColumnarFormat.BYTE_ORDER);
+		byte[] compressed = new byte[CompressedFormat.BLOCK_HEADER_SIZE + raw.capacity() + raw.capacity() / 100 + 64];
+		
+		try {
+			while (true) {
+				Block block = nextBlock();
+				
+				if (block == END) {
+					return;
+				}
+				
+				if (block == SYNC) {
+					forceWrittenBlocks();
+					continue;
+				}
+				
+				try {
+					// after a failure blocks are only recycled so that appending never blocks forever
+					if (failure == null) {
+						encode(block, raw);
+						compressed = deflate(deflater, raw, compressed);
+						int length = deflater.getTotalOut();
+						
+						ByteBuffer.wrap(compressed, 0, CompressedFormat.BLOCK_HEADER_SIZE)
+								.order(ColumnarFormat.BYTE_ORDER).putInt(length).putInt(block.sampleCount());
+						writeFully(ByteBuffer.wrap(compressed, 0, CompressedFormat.BLOCK_HEADER_SIZE + length),
+								position);
+						
+						indexBlock(length, block.sampleCount());
+						position += CompressedFormat.BLOCK_HEADER_SIZE + length;
+					}
+				} catch (IOException e) {
+					failure = e;
+				} finally {
+					freeBuffers.add(block.values());
+				}
+			}
+		} finally {
+			deflater.end();
+		}
+	}
+	
+	private void forceWrittenBlocks() {
+		try {
+			if (failure == null) {
+				channel.force(false);
+			}
+		} catch (IOException e) {
+			failure = e;
+		} finally {
+			synced.release();
+		}
+	}
+	
+	private Block nextBlock() {
+		while (true) {
+			try {
+				return fullBlocks.take();
+			} catch (InterruptedException e) {
+				// the writer stops the compressor with END only, so that no block gets lost
+			}
+		}
+	}
+	
+	private void encode(final Block block, final ByteBuffer raw) {
+		raw.clear();
+		
+		for (int column = 0; column < columnCount; column++) {
+			int start = column * blockCapacity;
+			
+			if (valueType == ValueType.DOUBLE) {
+				long previous = 0;
+				
+				for (int i = start; i < start + block.sampleCount(); i++) {
+					long bits = Double.doubleToRawLongBits(block.values()[i]);
+					raw.putLong(bits ^ previous);
+					previous = bits;
+				}
+			} else {
+				int previous = 0;
+				
+				for (int i = start; i < start + block.sampleCount(); i++) {
+					int bits = Float.floatToRawIntBits((float) block.values()[i]);
+					raw.putInt(bits ^ previous);
+					previous = bits;
+				}
+			}
+		}
+		
+		raw.flip();
+	}
+	
+	// compresses the encoded block behind the block header, growing the output array if the data is incompressible
+	private static byte[] deflate(final Deflater deflater, final ByteBuffer raw, final byte[] output) {
+		byte[] compressed = output;
+		deflater.reset();
+		deflater.setInput(raw.array(), 0, raw.limit());
+		deflater.finish();
+		
+		int length = CompressedFormat.BLOCK_HEADER_SIZE;
+		while (!deflater.finished()) {
+			if (length == compressed.length) {
+				compressed = Arrays.copyOf(compressed, compressed.length * 2);
+			}
+			
+			length += deflater.deflate(compressed, length, compressed.length - length);
+		}
+		
+		return compressed;
+	}
+	
+	private void indexBlock(final int length, final int samples) {
+		if (blocks == blockOffsets.length) {
+			blockOffsets = Arrays.copyOf(blockOffsets, blocks * 2);
+			blockLengths = Arrays.copyOf(blockLengths, blocks * 2);
+			blockSampleCounts = Arrays.copyOf(blockSampleCounts, blocks * 2);
+		}
+		
+		blockOffsets[blocks] = position;
+		blockLengths[blocks] = length;
+		blockSampleCounts[blocks] = samples;
+		blocks++;
+	}
+	
+	private void writeFully(final ByteBuffer buffer, final long offset) throws IOException {
+		long at = offset;
+		
+		while (buffer.hasRemaining()) {
+			at += channel.write(buffer, at);
+		}
+	}
+	
+	@Override
+	public long getSampleCount() {
+		return sampleCount;
+	}
+	
+	// ends the current block early, so frequent syncs make for smaller blocks that compress less well
+	@Override
+	public void sync() throws IOException {
+		if (closed) {
+			throw new IOException("Writer is closed");
+		}
+		
+		if (sampleInBlock > 0) {
+			submitBlock();
+		}
+		
+		put(SYNC);
+		
+		try {
+			synced.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for the sync", e);
+		}
+		
+		if (failure != null) {
+			throw new IOException("Compressing the recording failed", failure);
+		}
+	}
+	
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		
+		closed = true;
+		
+		try {
+			if (sampleInBlock > 0) {
+				submitBlock();
+			}
+			
+			put(END);
+			
+			boolean interrupted = false;
+			while (compressor.isAlive()) {
+				try {
+					compressor.join();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+			
+			if (failure != null) {
+				throw new IOException("Compressing the recording failed", failure);
+			}
+			
+			writeIndex();
+		} finally {
+			channel.close();
+		}
+	}
+	
+	private void writeIndex() throws IOException {
+		ByteBuffer index = ByteBuffer
+				.allocate(blocks * CompressedFormat.INDEX_ENTRY_SIZE + CompressedFormat.TRAILER_SIZE)
+				.order(ColumnarFormat.BYTE_ORDER);
+		
+		for (int i = 0; i < blocks; i++) {
+			index.putLong(blockOffsets[i]).putInt(blockLengths[i]).putInt(blockSampleCounts[i]);
+		}
+		
+		index.putLong(position).putInt(blocks).put(CompressedFormat.INDEX_MAGIC);
+		writeFully(index.flip(), position);
+		
+		ByteBuffer sampleCountField = ByteBuffer.allocate(Long.BYTES).order(ColumnarFormat.BYTE_ORDER);
+		sampleCountField.putLong(0, sampleCount);
+		writeFully(sampleCountField, ColumnarFormat.SAMPLE_COUNT_OFFSET);
+	}
+}
@@ -0,0 +1,232 @@
+package com.matthiasrothe.emerald.dl4j.recorder.format;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Objects;
+
+/*
+ * Computes statistics over windows of a fixed length, a new one starting every stride samples, while the samples
+ * arrive, and appends one row of features per window to a .npy array of shape (windows, FEATURE_COUNT). Each window
+ * in progress keeps a constant number of running values, whatever its length; the variance uses Welford's method.
+ *
+ * A row holds the STATISTICS of x, y, z and the magnitude of the sample, in that order.
+ */
+public class FeatureWriter implements SampleWriter {
+	public static final List<String> CHANNELS = List.of("x", "y", "z", "magnitude");
+	// energy is the mean of the squared values, zero crossings count the sign changes between consecutive samples
+	public static final List<String> STATISTICS = List.of("mean", "variance", "min", "max", "energy",
+			"zero_crossings");
+	public static final int FEATURE_COUNT = CHANNELS.size() * STATISTICS.size();
+	
+	private static final int BUFFER_SIZE = 64 * 1024;
+	
+	// running values per channel of a window in progress
+	private static final int MEAN = 0;
+	private static final int M2 = 1;
+	private static final int MIN = 2;
+	private static final int MAX = 3;
+	private static final int SUM_OF_SQUARES = 4;
+	private static final int ZERO_CROSSINGS = 5;
+	private static final int LAST = 6;
+	private static final int CHANNEL_STATE = 7;
+	
+	private final FileChannel channel;
+	private final ValueType valueType;
+	private final int length;
+	private final int stride;
+	
+	// one slot per window that can be in progress at the same time; window k uses slot k % slots
+	private final double[][] windowStates;
+	private final int[] windowSamples;
+	private final boolean[] windowActive;
+	
+	private final double[] sample = new double[CHANNELS.size()];
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(NpyFormat.BYTE_ORDER);
+	private long position = NpyFormat.HEADER_SIZE;
+	
+	private long sampleCount;
+	private long windowCount;
+	private boolean closed;
+	
+	public FeatureWriter(final Path file, final ValueType valueType, final int length, final int stride)
+			throws IOException {
+		Objects.requireNonNull(file, "file must not be null");
+		Objects.requireNonNull(valueType, "valueType must not be null");
+		
+		if (length < 1 || stride < 1) {
+			throw new IllegalArgumentException("length and stride must be at least 1");
+		}
+		
+		this.valueType = valueType;
+		this.length = length;
+		this.stride = stride;
+		
+		int slots = (length + stride - 1) / stride;
+		windowStates = new double[slots][CHANNELS.size() * CHANNEL_STATE];
+		windowSamples = new int[slots];
+		windowActive = new boolean[slots];
+		
+		channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.WRITE);
+		
+		try {
+			writeHeader();
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+	}
+	
+	@Override
+	public void append(final double x, final double y, final double z) throws IOException {
+		if (closed) {
+			throw new IOException("Writer is closed");
+		}
+		
+		sample[0] = x;
+		sample[1] = y;
+		sample[2] = z;
+		sample[3] = Math.sqrt(x * x + y * y + z * z);
+		
+		if (sampleCount % stride == 0) {
+			startWindow((int) (sampleCount / stride % windowStates.length));
+		}
+		
+		for (int slot = 0; slot < windowStates.length; slot++) {
+			if (windowActive[slot]) {
+				update(slot);
+			}
+		}
+		
+		sampleCount++;
+	}
+	
+	// only the first three values, x, y and z, are used
+	@Override
+	public void append(final double[] values, final int offset) throws IOException {
+		append(values[offset], values[offset + 1], values[offset + 2]);
+	}
+	
+	private void startWindow(final int slot) {
+		double[] state = windowStates[slot];
+		
+		for (int column = 0; column < CHANNELS.size(); column++) {
+			int base = column * CHANNEL_STATE;
+			state[base + MEAN] = 0;
+			state[base + M2] = 0;
+			state[base + MIN] = Double.POSITIVE_INFINITY;
+			state[base + MAX] = Double.NEGATIVE_INFINITY;
+			state[base + SUM_OF_SQUARES] = 0;
+			state[base + ZERO_CROSSINGS] = 0;
+		}
+		
+		windowSamples[slot] = 0;
+		windowActive[slot] = true;
+	}
+	
+	private void update(final int slot) throws IOException {
+		double[] state = windowStates[slot];
+		int samples = ++windowSamples[slot];
+		
+		for (int column = 0; column < CHANNELS.size(); column++) {
+			int base = column * CHANNEL_STATE;
+			double value = sample[column];
+			double delta = value - state[base + MEAN];
+			state[base + MEAN] += delta / samples;
+			state[base + M2] += delta * (value - state[base + MEAN]);
+			state[base + MIN] = Math.min(state[base + MIN], value);
+			state[base + MAX] = Math.max(state[base + MAX], value);
+			state[base + SUM_OF_SQUARES] += value * value;
+			
+			if (samples > 1 && (value < 0) != (state[base + LAST] < 0)) {
+				state[base + ZERO_CROSSINGS]++;
+			}
+			
+			state[base + LAST] = value;
+		}
+		
+		if (samples == length) {
+			writeFeatures(state);
+			windowActive[slot] = false;
+		}
+	}
+	
+	private void writeFeatures(final double[] state) throws IOException {
+		if (buffer.remaining() < FEATURE_COUNT * valueType.getSize()) {
+			flush();
+		}
+		
+		for (int column = 0; column < CHANNELS.size(); column++) {
+			int base = column * CHANNEL_STATE;
+			put(state[base + MEAN]);
+			put(state[base + M2] / length);
+			put(state[base + MIN]);
+			put(state[base + MAX]);
+			put(state[base + SUM_OF_SQUARES] / length);
+			put(state[base + ZERO_CROSSINGS]);
+		}
+		
+		windowCount++;
+	}
+	
+	private void put(final double value) {
+		if (valueType == ValueType.DOUBLE) {
+			buffer.putDouble(value);
+		} else {
+			buffer.putFloat((float) value);
+		}
+	}
+	
+	private void flush() throws IOException {
+		position += NpyFormat.write(channel, buffer.flip(), position);
+		buffer.clear();
+	}
+	
+	private void writeHeader() throws IOException {
+		NpyFormat.write(channel, NpyFormat.header(NpyFormat.descr(valueType), windowCount, FEATURE_COUNT), 0);
+	}
+	
+	@Override
+	public long getSampleCount() {
+		return sampleCount;
+	}
+	
+	public long getWindowCount() {
+		return windowCount;
+	}
+	
+	@Override
+	public void sync() throws IOException {
+		if (closed) {
+			throw new IOException("Writer is closed");
+		}
+		
+		flush();
+		
+		// the features are on the device before the header counts them
+		channel.force(false);
+		writeHeader();
+		channel.force(false);
+	}
+	
+	// windows not complete yet are dropped
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		
+		closed = true;
+		
+		try {
+			flush();
+			writeHeader();
+		} finally {
+			channel.close();
+		}
+	}
+}
@@ -0,0 +1,70 @@
+package com.matthiasrothe.emerald.dl4j.recorder.format;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/*
+ * Layout of NumPy .npy files, version 1.0, as read by numpy.load and ND4J's Nd4j.createFromNpyFile:
+ *
+ * magic "\x93NUMPY", major version 1, minor version 0, unsigned short header length, then the header, a Python dict
+ * literal describing the value type, the order and the shape of the array, padded with spaces and ending with a line
+ * feed. The values follow in C order, little endian.
+ *
+ * The header is always padded to HEADER_SIZE bytes, so that the shape can be rewritten in place while the array
+ * grows along its first dimension.
+ */
+public final class NpyFormat {
+	public static final String FILE_EXTENSION = ".npy";
+	
+	static final byte[] MAGIC = { (byte) 0x93, 'N', 'U', 'M', 'P', 'Y', 1, 0 };
+	// a multiple of 64 keeps the values aligned, as numpy expects
+	static final int HEADER_SIZE = 128;
+	static final ByteOrder BYTE_ORDER = ByteOrder.LITTLE_ENDIAN;
+	
+	static final String INT_DESCR = "<i4";
+	
+	private NpyFormat() {
+	}
+	
+	static String descr(final ValueType valueType) {
+		return valueType == ValueType.DOUBLE ? "<f8" : "<f4";
+	}
+	
+	static ByteBuffer header(final String descr, final long... shape) {
+		StringBuilder dict = new StringBuilder("{'descr': '").append(descr)
+				.append("', 'fortran_order': False, 'shape': (");
+		
+		for (int i = 0; i < shape.length; i++) {
+			dict.append(i > 0 ? ", " : "").append(shape[i]);
+		}
+		
+		// a tuple of one element needs a trailing comma in Python
+		dict.append(shape.length == 1 ? ",), }" : "), }");
+		
+		int dictSize = HEADER_SIZE - MAGIC.length - Short.BYTES;
+		while (dict.length() < dictSize - 1) {
+			dict.append(' ');
+		}
+		dict.append('\n');
+		
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(BYTE_ORDER);
+		header.put(MAGIC);
+		header.putShort((short) dictSize);
+		header.put(dict.toString().getBytes(StandardCharsets.US_ASCII));
+		return header.flip();
+	}
+	
+	// returns the number of bytes written
+	static int write(final FileChannel channel, final ByteBuffer buffer, final long position) throws IOException {
+		int written = 0;
+		
+		while (buffer.hasRemaining()) {
+			written += channel.write(buffer, position + written);
+		}
+		
+		return written;
+	}
+}
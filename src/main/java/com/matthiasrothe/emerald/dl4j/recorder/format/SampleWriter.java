@@ -0,0 +1,16 @@
+package com.matthiasrothe.emerald.dl4j.recorder.format;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+// appends samples of a fixed number of columns to a recording file
+public interface SampleWriter extends Closeable {
+	void append(double x, double y, double z) throws IOException;
+	
+	void append(double[] values, int offset) throws IOException;
+	
+	long getSampleCount();
+	
+	// writes all samples appended so far through to the storage device
+	void sync() throws IOException;
+}
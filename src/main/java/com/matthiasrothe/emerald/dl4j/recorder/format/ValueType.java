@@ -0,0 +1,26 @@
+package com.matthiasrothe.emerald.dl4j.recorder.format;
+
+public enum ValueType {
+	FLOAT(Float.BYTES),
+	DOUBLE(Double.BYTES);
+	
+	private final int size;
+	
+	ValueType(final int size) {
+		this.size = size;
+	}
+	
+	public int getSize() {
+		return size;
+	}
+	
+	static ValueType ofSize(final int size) {
+		for (ValueType valueType : values()) {
+			if (valueType.size == size) {
+				return valueType;
+			}
+		}
+		
+		throw new IllegalArgumentException("Unsupported value size: " + size);
+	}
+}
@@ -0,0 +1,211 @@
+package com.matthiasrothe.emerald.dl4j.recorder.format;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+
+/*
+ * Cuts a stream of samples into windows of a fixed length, a new one starting every stride samples, and appends each
+ * window as soon as it is complete to a .npy array of shape (windows, length, columns). The label of every window goes
+ * into a second .npy array of shape (windows). Both headers are updated on every sync and on close, so training jobs
+ * can memory-map the arrays instead of parsing recordings.
+ */
+public class WindowWriter implements SampleWriter {
+	private static final int BUFFER_SIZE = 64 * 1024;
+	
+	private final FileChannel windowsChannel;
+	private final FileChannel labelsChannel;
+	private final ValueType valueType;
+	private final int columnCount;
+	private final int length;
+	private final int stride;
+	private final int label;
+	
+	// the last length samples, row by row; the oldest one is overwritten by the next sample
+	private final double[] history;
+	// holds at least one window, however long
+	private final ByteBuffer windowBuffer;
+	private final ByteBuffer labelBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(NpyFormat.BYTE_ORDER);
+	private long windowsPosition = NpyFormat.HEADER_SIZE;
+	private long labelsPosition = NpyFormat.HEADER_SIZE;
+	
+	private long sampleCount;
+	private long windowCount;
+	private boolean closed;
+	
+	public WindowWriter(final Path windowsFile, final Path labelsFile, final ValueType valueType, final int columnCount,
+			final int length, final int stride, final int label) throws IOException {
+		Objects.requireNonNull(windowsFile, "windowsFile must not be null");
+		Objects.requireNonNull(labelsFile, "labelsFile must not be null");
+		Objects.requireNonNull(valueType, "valueType must not be null");
+		
+		if (columnCount < 1 || length < 1 || stride < 1) {
+			throw new IllegalArgumentException("columnCount, length and stride must be at least 1");
+		}
+		
+		long windowSize = (long) length * columnCount * valueType.getSize();
+		
+		if (windowSize > Integer.MAX_VALUE - 8) {
+			throw new IllegalArgumentException("Windows of " + length + " samples are too long");
+		}
+		
+		this.valueType = valueType;
+		this.columnCount = columnCount;
+		this.length = length;
+		this.stride = stride;
+		this.label = label;
+		
+		history = new double[length * columnCount];
+		windowBuffer = ByteBuffer.allocateDirect((int) Math.max(BUFFER_SIZE, windowSize)).order(NpyFormat.BYTE_ORDER);
+		
+		windowsChannel = FileChannel.open(windowsFile, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+		
+		try {
+			labelsChannel = FileChannel.open(labelsFile, StandardOpenOption.CREATE,
+					StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+		} catch (IOException e) {
+			windowsChannel.close();
+			throw e;
+		}
+		
+		try {
+			writeHeaders();
+		} catch (IOException e) {
+			closeChannels();
+			throw e;
+		}
+	}
+	
+	@Override
+	public void append(final double x, final double y, final double z) throws IOException {
+		if (columnCount != 3) {
+			throw new IllegalStateException("Windows have " + columnCount + " columns");
+		}
+		
+		int row = nextRow();
+		history[row] = x;
+		history[row + 1] = y;
+		history[row + 2] = z;
+		sampleAppended();
+	}
+	
+	@Override
+	public void append(final double[] values, final int offset) throws IOException {
+		System.arraycopy(values, offset, history, nextRow(), columnCount);
+		sampleAppended();
+	}
+	
+	// index of the first value of the history row the next sample goes into
+	private int nextRow() throws IOException {
+		if (closed) {
+			throw new IOException("Writer is closed");
+		}
+		
+		return (int) (sampleCount % length) * columnCount;
+	}
+	
+	private void sampleAppended() throws IOException {
+		sampleCount++;
+		
+		if (sampleCount >= length && (sampleCount - length) % stride == 0) {
+			writeWindow();
+		}
+	}
+	
+	private void writeWindow() throws IOException {
+		if (windowBuffer.remaining() < history.length * valueType.getSize()) {
+			flushWindows();
+		}
+		
+		// the oldest sample is in the row the next one will overwrite
+		int oldest = (int) (sampleCount % length) * columnCount;
+		
+		for (int i = 0; i < history.length; i++) {
+			int index = oldest + i < history.length ? oldest + i : oldest + i - history.length;
+			
+			if (valueType == ValueType.DOUBLE) {
+				windowBuffer.putDouble(history[index]);
+			} else {
+				windowBuffer.putFloat((float) history[index]);
+			}
+		}
+		
+		if (labelBuffer.remaining() < Integer.BYTES) {
+			flushLabels();
+		}
+		
+		labelBuffer.putInt(label);
+		windowCount++;
+	}
+	
+	private void flushWindows() throws IOException {
+		windowsPosition += NpyFormat.write(windowsChannel, windowBuffer.flip(), windowsPosition);
+		windowBuffer.clear();
+	}
+	
+	private void flushLabels() throws IOException {
+		labelsPosition += NpyFormat.write(labelsChannel, labelBuffer.flip(), labelsPosition);
+		labelBuffer.clear();
+	}
+	
+	private void writeHeaders() throws IOException {
+		NpyFormat.write(windowsChannel,
+				NpyFormat.header(NpyFormat.descr(valueType), windowCount, length, columnCount), 0);
+		NpyFormat.write(labelsChannel, NpyFormat.header(NpyFormat.INT_DESCR, windowCount), 0);
+	}
+	
+	@Override
+	public long getSampleCount() {
+		return sampleCount;
+	}
+	
+	public long getWindowCount() {
+		return windowCount;
+	}
+	
+	@Override
+	public void sync() throws IOException {
+		if (closed) {
+			throw new IOException("Writer is closed");
+		}
+		
+		flushWindows();
+		flushLabels();
+		
+		// the windows are on the device before the headers count them
+		windowsChannel.force(false);
+		labelsChannel.force(false);
+		writeHeaders();
+		windowsChannel.force(false);
+		labelsChannel.force(false);
+	}
+	
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		
+		closed = true;
+		
+		try {
+			flushWindows();
+			flushLabels();
+			writeHeaders();
+		} finally {
+			closeChannels();
+		}
+	}
+	
+	private void closeChannels() throws IOException {
+		try {
+			windowsChannel.close();
+		} finally {
+			labelsChannel.close();
+		}
+	}
+}
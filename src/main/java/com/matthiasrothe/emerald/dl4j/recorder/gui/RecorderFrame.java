@@ -13,6 +13,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.ExecutionException;
 
 import javax.swing.JButton;
 import javax.swing.JFrame;
@@ -20,11 +21,14 @@ import javax.swing.JLabel;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
 
-import com.matthiasrothe.emerald.dl4j.recorder.server.ServerListener;
+import com.matthiasrothe.emerald.dl4j.recorder.server.ClientStatistics;
 import com.matthiasrothe.emerald.dl4j.recorder.server.Server;
+import com.matthiasrothe.emerald.dl4j.recorder.server.ServerStatistics;
+import com.matthiasrothe.emerald.dl4j.recorder.server.ServerStatisticsListener;
 
-public class RecorderFrame extends JFrame implements ServerListener {
+public class RecorderFrame extends JFrame implements ServerStatisticsListener {
 	private static final long serialVersionUID = -5758677343907489214L;
 
 	private class ExitHandler extends WindowAdapter implements ActionListener {
@@ -42,23 +46,32 @@ public class RecorderFrame extends JFrame implements ServerListener {
 		private void exit() {
 			RecorderFrame.this.setVisible(false);
 			
-			try {
-				if (server.isRecording()) {
-					server.stopRecording();
+			// the post-rolls and closing the files take a while, which the event dispatch thread mustn't wait for
+			new SwingWorker<Void, Void>() {
+				@Override
+				protected Void doInBackground() throws Exception {
+					try {
+						// sessions started through the admin port are recording as well
+						server.stopAllRecordings();
+					} finally {
+						server.abort();
+						Thread.sleep(2000);
+					}
+					
+					return null;
 				}
-			} catch (IOException e) {
-				e.printStackTrace();
-			} finally {
-				server.abort();
 				
-				try {
-					Thread.sleep(2000);
-				} catch (InterruptedException e) {
-					e.printStackTrace();
+				@Override
+				protected void done() {
+					try {
+						get();
+					} catch (InterruptedException | ExecutionException e) {
+						e.printStackTrace();
+					}
+					
+					System.exit(0);
 				}
-				
-				System.exit(0);
-			}
+			}.execute();
 		}
 	}
 	
@@ -77,6 +90,7 @@ public class RecorderFrame extends JFrame implements ServerListener {
 				if (buttonLabel.equals(START_RECORDING) && !server.isRecording()) {
 					try {
 						server.startRecording(label);
+						dataPointsAtRecordingStart = statistics != null ? statistics.getDataPointsWritten() : 0;
 						setText(STOP_RECORDING);
 						disableAllButtons();
 						setEnabled(true);
@@ -84,26 +98,47 @@ public class RecorderFrame extends JFrame implements ServerListener {
 						e.printStackTrace();
 					}
 				} else if (buttonLabel.equals(STOP_RECORDING) && server.isRecording()) {
-					try {
-						server.stopRecording();
-						setText(START_RECORDING);
-						enableAllButtons();
-						dataPointsWritten = 0;
-					} catch (IOException e) {
-						e.printStackTrace();
-					}
+					setEnabled(false);
+					stopRecording();
 				} else {
 					JOptionPane.showMessageDialog(RecorderFrame.this, "Illegal State: Button and Server don't match!");
 				}
 			});
 		}
+		
+		// the post-roll and closing the file take a while, which the event dispatch thread mustn't wait for
+		private void stopRecording() {
+			new SwingWorker<Void, Void>() {
+				@Override
+				protected Void doInBackground() throws IOException {
+					server.stopRecording();
+					return null;
+				}
+				
+				@Override
+				protected void done() {
+					try {
+						get();
+					} catch (InterruptedException | ExecutionException e) {
+						e.printStackTrace();
+					}
+					
+					// the recording has ended even if closing its file failed
+					setText(START_RECORDING);
+					enableAllButtons();
+				}
+			}.execute();
+		}
 	}
 	
 	private final Server server;
 	private final List<RecordingButton> buttons = new ArrayList<>();
 	private final JLabel statusLabel = new JLabel("Server started. Waiting for client.");
+	private final JLabel clientsLabel = new JLabel();
 	
-	private int dataPointsWritten = 0;
+	// last statistics shown; only accessed on the event dispatch thread
+	private transient ServerStatistics statistics;
+	private long dataPointsAtRecordingStart = 0;
 	
 	public RecorderFrame(final Server server) {
 		super("Emerald DL4J Recorder");
@@ -163,6 +198,14 @@ public class RecorderFrame extends JFrame implements ServerListener {
 		
 		contentPanel.add(statusLabel, statusLabelConstraints);
 		
+		GridBagConstraints clientsLabelConstraints = new GridBagConstraints();
+		clientsLabelConstraints.gridx = 0;
+		clientsLabelConstraints.gridy = 11;
+		clientsLabelConstraints.gridwidth = 2;
+		clientsLabelConstraints.insets = new Insets(0, 5, 5, 5);
+		
+		contentPanel.add(clientsLabel, clientsLabelConstraints);
+		
 		return contentPanel;
 	}
 	
@@ -185,11 +228,44 @@ public class RecorderFrame extends JFrame implements ServerListener {
 	}
 
 	@Override
-	public void clientConnected() {
-		SwingUtilities.invokeLater(() -> {
-			statusLabel.setText("Client connected. Happy recording!");
+	public void statisticsUpdated(final ServerStatistics statistics) {
+		SwingUtilities.invokeLater(() -> showStatistics(statistics));
+	}
+	
+	private void showStatistics(final ServerStatistics newStatistics) {
+		int previousClients = statistics != null ? statistics.getClients().size() : 0;
+		int clients = newStatistics.getClients().size();
+		statistics = newStatistics;
+		
+		if (server.isRecording()) {
+			statusLabel.setText("Recording in progress. "
+					+ (newStatistics.getDataPointsWritten() - dataPointsAtRecordingStart) + " data points written ("
+					+ Math.round(newStatistics.getDataPointsPerSecond()) + "/s, "
+					+ Math.round(newStatistics.getBytesPerSecond() / 1024) + " KB/s received).");
+		} else if (clients > previousClients) {
+			statusLabel.setText(clients + " client(s) connected. Happy recording!");
+		} else if (clients < previousClients) {
+			statusLabel.setText(clients == 0 ? "Client disconnected."
+					: "Client disconnected. " + clients + " client(s) still connected.");
+		}
+		
+		if (clients > previousClients && !server.isRecording()) {
 			enableAllButtons();
-		});
+		} else if (clients == 0 && previousClients > 0) {
+			disableAllButtons();
+		}
+		
+		StringBuilder clientsText = new StringBuilder("<html>");
+		for (ClientStatistics client : newStatistics.getClients()) {
+			clientsText.append("Client ").append(client.getConnectionId()).append(": ")
+					.append(client.getSamplesReceived()).append(" samples, ")
+					.append(client.getBytesReceived() / 1024).append(" KB received<br>");
+		}
+		clientsLabel.setText(clientsText.append("</html>").toString());
+		
+		if (clients != previousClients) {
+			pack();
+		}
 	}
 	
 	private void enableAllButtons() {
@@ -197,26 +273,10 @@ public class RecorderFrame extends JFrame implements ServerListener {
 			button.setEnabled(true);
 		}
 	}
-
-	@Override
-	public void clientDisconnected() {
-		SwingUtilities.invokeLater(() -> {
-			statusLabel.setText("Client disconnected.");
-			disableAllButtons();
-		});
-	}
 	
 	private void disableAllButtons() {
 		for (RecordingButton button : buttons) {
 			button.setEnabled(false);
 		}
 	}
-	
-	@Override
-	public void dataPointWritten() {
-		SwingUtilities.invokeLater(() -> {
-			dataPointsWritten++;
-			statusLabel.setText("Recording in progress. " + dataPointsWritten + " data points written.");
-		});
-	}
 }
@@ -0,0 +1,45 @@
+package com.matthiasrothe.emerald.dl4j.recorder.server;
+
+import java.nio.charset.StandardCharsets;
+
+// how a connection acknowledges successfully processed JSON messages, chosen by the client via header.ackMode
+enum AckMode {
+	// one response per message, as the protocol always did
+	IMMEDIATE("immediate"),
+	// one response listing the UUIDs of up to ackCount messages, sent at least every ackIntervalMillis
+	CUMULATIVE("cumulative");
+	
+	private final String headerValue;
+	private final byte[] headerBytes;
+	
+	AckMode(final String headerValue) {
+		this.headerValue = headerValue;
+		this.headerBytes = headerValue.getBytes(StandardCharsets.US_ASCII);
+	}
+	
+	String getHeaderValue() {
+		return headerValue;
+	}
+	
+	byte[] getHeaderBytes() {
+		return headerBytes;
+	}
+	
+	static boolean isValidCount(final double count) {
+		return count == Math.rint(count) && count >= 1 && count <= Integer.MAX_VALUE;
+	}
+	
+	static boolean isValidIntervalMillis(final double intervalMillis) {
+		return intervalMillis == Math.rint(intervalMillis) && intervalMillis >= 0 && intervalMillis <= Integer.MAX_VALUE;
+	}
+	
+	static AckMode fromHeaderValue(final String headerValue) {
+		for (AckMode mode : values()) {
+			if (mode.headerValue.equals(headerValue)) {
+				return mode;
+			}
+		}
+		
+		throw new IllegalArgumentException("Unsupported ack mode [" + headerValue + "]");
+	}
+}
@@ -0,0 +1,214 @@
+package com.matthiasrothe.emerald.dl4j.recorder.server;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+/*
+ * Line based control protocol on localhost, usable with e.g. netcat. Every command is answered with a single line
+ * starting with OK or ERROR:
+ * 
+ *   start [label] [session]  starts a recording with the given label or the one set with label
+ *   stop [session]           stops the recording in progress
+ *   label [label]            sets the label of the next recordings started without one, or shows it
+ *   status [session]         shows the recording state and counters as key=value pairs
+ *   sessions                 lists the sessions as id=file number, or id=idle
+ *   shutdown                 stops the recordings in progress, if any, and the server
+ *   quit                     closes the admin connection
+ *
+ * Commands without a session act on the default one.
+ */
+class AdminEndpoint {
+	private final Server server;
+	private final ServerSocket serverSocket;
+	
+	private volatile int nextLabel;
+	
+	AdminEndpoint(final Server server, final int port) throws IOException {
+		this.server = server;
+		serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+	}
+	
+	void start() {
+		Thread.ofPlatform().name("admin-acceptor").daemon().start(this::acceptConnections);
+		System.out.println("Admin commands accepted on localhost:" + serverSocket.getLocalPort());
+	}
+	
+	void stop() {
+		try {
+			serverSocket.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	private void acceptConnections() {
+		int nextConnectionId = 0;
+		
+		try {
+			while (!serverSocket.isClosed()) {
+				Socket socket = serverSocket.accept();
+				Thread.ofVirtual().name("admin-" + ++nextConnectionId).start(() -> serve(socket));
+			}
+		} catch (IOException e) {
+			// thrown when the endpoint is stopped
+			if (!serverSocket.isClosed()) {
+				e.printStackTrace();
+			}
+		}
+	}
+	
+	private void serve(final Socket socket) {
+		try (socket) {
+			BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(),
+					StandardCharsets.UTF_8));
+			BufferedWriter out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(),
+					StandardCharsets.UTF_8));
+			
+			String line;
+			while ((line = in.readLine()) != null) {
+				String command = line.trim();
+				
+				if (command.equals("quit")) {
+					break;
+				}
+				
+				if (!command.isEmpty()) {
+					out.write(execute(command));
+					out.newLine();
+					out.flush();
+				}
+			}
+		} catch (IOException e) {
+			// admin client went away
+		}
+	}
+	
+	String execute(final String command) {
+		String[] arguments = command.split("\\s+");
+		
+		try {
+			switch (arguments[0]) {
+				case "start":
+					return start(arguments);
+				case "stop":
+					return stop(arguments);
+				case "label":
+					return label(arguments);
+				case "status":
+					return status(arguments);
+				case "sessions":
+					return sessions(arguments);
+				case "shutdown":
+					return shutdown(arguments);
+				default:
+					return "ERROR Unknown command: " + arguments[0];
+			}
+		} catch (IllegalArgumentException | IllegalStateException e) {
+			return "ERROR " + e.getMessage();
+		} catch (IOException e) {
+			e.printStackTrace();
+			return "ERROR " + e;
+		}
+	}
+	
+	private String start(final String[] arguments) throws IOException {
+		expectArguments(arguments, 0, 2);
+		int label = arguments.length > 1 ? parseLabel(arguments[1]) : nextLabel;
+		String session = session(arguments, 2);
+		
+		server.startRecording(session, label);
+		
+		Recording recording = server.activeRecording(session);
+		return "OK recording file=" + (recording != null ? recording.getFileNumber() : -1) + " label=" + label;
+	}
+	
+	private String stop(final String[] arguments) throws IOException {
+		expectArguments(arguments, 0, 1);
+		String session = session(arguments, 1);
+		Recording recording = server.activeRecording(session);
+		
+		server.stopRecording(session);
+		return "OK stopped file=" + (recording != null ? recording.getFileNumber() : -1);
+	}
+	
+	private String label(final String[] arguments) {
+		expectArguments(arguments, 0, 1);
+		
+		if (arguments.length > 1) {
+			nextLabel = parseLabel(arguments[1]);
+		}
+		
+		return "OK label=" + nextLabel;
+	}
+	
+	private String status(final String[] arguments) {
+		expectArguments(arguments, 0, 1);
+		Recording recording = server.activeRecording(session(arguments, 1));
+		ServerMetrics metrics = server.getMetrics();
+		
+		StringBuilder status = new StringBuilder("OK recording=").append(recording != null);
+		if (recording != null) {
+			status.append(" file=").append(recording.getFileNumber()).append(" label=").append(recording.getLabel());
+		}
+		
+		return status.append(" nextLabel=").append(nextLabel)
+				.append(" clients=").append(metrics.openConnections().size())
+				.append(" messages=").append(metrics.messages())
+				.append(" samplesReceived=").append(metrics.samples())
+				.append(" dataPointsWritten=").append(metrics.dataPointsWritten())
+				.append(" queueDepth=").append(server.getPipelineStatistics().getQueueDepth())
+				.toString();
+	}
+	
+	private String sessions(final String[] arguments) {
+		expectArguments(arguments, 0, 0);
+		StringBuilder sessions = new StringBuilder("OK");
+		
+		for (Session session : server.sessions()) {
+			Recording recording = session.activeRecording();
+			sessions.append(' ').append(session.getId()).append('=')
+					.append(recording != null ? Integer.toString(recording.getFileNumber()) : "idle");
+		}
+		
+		return sessions.toString();
+	}
+	
+	private String shutdown(final String[] arguments) throws IOException {
+		expectArguments(arguments, 0, 0);
+		
+		try {
+			server.stopAllRecordings();
+		} finally {
+			server.abort();
+		}
+		
+		return "OK shutting down";
+	}
+	
+	private static void expectArguments(final String[] arguments, final int min, final int max) {
+		int count = arguments.length - 1;
+		
+		if (count < min || count > max) {
+			throw new IllegalArgumentException("Wrong number of arguments for " + arguments[0]);
+		}
+	}
+	
+	private static String session(final String[] arguments, final int index) {
+		return arguments.length > index ? arguments[index] : Server.DEFAULT_SESSION;
+	}
+	
+	private static int parseLabel(final String label) {
+		try {
+			return Integer.parseInt(label);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Label must be an integer: " + label);
+		}
+	}
+}
@@ -0,0 +1,238 @@
+package com.matthiasrothe.emerald.dl4j.recorder.server;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/*
+ * Compact binary wire protocol a connection switches to after a "binary-stream" message. All numbers
+ * are big-endian. Every frame starts with an int holding the number of bytes that follow it.
+ *
+ * Sample frame (client to server):
+ *   int    frame length
+ *   byte   frame type (1 = samples)
+ *   long   message id, most significant bits of a UUID
+ *   long   message id, least significant bits of a UUID
+ *   short  sensor id, recorded as the sensor named by its decimal number
+ *   long   timestamp of the first sample (microseconds since the epoch, 0 if unknown); the others are taken to be
+ *          spaced like the samples of the sensor's previous frame
+ *   byte   value size (4 = float, 8 = double)
+ *   byte   values per sample (1 to 16, the same in every frame of a sensor)
+ *   short  sample count (unsigned)
+ *   ...    sample count * values per sample values
+ *
+ * Ack frame (server to client):
+ *   int    frame length (always 19)
+ *   byte   frame type (2 = ack)
+ *   short  status code, same codes as the JSON protocol
+ *   long   message id, most significant bits
+ *   long   message id, least significant bits
+ *
+ * Credit frame (server to client), follows every ack frame on connections with flow control by credits:
+ *   int    frame length (always 5)
+ *   byte   frame type (3 = credits)
+ *   int    samples the client may send until the next credit frame
+ *
+ * Instances are reused for all frames of one connection and aren't thread-safe.
+ */
+class BinaryFrameCodec implements SampleBatch {
+	static final String NEGOTIATION_MESSAGE_TYPE = "binary-stream";
+	
+	static final int FRAME_TYPE_SAMPLES = 1;
+	static final int FRAME_TYPE_ACK = 2;
+	static final int FRAME_TYPE_CREDITS = 3;
+	
+	static final int LENGTH_FIELD_SIZE = 4;
+	static final int MAX_FRAME_LENGTH = 1024 * 1024;
+	static final int ACK_FRAME_SIZE = LENGTH_FIELD_SIZE + 19;
+	static final int CREDIT_FRAME_SIZE = LENGTH_FIELD_SIZE + 5;
+	
+	private static final int TYPE_OFFSET = 0;
+	private static final int UUID_OFFSET = 1;
+	private static final int SENSOR_ID_OFFSET = 17;
+	private static final int TIMESTAMP_OFFSET = 19;
+	private static final int VALUE_SIZE_OFFSET = 27;
+	private static final int WIDTH_OFFSET = 28;
+	private static final int SAMPLE_COUNT_OFFSET = 29;
+	private static final int VALUES_OFFSET = 31;
+	
+	private static final VarHandle SHORT = MethodHandles.byteArrayViewVarHandle(short[].class, ByteOrder.BIG_ENDIAN);
+	private static final VarHandle INT = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+	private static final VarHandle LONG = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+	private static final VarHandle FLOAT = MethodHandles.byteArrayViewVarHandle(float[].class, ByteOrder.BIG_ENDIAN);
+	private static final VarHandle DOUBLE = MethodHandles.byteArrayViewVarHandle(double[].class, ByteOrder.BIG_ENDIAN);
+	
+	private final SensorTable sensors;
+	// the number the sensor table gives each sensor id, -1 until its first frame
+	private int[] sensorNumbers = new int[0];
+	
+	private byte[] bytes;
+	private int valuesOffset;
+	
+	private long uuidMostSignificantBits;
+	private long uuidLeastSignificantBits;
+	private int sensorId;
+	private int sensor;
+	private long timestamp;
+	private int valueSize;
+	private int width;
+	private int sampleCount;
+	// microseconds between the samples of the current frame
+	private long sampleSpacing;
+	
+	// first timestamp and sample count of the previous frame of each sensor, by sensor id
+	private long[] previousTimestamps = new long[0];
+	private int[] previousSampleCounts = new int[0];
+	
+	// shares the sensor table with the connection's JSON messages
+	BinaryFrameCodec(final SensorTable sensors) {
+		this.sensors = sensors;
+	}
+	
+	static int frameLength(final byte[] bytes, final int offset) {
+		return (int) INT.get(bytes, offset);
+	}
+	
+	static void encodeAck(final byte[] target, final int statusCode, final long uuidMostSignificantBits,
+			final long uuidLeastSignificantBits) {
+		INT.set(target, 0, ACK_FRAME_SIZE - LENGTH_FIELD_SIZE);
+		target[LENGTH_FIELD_SIZE] = FRAME_TYPE_ACK;
+		SHORT.set(target, LENGTH_FIELD_SIZE + 1, (short) statusCode);
+		LONG.set(target, LENGTH_FIELD_SIZE + 3, uuidMostSignificantBits);
+		LONG.set(target, LENGTH_FIELD_SIZE + 11, uuidLeastSignificantBits);
+	}
+	
+	static void encodeCredits(final byte[] target, final int credits) {
+		INT.set(target, 0, CREDIT_FRAME_SIZE - LENGTH_FIELD_SIZE);
+		target[LENGTH_FIELD_SIZE] = FRAME_TYPE_CREDITS;
+		INT.set(target, LENGTH_FIELD_SIZE + 1, credits);
+	}
+	
+	// decodes the frame without copying any values and returns the status code to acknowledge it with
+	int decode(final byte[] bytes, final int offset, final int length) {
+		this.bytes = bytes;
+		
+		uuidMostSignificantBits = 0;
+		uuidLeastSignificantBits = 0;
+		sampleCount = 0;
+		
+		if (length < VALUES_OFFSET) {
+			if (length >= SENSOR_ID_OFFSET) {
+				readUuid(offset);
+			}
+			
+			return Server.STATUS_CODE_MALFORMED_MESSAGE;
+		}
+		
+		readUuid(offset);
+		
+		if (bytes[offset + TYPE_OFFSET] != FRAME_TYPE_SAMPLES) {
+			return Server.STATUS_CODE_UNSUPPORTED_MESSAGE_TYPE;
+		}
+		
+		sensorId = Short.toUnsignedInt((short) SHORT.get(bytes, offset + SENSOR_ID_OFFSET));
+		timestamp = (long) LONG.get(bytes, offset + TIMESTAMP_OFFSET);
+		valueSize = bytes[offset + VALUE_SIZE_OFFSET];
+		width = Byte.toUnsignedInt(bytes[offset + WIDTH_OFFSET]);
+		int count = Short.toUnsignedInt((short) SHORT.get(bytes, offset + SAMPLE_COUNT_OFFSET));
+		
+		if ((valueSize != Float.BYTES && valueSize != Double.BYTES) || width < 1
+				|| width > SensorMessageDecoder.MAX_VALUES_PER_SAMPLE
+				|| length != VALUES_OFFSET + count * width * valueSize) {
+			return Server.STATUS_CODE_MALFORMED_MESSAGE;
+		}
+		
+		sensor = sensorNumber(sensorId);
+		
+		if (sensor < 0 || !sensors.acceptWidth(sensor, width)) {
+			return Server.STATUS_CODE_MALFORMED_MESSAGE;
+		}
+		
+		// nothing else can reject the frame
+		sensors.commit();
+		
+		valuesOffset = offset + VALUES_OFFSET;
+		sampleCount = count;
+		measureSampleSpacing();
+		return Server.STATUS_CODE_OK;
+	}
+	
+	// -1 if the connection already sent samples of SensorTable.MAX_SENSORS other sensors
+	private int sensorNumber(final int sensorId) {
+		if (sensorId >= sensorNumbers.length) {
+			int length = sensorNumbers.length;
+			sensorNumbers = Arrays.copyOf(sensorNumbers, sensorId + 1);
+			Arrays.fill(sensorNumbers, length, sensorNumbers.length, -1);
+		}
+		
+		if (sensorNumbers[sensorId] < 0) {
+			sensorNumbers[sensorId] = sensors.id(Integer.toString(sensorId));
+		}
+		
+		return sensorNumbers[sensorId];
+	}
+	
+	private void measureSampleSpacing() {
+		if (sensorId >= previousTimestamps.length) {
+			previousTimestamps = Arrays.copyOf(previousTimestamps, sensorId + 1);
+			previousSampleCounts = Arrays.copyOf(previousSampleCounts, sensorId + 1);
+		}
+		
+		long previousTimestamp = previousTimestamps[sensorId];
+		int previousSampleCount = previousSampleCounts[sensorId];
+		
+		sampleSpacing = timestamp > 0 && previousTimestamp > 0 && timestamp > previousTimestamp
+				&& previousSampleCount > 0 ? (timestamp - previousTimestamp) / previousSampleCount : 0;
+		
+		previousTimestamps[sensorId] = timestamp;
+		previousSampleCounts[sensorId] = sampleCount;
+	}
+	
+	private void readUuid(final int offset) {
+		uuidMostSignificantBits = (long) LONG.get(bytes, offset + UUID_OFFSET);
+		uuidLeastSignificantBits = (long) LONG.get(bytes, offset + UUID_OFFSET + Long.BYTES);
+	}
+	
+	long uuidMostSignificantBits() {
+		return uuidMostSignificantBits;
+	}
+	
+	long uuidLeastSignificantBits() {
+		return uuidLeastSignificantBits;
+	}
+	
+	int sensorId() {
+		return sensorId;
+	}
+	
+	long timestamp() {
+		return timestamp;
+	}
+	
+	@Override
+	public int sampleCount() {
+		return sampleCount;
+	}
+	
+	@Override
+	public int width(final int sample) {
+		return width;
+	}
+	
+	@Override
+	public int sensor(final int sample) {
+		return sensor;
+	}
+	
+	@Override
+	public long timestamp(final int sample) {
+		return timestamp > 0 ? timestamp + sample * sampleSpacing : TimestampParser.NO_TIMESTAMP;
+	}
+	
+	@Override
+	public double value(final int sample, final int component) {
+		int index = valuesOffset + (sample * width + component) * valueSize;
+		return valueSize == Double.BYTES ? (double) DOUBLE.get(bytes, index) : (float) FLOAT.get(bytes, index);
+	}
+}
@@ -0,0 +1,98 @@
+package com.matthiasrothe.emerald.dl4j.recorder.server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+
+class BlockingConnection extends ClientConnection implements Runnable {
+	private final Socket socket;
+	private OutputStream out;
+	// responses are only handed to the socket by flushOutput, so none leaves before its samples are synced
+	private ByteBuffer output = ByteBuffer.allocate(8 * 1024);
+	// whether a thread to flush the output for the ack scheduler was started and hasn't flushed yet
+	private boolean flushStarted;
+	
+	BlockingConnection(final Server server, final Socket socket, final int connectionId) {
+		super(server, connectionId);
+		this.socket = socket;
+	}
+	
+	@Override
+	public void run() {
+		server.clientConnected(connectionId, socket.getInetAddress());
+		
+		try (socket) {
+			InputStream in = socket.getInputStream();
+			out = socket.getOutputStream();
+			
+			while (!closeRequested) {
+				int read = in.read(input.array(), input.position(), input.remaining());
+				
+				if (read < 0) {
+					processEndOfStream();
+				} else {
+					input.position(input.position() + read);
+					processInput(read);
+				}
+			}
+		} catch (SocketException e) {
+			// client went away without closing the connection properly
+		} catch (IOException e) {
+			e.printStackTrace();
+		} finally {
+			server.blockingConnectionClosed(this);
+			connectionClosed();
+		}
+	}
+	
+	// called by the server when it is aborted; the reading thread fails and closes the connection
+	void close() {
+		try {
+			socket.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	@Override
+	protected void write(final byte[] bytes, final int offset, final int length) throws IOException {
+		if (output.remaining() < length) {
+			output = grow(output, Math.max(output.capacity() * 2, output.position() + length));
+		}
+		
+		output.put(bytes, offset, length);
+	}
+	
+	@Override
+	protected void flushOutput() throws IOException {
+		if (output.position() > 0) {
+			out.write(output.array(), 0, output.position());
+			output.clear();
+		}
+	}
+	
+	@Override
+	protected void flushOutputWithoutBlocking() {
+		// a client that doesn't read blocks a virtual thread of its own instead of the ack scheduler
+		if (!flushStarted) {
+			flushStarted = true;
+			Thread.startVirtualThread(this::flushStartedOutput);
+		}
+	}
+	
+	private void flushStartedOutput() {
+		outputLock.lock();
+		
+		try {
+			flushStarted = false;
+			flushOutput();
+		} catch (IOException e) {
+			// the reading side notices the broken connection as well and closes it
+		} finally {
+			outputLock.unlock();
+		}
+	}
+}
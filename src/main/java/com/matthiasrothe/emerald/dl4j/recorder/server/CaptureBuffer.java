@@ -0,0 +1,95 @@
+package com.matthiasrothe.emerald.dl4j.recorder.server;
+
+/*
+ * The most recent samples of one client received while no recording is in progress, with their sensors, timestamps
+ * and the time they arrived. Its arrays are allocated once, so it takes the same memory no matter how long the
+ * recorder idles; the oldest sample is overwritten once it is full. The values of every slot take as much room as
+ * the widest sample so far. Only accessed by the thread reading from the client.
+ */
+class CaptureBuffer {
+	// values per slot until a wider sample arrives
+	private static final int INITIAL_STRIDE = 3;
+	
+	private double[] values;
+	private int stride = INITIAL_STRIDE;
+	private final int[] widths;
+	private final String[] sensors;
+	private final long[] timestamps;
+	private final long[] arrivalNanos;
+	
+	// slot the next sample is written to
+	private int next;
+	private int size;
+	
+	CaptureBuffer(final int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("capacity must be at least 1");
+		}
+		
+		values = new double[capacity * stride];
+		widths = new int[capacity];
+		sensors = new String[capacity];
+		timestamps = new long[capacity];
+		arrivalNanos = new long[capacity];
+	}
+	
+	int capacity() {
+		return arrivalNanos.length;
+	}
+	
+	int size() {
+		return size;
+	}
+	
+	void add(final String sensor, final long timestamp, final SampleBatch samples, final int sample,
+			final long nanos) {
+		int width = samples.width(sample);
+		
+		if (width > stride) {
+			widen(width);
+		}
+		
+		int valueIndex = next * stride;
+		for (int i = 0; i < width; i++) {
+			values[valueIndex + i] = samples.value(sample, i);
+		}
+		
+		widths[next] = width;
+		sensors[next] = sensor;
+		timestamps[next] = timestamp;
+		arrivalNanos[next] = nanos;
+		
+		next = next + 1 < arrivalNanos.length ? next + 1 : 0;
+		size = Math.min(size + 1, arrivalNanos.length);
+	}
+	
+	private void widen(final int width) {
+		double[] widened = new double[arrivalNanos.length * width];
+		
+		for (int slot = 0; slot < arrivalNanos.length; slot++) {
+			System.arraycopy(values, slot * stride, widened, slot * width, stride);
+		}
+		
+		values = widened;
+		stride = width;
+	}
+	
+	// publishes the samples that arrived at or after sinceNanos to the recording, oldest first, and empties the buffer
+	int drainTo(final SampleRingBuffer ringBuffer, final Recording recording, final long sinceNanos) {
+		int slot = next - size < 0 ? next - size + arrivalNanos.length : next - size;
+		int drained = 0;
+		
+		for (int i = 0; i < size; i++) {
+			if (arrivalNanos[slot] - sinceNanos >= 0) {
+				ringBuffer.publishSample(recording, sensors[slot], timestamps[slot], values, slot * stride,
+						widths[slot]);
+				drained++;
+			}
+			
+			slot = slot + 1 < arrivalNanos.length ? slot + 1 : 0;
+		}
+		
+		size = 0;
+		return drained;
+	}
+}
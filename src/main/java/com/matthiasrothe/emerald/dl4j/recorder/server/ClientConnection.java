@@ -0,0 +1,664 @@
+package com.matthiasrothe.emerald.dl4j.recorder.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+abstract class ClientConnection {
+	static final int DEFAULT_ACK_COUNT = 32;
+	static final long DEFAULT_ACK_INTERVAL_MILLIS = 50;
+	
+	private static final int INITIAL_BUFFER_SIZE = 8 * 1024;
+	private static final int MAX_LINE_LENGTH = 16 * 1024 * 1024;
+	private static final int MAX_PENDING_ACK_BYTES = 64 * 1024;
+	// how soon a connection that was granted no credits asks again
+	private static final long CREDIT_RETRY_MILLIS = 10;
+	
+	// pre-encoded parts of the responses acknowledging messages with status code 200
+	private static final byte[] OK_PREFIX = ascii("{\"status\":\"OK\",\"statusCode\":200,\"uuid\":\"");
+	private static final byte[] OK_SUFFIX = ascii("\"}\n");
+	private static final byte[] CUMULATIVE_OK_PREFIX = ascii("{\"status\":\"OK\",\"statusCode\":200,\"uuids\":[");
+	private static final byte[] CUMULATIVE_OK_SUFFIX = ascii("]}\n");
+	private static final byte[] LINE_TERMINATOR = ascii("\n");
+	// with flow control by credits the responses end with the credits granted instead
+	private static final byte[] OK_CREDITS = ascii("\",\"credits\":");
+	private static final byte[] CUMULATIVE_OK_CREDITS = ascii("],\"credits\":");
+	private static final byte[] CREDIT_UPDATE_PREFIX = ascii("{\"credits\":");
+	private static final byte[] CREDITS_SUFFIX = ascii("}\n");
+	
+	protected final Server server;
+	protected final int connectionId;
+	private final ConnectionMetrics metrics;
+	
+	private final SensorMessageDecoder messageDecoder = new SensorMessageDecoder();
+	private BinaryFrameCodec frameCodec;
+	private final byte[] ackFrame = new byte[BinaryFrameCodec.ACK_FRAME_SIZE];
+	private final byte[] creditFrame = new byte[BinaryFrameCodec.CREDIT_FRAME_SIZE];
+	private final byte[] creditDigits = new byte[10];
+	
+	// kept in write mode between calls and reused for the whole connection
+	protected ByteBuffer input = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+	
+	// number of bytes at the start of the input buffer already known not to contain a line terminator
+	private int scannedBytes;
+	private boolean skipLineFeed;
+	private int pendingFrameSize;
+	protected boolean closeRequested;
+	
+	// samples received since the last read was reported to the server
+	private int samplesReceived;
+	// the pipeline sequence of the connection's last sample, which its responses so far acknowledge
+	private long lastPublishedSequence = -1;
+	
+	// guards the output, which the ack scheduler flushes as well; a lock instead of a monitor doesn't pin
+	// the virtual thread of a blocking connection while it writes to its socket
+	protected final ReentrantLock outputLock = new ReentrantLock();
+	
+	private AckMode ackMode = AckMode.IMMEDIATE;
+	private int ackCount = DEFAULT_ACK_COUNT;
+	private long ackIntervalMillis = DEFAULT_ACK_INTERVAL_MILLIS;
+	private ScheduledFuture<?> ackFlushTask;
+	
+	private FlowControl flowControl = FlowControl.NONE;
+	// credits left from the last grant; negative once the client sent more samples than it was granted
+	private long credits;
+	private ScheduledFuture<?> creditRetryTask;
+	
+	// samples received while no recording is in progress; allocated when the first one is captured
+	private CaptureBuffer captureBuffer;
+	// the recording the captured samples were last prepended to
+	private Recording preRolledRecording;
+	private Resampler[] resamplers = new Resampler[1];
+	// the sample of a message on the tree builder path
+	private final SampleVector treeSample = new SampleVector();
+	// the session the samples are recorded in
+	private Session session;
+	// the UUIDs of the last messages accepted; allocated when the first one is
+	private RecentMessageIds recentMessageIds;
+	
+	// quoted UUIDs of the messages not acknowledged yet, separated by commas
+	private byte[] pendingAcks = new byte[1024];
+	private int pendingAckBytes;
+	private int pendingAckCount;
+	
+	ClientConnection(final Server server, final int connectionId) {
+		this.server = server;
+		this.connectionId = connectionId;
+		
+		metrics = server.getMetrics().connectionOpened(connectionId);
+		session = server.acquireSession(Server.DEFAULT_SESSION);
+	}
+	
+	// appends response bytes to the connection's output
+	protected abstract void write(byte[] bytes, int offset, int length) throws IOException;
+	
+	// hands all written responses to the network; called with the output lock held
+	protected abstract void flushOutput() throws IOException;
+	
+	// like flushOutput, but must not block the calling thread, which is the ack scheduler shared by all connections
+	protected void flushOutputWithoutBlocking() throws IOException {
+		flushOutput();
+	}
+	
+	private void output(final byte[] bytes, final int offset, final int length) throws IOException {
+		write(bytes, offset, length);
+		metrics.bytesSent.add(length);
+	}
+	
+	void send(final String response) throws IOException {
+		// responses must not overtake acknowledgements of earlier messages
+		writePendingAcks();
+		
+		byte[] bytes = response.getBytes(StandardCharsets.UTF_8);
+		output(bytes, 0, bytes.length);
+		output(LINE_TERMINATOR, 0, LINE_TERMINATOR.length);
+	}
+	
+	// acknowledges a message with status code 200; the UUID bytes are copied as they are
+	void acknowledge(final byte[] uuid, final int offset, final int length) throws IOException {
+		server.getMetrics().responded(Server.STATUS_CODE_OK);
+		
+		if (ackMode == AckMode.IMMEDIATE) {
+			output(OK_PREFIX, 0, OK_PREFIX.length);
+			output(uuid, offset, length);
+			
+			if (flowControl == FlowControl.CREDITS) {
+				output(OK_CREDITS, 0, OK_CREDITS.length);
+				outputCredits(grantCredits());
+			} else {
+				output(OK_SUFFIX, 0, OK_SUFFIX.length);
+			}
+			return;
+		}
+		
+		int required = pendingAckBytes + length + 3;
+		
+		if (required > pendingAcks.length) {
+			byte[] grown = new byte[Math.max(pendingAcks.length * 2, required)];
+			System.arraycopy(pendingAcks, 0, grown, 0, pendingAckBytes);
+			pendingAcks = grown;
+		}
+		
+		if (pendingAckCount > 0) {
+			pendingAcks[pendingAckBytes++] = ',';
+		}
+		
+		pendingAcks[pendingAckBytes++] = '"';
+		System.arraycopy(uuid, offset, pendingAcks, pendingAckBytes, length);
+		pendingAckBytes += length;
+		pendingAcks[pendingAckBytes++] = '"';
+		pendingAckCount++;
+		
+		if (pendingAckCount >= ackCount || pendingAckBytes >= MAX_PENDING_ACK_BYTES) {
+			writePendingAcks();
+		}
+	}
+	
+	void sendAck(final int statusCode, final long uuidMostSignificantBits, final long uuidLeastSignificantBits)
+			throws IOException {
+		server.getMetrics().responded(statusCode);
+		BinaryFrameCodec.encodeAck(ackFrame, statusCode, uuidMostSignificantBits, uuidLeastSignificantBits);
+		output(ackFrame, 0, ackFrame.length);
+		
+		if (flowControl == FlowControl.CREDITS) {
+			BinaryFrameCodec.encodeCredits(creditFrame, grantCredits());
+			output(creditFrame, 0, creditFrame.length);
+		}
+	}
+	
+	// null keeps the current setting
+	void configureFlowControl(final FlowControl newFlowControl) {
+		if (newFlowControl == null || newFlowControl == flowControl) {
+			return;
+		}
+		
+		flowControl = newFlowControl;
+		
+		if (newFlowControl == FlowControl.CREDITS) {
+			server.flowControlEnabled();
+			// the message switching flow control on is sent before any credits were granted
+			credits = Server.MAX_CREDITS;
+		} else {
+			server.flowControlDisabled();
+			cancelCreditRetry();
+		}
+	}
+	
+	private int grantCredits() {
+		int granted = server.grantCredits();
+		credits = granted;
+		
+		// the client waits for credits, so it has to be told once there are some again
+		if (granted == 0 && creditRetryTask == null) {
+			creditRetryTask = server.getAckScheduler().schedule(this::retryCredits, CREDIT_RETRY_MILLIS,
+					TimeUnit.MILLISECONDS);
+		}
+		
+		return granted;
+	}
+	
+	private void retryCredits() {
+		// the ack scheduler must not wait for a connection that is busy writing; creditRetryTask stays set meanwhile
+		if (!outputLock.tryLock()) {
+			server.getAckScheduler().schedule(this::retryCredits, CREDIT_RETRY_MILLIS, TimeUnit.MILLISECONDS);
+			return;
+		}
+		
+		try {
+			creditRetryTask = null;
+			
+			// credits may have been granted with an acknowledgement in the meantime
+			if (flowControl != FlowControl.CREDITS || credits > 0 || closeRequested) {
+				return;
+			}
+			
+			int granted = grantCredits();
+			
+			if (granted > 0) {
+				if (isBinaryProtocol()) {
+					BinaryFrameCodec.encodeCredits(creditFrame, granted);
+					output(creditFrame, 0, creditFrame.length);
+				} else {
+					output(CREDIT_UPDATE_PREFIX, 0, CREDIT_UPDATE_PREFIX.length);
+					outputCredits(granted);
+				}
+				
+				flushOutputWithoutBlocking();
+			}
+		} catch (IOException e) {
+			// the reading side notices the broken connection as well and closes it
+		} finally {
+			outputLock.unlock();
+		}
+	}
+	
+	private void cancelCreditRetry() {
+		if (creditRetryTask != null) {
+			creditRetryTask.cancel(false);
+			creditRetryTask = null;
+		}
+	}
+	
+	// writes the credits followed by the end of the response
+	private void outputCredits(final int granted) throws IOException {
+		int start = creditDigits.length;
+		int value = granted;
+		
+		do {
+			creditDigits[--start] = (byte) ('0' + value % 10);
+			value /= 10;
+		} while (value > 0);
+		
+		output(creditDigits, start, creditDigits.length - start);
+		output(CREDITS_SUFFIX, 0, CREDITS_SUFFIX.length);
+	}
+	
+	// settings passed as null, 0 or -1 respectively keep their current value
+	void configureAcks(final AckMode newMode, final int newCount, final long newIntervalMillis) throws IOException {
+		AckMode mode = newMode != null ? newMode : ackMode;
+		int count = newCount > 0 ? newCount : ackCount;
+		long intervalMillis = newIntervalMillis >= 0 ? newIntervalMillis : ackIntervalMillis;
+		
+		if (mode == ackMode && count == ackCount && intervalMillis == ackIntervalMillis) {
+			return;
+		}
+		
+		writePendingAcks();
+		
+		if (ackFlushTask != null) {
+			ackFlushTask.cancel(false);
+			ackFlushTask = null;
+		}
+		
+		ackMode = mode;
+		ackCount = count;
+		ackIntervalMillis = intervalMillis;
+		
+		if (mode == AckMode.CUMULATIVE && intervalMillis > 0) {
+			ackFlushTask = server.getAckScheduler().scheduleAtFixedRate(this::flushPendingAcks,
+					intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+		}
+	}
+	
+	private void writePendingAcks() throws IOException {
+		if (pendingAckCount == 0) {
+			return;
+		}
+		
+		output(CUMULATIVE_OK_PREFIX, 0, CUMULATIVE_OK_PREFIX.length);
+		output(pendingAcks, 0, pendingAckBytes);
+		
+		if (flowControl == FlowControl.CREDITS) {
+			output(CUMULATIVE_OK_CREDITS, 0, CUMULATIVE_OK_CREDITS.length);
+			outputCredits(grantCredits());
+		} else {
+			output(CUMULATIVE_OK_SUFFIX, 0, CUMULATIVE_OK_SUFFIX.length);
+		}
+		
+		pendingAckBytes = 0;
+		pendingAckCount = 0;
+	}
+	
+	private void flushPendingAcks() {
+		// the ack scheduler must not wait for a connection that is busy writing; the next run flushes instead
+		if (!outputLock.tryLock()) {
+			return;
+		}
+		
+		try {
+			if (pendingAckCount > 0 && !closeRequested) {
+				writePendingAcks();
+				flushOutputWithoutBlocking();
+			}
+		} catch (IOException e) {
+			// the reading side notices the broken connection as well and closes it
+		} finally {
+			outputLock.unlock();
+		}
+	}
+	
+	// must be called exactly once when the connection is closed
+	protected void connectionClosed() {
+		if (ackFlushTask != null) {
+			ackFlushTask.cancel(false);
+		}
+		
+		outputLock.lock();
+		
+		try {
+			configureFlowControl(FlowControl.NONE);
+		} finally {
+			outputLock.unlock();
+		}
+		
+		server.releaseSession(session);
+		server.getMetrics().connectionClosed(metrics);
+		server.clientDisconnected(connectionId);
+	}
+	
+	// all data received after the current line is framed according to the binary protocol
+	void switchToBinaryProtocol() {
+		if (frameCodec == null) {
+			frameCodec = new BinaryFrameCodec(messageDecoder.sensors());
+		}
+	}
+	
+	boolean isBinaryProtocol() {
+		return frameCodec != null;
+	}
+	
+	// frames and processes all complete lines or binary frames received so far and flushes their responses once
+	void processInput(final int bytesRead) throws IOException {
+		outputLock.lock();
+		
+		try {
+			frameInput();
+			awaitDurable();
+			flushOutput();
+		} finally {
+			outputLock.unlock();
+		}
+		
+		reportDataReceived(bytesRead);
+	}
+	
+	// responses must not acknowledge samples before they are as durable as the server promises; blocking connections
+	// wait for them, while a NioConnection holds its responses back instead of blocking its selector thread
+	protected void awaitDurable() throws IOException {
+		server.awaitDurable(lastPublishedSequence);
+	}
+	
+	void samplePublished(final long sequence) {
+		if (sequence != SampleRingBuffer.NOT_PUBLISHED) {
+			lastPublishedSequence = sequence;
+		}
+	}
+	
+	long lastPublishedSequence() {
+		return lastPublishedSequence;
+	}
+	
+	// keeps a sample received while no recording is in progress for the pre-roll of the next one
+	void capture(final String sensor, final long timestamp, final SampleBatch samples, final int sample,
+			final int capacity) {
+		if (captureBuffer == null || captureBuffer.capacity() != capacity) {
+			captureBuffer = new CaptureBuffer(capacity);
+		}
+		
+		captureBuffer.add(sensor, timestamp, samples, sample, System.nanoTime());
+	}
+	
+	// the sensors of the connection, whether their samples arrive in JSON messages or binary frames
+	SensorTable sensors() {
+		return messageDecoder.sensors();
+	}
+	
+	SampleVector treeSample() {
+		return treeSample;
+	}
+	
+	// true if a message with the same UUID was accepted recently, i.e. the client retransmitted it
+	boolean isDuplicate(final long uuidMostSignificantBits, final long uuidLeastSignificantBits) {
+		if (recentMessageIds == null || !recentMessageIds.contains(uuidMostSignificantBits, uuidLeastSignificantBits)) {
+			return false;
+		}
+		
+		server.getMetrics().duplicateReceived();
+		return true;
+	}
+	
+	// remembers the UUID of a message that isn't a duplicate
+	void messageAccepted(final long uuidMostSignificantBits, final long uuidLeastSignificantBits) {
+		int capacity = server.getDeduplicationCapacity();
+		
+		if (capacity == 0) {
+			recentMessageIds = null;
+			return;
+		}
+		
+		if (recentMessageIds == null || recentMessageIds.capacity() != capacity) {
+			recentMessageIds = new RecentMessageIds(capacity);
+		}
+		
+		recentMessageIds.add(uuidMostSignificantBits, uuidLeastSignificantBits);
+	}
+	
+	Session session() {
+		return session;
+	}
+	
+	// moves the connection to the session named by a message; the connection stays in its session if the message
+	// names none (start -1). Returns false if the id isn't valid or there are too many sessions.
+	boolean selectSession(final byte[] bytes, final int start, final int end) {
+		if (start < 0 || session.hasId(bytes, start, end)) {
+			return true;
+		}
+		
+		return selectSession(new String(bytes, start, end - start, StandardCharsets.UTF_8));
+	}
+	
+	boolean selectSession(final String id) {
+		if (id.equals(session.getId())) {
+			return true;
+		}
+		
+		Session selected = server.acquireSession(id);
+		
+		if (selected == null) {
+			return false;
+		}
+		
+		server.releaseSession(session);
+		session = selected;
+		return true;
+	}
+	
+	// one resampler per sensor of the connection, created when the sensor's first sample is resampled
+	Resampler resampler(final int sensor, final double rateHertz) {
+		if (sensor >= resamplers.length) {
+			resamplers = Arrays.copyOf(resamplers, Math.max(sensor + 1, resamplers.length * 2));
+		}
+		
+		if (resamplers[sensor] == null || resamplers[sensor].rateHertz() != rateHertz) {
+			resamplers[sensor] = new Resampler(rateHertz);
+		}
+		
+		return resamplers[sensor];
+	}
+	
+	// prepends the samples captured within the pre-roll before its start to a recording, once per recording
+	void preRoll(final Recording activeRecording, final SampleRingBuffer ringBuffer, final long preRollNanos) {
+		if (activeRecording == preRolledRecording) {
+			return;
+		}
+		
+		preRolledRecording = activeRecording;
+		
+		if (captureBuffer != null && captureBuffer.size() > 0) {
+			captureBuffer.drainTo(ringBuffer, activeRecording, activeRecording.getStartedNanos() - preRollNanos);
+		}
+	}
+	
+	void samplesReceived(final int samples) {
+		samplesReceived += samples;
+		metrics.samples.add(samples);
+		
+		if (flowControl == FlowControl.CREDITS) {
+			boolean withinCredits = credits >= 0;
+			credits -= samples;
+			
+			// counted once per grant; samples the client sent before it got the grant may count against it as well
+			if (withinCredits && credits < 0) {
+				server.getMetrics().creditsExceeded();
+			}
+		}
+	}
+	
+	private void reportDataReceived(final int bytesRead) {
+		metrics.bytesReceived.add(bytesRead);
+		
+		if (bytesRead > 0 || samplesReceived > 0) {
+			server.dataReceived(connectionId, bytesRead, samplesReceived);
+			samplesReceived = 0;
+		}
+	}
+	
+	private void frameInput() throws IOException {
+		byte[] bytes = input.array();
+		int end = input.position();
+		int start = isBinaryProtocol() ? 0 : processLines(bytes, end);
+		
+		if (isBinaryProtocol() && !closeRequested) {
+			start = processFrames(bytes, start, end);
+		}
+		
+		if (closeRequested) {
+			input.clear();
+			scannedBytes = 0;
+			return;
+		}
+		
+		int remaining = end - start;
+		System.arraycopy(bytes, start, bytes, 0, remaining);
+		input.position(remaining);
+		scannedBytes = isBinaryProtocol() ? 0 : remaining;
+		
+		if (!input.hasRemaining() || input.capacity() < pendingFrameSize) {
+			if (!isBinaryProtocol() && input.capacity() >= MAX_LINE_LENGTH) {
+				throw new IOException("Line of client " + connectionId + " exceeds " + MAX_LINE_LENGTH + " bytes");
+			}
+			
+			input = grow(input, Math.max(input.capacity() * 2, pendingFrameSize));
+		}
+	}
+	
+	private int processLines(final byte[] bytes, final int end) throws IOException {
+		int lineStart = 0;
+		int i = scannedBytes;
+		
+		while (i < end && !closeRequested && !isBinaryProtocol()) {
+			byte b = bytes[i];
+			
+			if (skipLineFeed) {
+				skipLineFeed = false;
+				
+				if (b == '\n') {
+					lineStart = ++i;
+					continue;
+				}
+			}
+			
+			if (b == '\n' || b == '\r') {
+				skipLineFeed = b == '\r';
+				processLine(bytes, lineStart, i - lineStart);
+				lineStart = ++i;
+			} else {
+				i++;
+			}
+		}
+		
+		return lineStart;
+	}
+	
+	private int processFrames(final byte[] bytes, final int offset, final int end) throws IOException {
+		int start = offset;
+		pendingFrameSize = 0;
+		
+		// the line switching to the binary protocol may have been terminated by CR LF
+		if (skipLineFeed && start < end) {
+			skipLineFeed = false;
+			
+			if (bytes[start] == '\n') {
+				start++;
+			}
+		}
+		
+		while (end - start >= BinaryFrameCodec.LENGTH_FIELD_SIZE && !closeRequested) {
+			int frameLength = BinaryFrameCodec.frameLength(bytes, start);
+			
+			if (frameLength <= 0 || frameLength > BinaryFrameCodec.MAX_FRAME_LENGTH) {
+				// the stream can't be resynchronized, so handle it like invalid JSON
+				sendAck(Server.STATUS_CODE_INVALID_JSON, 0, 0);
+				closeRequested = true;
+				break;
+			}
+			
+			int frameSize = BinaryFrameCodec.LENGTH_FIELD_SIZE + frameLength;
+			
+			if (end - start < frameSize) {
+				pendingFrameSize = frameSize;
+				break;
+			}
+			
+			metrics.messages.increment();
+			server.processFrame(bytes, start + BinaryFrameCodec.LENGTH_FIELD_SIZE, frameLength, frameCodec, this);
+			start += frameSize;
+		}
+		
+		return start;
+	}
+	
+	// processes the JSON message or the binary sample frame, without its length field, a datagram carries
+	void processDatagram(final byte[] bytes, final int offset, final int length) throws IOException {
+		outputLock.lock();
+		
+		try {
+			metrics.messages.increment();
+			
+			if (bytes[offset] == BinaryFrameCodec.FRAME_TYPE_SAMPLES) {
+				switchToBinaryProtocol();
+				server.processFrame(bytes, offset, length, frameCodec, this);
+			} else {
+				server.processLine(bytes, offset, length, messageDecoder, this);
+			}
+		} finally {
+			outputLock.unlock();
+		}
+		
+		reportDataReceived(length);
+	}
+	
+	void processEndOfStream() throws IOException {
+		outputLock.lock();
+		
+		try {
+			// like BufferedReader.readLine(), hand out a last unterminated line at end of stream
+			if (input.position() > 0 && !closeRequested && !isBinaryProtocol()) {
+				processLine(input.array(), 0, input.position());
+			}
+			
+			input.clear();
+			writePendingAcks();
+			closeRequested = true;
+			awaitDurable();
+			flushOutput();
+		} finally {
+			outputLock.unlock();
+		}
+		
+		reportDataReceived(0);
+	}
+	
+	private void processLine(final byte[] bytes, final int offset, final int length) throws IOException {
+		metrics.messages.increment();
+		
+		if (!server.processLine(bytes, offset, length, messageDecoder, this)) {
+			closeRequested = true;
+		}
+	}
+	
+	static ByteBuffer grow(final ByteBuffer buffer, final int capacity) {
+		ByteBuffer grown = ByteBuffer.allocate(capacity);
+		buffer.flip();
+		grown.put(buffer);
+		return grown;
+	}
+	
+	private static byte[] ascii(final String s) {
+		return s.getBytes(StandardCharsets.US_ASCII);
+	}
+}
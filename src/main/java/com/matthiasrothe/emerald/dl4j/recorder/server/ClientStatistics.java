@@ -0,0 +1,32 @@
+package com.matthiasrothe.emerald.dl4j.recorder.server;
+
+public class ClientStatistics {
+	private final int connectionId;
+	private final long bytesReceived;
+	private final long samplesReceived;
+	
+	ClientStatistics(final int connectionId, final long bytesReceived, final long samplesReceived) {
+		this.connectionId = connectionId;
+		this.bytesReceived = bytesReceived;
+		this.samplesReceived = samplesReceived;
+	}
+	
+	public int getConnectionId() {
+		return connectionId;
+	}
+	
+	public long getBytesReceived() {
+		return bytesReceived;
+	}
+	
+	// samples received from the client, whether a recording was in progress or not
+	public long getSamplesReceived() {
+		return samplesReceived;
+	}
+	
+	@Override
+	public String toString() {
+		return "ClientStatistics [connectionId=" + connectionId + ", bytesReceived=" + bytesReceived
+				+ ", samplesReceived=" + samplesReceived + "]";
+	}
+}
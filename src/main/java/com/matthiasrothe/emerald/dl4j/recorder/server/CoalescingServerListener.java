@@ -0,0 +1,155 @@
+package com.matthiasrothe.emerald.dl4j.recorder.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Adapts the per-event ServerListener callbacks, which arrive on the ingest and writer threads, to at most one
+ * ServerStatistics snapshot per update interval. Events only update counters; snapshots are only delivered if
+ * something changed since the last one.
+ */
+public class CoalescingServerListener implements ServerListener, AutoCloseable {
+	public static final int DEFAULT_UPDATES_PER_SECOND = 30;
+	
+	private static class ClientCounters {
+		private final LongAdder bytes = new LongAdder();
+		private final LongAdder samples = new LongAdder();
+	}
+	
+	private final ServerStatisticsListener target;
+	private final int updatesPerSecond;
+	
+	private final LongAdder dataPointsWritten = new LongAdder();
+	private final LongAdder bytesReceived = new LongAdder();
+	private final Map<Integer, ClientCounters> clients = new ConcurrentSkipListMap<>();
+	private final AtomicBoolean changed = new AtomicBoolean(true);
+	
+	// totals of the last second of updates the rates are calculated from; only used by the scheduler thread
+	private final long[] historyNanos;
+	private final long[] historyDataPoints;
+	private final long[] historyBytes;
+	private int historyStart;
+	private int historySize;
+	private boolean lastRatesZero = true;
+	
+	private ScheduledExecutorService scheduler;
+	
+	public CoalescingServerListener(final ServerStatisticsListener target, final int updatesPerSecond) {
+		Objects.requireNonNull(target, "target must not be null");
+		
+		if (updatesPerSecond < 1 || updatesPerSecond > 1000) {
+			throw new IllegalArgumentException("updatesPerSecond must be between 1 and 1000");
+		}
+		
+		this.target = target;
+		this.updatesPerSecond = updatesPerSecond;
+		
+		historyNanos = new long[updatesPerSecond + 1];
+		historyDataPoints = new long[updatesPerSecond + 1];
+		historyBytes = new long[updatesPerSecond + 1];
+	}
+	
+	public synchronized void start() {
+		if (scheduler != null) {
+			throw new IllegalStateException("Listener is already started");
+		}
+		
+		long intervalNanos = TimeUnit.SECONDS.toNanos(1) / updatesPerSecond;
+		scheduler = Executors.newSingleThreadScheduledExecutor(
+				Thread.ofPlatform().name("statistics-publisher").daemon().factory());
+		scheduler.scheduleAtFixedRate(this::publish, intervalNanos, intervalNanos, TimeUnit.NANOSECONDS);
+	}
+	
+	@Override
+	public synchronized void close() {
+		if (scheduler != null) {
+			scheduler.shutdown();
+		}
+	}
+	
+	@Override
+	public void clientConnected(final int connectionId) {
+		clients.put(connectionId, new ClientCounters());
+		changed.set(true);
+	}
+	
+	@Override
+	public void clientDisconnected(final int connectionId) {
+		clients.remove(connectionId);
+		changed.set(true);
+	}
+	
+	@Override
+	public void dataPointWritten() {
+		dataPointsWritten(1);
+	}
+	
+	@Override
+	public void dataPointsWritten(final int count) {
+		dataPointsWritten.add(count);
+		changed.set(true);
+	}
+	
+	@Override
+	public void dataReceived(final int connectionId, final int bytes, final int samples) {
+		bytesReceived.add(bytes);
+		
+		ClientCounters counters = clients.get(connectionId);
+		if (counters != null) {
+			counters.bytes.add(bytes);
+			counters.samples.add(samples);
+		}
+		
+		changed.set(true);
+	}
+	
+	private void publish() {
+		try {
+			// the rates keep changing for a second after the last event until they drop to zero
+			if (changed.getAndSet(false) || !lastRatesZero) {
+				ServerStatistics statistics = snapshot(System.nanoTime());
+				lastRatesZero = statistics.getDataPointsPerSecond() == 0 && statistics.getBytesPerSecond() == 0;
+				target.statisticsUpdated(statistics);
+			}
+		} catch (RuntimeException e) {
+			// an exception would cancel all further updates
+			e.printStackTrace();
+		}
+	}
+	
+	ServerStatistics snapshot(final long nanos) {
+		long dataPoints = dataPointsWritten.sum();
+		long bytes = bytesReceived.sum();
+		
+		if (historySize == historyNanos.length) {
+			historyStart = (historyStart + 1) % historyNanos.length;
+			historySize--;
+		}
+		
+		int index = (historyStart + historySize) % historyNanos.length;
+		historyNanos[index] = nanos;
+		historyDataPoints[index] = dataPoints;
+		historyBytes[index] = bytes;
+		historySize++;
+		
+		double seconds = (nanos - historyNanos[historyStart]) / 1e9;
+		double dataPointsPerSecond = seconds > 0 ? (dataPoints - historyDataPoints[historyStart]) / seconds : 0;
+		double bytesPerSecond = seconds > 0 ? (bytes - historyBytes[historyStart]) / seconds : 0;
+		
+		List<ClientStatistics> clientStatistics = new ArrayList<>(clients.size());
+		for (Map.Entry<Integer, ClientCounters> client : clients.entrySet()) {
+			clientStatistics.add(new ClientStatistics(client.getKey(), client.getValue().bytes.sum(),
+					client.getValue().samples.sum()));
+		}
+		
+		return new ServerStatistics(dataPoints, dataPointsPerSecond, bytes, bytesPerSecond, clientStatistics);
+	}
+}
@@ -0,0 +1,39 @@
+package com.matthiasrothe.emerald.dl4j.recorder.server;
+
+import java.io.IOException;
+
+import com.matthiasrothe.emerald.dl4j.recorder.format.SampleWriter;
+import com.matthiasrothe.emerald.dl4j.recorder.format.ValueType;
+
+// records into a columnar file, plain or compressed
+class ColumnarRecordingSink implements RecordingSink {
+	private final SampleWriter writer;
+	private final int sampleSize;
+	
+	ColumnarRecordingSink(final SampleWriter writer, final ValueType valueType, final int columnCount) {
+		this.writer = writer;
+		this.sampleSize = columnCount * valueType.getSize();
+	}
+	
+	@Override
+	public int append(final double x, final double y, final double z) throws IOException {
+		writer.append(x, y, z);
+		return sampleSize;
+	}
+	
+	@Override
+	public int append(final long timestamp, final double[] values, final int offset) throws IOException {
+		writer.append(values, offset);
+		return sampleSize;
+	}
+	
+	@Override
+	public void sync() throws IOException {
+		writer.sync();
+	}
+	
+	@Override
+	public void close() throws IOException {
+		writer.close();
+	}
+}
@@ -0,0 +1,21 @@
+package com.matthiasrothe.emerald.dl4j.recorder.server;
+
+import java.util.concurrent.atomic.LongAdder;
+
+// counters of a single client connection, updated by its I/O thread and read by the metrics endpoint
+class ConnectionMetrics {
+	final LongAdder messages = new LongAdder();
+	final LongAdder samples = new LongAdder();
+	final LongAdder bytesReceived = new LongAdder();
+	final LongAdder bytesSent = new LongAdder();
+	
+	private final int connectionId;
+	
+	ConnectionMetrics(final int connectionId) {
+		this.connectionId = connectionId;
+	}
+	
+	int getConnectionId() {
+		return connectionId;
+	}
+}
@@ -0,0 +1,121 @@
+package com.matthiasrothe.emerald.dl4j.recorder.server;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/*
+ * Writes one "x,y,z" line per sample, exactly as x + "," + y + "," + z + "\n" would, optionally preceded by the
+ * timestamp of the sample in microseconds since the epoch. The numbers are formatted straight into the output buffer
+ * by a DecimalFormatter. It allocates nothing for readings as sensors send them, but falls back to
+ * StringBuilder.append(double), which does, for values outside 10^-3 to 10^7 and for those with about 16 or more
+ * significant digits. SampleFormattingBenchmark reports what formatting a line allocates as gc.alloc.rate.norm.
+ */
+class CsvRecordingSink implements RecordingSink {
+	private static final int BUFFER_SIZE = 64 * 1024;
+	// the timestamp and every value with their separators
+	private static final int MAX_LINE_LENGTH = DecimalFormatter.MAX_LONG_LENGTH
+			+ SensorMessageDecoder.MAX_VALUES_PER_SAMPLE * (DecimalFormatter.MAX_DOUBLE_LENGTH + 1) + 1;
+	
+	private final OutputStream out;
+	private final boolean timestamped;
+	private final int columnCount;
+	private final DecimalFormatter formatter = new DecimalFormatter();
+	private final byte[] buffer = new byte[BUFFER_SIZE];
+	private int position;
+	
+	CsvRecordingSink(final OutputStream out) {
+		this(out, false, 3);
+	}
+	
+	CsvRecordingSink(final OutputStream out, final boolean timestamped, final int columnCount) {
+		this.out = out;
+		this.timestamped = timestamped;
+		this.columnCount = columnCount;
+	}
+	
+	@Override
+	public int append(final double x, final double y, final double z) throws IOException {
+		int start = startLine();
+		return appendLine(start, x, y, z);
+	}
+	
+	@Override
+	public int append(final long timestamp, final double x, final double y, final double z) throws IOException {
+		int start = startLine();
+		
+		if (timestamped) {
+			appendTimestamp(timestamp);
+		}
+		
+		return appendLine(start, x, y, z);
+	}
+	
+	@Override
+	public int append(final long timestamp, final double[] values, final int offset) throws IOException {
+		int start = startLine();
+		
+		if (timestamped) {
+			appendTimestamp(timestamp);
+		}
+		
+		position = formatter.format(values[offset], buffer, position);
+		for (int i = 1; i < columnCount; i++) {
+			buffer[position++] = ',';
+			position = formatter.format(values[offset + i], buffer, position);
+		}
+		
+		return endLine(start);
+	}
+	
+	private int appendLine(final int start, final double x, final double y, final double z) {
+		position = formatter.format(x, buffer, position);
+		buffer[position++] = ',';
+		position = formatter.format(y, buffer, position);
+		buffer[position++] = ',';
+		position = formatter.format(z, buffer, position);
+		return endLine(start);
+	}
+	
+	private void appendTimestamp(final long timestamp) {
+		position = formatter.format(timestamp, buffer, position);
+		buffer[position++] = ',';
+	}
+	
+	// makes room for the longest line in the output buffer and returns where the line starts
+	private int startLine() throws IOException {
+		if (BUFFER_SIZE - position < MAX_LINE_LENGTH) {
+			flushBuffer();
+		}
+		
+		return position;
+	}
+	
+	// terminates the line and returns its length
+	private int endLine(final int start) {
+		buffer[position++] = '\n';
+		return position - start;
+	}
+	
+	private void flushBuffer() throws IOException {
+		out.write(buffer, 0, position);
+		position = 0;
+	}
+	
+	@Override
+	public void sync() throws IOException {
+		flushBuffer();
+		out.flush();
+		
+		if (out instanceof FileOutputStream file) {
+			file.getChannel().force(false);
+		}
+	}
+	
+	@Override
+	public void close() throws IOException {
+		try (out) {
+			flushBuffer();
+		}
+	}
+}
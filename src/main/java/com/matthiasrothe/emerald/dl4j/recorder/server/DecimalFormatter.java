@@ -0,0 +1,148 @@
+package com.matthiasrothe.emerald.dl4j.recorder.server;
+
+/*
+ * Writes longs and doubles as ASCII into a byte array, exactly as Long.toString and Double.toString would. Doubles
+ * from 10^-3 up to 10^7, which Double.toString writes without exponent, take a path that allocates nothing: the
+ * shortest decimal that converts back to the value is found by trying k = 0, 1, ... fraction digits. A candidate
+ * m / 10^k next to value * 10^k converts back if dividing the doubles m and 10^k gives the value, as the division is
+ * correctly rounded while both are exact. All other doubles, and those with two candidates of the same length, are
+ * formatted by StringBuilder.append(double), which allocates.
+ *
+ * Instances aren't thread-safe.
+ */
+class DecimalFormatter {
+	// Long.MIN_VALUE
+	static final int MAX_LONG_LENGTH = 20;
+	// e.g. "-1.2345678901234567E-300"
+	static final int MAX_DOUBLE_LENGTH = 24;
+	
+	private static final double MIN_PLAIN = 1e-3;
+	private static final double MAX_PLAIN = 1e7;
+	// 2^53, the first long that isn't necessarily an exact double
+	private static final double MAX_EXACT = 9007199254740992.0;
+	// below 2^50, value * 10^k is off by at most 1/8 and at most one decimal converts back: the nearest
+	private static final double MAX_SINGLE_CANDIDATE = 1125899906842624.0;
+	// exact doubles, and exact longs as well
+	private static final double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+			1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18 };
+	
+	private final StringBuilder fallback = new StringBuilder(MAX_DOUBLE_LENGTH);
+	
+	// returns the position after the value
+	int format(final long value, final byte[] bytes, final int position) {
+		int end = position + length(value);
+		// the digits are taken from the negative value, which Long.MIN_VALUE has as well
+		long remaining = value < 0 ? value : -value;
+		
+		for (int i = end - 1; remaining != 0 || i == end - 1; i--) {
+			bytes[i] = (byte) ('0' - remaining % 10);
+			remaining /= 10;
+		}
+		
+		if (value < 0) {
+			bytes[position] = '-';
+		}
+		
+		return end;
+	}
+	
+	// returns the position after the value
+	int format(final double value, final byte[] bytes, final int position) {
+		double magnitude = Math.abs(value);
+		int start = position;
+		
+		if (magnitude == 0) {
+			if (Double.doubleToRawLongBits(value) < 0) {
+				bytes[start++] = '-';
+			}
+			
+			return writePlain(0, 0, bytes, start);
+		}
+		
+		if (magnitude >= MIN_PLAIN && magnitude < MAX_PLAIN) {
+			for (int fractionDigits = 0; fractionDigits < POWERS_OF_TEN.length; fractionDigits++) {
+				double power = POWERS_OF_TEN[fractionDigits];
+				double scaled = magnitude * power;
+				
+				if (scaled >= MAX_EXACT - 1) {
+					break;
+				}
+				
+				long nearest = Math.round(scaled);
+				long found = -1;
+				int candidates = 0;
+				
+				if (scaled < MAX_SINGLE_CANDIDATE) {
+					if (nearest / power == magnitude) {
+						found = nearest;
+						candidates = 1;
+					}
+				} else {
+					// the product is off by less than one, so the decimals converting back are among three
+					for (long digits = nearest - 1; digits <= nearest + 1; digits++) {
+						if (digits / power == magnitude) {
+							found = digits;
+							candidates++;
+						}
+					}
+				}
+				
+				if (candidates == 1) {
+					if (value < 0) {
+						bytes[start++] = '-';
+					}
+					
+					return writePlain(found, fractionDigits, bytes, start);
+				} else if (candidates > 1) {
+					// Double.toString takes the closest of them, which a division doesn't tell
+					break;
+				}
+			}
+		}
+		
+		return writeFallback(value, bytes, position);
+	}
+	
+	// writes digits / 10^fractionDigits with at least one fraction digit
+	private int writePlain(final long digits, final int fractionDigits, final byte[] bytes, final int position) {
+		long power = (long) POWERS_OF_TEN[fractionDigits];
+		int end = format(digits / power, bytes, position);
+		bytes[end++] = '.';
+		
+		if (fractionDigits == 0) {
+			bytes[end++] = '0';
+			return end;
+		}
+		
+		long fraction = digits % power;
+		
+		for (int i = end + fractionDigits - 1; i >= end; i--) {
+			bytes[i] = (byte) ('0' + fraction % 10);
+			fraction /= 10;
+		}
+		
+		return end + fractionDigits;
+	}
+	
+	private int writeFallback(final double value, final byte[] bytes, final int position) {
+		fallback.setLength(0);
+		fallback.append(value);
+		int length = fallback.length();
+		
+		for (int i = 0; i < length; i++) {
+			bytes[position + i] = (byte) fallback.charAt(i);
+		}
+		
+		return position + length;
+	}
+	
+	private static int length(final long value) {
+		int length = value < 0 ? 2 : 1;
+		
+		for (long remaining = value / 10; remaining != 0; remaining /= 10) {
+			length++;
+		}
+		
+		return length;
+	}
+}
@@ -0,0 +1,50 @@
+package com.matthiasrothe.emerald.dl4j.recorder.server;
+
+import java.io.IOException;
+
+import com.matthiasrothe.emerald.dl4j.recorder.format.SampleWriter;
+
+// records into another sink and derives a further file from the same samples, like training windows or features
+class DerivingRecordingSink implements RecordingSink {
+	private final RecordingSink sink;
+	private final SampleWriter derived;
+	
+	DerivingRecordingSink(final RecordingSink sink, final SampleWriter derived) {
+		this.sink = sink;
+		this.derived = derived;
+	}
+	
+	// only the bytes of the recording itself are reported
+	@Override
+	public int append(final double x, final double y, final double z) throws IOException {
+		derived.append(x, y, z);
+		return sink.append(x, y, z);
+	}
+	
+	@Override
+	public int append(final long timestamp, final double x, final double y, final double z) throws IOException {
+		derived.append(x, y, z);
+		return sink.append(timestamp, x, y, z);
+	}
+	
+	@Override
+	public int append(final long timestamp, final double[] values, final int offset) throws IOException {
+		derived.append(values, offset);
+		return sink.append(timestamp, values, offset);
+	}
+	
+	@Override
+	public void sync() throws IOException {
+		sink.sync();
+		derived.sync();
+	}
+	
+	@Override
+	public void close() throws IOException {
+		try {
+			sink.close();
+		} finally {
+			derived.close();
+		}
+	}
+}
@@ -0,0 +1,12 @@
+package com.matthiasrothe.emerald.dl4j.recorder.server;
+
+// how far recorded samples have made it towards the disk
+public enum Durability {
+	// samples are handed to the operating system, which writes them when it sees fit
+	BUFFERED,
+	// the recording writer syncs the recording to disk periodically; acknowledgements don't wait for it
+	GROUP_COMMIT,
+	// the recording writer syncs after every batch it writes, and a client's acknowledgements are only sent after
+	// the batch containing its samples has been synced
+	ACK_AFTER_SYNC
+}
@@ -0,0 +1,60 @@
+package com.matthiasrothe.emerald.dl4j.recorder.server;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// the last pipeline sequence whose sample is known to be on disk; a lock instead of a monitor doesn't pin the
+// virtual threads of blocking connections while they wait
+class DurableSequence {
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition advanced = lock.newCondition();
+	private volatile long sequence = -1;
+	
+	void advance(final long durableSequence) {
+		if (durableSequence <= sequence) {
+			return;
+		}
+		
+		lock.lock();
+		
+		try {
+			sequence = durableSequence;
+			advanced.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	boolean isDurable(final long awaitedSequence) {
+		return awaitedSequence <= sequence;
+	}
+	
+	// returns false if the sequence didn't become durable within the timeout
+	boolean await(final long awaitedSequence, final long timeoutMillis) throws InterruptedIOException {
+		if (awaitedSequence <= sequence) {
+			return true;
+		}
+		
+		long remainingNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+		lock.lock();
+		
+		try {
+			while (awaitedSequence > sequence) {
+				if (remainingNanos <= 0) {
+					return false;
+				}
+				
+				remainingNanos = advanced.awaitNanos(remainingNanos);
+			}
+			
+			return true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for samples to be synced");
+		} finally {
+			lock.unlock();
+		}
+	}
+}
@@ -0,0 +1,37 @@
+package com.matthiasrothe.emerald.dl4j.recorder.server;
+
+import java.nio.charset.StandardCharsets;
+
+// whether a connection's acknowledgements grant credits, chosen by the client via header.flowControl
+enum FlowControl {
+	// the client sends as fast as TCP lets it, as the protocol always did
+	NONE("none"),
+	// every acknowledgement carries the number of samples the client may send until it gets the next one
+	CREDITS("credits");
+	
+	private final String headerValue;
+	private final byte[] headerBytes;
+	
+	FlowControl(final String headerValue) {
+		this.headerValue = headerValue;
+		this.headerBytes = headerValue.getBytes(StandardCharsets.US_ASCII);
+	}
+	
+	String getHeaderValue() {
+		return headerValue;
+	}
+	
+	byte[] getHeaderBytes() {
+		return headerBytes;
+	}
+	
+	static FlowControl fromHeaderValue(final String headerValue) {
+		for (FlowControl flowControl : values()) {
+			if (flowControl.headerValue.equals(headerValue)) {
+				return flowControl;
+			}
+		}
+		
+		throw new IllegalArgumentException("Unsupported flow control [" + headerValue + "]");
+	}
+}
@@ -0,0 +1,8 @@
+package com.matthiasrothe.emerald.dl4j.recorder.server;
+
+public enum IoMode {
+	// one virtual thread with blocking stream I/O per client connection
+	BLOCKING,
+	// a few selector threads multiplexing all client connections via NIO channels
+	NON_BLOCKING
+}
@@ -0,0 +1,49 @@
+package com.matthiasrothe.emerald.dl4j.recorder.server;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * A histogram of durations with power-of-two buckets from 1 microsecond to about 8.6 seconds. Recording a value
+ * costs a leading-zero count and two uncontended adds, so it can be used on every message.
+ */
+class LatencyHistogram {
+	private static final int MIN_EXPONENT = 10; // 1024 ns
+	private static final int MAX_EXPONENT = 33; // 8.6 s
+	
+	// bucket i counts durations up to 2^(MIN_EXPONENT + i) ns; the last bucket counts all longer ones
+	private final LongAdder[] buckets = new LongAdder[MAX_EXPONENT - MIN_EXPONENT + 2];
+	private final LongAdder sumNanos = new LongAdder();
+	
+	LatencyHistogram() {
+		for (int i = 0; i < buckets.length; i++) {
+			buckets[i] = new LongAdder();
+		}
+	}
+	
+	void record(final long nanos) {
+		long value = Math.max(nanos, 1);
+		// the exponent of the smallest power of two that is >= value
+		int exponent = 64 - Long.numberOfLeadingZeros(value - 1);
+		int index = Math.min(Math.max(exponent - MIN_EXPONENT, 0), buckets.length - 1);
+		
+		buckets[index].increment();
+		sumNanos.add(value);
+	}
+	
+	int bucketCount() {
+		return buckets.length;
+	}
+	
+	// upper bound of the bucket in nanoseconds, Long.MAX_VALUE for the last bucket
+	long upperBoundNanos(final int bucket) {
+		return bucket == buckets.length - 1 ? Long.MAX_VALUE : 1L << (MIN_EXPONENT + bucket);
+	}
+	
+	long count(final int bucket) {
+		return buckets[bucket].sum();
+	}
+	
+	long sumNanos() {
+		return sumNanos.sum();
+	}
+}
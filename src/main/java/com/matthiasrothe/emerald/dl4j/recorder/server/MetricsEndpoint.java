@@ -0,0 +1,186 @@
+package com.matthiasrothe.emerald.dl4j.recorder.server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+// serves the server metrics in the Prometheus text format on http://localhost:<port>/metrics
+class MetricsEndpoint {
+	private final Server server;
+	private final ServerMetrics metrics;
+	private final HttpServer httpServer;
+	
+	MetricsEndpoint(final Server server, final ServerMetrics metrics, final int port) throws IOException {
+		this.server = server;
+		this.metrics = metrics;
+		
+		httpServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		httpServer.createContext("/metrics", this::handle);
+		httpServer.setExecutor(null);
+	}
+	
+	void start() {
+		httpServer.start();
+		System.out.println("Metrics available on http://localhost:" + httpServer.getAddress().getPort() + "/metrics");
+	}
+	
+	void stop() {
+		httpServer.stop(0);
+	}
+	
+	private void handle(final HttpExchange exchange) throws IOException {
+		try (exchange) {
+			if (!"GET".equals(exchange.getRequestMethod())) {
+				exchange.sendResponseHeaders(405, -1);
+				return;
+			}
+			
+			byte[] body = render().getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+			exchange.sendResponseHeaders(200, body.length);
+			
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(body);
+			}
+		}
+	}
+	
+	String render() {
+		StringBuilder text = new StringBuilder(4096);
+		
+		counter(text, "recorder_messages_total", "Messages received.", metrics.messages());
+		counter(text, "recorder_samples_received_total", "Samples received.", metrics.samples());
+		counter(text, "recorder_bytes_received_total", "Bytes received from clients.", metrics.bytesReceived());
+		counter(text, "recorder_bytes_sent_total", "Bytes of responses sent to clients.", metrics.bytesSent());
+		counter(text, "recorder_data_points_written_total", "Data points written to recordings.",
+				metrics.dataPointsWritten());
+		counter(text, "recorder_data_bytes_written_total", "Bytes written to recordings.", metrics.dataBytesWritten());
+		
+		header(text, "recorder_responses_total", "Responses sent by status code.", "counter");
+		for (int i = 0; i < ServerMetrics.STATUS_CODES.length; i++) {
+			text.append("recorder_responses_total{status=\"").append(ServerMetrics.STATUS_CODES[i]).append("\"} ")
+					.append(metrics.responses(i)).append('\n');
+		}
+		
+		gauge(text, "recorder_connections", "Open client connections.", metrics.openConnections().size());
+		header(text, "recorder_recording", "1 while a recording of the session is in progress.", "gauge");
+		for (Session session : server.sessions()) {
+			text.append("recorder_recording{session=\"").append(labelValue(session.getId())).append("\"} ")
+					.append(session.activeRecording() != null ? 1 : 0).append('\n');
+		}
+		
+		PipelineStatistics pipeline = server.getPipelineStatistics();
+		gauge(text, "recorder_pipeline_queue_depth", "Samples waiting for the recording writer.",
+				pipeline.getQueueDepth());
+		counter(text, "recorder_pipeline_producer_waits_total", "Times an ingest thread waited for the writer.",
+				pipeline.getProducerWaits());
+		counter(text, "recorder_pipeline_dropped_total", "Samples dropped because the writer had stopped.",
+				pipeline.getDroppedEntries());
+		
+		gauge(text, "recorder_flow_controlled_connections", "Connections with flow control by credits.",
+				server.flowControlledConnections());
+		gauge(text, "recorder_credits_granted", "Credits granted with the last acknowledgement, -1 if none yet.",
+				metrics.lastCreditsGranted());
+		header(text, "recorder_credits_withheld_total",
+				"Acknowledgements granting no credits, by reason: the pipeline is three quarters full, or its free "
+						+ "part shared among all flow-controlled connections leaves nothing.", "counter");
+		for (int i = 0; i < ServerMetrics.CREDITS_WITHHELD_REASONS.length; i++) {
+			text.append("recorder_credits_withheld_total{reason=\"").append(ServerMetrics.CREDITS_WITHHELD_REASONS[i])
+					.append("\"} ").append(metrics.creditsWithheld(i)).append('\n');
+		}
+		counter(text, "recorder_credit_violations_total", "Times a client sent more samples than it had credits for.",
+				metrics.creditViolations());
+		
+		counter(text, "recorder_duplicate_messages_total",
+				"Retransmitted messages acknowledged without being recorded again.", metrics.duplicates());
+		
+		counter(text, "recorder_udp_datagrams_total", "Datagrams received.", metrics.datagrams());
+		counter(text, "recorder_udp_datagrams_lost_total",
+				"Datagrams missing from the sequence numbers of their senders.", metrics.datagramsLost());
+		header(text, "recorder_udp_datagrams_dropped_total",
+				"Datagrams received but not recorded, by reason: they arrived after a later one of their sender, "
+						+ "were malformed, or came from more senders than are tracked.", "counter");
+		for (int i = 0; i < ServerMetrics.DATAGRAM_DROPPED_REASONS.length; i++) {
+			text.append("recorder_udp_datagrams_dropped_total{reason=\"")
+					.append(ServerMetrics.DATAGRAM_DROPPED_REASONS[i]).append("\"} ")
+					.append(metrics.datagramsDropped(i)).append('\n');
+		}
+		
+		header(text, "recorder_connection_messages_total", "Messages received per connection.", "counter");
+		for (ConnectionMetrics connection : metrics.openConnections()) {
+			connectionSample(text, "recorder_connection_messages_total", connection, connection.messages.sum());
+		}
+		header(text, "recorder_connection_samples_received_total", "Samples received per connection.", "counter");
+		for (ConnectionMetrics connection : metrics.openConnections()) {
+			connectionSample(text, "recorder_connection_samples_received_total", connection,
+					connection.samples.sum());
+		}
+		header(text, "recorder_connection_bytes_received_total", "Bytes received per connection.", "counter");
+		for (ConnectionMetrics connection : metrics.openConnections()) {
+			connectionSample(text, "recorder_connection_bytes_received_total", connection,
+					connection.bytesReceived.sum());
+		}
+		header(text, "recorder_connection_bytes_sent_total", "Bytes sent per connection.", "counter");
+		for (ConnectionMetrics connection : metrics.openConnections()) {
+			connectionSample(text, "recorder_connection_bytes_sent_total", connection, connection.bytesSent.sum());
+		}
+		
+		histogram(text, "recorder_parse_to_ack_seconds",
+				"Time from the start of parsing a message until its response was written.", metrics.parseToAck());
+		histogram(text, "recorder_write_batch_seconds", "Time the recording writer took per batch of data points.",
+				metrics.writeBatch());
+		histogram(text, "recorder_sync_seconds", "Time the recording writer took to sync a recording to disk.",
+				metrics.sync());
+		
+		return text.toString();
+	}
+	
+	private static void header(final StringBuilder text, final String name, final String help, final String type) {
+		text.append("# HELP ").append(name).append(' ').append(help).append('\n');
+		text.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+	}
+	
+	private static void counter(final StringBuilder text, final String name, final String help, final long value) {
+		header(text, name, help, "counter");
+		text.append(name).append(' ').append(value).append('\n');
+	}
+	
+	private static void gauge(final StringBuilder text, final String name, final String help, final long value) {
+		header(text, name, help, "gauge");
+		text.append(name).append(' ').append(value).append('\n');
+	}
+	
+	// session ids may hold any character, so quotes, backslashes and line feeds are escaped
+	private static String labelValue(final String value) {
+		return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+	
+	private static void connectionSample(final StringBuilder text, final String name,
+			final ConnectionMetrics connection, final long value) {
+		text.append(name).append("{connection=\"").append(connection.getConnectionId()).append("\"} ").append(value)
+				.append('\n');
+	}
+	
+	private static void histogram(final StringBuilder text, final String name, final String help,
+			final LatencyHistogram histogram) {
+		header(text, name, help, "histogram");
+		
+		long cumulative = 0;
+		for (int i = 0; i < histogram.bucketCount(); i++) {
+			cumulative += histogram.count(i);
+			long upperBound = histogram.upperBoundNanos(i);
+			
+			text.append(name).append("_bucket{le=\"")
+					.append(upperBound == Long.MAX_VALUE ? "+Inf" : Double.toString(upperBound / 1e9))
+					.append("\"} ").append(cumulative).append('\n');
+		}
+		
+		text.append(name).append("_sum ").append(histogram.sumNanos() / 1e9).append('\n');
+		text.append(name).append("_count ").append(cumulative).append('\n');
+	}
+}
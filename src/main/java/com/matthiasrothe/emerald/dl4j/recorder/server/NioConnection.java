@@ -0,0 +1,187 @@
+package com.matthiasrothe.emerald.dl4j.recorder.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+
+class NioConnection extends ClientConnection {
+	private static final int INITIAL_OUTPUT_BUFFER_SIZE = 8 * 1024;
+	// nothing more is read from a client that doesn't read its responses while this much output is pending
+	static final int MAX_PENDING_OUTPUT_SIZE = 1024 * 1024;
+	// how soon the ack scheduler tries again to release the responses of a connection that is busy
+	private static final long RELEASE_RETRY_MILLIS = 1;
+	
+	private final SocketChannel channel;
+	
+	private SelectionKey key;
+	
+	// kept in write mode between calls and reused for the whole connection
+	private ByteBuffer output = ByteBuffer.allocate(INITIAL_OUTPUT_BUFFER_SIZE);
+	// the output before this position only acknowledges durable samples and may be written
+	private int releasedBytes;
+	// the output before this position waits for the sample at heldSequence to become durable; the output after it
+	// is held back next, so a client that streams steadily still gets its responses
+	private int heldBytes;
+	private long heldSequence;
+	// whether the server releases the held output once its samples are durable
+	private boolean parked;
+	
+	private boolean closed;
+	
+	NioConnection(final Server server, final SocketChannel channel, final int connectionId) {
+		super(server, connectionId);
+		this.channel = channel;
+	}
+	
+	void register(final Selector selector) throws IOException {
+		key = channel.register(selector, SelectionKey.OP_READ, this);
+		server.clientConnected(connectionId, channel.socket().getInetAddress());
+	}
+	
+	void read() throws IOException {
+		int read = channel.read(input);
+		
+		if (read < 0) {
+			processEndOfStream();
+		} else {
+			processInput(read);
+		}
+	}
+	
+	@Override
+	protected void write(final byte[] bytes, final int offset, final int length) {
+		if (output.remaining() < length) {
+			output = grow(output, Math.max(output.capacity() * 2, output.position() + length));
+		}
+		
+		output.put(bytes, offset, length);
+	}
+	
+	// called by the selector loop once the channel is writable again
+	void flush() throws IOException {
+		outputLock.lock();
+		
+		try {
+			flushOutput();
+		} finally {
+			outputLock.unlock();
+		}
+	}
+	
+	// called by the ack scheduler once the durable sequence advanced
+	void releaseDurableOutput() {
+		// the ack scheduler must not wait for a connection that is busy reading; parked stays set meanwhile
+		if (!outputLock.tryLock()) {
+			server.getAckScheduler().schedule(this::releaseDurableOutput, RELEASE_RETRY_MILLIS, TimeUnit.MILLISECONDS);
+			return;
+		}
+		
+		try {
+			parked = false;
+			flushOutput();
+			// the selector may be waiting with interest ops that no longer apply
+			key.selector().wakeup();
+		} catch (IOException e) {
+			// the reading side notices the broken connection as well and closes it
+		} finally {
+			outputLock.unlock();
+		}
+	}
+	
+	// the responses are held back instead of waiting for their samples to become durable
+	@Override
+	protected void awaitDurable() {
+	}
+	
+	@Override
+	protected void flushOutput() throws IOException {
+		if (closed) {
+			return;
+		}
+		
+		releaseDurableBytes();
+		
+		if (releasedBytes > 0) {
+			int end = output.position();
+			output.flip().limit(releasedBytes);
+			int written = channel.write(output);
+			output.limit(end);
+			output.compact();
+			
+			releasedBytes -= written;
+			heldBytes = Math.max(0, heldBytes - written);
+		}
+		
+		if (output.position() == 0 && closeRequested) {
+			close();
+			return;
+		}
+		
+		// every message read adds a response, so the output only stops growing once reading stops
+		boolean read = !closeRequested && output.position() < MAX_PENDING_OUTPUT_SIZE;
+		key.interestOps((read ? SelectionKey.OP_READ : 0) | (releasedBytes > 0 ? SelectionKey.OP_WRITE : 0));
+	}
+	
+	// releases the output whose samples are durable, and holds back the rest until they are
+	private void releaseDurableBytes() {
+		if (heldBytes > releasedBytes) {
+			if (!server.isDurable(heldSequence)) {
+				park();
+				return;
+			}
+			
+			releasedBytes = heldBytes;
+		}
+		
+		int end = output.position();
+		long publishedSequence = lastPublishedSequence();
+		
+		if (end > releasedBytes) {
+			if (server.isDurable(publishedSequence)) {
+				releasedBytes = end;
+			} else {
+				heldBytes = end;
+				heldSequence = publishedSequence;
+				park();
+			}
+		}
+	}
+	
+	private void park() {
+		if (!parked) {
+			parked = true;
+			server.releaseWhenDurable(this, heldSequence);
+		}
+	}
+	
+	void close() {
+		outputLock.lock();
+		
+		try {
+			if (closed) {
+				return;
+			}
+			
+			closed = true;
+		} finally {
+			outputLock.unlock();
+		}
+		
+		if (key != null) {
+			key.cancel();
+		}
+		
+		try {
+			channel.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		
+		if (key != null) {
+			connectionClosed();
+		}
+	}
+}
@@ -0,0 +1,61 @@
+package com.matthiasrothe.emerald.dl4j.recorder.server;
+
+public class PipelineStatistics {
+	private final int capacity;
+	private final long queueDepth;
+	private final long maxQueueDepth;
+	private final long publishedEntries;
+	private final long producerWaits;
+	private final long batches;
+	private final long droppedEntries;
+	
+	PipelineStatistics(final int capacity, final long queueDepth, final long maxQueueDepth,
+			final long publishedEntries, final long producerWaits, final long batches, final long droppedEntries) {
+		this.capacity = capacity;
+		this.queueDepth = queueDepth;
+		this.maxQueueDepth = maxQueueDepth;
+		this.publishedEntries = publishedEntries;
+		this.producerWaits = producerWaits;
+		this.batches = batches;
+		this.droppedEntries = droppedEntries;
+	}
+	
+	public int getCapacity() {
+		return capacity;
+	}
+	
+	// entries published by the ingest threads but not yet handled by the writer
+	public long getQueueDepth() {
+		return queueDepth;
+	}
+	
+	// highest queue depth the writer has seen so far
+	public long getMaxQueueDepth() {
+		return maxQueueDepth;
+	}
+	
+	public long getPublishedEntries() {
+		return publishedEntries;
+	}
+	
+	// number of times an ingest thread had to wait because the pipeline was full
+	public long getProducerWaits() {
+		return producerWaits;
+	}
+	
+	public long getBatches() {
+		return batches;
+	}
+	
+	// entries the ingest threads couldn't publish because the writer had stopped
+	public long getDroppedEntries() {
+		return droppedEntries;
+	}
+	
+	@Override
+	public String toString() {
+		return "PipelineStatistics [capacity=" + capacity + ", queueDepth=" + queueDepth + ", maxQueueDepth="
+				+ maxQueueDepth + ", publishedEntries=" + publishedEntries + ", producerWaits=" + producerWaits
+				+ ", batches=" + batches + ", droppedEntries=" + droppedEntries + "]";
+	}
+}
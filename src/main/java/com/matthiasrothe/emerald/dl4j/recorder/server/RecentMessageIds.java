@@ -0,0 +1,104 @@
+package com.matthiasrothe.emerald.dl4j.recorder.server;
+
+/*
+ * The UUIDs of the last capacity messages of a connection, as pairs of longs. The oldest one is evicted when a new
+ * one is added. The ids are kept in insertion order in a ring and found through an open addressing table of ring
+ * positions with linear probing, at most half full. Its entries are removed by shifting the following ones back, so
+ * no tombstones pile up. Memory is fixed when the instance is created. Lookups allocate nothing.
+ *
+ * Instances aren't thread-safe.
+ */
+class RecentMessageIds {
+	// 16 bytes per id and up to 16 bytes of table per id, i.e. at most 32 MiB per connection
+	static final int MAX_CAPACITY = 1024 * 1024;
+	
+	private final long[] mostSignificantBits;
+	private final long[] leastSignificantBits;
+	// ring position + 1 of the id hashed to each slot; 0 if the slot is free
+	private final int[] table;
+	private final int mask;
+
+	// ring position of the oldest id, overwritten by the next one once the ring is full
+	private int oldest;
+	private int size;
+
+	RecentMessageIds(final int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("capacity must be at least 1");
+		} else if (capacity > MAX_CAPACITY) {
+			throw new IllegalArgumentException("capacity must be at most " + MAX_CAPACITY);
+		}
+
+		mostSignificantBits = new long[capacity];
+		leastSignificantBits = new long[capacity];
+		table = new int[Math.multiplyExact(Integer.highestOneBit(capacity), 4)];
+		mask = table.length - 1;
+	}
+
+	int capacity() {
+		return mostSignificantBits.length;
+	}
+
+	boolean contains(final long most, final long least) {
+		return find(most, least) >= 0;
+	}
+
+	// adds an id that isn't contained yet
+	void add(final long most, final long least) {
+		int position;
+
+		if (size == capacity()) {
+			position = oldest;
+			remove(find(mostSignificantBits[position], leastSignificantBits[position]));
+			oldest = oldest + 1 < capacity() ? oldest + 1 : 0;
+		} else {
+			position = size++;
+		}
+
+		mostSignificantBits[position] = most;
+		leastSignificantBits[position] = least;
+
+		int slot = home(most, least);
+		while (table[slot] != 0) {
+			slot = (slot + 1) & mask;
+		}
+		table[slot] = position + 1;
+	}
+
+	// the table slot of an id, -1 if it isn't contained
+	private int find(final long most, final long least) {
+		for (int slot = home(most, least); table[slot] != 0; slot = (slot + 1) & mask) {
+			int position = table[slot] - 1;
+
+			if (mostSignificantBits[position] == most && leastSignificantBits[position] == least) {
+				return slot;
+			}
+		}
+
+		return -1;
+	}
+
+	// frees a slot and moves back the entries after it that would no longer be found across it
+	private void remove(final int removed) {
+		int free = removed;
+
+		for (int slot = (free + 1) & mask; table[slot] != 0; slot = (slot + 1) & mask) {
+			int position = table[slot] - 1;
+			int home = home(mostSignificantBits[position], leastSignificantBits[position]);
+
+			// the entry may move to the free slot unless its home lies cyclically in between
+			if (((slot - home) & mask) >= ((slot - free) & mask)) {
+				table[free] = table[slot];
+				free = slot;
+			}
+		}
+
+		table[free] = 0;
+	}
+
+	private int home(final long most, final long least) {
+		// the version and variant bits of a UUID are fixed, so all bits are mixed in
+		long hash = (most ^ Long.rotateLeft(least, 32)) * 0x9E3779B97F4A7C15L;
+		return (int) (hash ^ (hash >>> 32)) & mask;
+	}
+}
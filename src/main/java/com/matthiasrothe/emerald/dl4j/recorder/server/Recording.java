@@ -0,0 +1,243 @@
+package com.matthiasrothe.emerald.dl4j.recorder.server;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * One active recording; written and closed by the recording writer thread only. The samples of every sensor go into
+ * a sink of their own, opened when the sensor's first sample is written, with as many columns as that sample has
+ * values. Samples of the same sensor sent by another client with a different number of values are cut or padded
+ * with NaN to fit.
+ */
+class Recording {
+	// placeholder state of a session while the files of a new recording are being created
+	static final Recording STARTING = new Recording(-1, -1, (RecordingSink) null);
+	
+	// longest part of a sensor name taken over into file names
+	private static final int MAX_SENSOR_SUFFIX_LENGTH = 64;
+	// how often a wait for the close checks that the writer is still there to close the recording
+	private static final long WRITER_CHECK_MILLIS = 100;
+	
+	private final int fileNumber;
+	private final int label;
+	// null if the samples of all sensors go into the one sink
+	private final SensorSinkFactory sinkFactory;
+	private final RecordingSink sink;
+	
+	private final Map<String, SensorSink> sensorSinks = new HashMap<>();
+	private final Set<String> sensorSuffixes = new HashSet<>();
+	// consecutive samples mostly come from the same sensor, whose name is then the same instance
+	private String lastSensor;
+	private SensorSink lastSensorSink;
+	
+	private final long startedNanos = System.nanoTime();
+	private final CountDownLatch closed = new CountDownLatch(1);
+	private volatile IOException failure;
+	
+	// opens the sink of a sensor; the suffix is empty for samples that don't name their sensor, else "_<sensor>"
+	interface SensorSinkFactory {
+		RecordingSink open(String sensorSuffix, List<String> columns) throws IOException;
+	}
+	
+	private record SensorSink(RecordingSink sink, int columnCount) {
+	}
+	
+	// records the samples of all sensors into a single sink of x, y and z
+	Recording(final int fileNumber, final int label, final RecordingSink sink) {
+		this.fileNumber = fileNumber;
+		this.label = label;
+		this.sink = sink;
+		this.sinkFactory = null;
+	}
+	
+	Recording(final int fileNumber, final int label, final SensorSinkFactory sinkFactory) {
+		this.fileNumber = fileNumber;
+		this.label = label;
+		this.sink = null;
+		this.sinkFactory = sinkFactory;
+	}
+	
+	// x, y and z for samples of three values, value_0, value_1 and so on for all others
+	static List<String> columns(final int width) {
+		if (width == RecordingFormat.SAMPLE_COLUMNS.size()) {
+			return RecordingFormat.SAMPLE_COLUMNS;
+		}
+		
+		List<String> columns = new ArrayList<>(width);
+		for (int i = 0; i < width; i++) {
+			columns.add("value_" + i);
+		}
+		
+		return List.copyOf(columns);
+	}
+	
+	int getFileNumber() {
+		return fileNumber;
+	}
+	
+	int getLabel() {
+		return label;
+	}
+	
+	long getStartedNanos() {
+		return startedNanos;
+	}
+	
+	// returns the number of bytes written, 0 if the sample was dropped because the recording is already closed or
+	// failed; values must have room for SensorMessageDecoder.MAX_VALUES_PER_SAMPLE values
+	int write(final String sensor, final long timestamp, final double[] values, final int width) {
+		if (isClosed() || failure != null) {
+			return 0;
+		}
+		
+		try {
+			if (sinkFactory == null) {
+				return sink.append(timestamp, values, 0);
+			}
+			
+			SensorSink sensorSink = sensorSink(sensor, width);
+			
+			for (int i = width; i < sensorSink.columnCount(); i++) {
+				values[i] = Double.NaN;
+			}
+			
+			return sensorSink.sink().append(timestamp, values, 0);
+		} catch (IOException e) {
+			e.printStackTrace();
+			failure = e;
+			return 0;
+		}
+	}
+	
+	// fails the recording on an error other than an I/O error, like a bug in a sink; it's reported when the
+	// recording is stopped, like those of write
+	void fail(final RuntimeException e) {
+		e.printStackTrace();
+		
+		if (failure == null) {
+			failure = new IOException("Recording " + fileNumber + " failed", e);
+		}
+	}
+	
+	private SensorSink sensorSink(final String sensor, final int width) throws IOException {
+		if (sensor == lastSensor) {
+			return lastSensorSink;
+		}
+		
+		SensorSink sensorSink = sensorSinks.get(sensor);
+		
+		if (sensorSink == null) {
+			try {
+				sensorSink = new SensorSink(sinkFactory.open(sensorSuffix(sensor), columns(width)), width);
+			} catch (RuntimeException e) {
+				throw new IOException("Cannot record the samples of sensor " + sensor, e);
+			}
+			
+			sensorSinks.put(sensor, sensorSink);
+		}
+		
+		lastSensor = sensor;
+		lastSensorSink = sensorSink;
+		return sensorSink;
+	}
+	
+	// the sensor name with every character but letters, digits, '-' and '_' replaced, unique within the recording
+	private String sensorSuffix(final String sensor) {
+		if (sensor.isEmpty()) {
+			sensorSuffixes.add("");
+			return "";
+		}
+		
+		StringBuilder suffix = new StringBuilder("_");
+		for (int i = 0; i < sensor.length() && suffix.length() < MAX_SENSOR_SUFFIX_LENGTH; i++) {
+			char c = sensor.charAt(i);
+			suffix.append((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '-'
+					|| c == '_' ? c : '_');
+		}
+		
+		String unique = suffix.toString();
+		for (int n = 2; !sensorSuffixes.add(unique); n++) {
+			unique = suffix + "_" + n;
+		}
+		
+		return unique;
+	}
+	
+	// failures are reported when the recording is stopped, like those of write
+	void sync() {
+		if (isClosed() || failure != null) {
+			return;
+		}
+		
+		try {
+			for (RecordingSink recordingSink : sinks()) {
+				recordingSink.sync();
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			failure = e;
+		}
+	}
+	
+	void close() {
+		try {
+			for (RecordingSink recordingSink : sinks()) {
+				try {
+					recordingSink.close();
+				} catch (IOException e) {
+					if (failure == null) {
+						failure = e;
+					}
+				} catch (RuntimeException e) {
+					fail(e);
+				}
+			}
+		} finally {
+			closed.countDown();
+		}
+	}
+	
+	private List<RecordingSink> sinks() {
+		if (sinkFactory == null) {
+			return sink != null ? List.of(sink) : List.of();
+		}
+		
+		List<RecordingSink> sinks = new ArrayList<>(sensorSinks.size());
+		for (SensorSink sensorSink : sensorSinks.values()) {
+			sinks.add(sensorSink.sink());
+		}
+		
+		return sinks;
+	}
+	
+	boolean isClosed() {
+		return closed.getCount() == 0;
+	}
+	
+	// waits until the writer has written all samples published before the close and closed the file; fails if the
+	// writer thread ended before, as nothing would close the file then
+	void awaitClosed(final Thread writer) throws IOException {
+		try {
+			while (!closed.await(WRITER_CHECK_MILLIS, TimeUnit.MILLISECONDS)) {
+				if (!writer.isAlive() && !isClosed()) {
+					throw new IOException("Recording " + fileNumber + " can't be closed, the writer has stopped");
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for recording " + fileNumber + " to close");
+		}
+		
+		if (failure != null) {
+			throw failure;
+		}
+	}
+}
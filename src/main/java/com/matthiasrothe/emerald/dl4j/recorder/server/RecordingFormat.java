@@ -0,0 +1,96 @@
+package com.matthiasrothe.emerald.dl4j.recorder.server;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+import com.matthiasrothe.emerald.dl4j.recorder.format.ColumnarFormat;
+import com.matthiasrothe.emerald.dl4j.recorder.format.ColumnarWriter;
+import com.matthiasrothe.emerald.dl4j.recorder.format.CompressedFormat;
+import com.matthiasrothe.emerald.dl4j.recorder.format.CompressedWriter;
+import com.matthiasrothe.emerald.dl4j.recorder.format.ValueType;
+
+// the recording formats built in; each one is a factory of its sinks
+public enum RecordingFormat implements RecordingSinkFactory {
+	// one line of comma separated values per sample
+	CSV(".csv") {
+		@Override
+		public RecordingSink open(final Path dataDirectory, final String fileName, final int label,
+				final List<String> columns) throws IOException {
+			return new CsvRecordingSink(new FileOutputStream(file(dataDirectory, fileName).toFile()), false,
+					columns.size());
+		}
+	},
+	// the same lines, each preceded by the timestamp of the sample in microseconds since the epoch
+	CSV_TIMESTAMPED(".csv") {
+		@Override
+		public RecordingSink open(final Path dataDirectory, final String fileName, final int label,
+				final List<String> columns) throws IOException {
+			return new CsvRecordingSink(new FileOutputStream(file(dataDirectory, fileName).toFile()), true,
+					columns.size());
+		}
+	},
+	// the columnar binary format, values stored as doubles
+	COLUMNAR_DOUBLE(ColumnarFormat.FILE_EXTENSION) {
+		@Override
+		public RecordingSink open(final Path dataDirectory, final String fileName, final int label,
+				final List<String> columns) throws IOException {
+			return new ColumnarRecordingSink(new ColumnarWriter(file(dataDirectory, fileName), ValueType.DOUBLE,
+					columns, label), ValueType.DOUBLE, columns.size());
+		}
+	},
+	// the columnar binary format, values stored as floats
+	COLUMNAR_FLOAT(ColumnarFormat.FILE_EXTENSION) {
+		@Override
+		public RecordingSink open(final Path dataDirectory, final String fileName, final int label,
+				final List<String> columns) throws IOException {
+			return new ColumnarRecordingSink(new ColumnarWriter(file(dataDirectory, fileName), ValueType.FLOAT,
+					columns, label), ValueType.FLOAT, columns.size());
+		}
+	},
+	// blocks of doubles compressed off the receiving thread
+	COMPRESSED_DOUBLE(CompressedFormat.FILE_EXTENSION) {
+		@Override
+		public RecordingSink open(final Path dataDirectory, final String fileName, final int label,
+				final List<String> columns) throws IOException {
+			return new ColumnarRecordingSink(new CompressedWriter(file(dataDirectory, fileName), ValueType.DOUBLE,
+					columns, label), ValueType.DOUBLE, columns.size());
+		}
+	},
+	// blocks of floats compressed off the receiving thread
+	COMPRESSED_FLOAT(CompressedFormat.FILE_EXTENSION) {
+		@Override
+		public RecordingSink open(final Path dataDirectory, final String fileName, final int label,
+				final List<String> columns) throws IOException {
+			return new ColumnarRecordingSink(new CompressedWriter(file(dataDirectory, fileName), ValueType.FLOAT,
+					columns, label), ValueType.FLOAT, columns.size());
+		}
+	};
+	
+	static final List<String> SAMPLE_COLUMNS = List.of("x", "y", "z");
+	
+	private final String fileExtension;
+	
+	RecordingFormat(final String fileExtension) {
+		this.fileExtension = fileExtension;
+	}
+	
+	@Override
+	public RecordingSink open(final Path dataDirectory, final String fileName, final int label) throws IOException {
+		return open(dataDirectory, fileName, label, SAMPLE_COLUMNS);
+	}
+	
+	@Override
+	public abstract RecordingSink open(Path dataDirectory, String fileName, int label, List<String> columns)
+			throws IOException;
+	
+	@Override
+	public String getFileExtension() {
+		return fileExtension;
+	}
+	
+	Path file(final Path dataDirectory, final String fileName) {
+		return dataDirectory.resolve(fileName + fileExtension);
+	}
+}
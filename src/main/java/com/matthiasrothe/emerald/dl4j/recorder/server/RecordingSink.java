@@ -0,0 +1,30 @@
+package com.matthiasrothe.emerald.dl4j.recorder.server;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/*
+ * Receives the samples of one recording. A sink is opened by its RecordingSinkFactory when the recording starts,
+ * used by the recording writer thread only and closed when the recording stops.
+ */
+public interface RecordingSink extends Closeable {
+	// returns the number of bytes appended, for the metrics
+	int append(double x, double y, double z) throws IOException;
+	
+	// the timestamp is in microseconds since the epoch; sinks that don't keep timestamps ignore it
+	default int append(final long timestamp, final double x, final double y, final double z) throws IOException {
+		return append(x, y, z);
+	}
+	
+	// a sample of as many values as the sink has columns, starting at values[offset]; sinks opened for x, y and z
+	// only need not override it
+	default int append(final long timestamp, final double[] values, final int offset) throws IOException {
+		return append(timestamp, values[offset], values[offset + 1], values[offset + 2]);
+	}
+	
+	// writes all samples appended so far through to the storage device
+	void sync() throws IOException;
+	
+	@Override
+	void close() throws IOException;
+}
@@ -0,0 +1,24 @@
+package com.matthiasrothe.emerald.dl4j.recorder.server;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+public interface RecordingSinkFactory {
+	// opens the sink writing to <fileName><file extension> in the data directory, e.g. data_12.csv or, with segment
+	// rolling, data_12-0003.csv; the label file is written by the server
+	RecordingSink open(Path dataDirectory, String fileName, int label) throws IOException;
+	
+	// as above, for samples with the given columns, e.g. data_12_gyroscope.csv; factories that only record x, y and z
+	// need not override it
+	default RecordingSink open(final Path dataDirectory, final String fileName, final int label,
+			final List<String> columns) throws IOException {
+		if (columns.size() != 3) {
+			throw new IOException("Cannot record samples of " + columns.size() + " values into " + fileName);
+		}
+		
+		return open(dataDirectory, fileName, label);
+	}
+	
+	String getFileExtension();
+}
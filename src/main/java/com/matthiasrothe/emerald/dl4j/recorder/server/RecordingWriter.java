@@ -0,0 +1,136 @@
+package com.matthiasrothe.emerald.dl4j.recorder.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// drains the sample ring buffer in batches and writes the samples to their recordings
+class RecordingWriter implements Runnable {
+	private static final int MAX_BATCH_SIZE = 1024;
+	
+	private final SampleRingBuffer ringBuffer;
+	private final Server server;
+	
+	// the recordings written to since they were last synced, one per session recording at the time
+	private final List<Recording> unsynced = new ArrayList<>();
+	private long lastSync = System.nanoTime();
+	
+	// the values of the sample being written
+	private final double[] values = new double[SampleRingBuffer.MAX_VALUES_PER_SAMPLE];
+	
+	RecordingWriter(final SampleRingBuffer ringBuffer, final Server server) {
+		this.ringBuffer = ringBuffer;
+		this.server = server;
+	}
+	
+	@Override
+	public void run() {
+		try {
+			writeBatches();
+		} finally {
+			// producers waiting for a free slot would wait forever, and what they publish would never be written
+			ringBuffer.consumerStopped();
+		}
+	}
+	
+	private void writeBatches() {
+		while (!Thread.currentThread().isInterrupted()) {
+			Durability durability = server.getDurability();
+			long first = ringBuffer.consumedSequence() + 1;
+			long last = ringBuffer.awaitBatch(MAX_BATCH_SIZE, syncTimeoutNanos(durability));
+			int written = 0;
+			long bytesWritten = 0;
+			long started = System.nanoTime();
+			
+			for (long sequence = first; sequence <= last; sequence++) {
+				Recording recording = ringBuffer.recording(sequence);
+				boolean close = ringBuffer.kind(sequence) == SampleRingBuffer.KIND_CLOSE;
+				
+				try {
+					if (close) {
+						if (durability != Durability.BUFFERED) {
+							sync(recording);
+						}
+					} else {
+						int width = ringBuffer.width(sequence);
+						for (int i = 0; i < width; i++) {
+							values[i] = ringBuffer.value(sequence, i);
+						}
+						
+						int bytes = recording.write(ringBuffer.sensor(sequence), ringBuffer.timestamp(sequence),
+								values, width);
+						
+						if (bytes > 0) {
+							written++;
+							bytesWritten += bytes;
+							
+							// consecutive samples mostly belong to the same recording
+							if (unsynced.isEmpty() || (unsynced.get(unsynced.size() - 1) != recording
+									&& !unsynced.contains(recording))) {
+								unsynced.add(recording);
+							}
+						}
+					}
+				} catch (RuntimeException e) {
+					// fails only the recording of the sample; the writer goes on for all others
+					recording.fail(e);
+					unsynced.remove(recording);
+				}
+				
+				if (close) {
+					recording.close();
+					unsynced.remove(recording);
+				}
+			}
+			
+			if (written > 0) {
+				server.getMetrics().dataPointsWritten(written, bytesWritten, System.nanoTime() - started);
+				server.dataPointsWritten(written);
+			}
+			
+			boolean syncDue = durability == Durability.ACK_AFTER_SYNC || (durability == Durability.GROUP_COMMIT
+					&& System.nanoTime() - lastSync >= groupCommitIntervalNanos());
+			
+			while (syncDue && !unsynced.isEmpty()) {
+				sync(unsynced.get(unsynced.size() - 1));
+			}
+			
+			if (last >= first) {
+				ringBuffer.release(first, last);
+			}
+			
+			// with nothing left to sync, every sample up to the end of the batch is as durable as it gets
+			if (unsynced.isEmpty()) {
+				server.durableSequenceAdvanced(last);
+			}
+		}
+	}
+	
+	// how long to wait for samples before the next group commit is due; 0 to wait indefinitely
+	private long syncTimeoutNanos(final Durability durability) {
+		if (durability != Durability.GROUP_COMMIT || unsynced.isEmpty()) {
+			return 0;
+		}
+		
+		return Math.max(1, lastSync + groupCommitIntervalNanos() - System.nanoTime());
+	}
+	
+	private long groupCommitIntervalNanos() {
+		return TimeUnit.MILLISECONDS.toNanos(server.getGroupCommitIntervalMillis());
+	}
+	
+	private void sync(final Recording recording) {
+		long started = System.nanoTime();
+		
+		try {
+			recording.sync();
+		} catch (RuntimeException e) {
+			recording.fail(e);
+		} finally {
+			unsynced.remove(recording);
+		}
+		
+		lastSync = System.nanoTime();
+		server.getMetrics().sync().record(lastSync - started);
+	}
+}
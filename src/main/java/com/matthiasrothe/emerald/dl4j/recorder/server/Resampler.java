@@ -0,0 +1,122 @@
+package com.matthiasrothe.emerald.dl4j.recorder.server;
+
+/*
+ * Turns the jittery, bursty samples of one sensor into a series at a fixed rate by interpolating linearly between
+ * consecutive samples. Each added sample yields the output samples up to its timestamp in a buffer allocated once,
+ * valid until the next one is added. A gap of more than MAX_GAP_PERIODS periods restarts the series at the sample
+ * after it instead of being bridged by made-up values, which also bounds the output of a single sample.
+ */
+class Resampler implements SampleBatch {
+	static final int MAX_GAP_PERIODS = 16;
+	
+	private static final int MAX_VALUES = SensorMessageDecoder.MAX_VALUES_PER_SAMPLE;
+	
+	private final double periodMicros;
+	private final double rateHertz;
+	
+	private boolean started;
+	private long lastTimestamp;
+	private final double[] last = new double[MAX_VALUES];
+	private int width;
+	// timestamp of the next output sample
+	private double nextOutput;
+	
+	private final long[] outputTimestamps = new long[MAX_GAP_PERIODS + 1];
+	private final double[] outputValues = new double[(MAX_GAP_PERIODS + 1) * MAX_VALUES];
+	private int outputCount;
+	private int sensor;
+	
+	Resampler(final double rateHertz) {
+		if (!(rateHertz > 0)) {
+			throw new IllegalArgumentException("rateHertz must be positive");
+		}
+		
+		this.rateHertz = rateHertz;
+		periodMicros = 1_000_000 / rateHertz;
+	}
+	
+	double rateHertz() {
+		return rateHertz;
+	}
+	
+	// returns the number of output samples; samples not newer than the last one are dropped
+	int add(final int sensor, final long timestamp, final SampleBatch samples, final int sample) {
+		this.sensor = sensor;
+		outputCount = 0;
+		
+		if (started && timestamp <= lastTimestamp) {
+			return 0;
+		}
+		
+		// a sensor's samples all have the same width, but a new series may start with another one
+		if (!started || samples.width(sample) != width || timestamp - lastTimestamp > MAX_GAP_PERIODS * periodMicros) {
+			started = true;
+			width = samples.width(sample);
+			nextOutput = timestamp;
+		} else {
+			double span = timestamp - lastTimestamp;
+			
+			while (nextOutput < timestamp) {
+				double fraction = (nextOutput - lastTimestamp) / span;
+				int base = outputCount * MAX_VALUES;
+				
+				for (int i = 0; i < width; i++) {
+					outputValues[base + i] = last[i] + fraction * (samples.value(sample, i) - last[i]);
+				}
+				
+				output();
+			}
+		}
+		
+		// a sample right on the grid is taken as it is
+		if (nextOutput == timestamp) {
+			int base = outputCount * MAX_VALUES;
+			
+			for (int i = 0; i < width; i++) {
+				outputValues[base + i] = samples.value(sample, i);
+			}
+			
+			output();
+		}
+		
+		lastTimestamp = timestamp;
+		
+		for (int i = 0; i < width; i++) {
+			last[i] = samples.value(sample, i);
+		}
+		
+		return outputCount;
+	}
+	
+	// the values of the output sample are already in place
+	private void output() {
+		outputTimestamps[outputCount] = Math.round(nextOutput);
+		outputCount++;
+		nextOutput += periodMicros;
+	}
+	
+	@Override
+	public int sampleCount() {
+		return outputCount;
+	}
+	
+	@Override
+	public double value(final int sample, final int component) {
+		return outputValues[sample * MAX_VALUES + component];
+	}
+	
+	@Override
+	public int width(final int sample) {
+		return width;
+	}
+	
+	@Override
+	public int sensor(final int sample) {
+		return sensor;
+	}
+	
+	@Override
+	public long timestamp(final int sample) {
+		return outputTimestamps[sample];
+	}
+}
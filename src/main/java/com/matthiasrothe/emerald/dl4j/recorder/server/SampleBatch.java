@@ -0,0 +1,16 @@
+package com.matthiasrothe.emerald.dl4j.recorder.server;
+
+// samples decoded from one message, independent of the wire encoding they were received in
+interface SampleBatch {
+	int sampleCount();
+	double value(int sample, int component);
+	
+	// the number of values of the sample, at least 1 and at most SensorMessageDecoder.MAX_VALUES_PER_SAMPLE
+	int width(int sample);
+	
+	// the sender's number for the sensor, unique within its connection
+	int sensor(int sample);
+	
+	// microseconds since the epoch, or TimestampParser.NO_TIMESTAMP if the message didn't carry a valid one
+	long timestamp(int sample);
+}
@@ -0,0 +1,308 @@
+package com.matthiasrothe.emerald.dl4j.recorder.server;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ * Bounded, preallocated multi-producer single-consumer ring buffer carrying samples as primitives from the
+ * ingest threads to the recording writer. Producers claim a sequence number, fill the slot and publish it;
+ * the consumer drains all contiguously published slots in one batch. Every slot has room for the widest sample,
+ * MAX_VALUES_PER_SAMPLE values.
+ */
+class SampleRingBuffer {
+	static final int KIND_SAMPLE = 0;
+	static final int KIND_CLOSE = 1;
+	
+	static final int MAX_VALUES_PER_SAMPLE = SensorMessageDecoder.MAX_VALUES_PER_SAMPLE;
+	// returned instead of a sequence once the consumer has stopped
+	static final long NOT_PUBLISHED = -1;
+	
+	private static final int SPIN_TRIES = 100;
+	private static final int YIELD_TRIES = 100;
+	private static final long PARK_NANOS = 100_000;
+	
+	private final int capacity;
+	private final int mask;
+	private final WaitStrategy waitStrategy;
+	
+	private final double[] values;
+	private final int[] widths;
+	private final String[] sensors;
+	private final long[] timestamps;
+	private final int[] kinds;
+	private final Recording[] recordings;
+	private final AtomicLongArray published;
+	
+	private final AtomicLong claimed = new AtomicLong(-1);
+	private final AtomicLong consumed = new AtomicLong(-1);
+	
+	private volatile Thread consumer;
+	private volatile boolean consumerWaiting;
+	// set once the consumer has handled its last batch; nothing publishes after that
+	private volatile boolean consumerStopped;
+	
+	private final LongAdder producerWaits = new LongAdder();
+	private final LongAdder droppedEntries = new LongAdder();
+	private volatile long maxQueueDepth;
+	private volatile long batches;
+	
+	SampleRingBuffer(final int capacity, final WaitStrategy waitStrategy) {
+		if (capacity < 2 || Integer.bitCount(capacity) != 1) {
+			throw new IllegalArgumentException("capacity must be a power of two, but was " + capacity);
+		}
+		
+		this.capacity = capacity;
+		this.mask = capacity - 1;
+		this.waitStrategy = waitStrategy;
+		
+		values = new double[capacity * MAX_VALUES_PER_SAMPLE];
+		widths = new int[capacity];
+		sensors = new String[capacity];
+		timestamps = new long[capacity];
+		kinds = new int[capacity];
+		recordings = new Recording[capacity];
+		published = new AtomicLongArray(capacity);
+		
+		for (int i = 0; i < capacity; i++) {
+			published.set(i, -1);
+		}
+	}
+	
+	// returns the sequence the sample was published at, NOT_PUBLISHED if the consumer has stopped
+	long publishSample(final Recording recording, final String sensor, final long timestamp,
+			final SampleBatch samples, final int sample) {
+		long sequence = claim();
+		
+		if (sequence == NOT_PUBLISHED) {
+			return NOT_PUBLISHED;
+		}
+		
+		int index = (int) sequence & mask;
+		int valueIndex = index * MAX_VALUES_PER_SAMPLE;
+		int width = samples.width(sample);
+		
+		for (int i = 0; i < width; i++) {
+			values[valueIndex + i] = samples.value(sample, i);
+		}
+		
+		publishSample(index, sequence, recording, sensor, timestamp, width);
+		return sequence;
+	}
+	
+	long publishSample(final Recording recording, final String sensor, final long timestamp, final double[] source,
+			final int offset, final int width) {
+		long sequence = claim();
+		
+		if (sequence == NOT_PUBLISHED) {
+			return NOT_PUBLISHED;
+		}
+		
+		int index = (int) sequence & mask;
+		System.arraycopy(source, offset, values, index * MAX_VALUES_PER_SAMPLE, width);
+		
+		publishSample(index, sequence, recording, sensor, timestamp, width);
+		return sequence;
+	}
+	
+	private void publishSample(final int index, final long sequence, final Recording recording, final String sensor,
+			final long timestamp, final int width) {
+		kinds[index] = KIND_SAMPLE;
+		recordings[index] = recording;
+		sensors[index] = sensor;
+		timestamps[index] = timestamp;
+		widths[index] = width;
+		
+		publish(index, sequence);
+	}
+	
+	// nothing closes the recording if the consumer has stopped, which Recording.awaitClosed notices
+	void publishClose(final Recording recording) {
+		long sequence = claim();
+		
+		if (sequence == NOT_PUBLISHED) {
+			return;
+		}
+		
+		int index = (int) sequence & mask;
+		
+		kinds[index] = KIND_CLOSE;
+		recordings[index] = recording;
+		
+		publish(index, sequence);
+	}
+	
+	// gives up, counting the entry as dropped, once the consumer has stopped, as the slot would never be freed or read
+	private long claim() {
+		if (consumerStopped) {
+			droppedEntries.increment();
+			return NOT_PUBLISHED;
+		}
+		
+		long sequence = claimed.incrementAndGet();
+		long wrapPoint = sequence - capacity;
+		
+		if (consumed.get() < wrapPoint) {
+			producerWaits.increment();
+			
+			for (int tries = 0; consumed.get() < wrapPoint; tries++) {
+				if (consumerStopped) {
+					droppedEntries.increment();
+					return NOT_PUBLISHED;
+				}
+				
+				backOff(tries);
+			}
+		}
+		
+		return sequence;
+	}
+	
+	// called by the consumer when it stops for good
+	void consumerStopped() {
+		consumerStopped = true;
+	}
+	
+	private void publish(final int index, final long sequence) {
+		published.set(index, sequence);
+		
+		if (consumerWaiting) {
+			consumerWaiting = false;
+			LockSupport.unpark(consumer);
+		}
+	}
+	
+	// waits until the slot after the last consumed one is published and returns the last sequence of the batch
+	long awaitBatch(final int maxBatchSize) {
+		return awaitBatch(maxBatchSize, 0);
+	}
+	
+	// as above, but returns an empty batch, the last consumed sequence, once a positive timeout has elapsed
+	long awaitBatch(final int maxBatchSize, final long timeoutNanos) {
+		long next = consumed.get() + 1;
+		long deadline = System.nanoTime() + timeoutNanos;
+		
+		for (int tries = 0; published.get((int) next & mask) != next; tries++) {
+			if (Thread.currentThread().isInterrupted()
+					|| (timeoutNanos > 0 && tries >= SPIN_TRIES && System.nanoTime() - deadline >= 0)) {
+				return next - 1;
+			}
+			
+			awaitPublication(next, tries);
+		}
+		
+		long last = next;
+		long limit = next + maxBatchSize - 1;
+		
+		while (last < limit && published.get((int) (last + 1) & mask) == last + 1) {
+			last++;
+		}
+		
+		// producers waiting for a free slot have claimed sequences beyond the capacity
+		long depth = Math.min(claimed.get() - next + 1, capacity);
+		
+		if (depth > maxQueueDepth) {
+			maxQueueDepth = depth;
+		}
+		
+		batches++;
+		return last;
+	}
+	
+	int kind(final long sequence) {
+		return kinds[(int) sequence & mask];
+	}
+	
+	Recording recording(final long sequence) {
+		return recordings[(int) sequence & mask];
+	}
+	
+	double value(final long sequence, final int component) {
+		return values[((int) sequence & mask) * MAX_VALUES_PER_SAMPLE + component];
+	}
+	
+	int width(final long sequence) {
+		return widths[(int) sequence & mask];
+	}
+	
+	String sensor(final long sequence) {
+		return sensors[(int) sequence & mask];
+	}
+	
+	long timestamp(final long sequence) {
+		return timestamps[(int) sequence & mask];
+	}
+	
+	void release(final long first, final long last) {
+		for (long sequence = first; sequence <= last; sequence++) {
+			recordings[(int) sequence & mask] = null;
+			sensors[(int) sequence & mask] = null;
+		}
+		
+		consumed.set(last);
+	}
+	
+	int capacity() {
+		return capacity;
+	}
+	
+	// entries claimed by producers but not yet handled by the writer
+	long queueDepth() {
+		return Math.min(claimed.get() - consumed.get(), capacity);
+	}
+	
+	long consumedSequence() {
+		return consumed.get();
+	}
+	
+	PipelineStatistics statistics() {
+		long published = claimed.get() + 1;
+		long depth = Math.min(published - consumed.get() - 1, capacity);
+		return new PipelineStatistics(capacity, depth, maxQueueDepth, published, producerWaits.sum(), batches,
+				droppedEntries.sum());
+	}
+	
+	private void awaitPublication(final long sequence, final int tries) {
+		switch (waitStrategy) {
+			case BUSY_SPIN:
+				Thread.onSpinWait();
+				break;
+			case YIELDING:
+				if (tries < SPIN_TRIES) {
+					Thread.onSpinWait();
+				} else {
+					Thread.yield();
+				}
+				break;
+			case SLEEPING:
+				backOff(tries);
+				break;
+			case BLOCKING:
+				if (tries < SPIN_TRIES) {
+					Thread.onSpinWait();
+				} else {
+					consumer = Thread.currentThread();
+					consumerWaiting = true;
+					
+					// re-check after announcing the wait so a concurrent publish can't be missed
+					if (published.get((int) sequence & mask) != sequence) {
+						LockSupport.parkNanos(this, 10 * PARK_NANOS);
+					}
+					
+					consumerWaiting = false;
+				}
+				break;
+		}
+	}
+	
+	private static void backOff(final int tries) {
+		if (tries < SPIN_TRIES) {
+			Thread.onSpinWait();
+		} else if (tries < SPIN_TRIES + YIELD_TRIES) {
+			Thread.yield();
+		} else {
+			LockSupport.parkNanos(PARK_NANOS);
+		}
+	}
+}
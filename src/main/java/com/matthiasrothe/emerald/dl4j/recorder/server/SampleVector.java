@@ -0,0 +1,50 @@
+package com.matthiasrothe.emerald.dl4j.recorder.server;
+
+// a single sample in an array allocated once, for samples that don't come from a decoder, like those of the tree
+// builder path
+class SampleVector implements SampleBatch {
+	private final double[] values = new double[SensorMessageDecoder.MAX_VALUES_PER_SAMPLE];
+	private int width;
+	private int sensor;
+	private long timestamp;
+	
+	// the values are filled in through values() afterwards
+	void set(final int sensor, final long timestamp, final int width) {
+		if (width < 1 || width > values.length) {
+			throw new IllegalArgumentException("A sample has 1 to " + values.length + " values, not " + width);
+		}
+		
+		this.sensor = sensor;
+		this.timestamp = timestamp;
+		this.width = width;
+	}
+	
+	double[] values() {
+		return values;
+	}
+	
+	@Override
+	public int sampleCount() {
+		return 1;
+	}
+	
+	@Override
+	public double value(final int sample, final int component) {
+		return values[component];
+	}
+	
+	@Override
+	public int width(final int sample) {
+		return width;
+	}
+	
+	@Override
+	public int sensor(final int sample) {
+		return sensor;
+	}
+	
+	@Override
+	public long timestamp(final int sample) {
+		return timestamp;
+	}
+}
@@ -0,0 +1,35 @@
+package com.matthiasrothe.emerald.dl4j.recorder.server;
+
+// when a recording is continued in a new segment file; a limit of 0 doesn't apply
+public class SegmentRolling {
+	private final long maxBytes;
+	private final long maxSamples;
+	private final long maxMillis;
+	
+	public SegmentRolling(final long maxBytes, final long maxSamples, final long maxMillis) {
+		if (maxBytes < 0 || maxSamples < 0 || maxMillis < 0) {
+			throw new IllegalArgumentException("Limits must not be negative");
+		}
+		
+		if (maxBytes == 0 && maxSamples == 0 && maxMillis == 0) {
+			throw new IllegalArgumentException("At least one limit must be set");
+		}
+		
+		this.maxBytes = maxBytes;
+		this.maxSamples = maxSamples;
+		this.maxMillis = maxMillis;
+	}
+	
+	// a segment may exceed this size by the bytes of one sample
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+	
+	public long getMaxSamples() {
+		return maxSamples;
+	}
+	
+	public long getMaxMillis() {
+		return maxMillis;
+	}
+}
@@ -0,0 +1,229 @@
+package com.matthiasrothe.emerald.dl4j.recorder.server;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import net.sf.jetro.tree.JsonArray;
+import net.sf.jetro.tree.JsonObject;
+import net.sf.jetro.tree.JsonProperty;
+import net.sf.jetro.tree.JsonString;
+
+/*
+ * Writes a recording into numbered segment files, data_N-0000.csv, data_N-0001.csv and so on, rolling over to the
+ * next one when the current one reaches a limit. The manifest recording_N.json ties the segments to the recording,
+ * its label and its columns; it lists every finished segment as soon as it is closed, so a downstream job can process
+ * those while the recording goes on, and is marked complete once the recording has stopped. The samples of a named
+ * sensor go into data_N_<sensor>-0000.csv and so on, listed in recording_N_<sensor>.json.
+ * 
+ * Rolling over only opens the next file on the recording writer thread; syncing and closing the finished segment
+ * and updating the manifest run on a thread of their own.
+ */
+class SegmentedRecordingSink implements RecordingSink {
+	private final RecordingSinkFactory factory;
+	private final Path dataDirectory;
+	private final int fileNumber;
+	private final String sensorSuffix;
+	private final int label;
+	private final List<String> columns;
+	private final SegmentRolling rolling;
+	private final long maxNanos;
+	
+	private final ExecutorService segmentCloser;
+	private volatile IOException closeFailure;
+	// only accessed by the segment closer, except before it is used for the first time
+	private final JsonArray finishedSegments = new JsonArray();
+	
+	private RecordingSink segment;
+	private int segmentNumber = -1;
+	private long segmentBytes;
+	private long segmentSamples;
+	private long segmentStartedNanos;
+	private long segmentStartedMillis;
+	
+	SegmentedRecordingSink(final RecordingSinkFactory factory, final Path dataDirectory, final int fileNumber,
+			final int label, final SegmentRolling rolling) throws IOException {
+		this(factory, dataDirectory, fileNumber, "", label, RecordingFormat.SAMPLE_COLUMNS, rolling);
+	}
+	
+	// the sensor suffix is empty or "_<sensor>"
+	SegmentedRecordingSink(final RecordingSinkFactory factory, final Path dataDirectory, final int fileNumber,
+			final String sensorSuffix, final int label, final List<String> columns, final SegmentRolling rolling)
+			throws IOException {
+		this.factory = factory;
+		this.dataDirectory = dataDirectory;
+		this.fileNumber = fileNumber;
+		this.sensorSuffix = sensorSuffix;
+		this.label = label;
+		this.columns = columns;
+		this.rolling = rolling;
+		
+		maxNanos = TimeUnit.MILLISECONDS.toNanos(rolling.getMaxMillis());
+		
+		writeManifest(false);
+		openSegment();
+		
+		segmentCloser = Executors.newSingleThreadExecutor(
+				Thread.ofPlatform().name("segment-closer-" + fileNumber + sensorSuffix).daemon().factory());
+	}
+	
+	static String manifestFileName(final int fileNumber, final String sensorSuffix) {
+		return "recording_" + fileNumber + sensorSuffix + ".json";
+	}
+	
+	static String segmentFileName(final int fileNumber, final String sensorSuffix, final int segmentNumber) {
+		return String.format(Locale.ROOT, "data_%d%s-%04d", fileNumber, sensorSuffix, segmentNumber);
+	}
+	
+	private void openSegment() throws IOException {
+		segmentNumber++;
+		segment = factory.open(dataDirectory, segmentFileName(fileNumber, sensorSuffix, segmentNumber), label,
+				columns);
+		segmentBytes = 0;
+		segmentSamples = 0;
+		segmentStartedNanos = System.nanoTime();
+		segmentStartedMillis = System.currentTimeMillis();
+	}
+	
+	@Override
+	public int append(final double x, final double y, final double z) throws IOException {
+		if (isSegmentFull()) {
+			rollOver();
+		}
+		
+		return appended(segment.append(x, y, z));
+	}
+	
+	@Override
+	public int append(final long timestamp, final double x, final double y, final double z) throws IOException {
+		if (isSegmentFull()) {
+			rollOver();
+		}
+		
+		return appended(segment.append(timestamp, x, y, z));
+	}
+	
+	@Override
+	public int append(final long timestamp, final double[] values, final int offset) throws IOException {
+		if (isSegmentFull()) {
+			rollOver();
+		}
+		
+		return appended(segment.append(timestamp, values, offset));
+	}
+	
+	private int appended(final int bytes) {
+		segmentBytes += bytes;
+		segmentSamples++;
+		return bytes;
+	}
+	
+	// checked before a sample is appended, so that no segment is left empty
+	private boolean isSegmentFull() {
+		if (segmentSamples == 0) {
+			return false;
+		}
+		
+		return (rolling.getMaxSamples() > 0 && segmentSamples >= rolling.getMaxSamples())
+				|| (rolling.getMaxBytes() > 0 && segmentBytes >= rolling.getMaxBytes())
+				|| (maxNanos > 0 && System.nanoTime() - segmentStartedNanos >= maxNanos);
+	}
+	
+	private void rollOver() throws IOException {
+		finishSegment();
+		openSegment();
+	}
+	
+	// hands the current segment to the segment closer
+	private void finishSegment() {
+		RecordingSink finished = segment;
+		JsonObject description = new JsonObject();
+		description.add(new JsonProperty("file", segmentFileName(fileNumber, sensorSuffix, segmentNumber)
+				+ factory.getFileExtension()));
+		description.add(new JsonProperty("samples", segmentSamples));
+		description.add(new JsonProperty("bytes", segmentBytes));
+		description.add(new JsonProperty("startedMillis", segmentStartedMillis));
+		description.add(new JsonProperty("endedMillis", System.currentTimeMillis()));
+		
+		segmentCloser.execute(() -> {
+			try {
+				// a finished segment is complete on disk before the manifest lists it
+				finished.sync();
+				finished.close();
+				finishedSegments.add(description);
+				writeManifest(false);
+			} catch (IOException e) {
+				e.printStackTrace();
+				
+				if (closeFailure == null) {
+					closeFailure = e;
+				}
+			}
+		});
+	}
+	
+	private void writeManifest(final boolean complete) throws IOException {
+		JsonObject manifest = new JsonObject();
+		manifest.add(new JsonProperty("recording", fileNumber));
+		manifest.add(new JsonProperty("label", label));
+		
+		JsonArray columnNames = new JsonArray();
+		for (String column : columns) {
+			columnNames.add(new JsonString(column));
+		}
+		manifest.add(new JsonProperty("columns", columnNames));
+		manifest.add(new JsonProperty("complete", complete));
+		manifest.add(new JsonProperty("segments", finishedSegments));
+		
+		Server.writeAtomically(dataDirectory.resolve(manifestFileName(fileNumber, sensorSuffix)),
+				manifest.toJson().getBytes(StandardCharsets.UTF_8));
+	}
+	
+	// syncs the current segment and waits for the finished ones to be synced and closed
+	@Override
+	public void sync() throws IOException {
+		segment.sync();
+		
+		try {
+			segmentCloser.submit(() -> { }).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for finished segments to be closed");
+		} catch (ExecutionException e) {
+			throw new IOException(e.getCause());
+		}
+		
+		throwCloseFailure();
+	}
+	
+	@Override
+	public void close() throws IOException {
+		finishSegment();
+		segmentCloser.shutdown();
+		
+		try {
+			while (!segmentCloser.awaitTermination(1, TimeUnit.SECONDS)) {
+				// closing a large compressed segment may take a while
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for finished segments to be closed");
+		}
+		
+		throwCloseFailure();
+		writeManifest(true);
+	}
+	
+	private void throwCloseFailure() throws IOException {
+		if (closeFailure != null) {
+			throw closeFailure;
+		}
+	}
+}
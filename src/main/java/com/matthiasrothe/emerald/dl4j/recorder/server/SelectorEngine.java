@@ -0,0 +1,119 @@
+package com.matthiasrothe.emerald.dl4j.recorder.server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+class SelectorEngine {
+	private static final long SELECT_TIMEOUT_MILLIS = 500;
+	
+	private class SelectorLoop implements Runnable {
+		private final Selector selector;
+		private final Queue<NioConnection> pendingConnections = new ConcurrentLinkedQueue<>();
+		
+		SelectorLoop() throws IOException {
+			selector = Selector.open();
+		}
+		
+		void register(final NioConnection connection) {
+			pendingConnections.add(connection);
+			selector.wakeup();
+		}
+		
+		@Override
+		public void run() {
+			try {
+				while (!server.shouldAbort()) {
+					selector.select(this::handle, SELECT_TIMEOUT_MILLIS);
+					registerPendingConnections();
+				}
+			} catch (IOException e) {
+				e.printStackTrace();
+			} finally {
+				for (SelectionKey key : selector.keys()) {
+					((NioConnection) key.attachment()).close();
+				}
+				
+				try {
+					selector.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+		
+		private void registerPendingConnections() {
+			NioConnection connection;
+			
+			while ((connection = pendingConnections.poll()) != null) {
+				try {
+					connection.register(selector);
+				} catch (IOException e) {
+					connection.close();
+				}
+			}
+		}
+		
+		private void handle(final SelectionKey key) {
+			NioConnection connection = (NioConnection) key.attachment();
+			
+			try {
+				if (key.isValid() && key.isReadable()) {
+					connection.read();
+				}
+				
+				if (key.isValid() && key.isWritable()) {
+					connection.flush();
+				}
+			} catch (IOException e) {
+				// client went away without closing the connection properly
+				connection.close();
+			}
+		}
+	}
+	
+	private final Server server;
+	private final int port;
+	private final SelectorLoop[] selectorLoops;
+	
+	SelectorEngine(final Server server, final int port, final int selectorThreads) throws IOException {
+		this.server = server;
+		this.port = port;
+		
+		selectorLoops = new SelectorLoop[selectorThreads];
+		
+		for (int i = 0; i < selectorThreads; i++) {
+			selectorLoops[i] = new SelectorLoop();
+		}
+	}
+	
+	void run() throws IOException {
+		for (int i = 0; i < selectorLoops.length; i++) {
+			Thread.ofPlatform().name("selector-" + i).daemon().start(selectorLoops[i]);
+		}
+		
+		try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+			serverChannel.bind(new InetSocketAddress(port));
+			server.acceptingOn(serverChannel);
+			System.out.println("Server listening on port " + port + " (non-blocking)...");
+			
+			int nextSelectorLoop = 0;
+			
+			while (!server.shouldAbort()) {
+				SocketChannel channel = serverChannel.accept();
+				channel.configureBlocking(false);
+				// responses are written in bursts; don't let Nagle's algorithm hold them back for the delayed ACK
+				channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+				
+				selectorLoops[nextSelectorLoop].register(new NioConnection(server, channel, server.nextConnectionId()));
+				nextSelectorLoop = (nextSelectorLoop + 1) % selectorLoops.length;
+			}
+		}
+	}
+}
@@ -0,0 +1,787 @@
+package com.matthiasrothe.emerald.dl4j.recorder.server;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/*
+ * Allocation-free fast path for the common sensor messages. It decodes header.type, header.uuid and the
+ * body values straight from the received bytes into primitives. It is deliberately stricter
+ * than the tree builder: whenever a message isn't a well-formed single-value or batch message that would
+ * be accepted with status code 200, decode() returns false and the caller falls back to the tree builder,
+ * which then produces exactly the responses it always did.
+ *
+ * Instances are reused for all messages of one connection and aren't thread-safe.
+ */
+class SensorMessageDecoder implements SampleBatch {
+	static final int TYPE_SINGLE_VALUE = 1;
+	static final int TYPE_BATCH = 2;
+
+	static final int MAX_VALUES_PER_SAMPLE = 16;
+	static final int UUID_LENGTH = 36;
+
+	private static final byte[] HEADER = ascii("header");
+	private static final byte[] BODY = ascii("body");
+	private static final byte[] TYPE = ascii("type");
+	private static final byte[] UUID = ascii("uuid");
+	private static final byte[] VALUES = ascii("values");
+	private static final byte[] SENSOR = ascii("sensor");
+	private static final byte[] TIMESTAMP = ascii("timestamp");
+	private static final byte[] ACK_MODE = ascii("ackMode");
+	private static final byte[] ACK_COUNT = ascii("ackCount");
+	private static final byte[] ACK_INTERVAL_MILLIS = ascii("ackIntervalMillis");
+	private static final byte[] FLOW_CONTROL = ascii("flowControl");
+	private static final byte[] SESSION = ascii("session");
+	private static final byte[] SINGLE_VALUE = ascii("single-value");
+	private static final byte[] BATCH = ascii("batch");
+	// name of the sensor of samples that don't name one
+	static final byte[] NO_SENSOR = new byte[0];
+
+	private static final int MAX_NESTING_DEPTH = 32;
+	private static final int MAX_FAST_PATH_DIGITS = 15;
+	private static final double[] POWERS_OF_TEN = {
+			1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+			1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+	};
+
+	private byte[] bytes;
+	private int position;
+	private int end;
+
+	private int type;
+	private boolean bodyIsArray;
+	private int uuidOffset;
+	private long uuidMostSignificantBits;
+	private long uuidLeastSignificantBits;
+
+	// acknowledgement settings from the header; null, 0 and -1 if absent
+	private AckMode ackMode;
+	private int ackCount;
+	private long ackIntervalMillis;
+	// null if absent
+	private FlowControl flowControl;
+	// the bytes of header.session; -1 if absent
+	private int sessionStart;
+	private int sessionEnd;
+
+	// the values of sample i start at i * MAX_VALUES_PER_SAMPLE
+	private double[] samples = new double[MAX_VALUES_PER_SAMPLE * 64];
+	private int[] sampleWidths = new int[64];
+	private int[] sampleSensors = new int[64];
+	private long[] sampleTimestamps = new long[64];
+	private int sampleCount;
+	private final SensorTable sensors = new SensorTable();
+
+	// result of the last parseString() and parseNumber() calls
+	private int stringStart;
+	private int stringEnd;
+	private boolean stringEscaped;
+	private double number;
+
+	// the sensors and widths the message brings in are left uncommitted in sensors() for the caller to accept or
+	// roll back
+	boolean decode(final byte[] bytes, final int offset, final int length) {
+		this.bytes = bytes;
+		this.position = offset;
+		this.end = offset + length;
+
+		type = 0;
+		uuidOffset = -1;
+		sampleCount = 0;
+		ackMode = null;
+		ackCount = 0;
+		ackIntervalMillis = -1;
+		flowControl = null;
+		sessionStart = -1;
+		sessionEnd = -1;
+
+		if (!parseMessage()) {
+			return false;
+		}
+
+		skipWhitespace();
+
+		if (position != end || uuidOffset < 0) {
+			return false;
+		}
+
+		return (type == TYPE_SINGLE_VALUE && !bodyIsArray) || (type == TYPE_BATCH && bodyIsArray);
+	}
+
+	int type() {
+		return type;
+	}
+
+	@Override
+	public int sampleCount() {
+		return sampleCount;
+	}
+
+	@Override
+	public double value(final int sample, final int component) {
+		return samples[sample * MAX_VALUES_PER_SAMPLE + component];
+	}
+
+	@Override
+	public int width(final int sample) {
+		return sampleWidths[sample];
+	}
+
+	@Override
+	public int sensor(final int sample) {
+		return sampleSensors[sample];
+	}
+
+	@Override
+	public long timestamp(final int sample) {
+		return sampleTimestamps[sample];
+	}
+
+	// numbers the sensors of the connection, for the tree builder path as well
+	SensorTable sensors() {
+		return sensors;
+	}
+
+	long uuidMostSignificantBits() {
+		return uuidMostSignificantBits;
+	}
+
+	long uuidLeastSignificantBits() {
+		return uuidLeastSignificantBits;
+	}
+
+	int uuidOffset() {
+		return uuidOffset;
+	}
+
+	AckMode ackMode() {
+		return ackMode;
+	}
+
+	int ackCount() {
+		return ackCount;
+	}
+
+	long ackIntervalMillis() {
+		return ackIntervalMillis;
+	}
+
+	FlowControl flowControl() {
+		return flowControl;
+	}
+
+	int sessionStart() {
+		return sessionStart;
+	}
+
+	int sessionEnd() {
+		return sessionEnd;
+	}
+
+	String uuid() {
+		return new String(bytes, uuidOffset, UUID_LENGTH, StandardCharsets.ISO_8859_1);
+	}
+
+	private boolean parseMessage() {
+		boolean headerSeen = false;
+		boolean bodySeen = false;
+
+		skipWhitespace();
+
+		if (!expect('{')) {
+			return false;
+		}
+
+		do {
+			skipWhitespace();
+
+			if (!parseInterpretedKey()) {
+				return false;
+			}
+
+			if (stringEquals(HEADER)) {
+				if (headerSeen || !parseHeader()) {
+					return false;
+				}
+
+				headerSeen = true;
+			} else if (stringEquals(BODY)) {
+				if (bodySeen || !parseBody()) {
+					return false;
+				}
+
+				bodySeen = true;
+			} else if (!skipValue(0)) {
+				return false;
+			}
+
+			skipWhitespace();
+		} while (expect(','));
+
+		return expect('}') && headerSeen && bodySeen;
+	}
+
+	private boolean parseHeader() {
+		boolean typeSeen = false;
+		boolean uuidSeen = false;
+
+		if (!expect('{')) {
+			return false;
+		}
+
+		do {
+			skipWhitespace();
+
+			if (!parseInterpretedKey()) {
+				return false;
+			}
+
+			if (stringEquals(TYPE)) {
+				if (typeSeen || !parseString() || stringEscaped) {
+					return false;
+				}
+
+				if (stringEquals(SINGLE_VALUE)) {
+					type = TYPE_SINGLE_VALUE;
+				} else if (stringEquals(BATCH)) {
+					type = TYPE_BATCH;
+				} else {
+					return false;
+				}
+
+				typeSeen = true;
+			} else if (stringEquals(UUID)) {
+				if (uuidSeen || !parseString() || !parseUuid()) {
+					return false;
+				}
+
+				uuidSeen = true;
+			} else if (stringEquals(ACK_MODE)) {
+				if (ackMode != null || !parseString() || !parseAckMode()) {
+					return false;
+				}
+			} else if (stringEquals(ACK_COUNT)) {
+				if (ackCount != 0 || !parseNumber() || !AckMode.isValidCount(number)) {
+					return false;
+				}
+
+				ackCount = (int) number;
+			} else if (stringEquals(ACK_INTERVAL_MILLIS)) {
+				if (ackIntervalMillis != -1 || !parseNumber() || !AckMode.isValidIntervalMillis(number)) {
+					return false;
+				}
+
+				ackIntervalMillis = (long) number;
+			} else if (stringEquals(FLOW_CONTROL)) {
+				if (flowControl != null || !parseString() || !parseFlowControl()) {
+					return false;
+				}
+			} else if (stringEquals(SESSION)) {
+				if (sessionStart >= 0 || !parseString() || stringEscaped) {
+					return false;
+				}
+
+				sessionStart = stringStart;
+				sessionEnd = stringEnd;
+			} else if (!skipValue(1)) {
+				return false;
+			}
+
+			skipWhitespace();
+		} while (expect(','));
+
+		return expect('}') && typeSeen && uuidSeen;
+	}
+
+	private boolean parseBody() {
+		if (peek() == '{') {
+			bodyIsArray = false;
+			return parseSample();
+		}
+
+		if (!expect('[')) {
+			return false;
+		}
+
+		bodyIsArray = true;
+		skipWhitespace();
+
+		if (expect(']')) {
+			return true;
+		}
+
+		do {
+			skipWhitespace();
+
+			if (!parseSample()) {
+				return false;
+			}
+
+			skipWhitespace();
+		} while (expect(','));
+
+		return expect(']');
+	}
+
+	private boolean parseSample() {
+		boolean valuesSeen = false;
+		int sensor = -1;
+		long timestamp = TimestampParser.NO_TIMESTAMP;
+		boolean timestampSeen = false;
+
+		if (!expect('{')) {
+			return false;
+		}
+
+		do {
+			skipWhitespace();
+
+			if (!parseInterpretedKey()) {
+				return false;
+			}
+
+			if (stringEquals(VALUES)) {
+				if (valuesSeen || !parseValues()) {
+					return false;
+				}
+
+				valuesSeen = true;
+			} else if (stringEquals(SENSOR)) {
+				// escaped names are left to the tree builder, which compares them unescaped
+				if (sensor >= 0 || !parseString() || stringEscaped) {
+					return false;
+				}
+
+				sensor = sensors.id(bytes, stringStart, stringEnd);
+
+				if (sensor < 0) {
+					return false;
+				}
+			} else if (stringEquals(TIMESTAMP)) {
+				if (timestampSeen || !parseString()) {
+					return false;
+				}
+
+				// a malformed timestamp is replaced by the time of arrival, as on the tree builder path
+				timestampSeen = true;
+				timestamp = stringEscaped ? TimestampParser.NO_TIMESTAMP
+						: TimestampParser.parseMicros(bytes, stringStart, stringEnd);
+			} else if (!skipValue(2)) {
+				return false;
+			}
+
+			skipWhitespace();
+		} while (expect(','));
+
+		if (!expect('}') || !valuesSeen) {
+			return false;
+		}
+
+		if (sensor < 0) {
+			sensor = sensors.id(NO_SENSOR, 0, 0);
+		}
+
+		// a sensor's samples all have as many values as its first one
+		if (sensor < 0 || !sensors.acceptWidth(sensor, sampleWidths[sampleCount])) {
+			return false;
+		}
+
+		sampleSensors[sampleCount] = sensor;
+		sampleTimestamps[sampleCount] = timestamp;
+		sampleCount++;
+		return true;
+	}
+
+	private boolean parseValues() {
+		if (!expect('[')) {
+			return false;
+		}
+
+		int base = sampleCount * MAX_VALUES_PER_SAMPLE;
+
+		if (sampleCount == sampleWidths.length) {
+			samples = Arrays.copyOf(samples, samples.length * 2);
+			sampleWidths = Arrays.copyOf(sampleWidths, sampleWidths.length * 2);
+			sampleSensors = Arrays.copyOf(sampleSensors, sampleSensors.length * 2);
+			sampleTimestamps = Arrays.copyOf(sampleTimestamps, sampleTimestamps.length * 2);
+		}
+
+		int width = 0;
+
+		// empty arrays and more than MAX_VALUES_PER_SAMPLE values are rejected by the tree builder path as well
+		do {
+			if (width == MAX_VALUES_PER_SAMPLE || !skipWhitespaceAndParseNumber()) {
+				return false;
+			}
+
+			samples[base + width++] = number;
+			skipWhitespace();
+		} while (expect(','));
+
+		sampleWidths[sampleCount] = width;
+		return expect(']');
+	}
+
+	private boolean skipWhitespaceAndParseNumber() {
+		skipWhitespace();
+		return parseNumber();
+	}
+
+	private boolean parseKey() {
+		if (!parseString()) {
+			return false;
+		}
+
+		skipWhitespace();
+
+		if (!expect(':')) {
+			return false;
+		}
+
+		skipWhitespace();
+		return true;
+	}
+
+	private boolean parseInterpretedKey() {
+		// escaped keys could spell one of the keys we're looking for, so leave them to the tree builder
+		return parseKey() && !stringEscaped;
+	}
+
+	private boolean stringEquals(final byte[] expected) {
+		if (stringEnd - stringStart != expected.length) {
+			return false;
+		}
+
+		for (int i = 0; i < expected.length; i++) {
+			if (bytes[stringStart + i] != expected[i]) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	private boolean parseUuid() {
+		if (stringEscaped || stringEnd - stringStart != UUID_LENGTH) {
+			return false;
+		}
+
+		long mostSignificantBits = 0;
+		long leastSignificantBits = 0;
+
+		for (int i = 0; i < UUID_LENGTH; i++) {
+			byte b = bytes[stringStart + i];
+
+			if (i == 8 || i == 13 || i == 18 || i == 23) {
+				if (b != '-') {
+					return false;
+				}
+
+				continue;
+			}
+
+			int digit = hexDigit(b);
+
+			if (digit < 0) {
+				return false;
+			}
+
+			if (i < 18) {
+				mostSignificantBits = (mostSignificantBits << 4) | digit;
+			} else {
+				leastSignificantBits = (leastSignificantBits << 4) | digit;
+			}
+		}
+
+		uuidOffset = stringStart;
+		uuidMostSignificantBits = mostSignificantBits;
+		uuidLeastSignificantBits = leastSignificantBits;
+		return true;
+	}
+
+	private boolean parseAckMode() {
+		if (stringEscaped) {
+			return false;
+		}
+
+		for (AckMode mode : AckMode.values()) {
+			if (stringEquals(mode.getHeaderBytes())) {
+				ackMode = mode;
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	private boolean parseFlowControl() {
+		if (stringEscaped) {
+			return false;
+		}
+
+		for (FlowControl value : FlowControl.values()) {
+			if (stringEquals(value.getHeaderBytes())) {
+				flowControl = value;
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	private boolean skipValue(final int depth) {
+		if (depth > MAX_NESTING_DEPTH) {
+			return false;
+		}
+
+		switch (peek()) {
+			case '"':
+				return parseString();
+			case '{':
+				return skipObject(depth + 1);
+			case '[':
+				return skipArray(depth + 1);
+			case 't':
+				return expectLiteral("true");
+			case 'f':
+				return expectLiteral("false");
+			case 'n':
+				return expectLiteral("null");
+			default:
+				return parseNumber();
+		}
+	}
+
+	private boolean skipObject(final int depth) {
+		position++;
+		skipWhitespace();
+
+		if (expect('}')) {
+			return true;
+		}
+
+		do {
+			skipWhitespace();
+
+			if (!parseKey() || !skipValue(depth)) {
+				return false;
+			}
+
+			skipWhitespace();
+		} while (expect(','));
+
+		return expect('}');
+	}
+
+	private boolean skipArray(final int depth) {
+		position++;
+		skipWhitespace();
+
+		if (expect(']')) {
+			return true;
+		}
+
+		do {
+			skipWhitespace();
+
+			if (!skipValue(depth)) {
+				return false;
+			}
+
+			skipWhitespace();
+		} while (expect(','));
+
+		return expect(']');
+	}
+
+	private boolean parseString() {
+		if (!expect('"')) {
+			return false;
+		}
+
+		stringStart = position;
+		stringEscaped = false;
+
+		while (position < end) {
+			byte b = bytes[position];
+
+			if (b == '"') {
+				stringEnd = position++;
+				return true;
+			} else if (b == '\\') {
+				stringEscaped = true;
+
+				if (!skipEscapeSequence()) {
+					return false;
+				}
+			} else if (b >= 0 && b < 0x20) {
+				return false;
+			} else {
+				position++;
+			}
+		}
+
+		return false;
+	}
+
+	private boolean skipEscapeSequence() {
+		position++;
+
+		switch (peek()) {
+			case '"':
+			case '\\':
+			case '/':
+			case 'b':
+			case 'f':
+			case 'n':
+			case 'r':
+			case 't':
+				position++;
+				return true;
+			case 'u':
+				position++;
+
+				for (int i = 0; i < 4; i++) {
+					if (position >= end || hexDigit(bytes[position++]) < 0) {
+						return false;
+					}
+				}
+
+				return true;
+			default:
+				return false;
+		}
+	}
+
+	private boolean parseNumber() {
+		int start = position;
+		boolean negative = expect('-');
+		long mantissa = 0;
+		int digits = 0;
+		int exponent = 0;
+
+		if (expect('0')) {
+			// a leading zero must not be followed by further integer digits
+		} else if (isDigit(peek())) {
+			while (isDigit(peek())) {
+				if (digits > 0 || bytes[position] != '0') {
+					mantissa = appendDigit(mantissa, digits++);
+				}
+
+				position++;
+			}
+		} else {
+			return false;
+		}
+
+		if (expect('.')) {
+			if (!isDigit(peek())) {
+				return false;
+			}
+
+			while (isDigit(peek())) {
+				if (digits > 0 || bytes[position] != '0') {
+					mantissa = appendDigit(mantissa, digits++);
+				}
+
+				exponent--;
+				position++;
+			}
+		}
+
+		if (peek() == 'e' || peek() == 'E') {
+			position++;
+			boolean negativeExponent = expect('-');
+
+			if (!negativeExponent) {
+				expect('+');
+			}
+
+			if (!isDigit(peek())) {
+				return false;
+			}
+
+			int explicitExponent = 0;
+
+			while (isDigit(peek())) {
+				if (explicitExponent < 100_000) {
+					explicitExponent = explicitExponent * 10 + (bytes[position] - '0');
+				}
+
+				position++;
+			}
+
+			exponent += negativeExponent ? -explicitExponent : explicitExponent;
+		}
+
+		if (digits <= MAX_FAST_PATH_DIGITS && exponent >= -22 && exponent <= 22) {
+			// mantissa < 10^15 < 2^53 and 10^|exponent| are exact doubles, so a single IEEE operation yields
+			// the correctly rounded result (Clinger's fast path)
+			double value = exponent < 0 ? mantissa / POWERS_OF_TEN[-exponent] : mantissa * POWERS_OF_TEN[exponent];
+			number = negative ? -value : value;
+		} else {
+			number = Double.parseDouble(new String(bytes, start, position - start, StandardCharsets.ISO_8859_1));
+		}
+
+		return true;
+	}
+
+	private long appendDigit(final long mantissa, final int digits) {
+		// beyond the fast path digits the mantissa is irrelevant as the value is parsed by Double.parseDouble
+		return digits < MAX_FAST_PATH_DIGITS ? mantissa * 10 + (bytes[position] - '0') : mantissa;
+	}
+
+	private boolean expectLiteral(final String literal) {
+		for (int i = 0; i < literal.length(); i++) {
+			if (!expect(literal.charAt(i))) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	private void skipWhitespace() {
+		while (position < end) {
+			byte b = bytes[position];
+
+			if (b != ' ' && b != '\t' && b != '\n' && b != '\r') {
+				return;
+			}
+
+			position++;
+		}
+	}
+
+	private boolean expect(final char c) {
+		if (position < end && bytes[position] == c) {
+			position++;
+			return true;
+		}
+
+		return false;
+	}
+
+	private int peek() {
+		return position < end ? bytes[position] : -1;
+	}
+
+	private static boolean isDigit(final int c) {
+		return c >= '0' && c <= '9';
+	}
+
+	private static int hexDigit(final byte b) {
+		if (b >= '0' && b <= '9') {
+			return b - '0';
+		} else if (b >= 'a' && b <= 'f') {
+			return b - 'a' + 10;
+		} else if (b >= 'A' && b <= 'F') {
+			return b - 'A' + 10;
+		}
+
+		return -1;
+	}
+
+	private static byte[] ascii(final String s) {
+		return s.getBytes(StandardCharsets.US_ASCII);
+	}
+}
@@ -0,0 +1,102 @@
+package com.matthiasrothe.emerald.dl4j.recorder.server;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/*
+ * Numbers the sensors a connection sends samples of in the order they first appear, and remembers the number of
+ * values of each sensor's samples from its first one. The sensors and widths a message brings in are kept only once
+ * the message is accepted and committed; a rejected message is rolled back, so it can't claim a sensor's width or
+ * one of the MAX_SENSORS numbers. Not thread-safe.
+ */
+class SensorTable {
+	static final int MAX_SENSORS = 256;
+	
+	private byte[][] names = new byte[8][];
+	// decoded once, so that the names of the sensors can be passed along with every sample
+	private String[] nameStrings = new String[8];
+	private int[] widths = new int[8];
+	private int size;
+	
+	// the sensors numbered before the last commit
+	private int committedSize;
+	// the committed sensors whose width was set since the last commit
+	private int[] uncommittedWidths = new int[8];
+	private int uncommittedWidthCount;
+	
+	// -1 if the connection already sent samples of MAX_SENSORS other sensors
+	int id(final byte[] bytes, final int start, final int end) {
+		for (int id = 0; id < size; id++) {
+			if (Arrays.equals(names[id], 0, names[id].length, bytes, start, end)) {
+				return id;
+			}
+		}
+		
+		if (size == MAX_SENSORS) {
+			return -1;
+		}
+		
+		if (size == names.length) {
+			names = Arrays.copyOf(names, names.length * 2);
+			nameStrings = Arrays.copyOf(nameStrings, names.length);
+			widths = Arrays.copyOf(widths, names.length);
+		}
+		
+		names[size] = Arrays.copyOfRange(bytes, start, end);
+		nameStrings[size] = new String(bytes, start, end - start, StandardCharsets.UTF_8);
+		return size++;
+	}
+	
+	int id(final String name) {
+		byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+		return id(bytes, 0, bytes.length);
+	}
+	
+	// the empty name stands for samples that don't name their sensor
+	String name(final int id) {
+		return nameStrings[id];
+	}
+	
+	// false if the sensor's first sample had a different number of values
+	boolean acceptWidth(final int id, final int width) {
+		if (widths[id] == 0) {
+			widths[id] = width;
+			
+			if (id < committedSize) {
+				if (uncommittedWidthCount == uncommittedWidths.length) {
+					uncommittedWidths = Arrays.copyOf(uncommittedWidths, uncommittedWidths.length * 2);
+				}
+				
+				uncommittedWidths[uncommittedWidthCount++] = id;
+			}
+		}
+		
+		return widths[id] == width;
+	}
+	
+	int size() {
+		return size;
+	}
+	
+	// keeps the sensors and widths of the message just accepted
+	void commit() {
+		committedSize = size;
+		uncommittedWidthCount = 0;
+	}
+	
+	// forgets the sensors and widths brought in since the last commit
+	void rollback() {
+		for (int i = 0; i < uncommittedWidthCount; i++) {
+			widths[uncommittedWidths[i]] = 0;
+		}
+		
+		for (int id = committedSize; id < size; id++) {
+			names[id] = null;
+			nameStrings[id] = null;
+			widths[id] = 0;
+		}
+		
+		size = committedSize;
+		uncommittedWidthCount = 0;
+	}
+}
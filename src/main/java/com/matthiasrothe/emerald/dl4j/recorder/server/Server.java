@@ -1,19 +1,41 @@
 package com.matthiasrothe.emerald.dl4j.recorder.server;
 
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
+import java.net.InetAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
-import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Queue;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.matthiasrothe.emerald.dl4j.recorder.format.FeatureWriter;
+import com.matthiasrothe.emerald.dl4j.recorder.format.NpyFormat;
+import com.matthiasrothe.emerald.dl4j.recorder.format.WindowWriter;
 
 import net.sf.jetro.stream.visitor.LazilyParsedNumber;
 import net.sf.jetro.tree.JsonArray;
@@ -25,38 +47,97 @@ import net.sf.jetro.tree.JsonType;
 import net.sf.jetro.tree.builder.JsonTreeBuilder;
 
 public class Server extends Thread {
-	private static final int STATUS_CODE_OK = 200;
-	private static final int STATUS_CODE_INVALID_JSON = 400;
-	private static final int STATUS_CODE_MALFORMED_MESSAGE = 401;
-	private static final int STATUS_CODE_HEADER_MISSING = 402;
-	private static final int STATUS_CODE_UNSUPPORTED_MESSAGE_TYPE = 403;
-	private static final int STATUS_CODE_BODY_MISSING = 404;
+	static final int STATUS_CODE_OK = 200;
+	static final int STATUS_CODE_INVALID_JSON = 400;
+	static final int STATUS_CODE_MALFORMED_MESSAGE = 401;
+	static final int STATUS_CODE_HEADER_MISSING = 402;
+	static final int STATUS_CODE_UNSUPPORTED_MESSAGE_TYPE = 403;
+	static final int STATUS_CODE_BODY_MISSING = 404;
+	
+	private static final int DEFAULT_PIPELINE_CAPACITY = 64 * 1024;
+	private static final long DEFAULT_GROUP_COMMIT_INTERVAL_MILLIS = 200;
+	private static final int DEFAULT_PRE_ROLL_CAPACITY = 8 * 1024;
+	private static final int DEFAULT_DEDUPLICATION_CAPACITY = 1024;
+	// upper bound of the credits granted at once, so that a single client can't claim the whole pipeline
+	static final int MAX_CREDITS = 16 * 1024;
+	// how often a connection waiting for its samples to be synced checks whether the server was aborted
+	private static final long DURABILITY_POLL_MILLIS = 100;
+	// the session of connections whose messages don't name one
+	public static final String DEFAULT_SESSION = "default";
+	// the config file of the launcher; keeps the next file number across restarts
+	public static final Path DEFAULT_CONFIG_FILE = Paths.get("./config/config.json");
+	
+	// upper bound of the sessions, as every client can create one
+	static final int MAX_SESSIONS = 1024;
 	
 	private final int port;
 	private final String dataDirectory;
 	
-	private boolean abort;
-	private final Object abortMutex = new Object();
+	private volatile boolean abort;
+	// closed by abort() to unblock the accept loop
+	private volatile Closeable acceptingSocket;
+	// the connections of IoMode.BLOCKING, closed by abort() like the selector loops close theirs
+	private final Set<BlockingConnection> blockingConnections = ConcurrentHashMap.newKeySet();
 	
-	private final File configFile = Paths.get("./config/config.json").toFile();
+	private final File configFile;
 	
+	// guarded by the file number mutex, as sessions start their recordings concurrently
 	private int nextFileNumber;
-	private BufferedWriter dataWriter;
-	private final Object recordingMutex = new Object();
+	private final Object fileNumberMutex = new Object();
+	private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+	private final Session defaultSession = new Session(DEFAULT_SESSION);
+	private final Object pipelineMutex = new Object();
+	
+	private SampleRingBuffer ringBuffer = new SampleRingBuffer(DEFAULT_PIPELINE_CAPACITY, WaitStrategy.BLOCKING);
+	private Thread writerThread;
+	private ScheduledExecutorService ackScheduler;
 	
 	private final JsonTreeBuilder builder = new JsonTreeBuilder();
+	private final AtomicInteger nextConnectionId = new AtomicInteger();
+	private final AtomicInteger flowControlledConnections = new AtomicInteger();
+
+	private volatile RecordingSinkFactory sinkFactory = RecordingFormat.CSV;
+	private volatile Durability durability = Durability.BUFFERED;
+	private volatile SegmentRolling segmentRolling;
+	private volatile Windowing windowing;
+	private volatile Windowing featureWindowing;
+	private volatile long groupCommitIntervalMillis = DEFAULT_GROUP_COMMIT_INTERVAL_MILLIS;
+	private volatile long preRollNanos;
+	private volatile int preRollCapacity = DEFAULT_PRE_ROLL_CAPACITY;
+	private volatile long postRollNanos;
+	private volatile double resampleRateHertz;
+	private volatile int deduplicationCapacity = DEFAULT_DEDUPLICATION_CAPACITY;
+	private final DurableSequence durableSequence = new DurableSequence();
+	// non-blocking connections whose responses wait for their samples to become durable
+	private final Queue<NioConnection> parkedConnections = new ConcurrentLinkedQueue<>();
+	
+	private IoMode ioMode = IoMode.BLOCKING;
+	private int selectorThreads = Math.min(4, Runtime.getRuntime().availableProcessors());
 
 	private ServerListener listener;
 	
+	private final ServerMetrics metrics = new ServerMetrics();
+	private int metricsPort = -1;
+	private int adminPort = -1;
+	private int udpPort = -1;
+	
 	public Server(final int port, final String dataDirectory) throws IOException {
+		this(port, dataDirectory, DEFAULT_CONFIG_FILE);
+	}
+	
+	// servers recording at the same time, like those of the tests, each need a config file of their own
+	public Server(final int port, final String dataDirectory, final Path configFile) throws IOException {
 		Objects.requireNonNull(dataDirectory, "dataDirectory must not be null");
+		Objects.requireNonNull(configFile, "configFile must not be null");
 		
 		this.port = port;
 		this.dataDirectory = dataDirectory;
+		this.configFile = configFile.toFile();
+		sessions.put(DEFAULT_SESSION, defaultSession);
 		
 		Paths.get(dataDirectory).toFile().mkdir();
 		
-		try (BufferedReader configReader = new BufferedReader(new FileReader(configFile))) {			
+		try (BufferedReader configReader = new BufferedReader(new FileReader(this.configFile))) {			
 			JsonObject config = (JsonObject) builder.build(configReader);
 			nextFileNumber = ((LazilyParsedNumber)((JsonNumber) config.get("nextFileNumber")).getValue()).intValue();
 		}
@@ -66,107 +147,762 @@ public class Server extends Thread {
 		this.listener = listener;
 	}
 	
+	// serves the metrics on http://localhost:<metricsPort>/metrics; must be called before the server is started
+	public void setMetricsPort(final int metricsPort) {
+		if (metricsPort < 1 || metricsPort > 65535) {
+			throw new IllegalArgumentException("metricsPort must be between 1 and 65535");
+		}
+		
+		this.metricsPort = metricsPort;
+	}
+	
+	// accepts control commands on localhost:<adminPort>; must be called before the server is started
+	public void setAdminPort(final int adminPort) {
+		if (adminPort < 1 || adminPort > 65535) {
+			throw new IllegalArgumentException("adminPort must be between 1 and 65535");
+		}
+		
+		this.adminPort = adminPort;
+	}
+	
+	// accepts datagrams of samples on <udpPort> next to the connections; must be called before the server is started
+	public void setUdpPort(final int udpPort) {
+		if (udpPort < 1 || udpPort > 65535) {
+			throw new IllegalArgumentException("udpPort must be between 1 and 65535");
+		}
+		
+		this.udpPort = udpPort;
+	}
+	
+	ServerMetrics getMetrics() {
+		return metrics;
+	}
+	
+	// applies to recordings started afterwards
+	public void setRecordingFormat(final RecordingFormat recordingFormat) {
+		setRecordingSinkFactory(recordingFormat);
+	}
+	
+	// applies to recordings started afterwards
+	public void setRecordingSinkFactory(final RecordingSinkFactory sinkFactory) {
+		Objects.requireNonNull(sinkFactory, "sinkFactory must not be null");
+		this.sinkFactory = sinkFactory;
+	}
+	
+	// splits recordings started afterwards into segments; null to write every recording into a single file
+	public void setSegmentRolling(final SegmentRolling segmentRolling) {
+		this.segmentRolling = segmentRolling;
+	}
+	
+	// also cuts recordings started afterwards into windows for training; null to record the samples only
+	public void setWindowing(final Windowing windowing) {
+		this.windowing = windowing;
+	}
+	
+	// also computes statistics over windows of recordings started afterwards; null to compute none
+	public void setFeatureWindowing(final Windowing featureWindowing) {
+		this.featureWindowing = featureWindowing;
+	}
+	
+	public void setDurability(final Durability durability) {
+		Objects.requireNonNull(durability, "durability must not be null");
+		this.durability = durability;
+	}
+	
+	Durability getDurability() {
+		return durability;
+	}
+	
+	// how long samples may stay unsynced with Durability.GROUP_COMMIT
+	public void setGroupCommitIntervalMillis(final long groupCommitIntervalMillis) {
+		if (groupCommitIntervalMillis < 1) {
+			throw new IllegalArgumentException("groupCommitIntervalMillis must be at least 1");
+		}
+		
+		this.groupCommitIntervalMillis = groupCommitIntervalMillis;
+	}
+	
+	long getGroupCommitIntervalMillis() {
+		return groupCommitIntervalMillis;
+	}
+	
+	// samples received up to this long before a recording is started are written at its beginning; 0 to disable
+	public void setPreRollMillis(final long preRollMillis) {
+		if (preRollMillis < 0) {
+			throw new IllegalArgumentException("preRollMillis must not be negative");
+		}
+		
+		preRollNanos = TimeUnit.MILLISECONDS.toNanos(preRollMillis);
+	}
+	
+	// the most samples kept per client for the pre-roll, 40 bytes each; older ones are overwritten
+	public void setPreRollCapacity(final int preRollCapacity) {
+		if (preRollCapacity < 1) {
+			throw new IllegalArgumentException("preRollCapacity must be at least 1");
+		}
+		
+		this.preRollCapacity = preRollCapacity;
+	}
+	
+	// a stopped recording is closed only after the samples received for this long afterwards; 0 to disable
+	public void setPostRollMillis(final long postRollMillis) {
+		if (postRollMillis < 0) {
+			throw new IllegalArgumentException("postRollMillis must not be negative");
+		}
+		
+		postRollNanos = TimeUnit.MILLISECONDS.toNanos(postRollMillis);
+	}
+	
+	// samples are interpolated to this fixed rate per sensor, by their timestamps, before they're recorded; 0 disables
+	public void setResampleRateHertz(final double resampleRateHertz) {
+		if (!(resampleRateHertz >= 0) || Double.isInfinite(resampleRateHertz)) {
+			throw new IllegalArgumentException("resampleRateHertz must not be negative");
+		}
+		
+		this.resampleRateHertz = resampleRateHertz;
+	}
+	
+	// a message with the UUID of one of the last messages of its connection is acknowledged without being recorded
+	// again; 0 to record every message
+	public void setDeduplicationCapacity(final int deduplicationCapacity) {
+		if (deduplicationCapacity < 0) {
+			throw new IllegalArgumentException("deduplicationCapacity must not be negative");
+		} else if (deduplicationCapacity > RecentMessageIds.MAX_CAPACITY) {
+			throw new IllegalArgumentException(
+					"deduplicationCapacity must be at most " + RecentMessageIds.MAX_CAPACITY);
+		}
+		
+		this.deduplicationCapacity = deduplicationCapacity;
+	}
+	
+	int getDeduplicationCapacity() {
+		return deduplicationCapacity;
+	}
+	
+	// with Durability.ACK_AFTER_SYNC, whether the sample published at the sequence has been synced
+	boolean isDurable(final long sequence) {
+		return durability != Durability.ACK_AFTER_SYNC || durableSequence.isDurable(sequence);
+	}
+	
+	// with Durability.ACK_AFTER_SYNC, waits until the sample published at the sequence has been synced
+	void awaitDurable(final long sequence) throws IOException {
+		if (durability != Durability.ACK_AFTER_SYNC) {
+			return;
+		}
+		
+		while (!durableSequence.await(sequence, DURABILITY_POLL_MILLIS)) {
+			if (shouldAbort()) {
+				throw new IOException("Server stopped before the samples were synced");
+			}
+		}
+	}
+	
+	// releases the responses of a connection through the ack scheduler once the durable sequence passes the sequence
+	void releaseWhenDurable(final NioConnection connection, final long sequence) {
+		parkedConnections.add(connection);
+		
+		// the writer may have passed the sequence before the connection was parked, and won't release it then
+		if (isDurable(sequence)) {
+			releaseParkedConnections();
+		}
+	}
+	
+	// called by the writer; the connections whose samples aren't durable yet park again
+	void durableSequenceAdvanced(final long sequence) {
+		durableSequence.advance(sequence);
+		
+		if (!parkedConnections.isEmpty()) {
+			releaseParkedConnections();
+		}
+	}
+	
+	private void releaseParkedConnections() {
+		NioConnection connection;
+		
+		while ((connection = parkedConnections.poll()) != null) {
+			getAckScheduler().execute(connection::releaseDurableOutput);
+		}
+	}
+	
+	public void setIoMode(final IoMode ioMode) {
+		Objects.requireNonNull(ioMode, "ioMode must not be null");
+		this.ioMode = ioMode;
+	}
+	
+	public void setSelectorThreads(final int selectorThreads) {
+		if (selectorThreads < 1) {
+			throw new IllegalArgumentException("selectorThreads must be at least 1");
+		}
+		
+		this.selectorThreads = selectorThreads;
+	}
+	
+	// must be called before the server is started
+	public void setPipeline(final int capacity, final WaitStrategy waitStrategy) {
+		Objects.requireNonNull(waitStrategy, "waitStrategy must not be null");
+		
+		synchronized (pipelineMutex) {
+			if (writerThread != null) {
+				throw new IllegalStateException("Pipeline is already running");
+			}
+			
+			ringBuffer = new SampleRingBuffer(capacity, waitStrategy);
+		}
+	}
+	
+	void flowControlEnabled() {
+		flowControlledConnections.incrementAndGet();
+	}
+	
+	void flowControlDisabled() {
+		flowControlledConnections.decrementAndGet();
+	}
+	
+	int flowControlledConnections() {
+		return flowControlledConnections.get();
+	}
+	
+	/*
+	 * The samples a flow-controlled connection may send until its next acknowledgement: its share of the pipeline's
+	 * free capacity below three quarters full. As long as all clients keep to their credits the pipeline never
+	 * fills up, so no ingest thread ever blocks on it and the clients slow down instead of their sockets stalling.
+	 */
+	int grantCredits() {
+		SampleRingBuffer pipeline = ringBuffer;
+		long highWaterMark = pipeline.capacity() * 3L / 4;
+		long queueDepth = pipeline.queueDepth();
+		
+		if (queueDepth >= highWaterMark) {
+			metrics.withholdCredits(ServerMetrics.CREDITS_WITHHELD_PIPELINE_FULL);
+			return 0;
+		}
+		
+		long share = (highWaterMark - queueDepth) / Math.max(1, flowControlledConnections.get());
+		
+		if (share == 0) {
+			metrics.withholdCredits(ServerMetrics.CREDITS_WITHHELD_CONNECTIONS);
+			return 0;
+		}
+		
+		int credits = (int) Math.min(share, MAX_CREDITS);
+		metrics.creditsGranted(credits);
+		return credits;
+	}
+	
+	ScheduledExecutorService getAckScheduler() {
+		synchronized (pipelineMutex) {
+			if (ackScheduler == null) {
+				ackScheduler = Executors.newSingleThreadScheduledExecutor(
+						Thread.ofPlatform().name("ack-scheduler").daemon().factory());
+			}
+			
+			return ackScheduler;
+		}
+	}
+	
+	public PipelineStatistics getPipelineStatistics() {
+		return ringBuffer.statistics();
+	}
+	
 	public void abort() {
-		synchronized (abortMutex) {
-			abort = true;
+		abort = true;
+		closeAcceptingSocket();
+		
+		for (BlockingConnection connection : blockingConnections) {
+			connection.close();
+		}
+	}
+	
+	void acceptingOn(final Closeable socket) {
+		acceptingSocket = socket;
+		
+		// abort() may have been called before the socket was known
+		if (abort) {
+			closeAcceptingSocket();
+		}
+	}
+	
+	private void closeAcceptingSocket() {
+		Closeable socket = acceptingSocket;
+		
+		if (socket != null) {
+			try {
+				socket.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
 		}
 	}
 	
-	private boolean shouldAbort() {
-		synchronized (abortMutex) {
-			return abort;
+	boolean shouldAbort() {
+		return abort;
+	}
+	
+	// the session of a message's header.session, created on first use, with one more user until it's released; null
+	// if the id isn't valid or there are too many sessions already
+	Session acquireSession(final String id) {
+		if (!Session.isValidId(id) || (!sessions.containsKey(id) && sessions.size() >= MAX_SESSIONS)) {
+			return null;
 		}
+		
+		return sessions.compute(id, (key, session) -> {
+			Session acquired = session != null ? session : new Session(key);
+			acquired.users++;
+			return acquired;
+		});
+	}
+	
+	void releaseSession(final Session session) {
+		sessions.computeIfPresent(session.getId(), (key, current) -> {
+			current.users--;
+			return current != defaultSession && current.isIdle() ? null : current;
+		});
+	}
+	
+	private void removeIfIdle(final Session session) {
+		sessions.computeIfPresent(session.getId(),
+				(key, current) -> current != defaultSession && current.isIdle() ? null : current);
+	}
+	
+	Collection<Session> sessions() {
+		return sessions.values();
 	}
 	
 	public void startRecording(final int label) throws IOException {
-		if (!isRecording()) {
-			synchronized (recordingMutex) {
-				try (BufferedWriter labelWriter = new BufferedWriter(new FileWriter(
-						Paths.get(dataDirectory + "/label_" + nextFileNumber + ".csv").toFile()))) {
-					labelWriter.write(label + "");
-				}
-				
-				dataWriter = new BufferedWriter(new FileWriter(
-						Paths.get(dataDirectory + "/data_" + nextFileNumber + ".csv").toFile()));
-				
+		startRecording(DEFAULT_SESSION, label);
+	}
+	
+	// starts a recording of the samples sent in the given session, with a file number of its own
+	public void startRecording(final String sessionId, final int label) throws IOException {
+		Session session = acquireSession(sessionId);
+		
+		if (session == null) {
+			throw new IllegalArgumentException("Invalid session: " + sessionId);
+		}
+		
+		try {
+			startRecording(session, label);
+		} finally {
+			releaseSession(session);
+		}
+	}
+	
+	private void startRecording(final Session session, final int label) throws IOException {
+		if (!session.recording.compareAndSet(null, Recording.STARTING)) {
+			throw new IllegalStateException("Recording already in progress");
+		}
+		
+		Recording startedRecording = null;
+		
+		try {
+			startWriter();
+			
+			int fileNumber = reserveFileNumber();
+			
+			writeAtomically(labelFile(fileNumber), Integer.toString(label).getBytes(StandardCharsets.UTF_8));
+			
+			// the settings of the recording are fixed when it starts; the files of each sensor are created by the
+			// recording writer when its first sample arrives
+			RecordingSinkFactory factory = sinkFactory;
+			SegmentRolling rolling = segmentRolling;
+			Windowing windows = windowing;
+			Windowing features = featureWindowing;
+			
+			startedRecording = new Recording(fileNumber, label, (sensorSuffix, columns) -> derive(
+					openSink(factory, rolling, fileNumber, sensorSuffix, label, columns), windows, features, fileNumber,
+					sensorSuffix, label, columns.size()));
+		} finally {
+			// back to idle if the recording files could not be created
+			session.recording.set(startedRecording);
+		}
+	}
+	
+	private int reserveFileNumber() throws IOException {
+		synchronized (fileNumberMutex) {
+			// never overwrite the files of an earlier recording, e.g. if the config was restored from a backup
+			while (Files.exists(labelFile(nextFileNumber))) {
 				nextFileNumber++;
-				writeConfig();
 			}
-		} else {
-			throw new IllegalStateException("Recording already in progress");
+			
+			// the number is reserved before its files are created; a crash in between leaves a gap in the numbering
+			// but never lets two recordings share a number
+			int fileNumber = nextFileNumber++;
+			writeConfig();
+			return fileNumber;
 		}
 	}
-
-	public boolean isRecording() {
-		synchronized (recordingMutex) {
-			return dataWriter != null;
+	
+	private RecordingSink openSink(final RecordingSinkFactory factory, final SegmentRolling rolling,
+			final int fileNumber, final String sensorSuffix, final int label, final List<String> columns)
+			throws IOException {
+		return rolling != null
+				? new SegmentedRecordingSink(factory, Paths.get(dataDirectory), fileNumber, sensorSuffix, label,
+						columns, rolling)
+				: factory.open(Paths.get(dataDirectory), "data_" + fileNumber + sensorSuffix, label, columns);
+	}
+	
+	// adds the training windows and features, which span the segments of a recording; features are computed of the
+	// first three values of samples that have as many
+	private RecordingSink derive(final RecordingSink sink, final Windowing windows, final Windowing features,
+			final int fileNumber, final String sensorSuffix, final int label, final int columnCount)
+			throws IOException {
+		RecordingSink derived = sink;
+		
+		try {
+			if (windows != null) {
+				derived = new DerivingRecordingSink(derived, new WindowWriter(
+						derivedFile("windows_", fileNumber, sensorSuffix),
+						derivedFile("window_labels_", fileNumber, sensorSuffix), windows.getValueType(), columnCount,
+						windows.getLength(), windows.getStride(), label));
+			}
+			
+			if (features != null && columnCount >= 3) {
+				derived = new DerivingRecordingSink(derived, new FeatureWriter(
+						derivedFile("features_", fileNumber, sensorSuffix), features.getValueType(),
+						features.getLength(), features.getStride()));
+			}
+			
+			return derived;
+		} catch (IOException | RuntimeException e) {
+			derived.close();
+			throw e;
 		}
 	}
 	
+	private Path derivedFile(final String prefix, final int fileNumber, final String sensorSuffix) {
+		return Paths.get(dataDirectory, prefix + fileNumber + sensorSuffix + NpyFormat.FILE_EXTENSION);
+	}
+	
+	public boolean isRecording() {
+		return isRecording(DEFAULT_SESSION);
+	}
+	
+	public boolean isRecording(final String sessionId) {
+		return activeRecording(sessionId) != null;
+	}
+	
+	// null if no recording is in progress
+	Recording activeRecording() {
+		return defaultSession.activeRecording();
+	}
+	
+	Recording activeRecording(final String sessionId) {
+		Session session = sessions.get(sessionId);
+		return session != null ? session.activeRecording() : null;
+	}
+	
 	public void stopRecording() throws IOException {
-		if (isRecording()) {
-			synchronized (recordingMutex) {
-				dataWriter.close();
-				dataWriter = null;
+		stopRecording(DEFAULT_SESSION);
+	}
+	
+	// waits for the post-roll and for the file to be closed
+	public void stopRecording(final String sessionId) throws IOException {
+		Session session = sessions.get(sessionId);
+		Recording stoppedRecording = session != null ? endRecording(session) : null;
+		
+		if (stoppedRecording == null) {
+			throw new IllegalStateException("Recording is not in progress");
+		}
+		
+		try {
+			stoppedRecording.awaitClosed(writerThread());
+		} finally {
+			removeIfIdle(session);
+		}
+	}
+	
+	// stops the recordings of all sessions, e.g. before the server is shut down; their post-rolls run at the same
+	// time. Throws the first failure once all are stopped.
+	public void stopAllRecordings() throws IOException {
+		Map<Session, Recording> stoppedRecordings = new LinkedHashMap<>();
+		
+		for (Session session : sessions.values()) {
+			Recording stoppedRecording = endRecording(session);
+			
+			if (stoppedRecording != null) {
+				stoppedRecordings.put(session, stoppedRecording);
 			}
+		}
+		
+		IOException failure = null;
+		
+		for (Map.Entry<Session, Recording> stopped : stoppedRecordings.entrySet()) {
+			try {
+				stopped.getValue().awaitClosed(writerThread());
+			} catch (IOException e) {
+				if (failure == null) {
+					failure = e;
+				} else {
+					failure.addSuppressed(e);
+				}
+			} finally {
+				removeIfIdle(stopped.getKey());
+			}
+		}
+		
+		if (failure != null) {
+			throw failure;
+		}
+	}
+	
+	/*
+	 * Ends the active recording of a session and returns it, or null if the session isn't recording. The recording
+	 * is closed once the post-roll is over; the ack scheduler publishes the close, so no thread sleeps through the
+	 * post-roll.
+	 */
+	private Recording endRecording(final Session session) {
+		Recording stoppedRecording = session.activeRecording();
+		
+		if (stoppedRecording == null) {
+			return null;
+		}
+		
+		long postRoll = postRollNanos;
+		
+		// set before the recording stops being active, so that no sample falls in between
+		if (postRoll > 0) {
+			session.postRollRecording.set(stoppedRecording);
+		}
+		
+		if (!session.recording.compareAndSet(stoppedRecording, null)) {
+			session.postRollRecording.compareAndSet(stoppedRecording, null);
+			return null;
+		}
+		
+		if (postRoll > 0) {
+			getAckScheduler().schedule(() -> endPostRoll(session, stoppedRecording), postRoll, TimeUnit.NANOSECONDS);
 		} else {
-			throw new IllegalStateException("Recording is not in progress");
+			// the writer closes the file once it has written all samples published before
+			ringBuffer.publishClose(stoppedRecording);
+		}
+		
+		return stoppedRecording;
+	}
+	
+	// whoever ends the post-roll publishes the close, exactly once; returns false if it has been ended before
+	private boolean endPostRoll(final Session session, final Recording stoppedRecording) {
+		if (!session.postRollRecording.compareAndSet(stoppedRecording, null)) {
+			return false;
+		}
+		
+		ringBuffer.publishClose(stoppedRecording);
+		return true;
+	}
+	
+	private Thread writerThread() {
+		synchronized (pipelineMutex) {
+			return writerThread;
+		}
+	}
+	
+	private void startWriter() {
+		synchronized (pipelineMutex) {
+			if (writerThread == null) {
+				writerThread = Thread.ofPlatform()
+						.name("recording-writer")
+						.daemon()
+						.start(new RecordingWriter(ringBuffer, this));
+			}
 		}
 	}
 	
 	@Override
 	public void run() {
+		startWriter();
+		MetricsEndpoint metricsEndpoint = null;
+		AdminEndpoint adminEndpoint = null;
+		UdpEndpoint udpEndpoint = null;
+		
+		try {
+			if (metricsPort > 0) {
+				metricsEndpoint = new MetricsEndpoint(this, metrics, metricsPort);
+				metricsEndpoint.start();
+			}
+			
+			if (adminPort > 0) {
+				adminEndpoint = new AdminEndpoint(this, adminPort);
+				adminEndpoint.start();
+			}
+			
+			if (udpPort > 0) {
+				udpEndpoint = new UdpEndpoint(this, udpPort);
+				udpEndpoint.start();
+			}
+			
+			if (ioMode == IoMode.NON_BLOCKING) {
+				new SelectorEngine(this, port, selectorThreads).run();
+			} else {
+				runBlocking();
+			}
+		} catch (IOException e) {
+			// closing the accepting socket is how abort() ends the accept loop
+			if (!shouldAbort()) {
+				e.printStackTrace();
+			}
+		} finally {
+			if (metricsEndpoint != null) {
+				metricsEndpoint.stop();
+			}
+			
+			if (adminEndpoint != null) {
+				adminEndpoint.stop();
+			}
+			
+			if (udpEndpoint != null) {
+				udpEndpoint.stop();
+			}
+			
+			closeRecordings();
+			writerThread.interrupt();
+		}
+	}
+	
+	// closes the recordings of all sessions right away, cutting their post-rolls short, so that the writer has
+	// written all their samples before it stops
+	private void closeRecordings() {
+		List<Recording> closedRecordings = new ArrayList<>();
+		
+		for (Session session : sessions.values()) {
+			Recording activeRecording = session.activeRecording();
+			
+			if (activeRecording != null && session.recording.compareAndSet(activeRecording, null)) {
+				ringBuffer.publishClose(activeRecording);
+				closedRecordings.add(activeRecording);
+			}
+			
+			Recording stoppedRecording = session.postRollRecording.get();
+			
+			if (stoppedRecording != null && endPostRoll(session, stoppedRecording)) {
+				closedRecordings.add(stoppedRecording);
+			}
+		}
+		
+		for (Recording closedRecording : closedRecordings) {
+			try {
+				closedRecording.awaitClosed(writerThread);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+	
+	private void runBlocking() throws IOException {
 		try (ServerSocket serverSocket = new ServerSocket(port)) {
+			acceptingOn(serverSocket);
 			System.out.println("Server listening on port " + port + "...");
 			
 			while (!shouldAbort()) {
-				try {
-					Socket clientSocket = serverSocket.accept();
-					System.out.println("Client connected: " + clientSocket.getInetAddress());
-					
-					if (listener != null) {
-						listener.clientConnected();
-					}
-					
-					BufferedReader in = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
-					BufferedWriter out = new BufferedWriter(new OutputStreamWriter(clientSocket.getOutputStream()));
-					
-					String line;
-					
-					while ((line = in.readLine()) != null) {
-						JsonObject message = null;
-						
-						try {
-							message = (JsonObject) builder.build(line);
-						} catch (Exception e) {
-							respondInvalidJson(line, out);
-							break;
-						}
-						
-						boolean ok = processMessage(message, out);
-						
-						if (ok) {
-							respondOk((JsonString) ((JsonObject) message.get("header")).get("uuid"), out);
-						}
-					}
-					
-					clientSocket.close();
-					
-					if (listener != null) {
-						listener.clientDisconnected();
-					}
-				} catch (SocketException e) {
-					if (listener != null) {
-						listener.clientDisconnected();
-					}
+				Socket clientSocket = serverSocket.accept();
+				// responses are written in bursts; don't let Nagle's algorithm hold them back for the delayed ACK
+				clientSocket.setTcpNoDelay(true);
+				int connectionId = nextConnectionId();
+				BlockingConnection connection = new BlockingConnection(this, clientSocket, connectionId);
+				blockingConnections.add(connection);
+				
+				// abort() may have closed the connections before this one was added
+				if (shouldAbort()) {
+					connection.close();
 				}
+				
+				Thread.ofVirtual()
+					.name("client-" + connectionId)
+					.start(connection);
 			}
-		} catch (IOException e) {
-			e.printStackTrace();
 		}
 	}
 	
-	private boolean processMessage(final JsonObject message, final BufferedWriter out) throws IOException {
+	void blockingConnectionClosed(final BlockingConnection connection) {
+		blockingConnections.remove(connection);
+	}
+	
+	int nextConnectionId() {
+		return nextConnectionId.incrementAndGet();
+	}
+	
+	void clientConnected(final int connectionId, final InetAddress address) {
+		System.out.println("Client " + connectionId + " connected: " + address);
+		
+		if (listener != null) {
+			listener.clientConnected(connectionId);
+		}
+	}
+	
+	void clientDisconnected(final int connectionId) {
+		System.out.println("Client " + connectionId + " disconnected.");
+		
+		if (listener != null) {
+			listener.clientDisconnected(connectionId);
+		}
+	}
+	
+	// returns false if the connection must be closed because the line wasn't valid JSON
+	boolean processLine(final byte[] bytes, final int offset, final int length, final SensorMessageDecoder decoder,
+			final ClientConnection out) throws IOException {
+		long started = System.nanoTime();
+		
+		try {
+			if (decoder.decode(bytes, offset, length)
+					&& out.selectSession(bytes, decoder.sessionStart(), decoder.sessionEnd())) {
+				decoder.sensors().commit();
+				out.configureAcks(decoder.ackMode(), decoder.ackCount(), decoder.ackIntervalMillis());
+				out.configureFlowControl(decoder.flowControl());
+				
+				// retransmissions are acknowledged like the original
+				if (!out.isDuplicate(decoder.uuidMostSignificantBits(), decoder.uuidLeastSignificantBits())) {
+					processSamples(decoder, out);
+					out.messageAccepted(decoder.uuidMostSignificantBits(), decoder.uuidLeastSignificantBits());
+				}
+				
+				out.acknowledge(bytes, decoder.uuidOffset(), SensorMessageDecoder.UUID_LENGTH);
+				return true;
+			}
+			
+			// a message the fast path can't handle must not leave its sensors behind
+			decoder.sensors().rollback();
+			
+			// everything the fast path can't handle, including every invalid message, takes the tree builder path
+			return processLine(new String(bytes, offset, length, StandardCharsets.UTF_8), out);
+		} finally {
+			metrics.parseToAck().record(System.nanoTime() - started);
+		}
+	}
+	
+	void processFrame(final byte[] bytes, final int offset, final int length, final BinaryFrameCodec codec,
+			final ClientConnection out) throws IOException {
+		long started = System.nanoTime();
+		int statusCode = codec.decode(bytes, offset, length);
+		
+		if (statusCode == STATUS_CODE_OK
+				&& !out.isDuplicate(codec.uuidMostSignificantBits(), codec.uuidLeastSignificantBits())) {
+			processSamples(codec, out);
+			out.messageAccepted(codec.uuidMostSignificantBits(), codec.uuidLeastSignificantBits());
+		}
+		
+		out.sendAck(statusCode, codec.uuidMostSignificantBits(), codec.uuidLeastSignificantBits());
+		metrics.parseToAck().record(System.nanoTime() - started);
+	}
+	
+	// the tree builder path; package-private for the benchmarks
+	boolean processLine(final String line, final ClientConnection out) throws IOException {
+		JsonObject message = null;
+		
+		try {
+			message = (JsonObject) builder.build(line);
+		} catch (Exception e) {
+			respondInvalidJson(line, out);
+			return false;
+		}
+		
+		boolean ok = processMessage(message, out);
+		
+		if (ok) {
+			respondOk((JsonString) ((JsonObject) message.get("header")).get("uuid"), out);
+		}
+		
+		return true;
+	}
+	
+	private boolean processMessage(final JsonObject message, final ClientConnection out) throws IOException {
 		try {
 			JsonObject header = (JsonObject) message.get("header");
 			
@@ -176,15 +912,31 @@ public class Server extends Thread {
 				
 				if (uuid == null) {
 					throw new IllegalArgumentException();
-				} else {
-					UUID.fromString(uuid.getValue()); // to throw IllegalArgumentException if the value is no UUID
 				}
 				
+				UUID id = UUID.fromString(uuid.getValue()); // to throw IllegalArgumentException if the value is no UUID
+				
+				configureAcks(header, out);
+				selectSession(header, out);
+				
 				switch (type) {
 					case "single-value":
-						return processSingleValueMessage(message, uuid, out);
 					case "batch":
-						return processBatchMessage(message, uuid, out);
+						if (out.isDuplicate(id.getMostSignificantBits(), id.getLeastSignificantBits())) {
+							return true;
+						}
+						
+						boolean ok = type.equals("batch") ? processBatchMessage(message, uuid, out)
+								: processSingleValueMessage(message, uuid, out);
+						
+						if (ok) {
+							out.messageAccepted(id.getMostSignificantBits(), id.getLeastSignificantBits());
+						}
+						
+						return ok;
+					case BinaryFrameCodec.NEGOTIATION_MESSAGE_TYPE:
+						out.switchToBinaryProtocol();
+						return true;
 					default:
 						respond("Bad Request: Unsupported message type [" + type + "].",
 								STATUS_CODE_UNSUPPORTED_MESSAGE_TYPE, uuid, out);
@@ -203,7 +955,42 @@ public class Server extends Thread {
 		return false;
 	}
 	
-	private boolean processSingleValueMessage(JsonObject message, JsonString uuid, BufferedWriter out)
+	private void configureAcks(final JsonObject header, final ClientConnection out) throws IOException {
+		JsonString mode = (JsonString) header.get("ackMode");
+		JsonNumber count = (JsonNumber) header.get("ackCount");
+		JsonNumber intervalMillis = (JsonNumber) header.get("ackIntervalMillis");
+		JsonString flowControl = (JsonString) header.get("flowControl");
+		
+		if (flowControl != null) {
+			out.configureFlowControl(FlowControl.fromHeaderValue(flowControl.getValue()));
+		}
+		
+		if (mode == null && count == null && intervalMillis == null) {
+			return;
+		}
+		
+		double countValue = count != null ? ((LazilyParsedNumber) count.getValue()).doubleValue() : 0;
+		double intervalMillisValue = intervalMillis != null
+				? ((LazilyParsedNumber) intervalMillis.getValue()).doubleValue() : -1;
+		
+		if ((count != null && !AckMode.isValidCount(countValue))
+				|| (intervalMillis != null && !AckMode.isValidIntervalMillis(intervalMillisValue))) {
+			throw new IllegalArgumentException("Invalid ack settings");
+		}
+		
+		out.configureAcks(mode != null ? AckMode.fromHeaderValue(mode.getValue()) : null, (int) countValue,
+				(long) intervalMillisValue);
+	}
+	
+	private void selectSession(final JsonObject header, final ClientConnection out) {
+		JsonString session = (JsonString) header.get("session");
+		
+		if (session != null && !out.selectSession(session.getValue())) {
+			throw new IllegalArgumentException("Invalid session");
+		}
+	}
+	
+	private boolean processSingleValueMessage(JsonObject message, JsonString uuid, ClientConnection out)
 			throws IOException {
 		try {
 			JsonObject body = (JsonObject) message.get("body");
@@ -213,9 +1000,13 @@ public class Server extends Thread {
 				return false;
 			}
 			
-			processSingleValue(body);
+			processSingleValue(body, out);
+			out.sensors().commit();
+			out.samplesReceived(1);
 			return true;
 		} catch (Exception e) {
+			out.sensors().rollback();
+			
 			if (e instanceof IOException) {
 				throw (IOException) e;
 			}
@@ -226,7 +1017,7 @@ public class Server extends Thread {
 		return false;
 	}
 
-	private boolean processBatchMessage(JsonObject message, JsonString uuid, BufferedWriter out) throws IOException {
+	private boolean processBatchMessage(JsonObject message, JsonString uuid, ClientConnection out) throws IOException {
 		try {
 			JsonArray body = (JsonArray) message.get("body");
 			
@@ -235,12 +1026,23 @@ public class Server extends Thread {
 				return false;
 			}
 
+			// no sample is recorded unless all of them are valid
+			if (isCapturing(out.session())) {
+				for (JsonType value : body) {
+					sensorOf((JsonObject) value, out.sensors());
+				}
+			}
+			
 			for (JsonType value : body) {
-				processSingleValue((JsonObject) value);
+				processSingleValue((JsonObject) value, out);
 			}
 			
+			out.sensors().commit();
+			out.samplesReceived(body.size());
 			return true;
 		} catch (Exception e) {
+			out.sensors().rollback();
+			
 			if (e instanceof IOException) {
 				throw (IOException) e;
 			}
@@ -251,36 +1053,147 @@ public class Server extends Thread {
 		return false;
 	}
 
-	private void processSingleValue(final JsonObject value) throws Exception {
-		if (isRecording()) {
+	// whether samples of the session are recorded or captured for a pre-roll
+	private boolean isCapturing(final Session session) {
+		return session.activeRecording() != null || preRollNanos > 0 || session.postRollRecording.get() != null;
+	}
+	
+	private void processSingleValue(final JsonObject value, final ClientConnection out) throws Exception {
+		if (isCapturing(out.session())) {
 			JsonArray values = (JsonArray) value.get("values");
-			double x = ((LazilyParsedNumber)((JsonNumber) values.get(0)).getValue()).doubleValue();
-			double y = ((LazilyParsedNumber)((JsonNumber) values.get(1)).getValue()).doubleValue();
-			double z = ((LazilyParsedNumber)((JsonNumber) values.get(2)).getValue()).doubleValue();
+			int sensorId = sensorOf(value, out.sensors());
+			
+			JsonType timestamp = value.get("timestamp");
+			long micros = timestamp instanceof JsonString
+					? TimestampParser.parseMicros(((JsonString) timestamp).getValue())
+					: TimestampParser.NO_TIMESTAMP;
 			
-			String data = x + "," + y + "," + z + "\n";
+			SampleVector sample = out.treeSample();
+			sample.set(sensorId, micros, values.size());
 			
-			synchronized (recordingMutex) {
-				dataWriter.write(data);
+			for (int i = 0; i < values.size(); i++) {
+				sample.values()[i] = ((LazilyParsedNumber)((JsonNumber) values.get(i)).getValue()).doubleValue();
 			}
 			
-			if (listener != null) {
-				listener.dataPointWritten();
+			processSample(sample, 0, out);
+		}
+	}
+	
+	// numbers the sensor of a sample on the tree builder path once all its values are known to be valid
+	private int sensorOf(final JsonObject value, final SensorTable sensors) {
+		JsonArray values = (JsonArray) value.get("values");
+		
+		if (values.size() < 1 || values.size() > SensorMessageDecoder.MAX_VALUES_PER_SAMPLE) {
+			throw new IllegalArgumentException("A sample has 1 to " + SensorMessageDecoder.MAX_VALUES_PER_SAMPLE
+					+ " values, not " + values.size());
+		}
+		
+		for (JsonType component : values) {
+			if (!(component instanceof JsonNumber)) {
+				throw new IllegalArgumentException("Values must be numbers");
+			}
+		}
+		
+		JsonType sensor = value.get("sensor");
+		int sensorId = sensors.id(sensor instanceof JsonString ? ((JsonString) sensor).getValue() : "");
+		
+		if (sensorId < 0) {
+			throw new IllegalArgumentException("Too many sensors");
+		}
+		
+		// a sensor's samples all have as many values as its first one
+		if (!sensors.acceptWidth(sensorId, values.size())) {
+			throw new IllegalArgumentException("Samples of sensor " + sensors.name(sensorId) + " have "
+					+ values.size() + " values now");
+		}
+		
+		return sensorId;
+	}
+	
+	private void processSamples(final SampleBatch samples, final ClientConnection out) {
+		out.samplesReceived(samples.sampleCount());
+		
+		for (int i = 0; i < samples.sampleCount(); i++) {
+			processSample(samples, i, out);
+		}
+	}
+	
+	// samples without a valid timestamp of their own are stamped with the time they arrived
+	private void processSample(final SampleBatch samples, final int sample, final ClientConnection out) {
+		int sensor = samples.sensor(sample);
+		String sensorName = out.sensors().name(sensor);
+		long timestamp = samples.timestamp(sample);
+		long micros = timestamp != TimestampParser.NO_TIMESTAMP ? timestamp : System.currentTimeMillis() * 1000;
+		double rateHertz = resampleRateHertz;
+		
+		if (rateHertz == 0) {
+			recordSample(sensorName, micros, samples, sample, out);
+			return;
+		}
+		
+		Resampler resampler = out.resampler(sensor, rateHertz);
+		int resampled = resampler.add(sensor, micros, samples, sample);
+		
+		for (int i = 0; i < resampled; i++) {
+			recordSample(sensorName, resampler.timestamp(i), resampler, i, out);
+		}
+	}
+	
+	private void recordSample(final String sensor, final long timestamp, final SampleBatch samples, final int sample,
+			final ClientConnection out) {
+		Session session = out.session();
+		Recording activeRecording = session.recording.get();
+		long preRoll = preRollNanos;
+		
+		if (activeRecording != null && activeRecording != Recording.STARTING) {
+			// the client's samples from before the start go first
+			if (preRoll > 0) {
+				out.preRoll(activeRecording, ringBuffer, preRoll);
 			}
+			
+			out.samplePublished(ringBuffer.publishSample(activeRecording, sensor, timestamp, samples, sample));
+			return;
+		}
+		
+		Recording stoppedRecording = session.postRollRecording.get();
+		
+		if (stoppedRecording != null) {
+			out.samplePublished(ringBuffer.publishSample(stoppedRecording, sensor, timestamp, samples, sample));
+		}
+		
+		// samples of a post-roll are kept as well, in case the next recording starts right away
+		if (preRoll > 0) {
+			out.capture(sensor, timestamp, samples, sample, preRollCapacity);
 		}
 	}
 	
-	private void respondOk(final JsonString uuid, final BufferedWriter out) throws IOException {
-		respond("OK", STATUS_CODE_OK, uuid, out);
+	void dataPointsWritten(final int count) {
+		if (listener != null) {
+			listener.dataPointsWritten(count);
+		}
 	}
 	
-	private void respondInvalidJson(final String line, final BufferedWriter out) throws IOException {
+	void dataReceived(final int connectionId, final int bytes, final int samples) {
+		if (listener != null) {
+			listener.dataReceived(connectionId, bytes, samples);
+		}
+	}
+	
+	private void respondOk(final JsonString uuid, final ClientConnection out) throws IOException {
+		// a valid UUID contains no characters that need escaping, so the pre-encoded response can be used
+		byte[] uuidBytes = uuid.getValue().getBytes(StandardCharsets.UTF_8);
+		out.acknowledge(uuidBytes, 0, uuidBytes.length);
+	}
+	
+	private void respondInvalidJson(final String line, final ClientConnection out) throws IOException {
 		respond("Bad Request: Invalid JSON: [" + line +	"]. Connection will be closed.",
 				STATUS_CODE_INVALID_JSON, null, out);
 	}
 	
-	private void respond(final String status, final int statusCode, final JsonString uuid, final BufferedWriter out)
+	void respond(final String status, final int statusCode, final JsonString uuid, final ClientConnection out)
 			throws IOException {
+		metrics.responded(statusCode);
+		
 		JsonObject response = new JsonObject();
 		response.add(new JsonProperty("status", status));
 		response.add(new JsonProperty("statusCode", statusCode));
@@ -289,17 +1202,52 @@ public class Server extends Thread {
 			response.add(new JsonProperty("uuid", uuid));
 		}
 		
-		out.write(response.toJson());
-		out.newLine();
-		out.flush();
+		out.send(response.toJson());
+	}
+	
+	private Path labelFile(final int fileNumber) {
+		return Paths.get(dataDirectory, "label_" + fileNumber + ".csv");
 	}
 	
 	private void writeConfig() throws IOException {
 		JsonObject config = new JsonObject();
 		config.add(new JsonProperty("nextFileNumber", nextFileNumber));
 		
-		try (BufferedWriter configWriter = new BufferedWriter(new FileWriter(configFile))) {
-			configWriter.write(config.toJson());
+		writeAtomically(configFile.toPath(), config.toJson().getBytes(StandardCharsets.UTF_8));
+	}
+	
+	// readers see either the old or the new content, and the new content is on disk once this returns
+	static void writeAtomically(final Path file, final byte[] content) throws IOException {
+		// a unique name, as several servers may share a config file
+		Path temporaryFile = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(),
+				".tmp");
+		
+		try {
+			try (FileChannel channel = FileChannel.open(temporaryFile, StandardOpenOption.WRITE)) {
+				ByteBuffer buffer = ByteBuffer.wrap(content);
+				
+				while (buffer.hasRemaining()) {
+					channel.write(buffer);
+				}
+				
+				channel.force(true);
+			}
+			
+			try {
+				Files.move(temporaryFile, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} catch (IOException e) {
+			Files.deleteIfExists(temporaryFile);
+			throw e;
+		}
+		
+		// the rename itself is only durable once the directory is synced; not every platform can open a directory
+		try (FileChannel directory = FileChannel.open(file.toAbsolutePath().getParent(), StandardOpenOption.READ)) {
+			directory.force(true);
+		} catch (IOException e) {
+			// the rename becomes durable with the file system's next commit
 		}
 	}
 }
@@ -1,7 +1,18 @@
 package com.matthiasrothe.emerald.dl4j.recorder.server;
 
 public interface ServerListener {
-	void clientConnected();
-	void clientDisconnected();
+	void clientConnected(int connectionId);
+	void clientDisconnected(int connectionId);
 	void dataPointWritten();
+	
+	// called by the recording writer once per batch instead of once per data point
+	default void dataPointsWritten(final int count) {
+		for (int i = 0; i < count; i++) {
+			dataPointWritten();
+		}
+	}
+	
+	// called once per read from a client with the number of bytes read and samples received in them
+	default void dataReceived(final int connectionId, final int bytes, final int samples) {
+	}
 }
@@ -0,0 +1,211 @@
+package com.matthiasrothe.emerald.dl4j.recorder.server;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Counters and latency histograms of a server. Connections count into their own ConnectionMetrics only; the global
+ * totals are the sums over the open connections plus the totals of the closed ones, so every event costs one add.
+ */
+class ServerMetrics {
+	static final int[] STATUS_CODES = {
+			Server.STATUS_CODE_OK,
+			Server.STATUS_CODE_INVALID_JSON,
+			Server.STATUS_CODE_MALFORMED_MESSAGE,
+			Server.STATUS_CODE_HEADER_MISSING,
+			Server.STATUS_CODE_UNSUPPORTED_MESSAGE_TYPE,
+			Server.STATUS_CODE_BODY_MISSING
+	};
+	
+	static final int CREDITS_WITHHELD_PIPELINE_FULL = 0;
+	static final int CREDITS_WITHHELD_CONNECTIONS = 1;
+	static final String[] CREDITS_WITHHELD_REASONS = { "pipeline_full", "connections" };
+	
+	static final int DATAGRAM_DROPPED_LATE = 0;
+	static final int DATAGRAM_DROPPED_MALFORMED = 1;
+	static final int DATAGRAM_DROPPED_SENDERS = 2;
+	static final String[] DATAGRAM_DROPPED_REASONS = { "late", "malformed", "senders" };
+	
+	private final Map<Integer, ConnectionMetrics> connections = new ConcurrentSkipListMap<>();
+	
+	// totals of the closed connections
+	private final LongAdder closedMessages = new LongAdder();
+	private final LongAdder closedSamples = new LongAdder();
+	private final LongAdder closedBytesReceived = new LongAdder();
+	private final LongAdder closedBytesSent = new LongAdder();
+	
+	private final LongAdder[] responses = new LongAdder[STATUS_CODES.length];
+	private final LongAdder dataPointsWritten = new LongAdder();
+	private final LongAdder dataBytesWritten = new LongAdder();
+	
+	private final LongAdder[] creditsWithheld = { new LongAdder(), new LongAdder() };
+	private final LongAdder creditViolations = new LongAdder();
+	private volatile int lastCreditsGranted = -1;
+	
+	private final LongAdder duplicates = new LongAdder();
+	
+	private final LongAdder datagrams = new LongAdder();
+	// datagrams missing from the sequence numbers of their senders
+	private final LongAdder datagramsLost = new LongAdder();
+	private final LongAdder[] datagramsDropped = { new LongAdder(), new LongAdder(), new LongAdder() };
+	
+	private final LatencyHistogram parseToAck = new LatencyHistogram();
+	private final LatencyHistogram writeBatch = new LatencyHistogram();
+	private final LatencyHistogram sync = new LatencyHistogram();
+	
+	ServerMetrics() {
+		for (int i = 0; i < responses.length; i++) {
+			responses[i] = new LongAdder();
+		}
+	}
+	
+	ConnectionMetrics connectionOpened(final int connectionId) {
+		ConnectionMetrics metrics = new ConnectionMetrics(connectionId);
+		connections.put(connectionId, metrics);
+		return metrics;
+	}
+	
+	void connectionClosed(final ConnectionMetrics metrics) {
+		if (connections.remove(metrics.getConnectionId()) != null) {
+			closedMessages.add(metrics.messages.sum());
+			closedSamples.add(metrics.samples.sum());
+			closedBytesReceived.add(metrics.bytesReceived.sum());
+			closedBytesSent.add(metrics.bytesSent.sum());
+		}
+	}
+	
+	Collection<ConnectionMetrics> openConnections() {
+		return connections.values();
+	}
+	
+	void responded(final int statusCode) {
+		for (int i = 0; i < STATUS_CODES.length; i++) {
+			if (STATUS_CODES[i] == statusCode) {
+				responses[i].increment();
+				return;
+			}
+		}
+	}
+	
+	void dataPointsWritten(final int count, final long bytes, final long batchNanos) {
+		dataPointsWritten.add(count);
+		dataBytesWritten.add(bytes);
+		writeBatch.record(batchNanos);
+	}
+	
+	void withholdCredits(final int reason) {
+		creditsWithheld[reason].increment();
+		lastCreditsGranted = 0;
+	}
+	
+	void creditsGranted(final int credits) {
+		lastCreditsGranted = credits;
+	}
+	
+	void creditsExceeded() {
+		creditViolations.increment();
+	}
+	
+	long creditsWithheld(final int reason) {
+		return creditsWithheld[reason].sum();
+	}
+	
+	long creditViolations() {
+		return creditViolations.sum();
+	}
+	
+	void duplicateReceived() {
+		duplicates.increment();
+	}
+	
+	long duplicates() {
+		return duplicates.sum();
+	}
+	
+	void datagramReceived(final long lostBefore) {
+		datagrams.increment();
+		
+		if (lostBefore > 0) {
+			datagramsLost.add(lostBefore);
+		}
+	}
+	
+	void dropDatagram(final int reason) {
+		datagramsDropped[reason].increment();
+	}
+	
+	long datagrams() {
+		return datagrams.sum();
+	}
+	
+	long datagramsLost() {
+		return datagramsLost.sum();
+	}
+	
+	long datagramsDropped(final int reason) {
+		return datagramsDropped[reason].sum();
+	}
+	
+	// -1 until credits were granted for the first time
+	int lastCreditsGranted() {
+		return lastCreditsGranted;
+	}
+	
+	LatencyHistogram parseToAck() {
+		return parseToAck;
+	}
+	
+	LatencyHistogram writeBatch() {
+		return writeBatch;
+	}
+	
+	LatencyHistogram sync() {
+		return sync;
+	}
+	
+	long responses(final int statusCodeIndex) {
+		return responses[statusCodeIndex].sum();
+	}
+	
+	long dataPointsWritten() {
+		return dataPointsWritten.sum();
+	}
+	
+	long dataBytesWritten() {
+		return dataBytesWritten.sum();
+	}
+	
+	long messages() {
+		long messages = closedMessages.sum();
+		for (ConnectionMetrics connection : connections.values()) {
+			messages += connection.messages.sum();
+		}
+		return messages;
+	}
+	
+	long samples() {
+		long samples = closedSamples.sum();
+		for (ConnectionMetrics connection : connections.values()) {
+			samples += connection.samples.sum();
+		}
+		return samples;
+	}
+	
+	long bytesReceived() {
+		long bytes = closedBytesReceived.sum();
+		for (ConnectionMetrics connection : connections.values()) {
+			bytes += connection.bytesReceived.sum();
+		}
+		return bytes;
+	}
+	
+	long bytesSent() {
+		long bytes = closedBytesSent.sum();
+		for (ConnectionMetrics connection : connections.values()) {
+			bytes += connection.bytesSent.sum();
+		}
+		return bytes;
+	}
+}
@@ -0,0 +1,51 @@
+package com.matthiasrothe.emerald.dl4j.recorder.server;
+
+import java.util.List;
+
+public class ServerStatistics {
+	private final long dataPointsWritten;
+	private final double dataPointsPerSecond;
+	private final long bytesReceived;
+	private final double bytesPerSecond;
+	private final List<ClientStatistics> clients;
+	
+	ServerStatistics(final long dataPointsWritten, final double dataPointsPerSecond, final long bytesReceived,
+			final double bytesPerSecond, final List<ClientStatistics> clients) {
+		this.dataPointsWritten = dataPointsWritten;
+		this.dataPointsPerSecond = dataPointsPerSecond;
+		this.bytesReceived = bytesReceived;
+		this.bytesPerSecond = bytesPerSecond;
+		this.clients = List.copyOf(clients);
+	}
+	
+	// data points written since the listener was started
+	public long getDataPointsWritten() {
+		return dataPointsWritten;
+	}
+	
+	// averaged over the last second
+	public double getDataPointsPerSecond() {
+		return dataPointsPerSecond;
+	}
+	
+	public long getBytesReceived() {
+		return bytesReceived;
+	}
+	
+	// averaged over the last second
+	public double getBytesPerSecond() {
+		return bytesPerSecond;
+	}
+	
+	// connected clients ordered by connection id
+	public List<ClientStatistics> getClients() {
+		return clients;
+	}
+	
+	@Override
+	public String toString() {
+		return "ServerStatistics [dataPointsWritten=" + dataPointsWritten + ", dataPointsPerSecond="
+				+ dataPointsPerSecond + ", bytesReceived=" + bytesReceived + ", bytesPerSecond=" + bytesPerSecond
+				+ ", clients=" + clients + "]";
+	}
+}
@@ -0,0 +1,5 @@
+package com.matthiasrothe.emerald.dl4j.recorder.server;
+
+public interface ServerStatisticsListener {
+	void statisticsUpdated(ServerStatistics statistics);
+}
@@ -0,0 +1,58 @@
+package com.matthiasrothe.emerald.dl4j.recorder.server;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+
+/*
+ * The recordings of one device. A connection records into the session its messages last named in header.session,
+ * the default session until they name one; sessions are started and stopped independently of each other, and the
+ * samples of one never wait for the state of another. A session other than the default one is forgotten once it has
+ * neither connections nor recordings, and created again when a message names it next.
+ */
+class Session {
+	static final int MAX_ID_LENGTH = 64;
+	
+	private final String id;
+	private final byte[] idBytes;
+	
+	// null if idle, Recording.STARTING while the files are created, the active recording otherwise
+	final AtomicReference<Recording> recording = new AtomicReference<>();
+	// a stopped recording that still receives samples until its post-roll is over
+	final AtomicReference<Recording> postRollRecording = new AtomicReference<>();
+	// the connections in the session and the recordings being started in it; only changed while the sessions map
+	// locks the session's entry, so that a session can't get a user while it's removed
+	int users;
+	
+	Session(final String id) {
+		if (!isValidId(id)) {
+			throw new IllegalArgumentException("Invalid session: " + id);
+		}
+		
+		this.id = id;
+		idBytes = id.getBytes(StandardCharsets.UTF_8);
+	}
+	
+	static boolean isValidId(final String id) {
+		return id != null && !id.isEmpty() && id.length() <= MAX_ID_LENGTH;
+	}
+	
+	String getId() {
+		return id;
+	}
+	
+	// compares with the UTF-8 bytes of an id without decoding them
+	boolean hasId(final byte[] bytes, final int start, final int end) {
+		return Arrays.equals(idBytes, 0, idBytes.length, bytes, start, end);
+	}
+	
+	boolean isIdle() {
+		return users == 0 && recording.get() == null && postRollRecording.get() == null;
+	}
+	
+	// null if no recording is in progress
+	Recording activeRecording() {
+		Recording activeRecording = recording.get();
+		return activeRecording != Recording.STARTING ? activeRecording : null;
+	}
+}
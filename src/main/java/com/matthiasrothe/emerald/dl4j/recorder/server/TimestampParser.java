@@ -0,0 +1,125 @@
+package com.matthiasrothe.emerald.dl4j.recorder.server;
+
+import java.nio.charset.StandardCharsets;
+
+/*
+ * Parses the sample timestamps clients send, ISO-8601 local date-times as LocalDateTime.toString() formats them:
+ * yyyy-MM-ddTHH:mm, optionally followed by :ss and a fraction of up to nine digits, and optionally by a Z. It reads
+ * the digits straight from the received bytes and computes the epoch day arithmetically, so unlike
+ * LocalDateTime.parse it allocates nothing.
+ *
+ * A timestamp without an offset is taken as UTC. Only the differences between the timestamps of a client matter for
+ * resampling, and those stay the same in every time zone outside of daylight saving time changes.
+ */
+final class TimestampParser {
+	// returned for malformed timestamps
+	static final long NO_TIMESTAMP = Long.MIN_VALUE;
+	
+	private static final int MIN_LENGTH = "yyyy-MM-ddTHH:mm".length();
+	private static final int MAX_FRACTION_DIGITS = 9;
+	private static final int MICROS_DIGITS = 6;
+	
+	private TimestampParser() {
+	}
+	
+	static long parseMicros(final String timestamp) {
+		byte[] bytes = timestamp.getBytes(StandardCharsets.ISO_8859_1);
+		return parseMicros(bytes, 0, bytes.length);
+	}
+	
+	// microseconds since the epoch, or NO_TIMESTAMP
+	static long parseMicros(final byte[] bytes, final int start, final int end) {
+		if (end - start < MIN_LENGTH || bytes[start + 4] != '-' || bytes[start + 7] != '-' || bytes[start + 10] != 'T'
+				|| bytes[start + 13] != ':') {
+			return NO_TIMESTAMP;
+		}
+		
+		int year = digits(bytes, start, 4);
+		int month = digits(bytes, start + 5, 2);
+		int day = digits(bytes, start + 8, 2);
+		int hour = digits(bytes, start + 11, 2);
+		int minute = digits(bytes, start + 14, 2);
+		int second = 0;
+		long micros = 0;
+		int position = start + MIN_LENGTH;
+		
+		if (position < end && bytes[position] == ':') {
+			if (position + 3 > end) {
+				return NO_TIMESTAMP;
+			}
+			
+			second = digits(bytes, position + 1, 2);
+			position += 3;
+			
+			if (position < end && bytes[position] == '.') {
+				int fractionDigits = 0;
+				position++;
+				
+				while (position < end && bytes[position] >= '0' && bytes[position] <= '9') {
+					// nanoseconds are truncated to microseconds
+					if (fractionDigits < MICROS_DIGITS) {
+						micros = micros * 10 + bytes[position] - '0';
+					}
+					
+					fractionDigits++;
+					position++;
+				}
+				
+				if (fractionDigits == 0 || fractionDigits > MAX_FRACTION_DIGITS) {
+					return NO_TIMESTAMP;
+				}
+				
+				for (int i = fractionDigits; i < MICROS_DIGITS; i++) {
+					micros *= 10;
+				}
+			}
+		}
+		
+		if (position < end && bytes[position] == 'Z') {
+			position++;
+		}
+		
+		if (position != end || year < 1 || month < 1 || month > 12 || day < 1 || day > lengthOfMonth(year, month)
+				|| hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 59) {
+			return NO_TIMESTAMP;
+		}
+		
+		long seconds = ((epochDay(year, month, day) * 24 + hour) * 60 + minute) * 60 + second;
+		return seconds * 1_000_000 + micros;
+	}
+	
+	// -1 unless all count bytes are digits
+	private static int digits(final byte[] bytes, final int offset, final int count) {
+		int value = 0;
+		
+		for (int i = 0; i < count; i++) {
+			int digit = bytes[offset + i] - '0';
+			
+			if (digit < 0 || digit > 9) {
+				return -1;
+			}
+			
+			value = value * 10 + digit;
+		}
+		
+		return value;
+	}
+	
+	private static int lengthOfMonth(final int year, final int month) {
+		if (month == 2) {
+			return year % 4 == 0 && (year % 100 != 0 || year % 400 == 0) ? 29 : 28;
+		}
+		
+		return month == 4 || month == 6 || month == 9 || month == 11 ? 30 : 31;
+	}
+	
+	// days since 1970-01-01 in the proleptic Gregorian calendar, counting years from March to February
+	private static long epochDay(final int year, final int month, final int day) {
+		int marchYear = month <= 2 ? year - 1 : year;
+		int era = marchYear / 400;
+		int yearOfEra = marchYear - era * 400;
+		int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+		int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+		return era * 146_097L + dayOfEra - 719_468;
+	}
+}
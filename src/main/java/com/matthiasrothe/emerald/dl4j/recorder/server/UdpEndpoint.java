@@ -0,0 +1,187 @@
+package com.matthiasrothe.emerald.dl4j.recorder.server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Lossy ingest for sensors streaming at high rates. Nothing is acknowledged; lost datagrams are detected by their
+ * sequence numbers and counted instead. All numbers are big-endian. A datagram holds
+ *
+ *   long   sequence number, counting the datagrams of the sender up by one from any start value
+ *   ...    a single-value or batch JSON message without line terminator, or a binary sample frame without its
+ *          length field (see BinaryFrameCodec), told apart by its first byte
+ *
+ * Each sender address is a client of its own, with the sensors, session and pre-roll of a connection. As datagrams
+ * don't tell when a sender is gone, a sender is forgotten once it sent nothing for a while.
+ */
+class UdpEndpoint {
+	// the largest UDP payload over IPv4
+	static final int MAX_DATAGRAM_SIZE = 65507;
+	static final int SEQUENCE_SIZE = Long.BYTES;
+	
+	// upper bound of the senders tracked, as every datagram may come from a new one
+	static final int MAX_SENDERS = 1024;
+	static final long PEER_IDLE_TIMEOUT_MILLIS = 60 * 1000;
+	// bursts at kHz rates must not overflow the socket while the receiver waits for the pipeline
+	private static final int RECEIVE_BUFFER_SIZE = 4 * 1024 * 1024;
+	// a sender streaming malformed datagrams at kHz rates must not flood the log
+	private static final long MALFORMED_LOG_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+	
+	private final Server server;
+	private final DatagramChannel channel;
+	private final long peerIdleTimeoutNanos;
+	
+	// only accessed by the receiver thread; the sender heard from least recently first
+	private final LinkedHashMap<SocketAddress, UdpPeer> peers = new LinkedHashMap<>(16, 0.75f, true);
+	private long nextMalformedLogNanos = System.nanoTime();
+	private long malformedNotLogged;
+	
+	UdpEndpoint(final Server server, final int port) throws IOException {
+		this(server, port, PEER_IDLE_TIMEOUT_MILLIS);
+	}
+	
+	UdpEndpoint(final Server server, final int port, final long peerIdleTimeoutMillis) throws IOException {
+		this.server = server;
+		peerIdleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(peerIdleTimeoutMillis);
+		
+		channel = DatagramChannel.open();
+		
+		try {
+			channel.setOption(StandardSocketOptions.SO_RCVBUF, RECEIVE_BUFFER_SIZE);
+			channel.bind(new InetSocketAddress(port));
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+	}
+	
+	void start() throws IOException {
+		Thread.ofPlatform().name("udp-receiver").daemon().start(this::receive);
+		System.out.println("Datagrams accepted on port " + ((InetSocketAddress) channel.getLocalAddress()).getPort());
+	}
+	
+	void stop() {
+		try {
+			channel.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	private void receive() {
+		// datagrams are received into a direct buffer, which saves the JDK's copy through a temporary one; the
+		// decoders read from an array, which takes a single bulk copy
+		ByteBuffer buffer = ByteBuffer.allocateDirect(MAX_DATAGRAM_SIZE);
+		byte[] bytes = new byte[MAX_DATAGRAM_SIZE];
+		
+		try {
+			while (channel.isOpen()) {
+				buffer.clear();
+				SocketAddress sender = channel.receive(buffer);
+				buffer.flip();
+				
+				if (buffer.remaining() <= SEQUENCE_SIZE) {
+					server.getMetrics().dropDatagram(ServerMetrics.DATAGRAM_DROPPED_MALFORMED);
+					continue;
+				}
+				
+				long sequence = buffer.getLong();
+				int length = buffer.remaining();
+				buffer.get(bytes, 0, length);
+				process(sender, sequence, bytes, length);
+			}
+		} catch (IOException e) {
+			// receiving fails once the endpoint is stopped, which isn't an error
+			if (channel.isOpen()) {
+				e.printStackTrace();
+			}
+		} finally {
+			for (UdpPeer peer : peers.values()) {
+				peer.close();
+			}
+		}
+	}
+	
+	// package-private for the tests, which call it instead of the receiver thread
+	void process(final SocketAddress sender, final long sequence, final byte[] bytes, final int length) {
+		ServerMetrics metrics = server.getMetrics();
+		long now = System.nanoTime();
+		evictIdlePeers(now);
+		UdpPeer peer = peer(sender);
+		
+		if (peer == null) {
+			metrics.dropDatagram(ServerMetrics.DATAGRAM_DROPPED_SENDERS);
+			return;
+		}
+		
+		peer.datagramReceived(now);
+		long lost = peer.sequenceReceived(sequence);
+		
+		if (lost < 0) {
+			metrics.dropDatagram(ServerMetrics.DATAGRAM_DROPPED_LATE);
+			return;
+		}
+		
+		try {
+			peer.processDatagram(bytes, 0, length);
+		} catch (IOException | RuntimeException e) {
+			// one datagram the sender's client fails on must not stop the receiver for all others
+			metrics.dropDatagram(ServerMetrics.DATAGRAM_DROPPED_MALFORMED);
+			logMalformed(sender, e, now);
+			return;
+		}
+		
+		metrics.datagramReceived(lost);
+	}
+	
+	private void logMalformed(final SocketAddress sender, final Exception e, final long now) {
+		if (now - nextMalformedLogNanos < 0) {
+			malformedNotLogged++;
+			return;
+		}
+		
+		System.err.println("Dropped a malformed datagram from " + sender + ": " + e
+				+ (malformedNotLogged > 0 ? " (" + malformedNotLogged + " more not logged)" : ""));
+		nextMalformedLogNanos = now + MALFORMED_LOG_INTERVAL_NANOS;
+		malformedNotLogged = 0;
+	}
+	
+	private void evictIdlePeers(final long now) {
+		Iterator<UdpPeer> iterator = peers.values().iterator();
+		
+		while (iterator.hasNext()) {
+			UdpPeer peer = iterator.next();
+			
+			if (now - peer.lastDatagramNanos() < peerIdleTimeoutNanos) {
+				return;
+			}
+			
+			iterator.remove();
+			peer.close();
+		}
+	}
+	
+	int peerCount() {
+		return peers.size();
+	}
+	
+	// null if there are too many senders already
+	private UdpPeer peer(final SocketAddress sender) {
+		UdpPeer peer = peers.get(sender);
+		
+		if (peer == null && peers.size() < MAX_SENDERS) {
+			peer = new UdpPeer(server, server.nextConnectionId());
+			peers.put(sender, peer);
+			server.clientConnected(peer.connectionId, ((InetSocketAddress) sender).getAddress());
+		}
+		
+		return peer;
+	}
+}
@@ -0,0 +1,51 @@
+package com.matthiasrothe.emerald.dl4j.recorder.server;
+
+// the samples of one UDP sender; there is no connection to send responses on, so they are dropped
+class UdpPeer extends ClientConnection {
+	// how far a sequence number may fall behind the expected one before it's taken for a restarted sender
+	static final long MAX_REORDERING = 1024;
+	
+	private boolean sequenceKnown;
+	private long expectedSequence;
+	private long lastDatagramNanos;
+	
+	UdpPeer(final Server server, final int connectionId) {
+		super(server, connectionId);
+	}
+	
+	/*
+	 * Returns the number of datagrams lost between the previous one and the one with the given sequence number, or -1
+	 * if it arrived after a later one and must be dropped, as the samples of a sensor are recorded in order.
+	 */
+	long sequenceReceived(final long sequence) {
+		long lost = sequenceKnown ? sequence - expectedSequence : 0;
+		
+		if (lost < 0 && lost >= -MAX_REORDERING) {
+			return -1;
+		}
+		
+		sequenceKnown = true;
+		expectedSequence = sequence + 1;
+		return Math.max(0, lost);
+	}
+	
+	void datagramReceived(final long nanos) {
+		lastDatagramNanos = nanos;
+	}
+	
+	long lastDatagramNanos() {
+		return lastDatagramNanos;
+	}
+	
+	@Override
+	protected void write(final byte[] bytes, final int offset, final int length) {
+	}
+	
+	@Override
+	protected void flushOutput() {
+	}
+	
+	void close() {
+		connectionClosed();
+	}
+}
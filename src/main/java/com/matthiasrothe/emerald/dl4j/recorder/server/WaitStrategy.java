@@ -0,0 +1,13 @@
+package com.matthiasrothe.emerald.dl4j.recorder.server;
+
+// how the recording writer waits for new samples in the pipeline
+public enum WaitStrategy {
+	// parks the writer thread until a producer wakes it up; lowest CPU usage, small wake-up cost per burst
+	BLOCKING,
+	// spins, yields and then parks for short periods; producers never need to wake up the writer
+	SLEEPING,
+	// spins and then yields the CPU; low latency at the cost of one busy core while idle
+	YIELDING,
+	// spins permanently; lowest latency, burns a whole core
+	BUSY_SPIN
+}
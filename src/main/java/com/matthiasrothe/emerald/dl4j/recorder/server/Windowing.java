@@ -0,0 +1,37 @@
+package com.matthiasrothe.emerald.dl4j.recorder.server;
+
+import java.util.Objects;
+
+import com.matthiasrothe.emerald.dl4j.recorder.format.ValueType;
+
+// how recordings are cut into windows for training: length samples each, a new one every stride samples
+public class Windowing {
+	private final int length;
+	private final int stride;
+	private final ValueType valueType;
+	
+	public Windowing(final int length, final int stride, final ValueType valueType) {
+		Objects.requireNonNull(valueType, "valueType must not be null");
+		
+		if (length < 1 || stride < 1) {
+			throw new IllegalArgumentException("length and stride must be at least 1");
+		}
+		
+		this.length = length;
+		this.stride = stride;
+		this.valueType = valueType;
+	}
+	
+	public int getLength() {
+		return length;
+	}
+	
+	// windows overlap if the stride is shorter than their length
+	public int getStride() {
+		return stride;
+	}
+	
+	public ValueType getValueType() {
+		return valueType;
+	}
+}
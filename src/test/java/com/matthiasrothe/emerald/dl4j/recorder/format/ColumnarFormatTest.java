@@ -0,0 +1,80 @@
+package com.matthiasrothe.emerald.dl4j.recorder.format;
+
+import static org.testng.Assert.assertEquals;
+
+import java.io.StringWriter;
+import java.nio.DoubleBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+public class ColumnarFormatTest {
+	private static final int SAMPLES = 10;
+	
+	@Test
+	public void shouldReadWhatWasWritten() throws Exception {
+		Path file = Files.createTempFile("recording", ColumnarFormat.FILE_EXTENSION);
+		
+		try {
+			StringBuilder expectedCsv = new StringBuilder();
+			
+			// a tiny block capacity to get several blocks and a partially filled last block
+			try (ColumnarWriter writer = new ColumnarWriter(file, ValueType.DOUBLE, List.of("x", "y", "z"), 5, 4)) {
+				for (int i = 0; i < SAMPLES; i++) {
+					double x = i * 0.1;
+					double y = -i;
+					double z = 1e-7 * i;
+					
+					writer.append(x, y, z);
+					expectedCsv.append(x + "," + y + "," + z + "\n");
+				}
+			}
+			
+			try (ColumnarReader reader = new ColumnarReader(file)) {
+				assertEquals(reader.getLabel(), 5);
+				assertEquals(reader.getValueType(), ValueType.DOUBLE);
+				assertEquals(reader.getColumnNames(), List.of("x", "y", "z"));
+				assertEquals(reader.getSampleCount(), SAMPLES);
+				assertEquals(reader.getBlockCount(), 3);
+				assertEquals(reader.getBlockSampleCount(2), 2);
+				
+				DoubleBuffer y = reader.doubleColumn(1, 1);
+				assertEquals(y.remaining(), 4);
+				assertEquals(y.get(0), -4.0);
+				
+				double[] x = reader.readColumn(0);
+				assertEquals(x.length, SAMPLES);
+				assertEquals(x[9], 9 * 0.1);
+				
+				StringWriter csv = new StringWriter();
+				ColumnarCsvExport.export(reader, csv);
+				assertEquals(csv.toString(), expectedCsv.toString());
+			}
+		} finally {
+			Files.delete(file);
+		}
+	}
+	
+	@Test
+	public void shouldReadUnclosedFileUpToLastSample() throws Exception {
+		Path file = Files.createTempFile("recording", ColumnarFormat.FILE_EXTENSION);
+		ColumnarWriter writer = new ColumnarWriter(file, ValueType.FLOAT, List.of("a", "b"), 1, 8);
+		
+		try {
+			for (int i = 0; i < 11; i++) {
+				writer.append(new double[] { i, i * 0.5 }, 0);
+			}
+			
+			try (ColumnarReader reader = new ColumnarReader(file)) {
+				assertEquals(reader.getSampleCount(), 11);
+				assertEquals(reader.floatColumn(1, 1).get(2), 5.0f);
+				assertEquals(reader.readColumn(0)[10], 10.0);
+			}
+		} finally {
+			writer.close();
+			Files.delete(file);
+		}
+	}
+}
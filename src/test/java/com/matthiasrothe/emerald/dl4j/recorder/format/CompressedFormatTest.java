@@ -0,0 +1,96 @@
+package com.matthiasrothe.emerald.dl4j.recorder.format;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.io.StringWriter;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+public class CompressedFormatTest {
+	private static final int SAMPLES = 10_000;
+	private static final int BLOCK_CAPACITY = 1024;
+	
+	@Test
+	public void shouldReadWhatWasWritten() throws Exception {
+		Path file = Files.createTempFile("recording", CompressedFormat.FILE_EXTENSION);
+		
+		try {
+			StringBuilder expectedCsv = new StringBuilder();
+			write(file, expectedCsv);
+			
+			// slowly changing sensor values compress well
+			assertTrue(Files.size(file) < SAMPLES * 3 * Double.BYTES / 2, "size " + Files.size(file));
+			
+			try (CompressedReader reader = new CompressedReader(file)) {
+				assertEquals(reader.getLabel(), 7);
+				assertEquals(reader.getValueType(), ValueType.DOUBLE);
+				assertEquals(reader.getColumnNames(), List.of("x", "y", "z"));
+				assertEquals(reader.getSampleCount(), SAMPLES);
+				assertEquals(reader.getBlockCount(), 10);
+				assertEquals(reader.getBlockSampleCount(9), SAMPLES - 9 * BLOCK_CAPACITY);
+				
+				assertEquals(reader.readBlock(3)[1][5], y(3 * BLOCK_CAPACITY + 5));
+				
+				double[][] columns = reader.readColumns();
+				assertEquals(columns[0].length, SAMPLES);
+				assertEquals(columns[2][SAMPLES - 1], z(SAMPLES - 1));
+				
+				StringWriter csv = new StringWriter();
+				ColumnarCsvExport.export(reader, csv);
+				assertEquals(csv.toString(), expectedCsv.toString());
+			}
+		} finally {
+			Files.delete(file);
+		}
+	}
+	
+	@Test
+	public void shouldReadFileWithoutIndexUpToLastBlock() throws Exception {
+		Path file = Files.createTempFile("recording", CompressedFormat.FILE_EXTENSION);
+		
+		try {
+			write(file, new StringBuilder());
+			
+			// a crashed recorder leaves no index behind
+			long indexSize = 10 * CompressedFormat.INDEX_ENTRY_SIZE + CompressedFormat.TRAILER_SIZE;
+			try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+				channel.truncate(channel.size() - indexSize);
+			}
+			
+			try (CompressedReader reader = new CompressedReader(file)) {
+				assertEquals(reader.getSampleCount(), SAMPLES);
+				assertEquals(reader.readColumns()[0][SAMPLES - 1], x(SAMPLES - 1));
+			}
+		} finally {
+			Files.delete(file);
+		}
+	}
+	
+	private static void write(final Path file, final StringBuilder expectedCsv) throws Exception {
+		try (CompressedWriter writer = new CompressedWriter(file, ValueType.DOUBLE, List.of("x", "y", "z"), 7,
+				BLOCK_CAPACITY)) {
+			for (int i = 0; i < SAMPLES; i++) {
+				writer.append(x(i), y(i), z(i));
+				expectedCsv.append(x(i) + "," + y(i) + "," + z(i) + "\n");
+			}
+		}
+	}
+	
+	private static double x(final int i) {
+		return Math.round(Math.sin(i * 0.01) * 1000) / 100.0;
+	}
+	
+	private static double y(final int i) {
+		return -9.81 + (i % 7) * 0.01;
+	}
+	
+	private static double z(final int i) {
+		return i / 4;
+	}
+}
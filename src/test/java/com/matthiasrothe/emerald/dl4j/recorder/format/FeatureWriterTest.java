@@ -0,0 +1,84 @@
+package com.matthiasrothe.emerald.dl4j.recorder.format;
+
+import static org.testng.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.testng.annotations.Test;
+
+public class FeatureWriterTest {
+	private static final int SAMPLES = 9;
+	private static final int LENGTH = 4;
+	private static final int STRIDE = 2;
+	
+	@Test
+	public void shouldComputeFeaturesOfOverlappingWindows() throws Exception {
+		Path file = Files.createTempFile("features", NpyFormat.FILE_EXTENSION);
+		double[][] samples = new double[SAMPLES][];
+		
+		try {
+			try (FeatureWriter writer = new FeatureWriter(file, ValueType.DOUBLE, LENGTH, STRIDE)) {
+				for (int i = 0; i < SAMPLES; i++) {
+					samples[i] = new double[] { i - 3, 2, i % 2 == 0 ? 1 : -1 };
+					writer.append(samples[i], 0);
+				}
+				
+				assertEquals(writer.getWindowCount(), 3);
+			}
+			
+			ByteBuffer features = ByteBuffer.wrap(Files.readAllBytes(file)).order(NpyFormat.BYTE_ORDER);
+			assertEquals(features.limit(), NpyFormat.HEADER_SIZE + 3 * FeatureWriter.FEATURE_COUNT * Double.BYTES);
+			features.position(NpyFormat.HEADER_SIZE);
+			
+			for (int window = 0; window < 3; window++) {
+				for (int channel = 0; channel < FeatureWriter.CHANNELS.size(); channel++) {
+					double[] values = new double[LENGTH];
+					
+					for (int i = 0; i < LENGTH; i++) {
+						double[] sample = samples[window * STRIDE + i];
+						values[i] = channel < 3 ? sample[channel]
+								: Math.sqrt(sample[0] * sample[0] + sample[1] * sample[1] + sample[2] * sample[2]);
+					}
+					
+					assertFeatures(features, values);
+				}
+			}
+		} finally {
+			Files.delete(file);
+		}
+	}
+	
+	// compares with the statistics computed the offline way, in two passes over the window
+	private static void assertFeatures(final ByteBuffer features, final double[] values) {
+		double mean = 0;
+		double min = Double.POSITIVE_INFINITY;
+		double max = Double.NEGATIVE_INFINITY;
+		double energy = 0;
+		int zeroCrossings = 0;
+		
+		for (int i = 0; i < values.length; i++) {
+			mean += values[i] / values.length;
+			min = Math.min(min, values[i]);
+			max = Math.max(max, values[i]);
+			energy += values[i] * values[i] / values.length;
+			
+			if (i > 0 && (values[i] < 0) != (values[i - 1] < 0)) {
+				zeroCrossings++;
+			}
+		}
+		
+		double variance = 0;
+		for (double value : values) {
+			variance += (value - mean) * (value - mean) / values.length;
+		}
+		
+		assertEquals(features.getDouble(), mean, 1e-9);
+		assertEquals(features.getDouble(), variance, 1e-9);
+		assertEquals(features.getDouble(), min);
+		assertEquals(features.getDouble(), max);
+		assertEquals(features.getDouble(), energy, 1e-9);
+		assertEquals(features.getDouble(), zeroCrossings);
+	}
+}
@@ -0,0 +1,85 @@
+package com.matthiasrothe.emerald.dl4j.recorder.format;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.testng.annotations.Test;
+
+public class WindowWriterTest {
+	@Test
+	public void shouldWriteOverlappingWindowsAsNpyArrays() throws Exception {
+		Path windowsFile = Files.createTempFile("windows", NpyFormat.FILE_EXTENSION);
+		Path labelsFile = Files.createTempFile("window_labels", NpyFormat.FILE_EXTENSION);
+		
+		try (WindowWriter writer = new WindowWriter(windowsFile, labelsFile, ValueType.FLOAT, 3, 4, 2, 6)) {
+			for (int i = 0; i < 9; i++) {
+				writer.append(i, i + 0.5, -i);
+			}
+			
+			writer.sync();
+			
+			// complete after the 4th, 6th and 8th sample; the 9th only starts the next window
+			assertEquals(writer.getWindowCount(), 3);
+			assertTrue(header(windowsFile).contains("'descr': '<f4', 'fortran_order': False, 'shape': (3, 4, 3), }"),
+					header(windowsFile));
+		}
+		
+		ByteBuffer windows = ByteBuffer.wrap(Files.readAllBytes(windowsFile)).order(NpyFormat.BYTE_ORDER);
+		assertEquals(windows.limit(), NpyFormat.HEADER_SIZE + 3 * 4 * 3 * Float.BYTES);
+		windows.position(NpyFormat.HEADER_SIZE);
+		
+		for (int window = 0; window < 3; window++) {
+			for (int sample = window * 2; sample < window * 2 + 4; sample++) {
+				assertEquals(windows.getFloat(), (float) sample);
+				assertEquals(windows.getFloat(), sample + 0.5f);
+				assertEquals(windows.getFloat(), (float) -sample);
+			}
+		}
+		
+		assertTrue(header(labelsFile).contains("'descr': '<i4', 'fortran_order': False, 'shape': (3,), }"),
+				header(labelsFile));
+		ByteBuffer labels = ByteBuffer.wrap(Files.readAllBytes(labelsFile)).order(NpyFormat.BYTE_ORDER);
+		assertEquals(labels.limit(), NpyFormat.HEADER_SIZE + 3 * Integer.BYTES);
+		assertEquals(labels.getInt(NpyFormat.HEADER_SIZE + 2 * Integer.BYTES), 6);
+		
+		Files.delete(windowsFile);
+		Files.delete(labelsFile);
+	}
+	
+	@Test
+	public void shouldWriteWindowsLongerThanItsBuffer() throws Exception {
+		Path windowsFile = Files.createTempFile("windows", NpyFormat.FILE_EXTENSION);
+		Path labelsFile = Files.createTempFile("window_labels", NpyFormat.FILE_EXTENSION);
+		// 96 KB per window
+		int length = 4096;
+		
+		try (WindowWriter writer = new WindowWriter(windowsFile, labelsFile, ValueType.DOUBLE, 3, length, length, 1)) {
+			for (int i = 0; i < 2 * length; i++) {
+				writer.append(i, 0, 0);
+			}
+			
+			assertEquals(writer.getWindowCount(), 2);
+		}
+		
+		ByteBuffer windows = ByteBuffer.wrap(Files.readAllBytes(windowsFile)).order(NpyFormat.BYTE_ORDER);
+		assertEquals(windows.limit(), NpyFormat.HEADER_SIZE + 2 * length * 3 * Double.BYTES);
+		assertEquals(windows.getDouble(NpyFormat.HEADER_SIZE + (2 * length - 1) * 3 * Double.BYTES), 2.0 * length - 1);
+		
+		Files.delete(windowsFile);
+		Files.delete(labelsFile);
+	}
+	
+	private static String header(final Path file) throws Exception {
+		byte[] bytes = Files.readAllBytes(file);
+		assertEquals(bytes[NpyFormat.HEADER_SIZE - 1], '\n');
+		assertEquals(ByteBuffer.wrap(bytes, 8, 2).order(NpyFormat.BYTE_ORDER).getShort(),
+				NpyFormat.HEADER_SIZE - 10);
+		
+		return new String(bytes, 10, NpyFormat.HEADER_SIZE - 10, StandardCharsets.US_ASCII);
+	}
+}
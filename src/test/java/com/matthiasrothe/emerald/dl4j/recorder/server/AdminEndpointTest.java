@@ -0,0 +1,80 @@
+package com.matthiasrothe.emerald.dl4j.recorder.server;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+public class AdminEndpointTest {
+	private static final String DATA_DIRECTORY = "./test-recorded-data-admin";
+	
+	private Server server;
+	
+	@BeforeClass
+	public void setup() throws Exception {
+		server = new Server(5006, DATA_DIRECTORY, TestConfigFile.create());
+		server.setAdminPort(5007);
+		server.start();
+		
+		Thread.sleep(2000);
+	}
+	
+	@Test
+	public void shouldControlRecordingsAndShutDown() throws Exception {
+		try (Socket socket = new Socket("localhost", 5007)) {
+			BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+			BufferedWriter out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream()));
+			
+			assertTrue(execute("status", in, out).startsWith("OK recording=false nextLabel=0 clients=0"));
+			assertTrue(execute("start 4", in, out).matches("OK recording file=\\d+ label=4"));
+			assertTrue(server.isRecording());
+			assertEquals(execute("start", in, out), "ERROR Recording already in progress");
+			assertTrue(execute("status", in, out).matches("OK recording=true file=\\d+ label=4 .*"));
+			assertTrue(execute("stop", in, out).matches("OK stopped file=\\d+"));
+			assertEquals(execute("stop", in, out), "ERROR Recording is not in progress");
+			
+			assertEquals(execute("label 7", in, out), "OK label=7");
+			assertEquals(execute("label x", in, out), "ERROR Label must be an integer: x");
+			assertTrue(execute("start", in, out).matches("OK recording file=\\d+ label=7"));
+			assertEquals(execute("jump", in, out), "ERROR Unknown command: jump");
+			
+			assertEquals(execute("shutdown", in, out), "OK shutting down");
+			assertFalse(server.isRecording());
+			
+			server.join(5000);
+			assertFalse(server.isAlive());
+		}
+	}
+	
+	private String execute(final String command, final BufferedReader in, final BufferedWriter out)
+			throws Exception {
+		out.write(command);
+		out.newLine();
+		out.flush();
+		
+		return in.readLine();
+	}
+	
+	@AfterClass
+	public void teardown() throws Exception {
+		server.abort();
+		
+		File dataDirectory = Paths.get(DATA_DIRECTORY).toFile();
+		for (File file : dataDirectory.listFiles()) {
+			file.delete();
+		}
+		dataDirectory.delete();
+	}
+}
@@ -0,0 +1,61 @@
+package com.matthiasrothe.emerald.dl4j.recorder.server;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.testng.annotations.Test;
+
+public class CoalescingServerListenerTest {
+	private static final int CLIENTS = 4;
+	private static final int EVENTS_PER_CLIENT = 100_000;
+	
+	@Test
+	public void shouldCoalesceEventsIntoRateLimitedSnapshots() throws Exception {
+		List<ServerStatistics> updates = new CopyOnWriteArrayList<>();
+		
+		try (CoalescingServerListener listener = new CoalescingServerListener(updates::add, 30)) {
+			long started = System.nanoTime();
+			listener.start();
+			
+			List<Thread> clients = new ArrayList<>();
+			for (int i = 1; i <= CLIENTS; i++) {
+				int connectionId = i;
+				listener.clientConnected(connectionId);
+				
+				clients.add(Thread.ofPlatform().start(() -> {
+					for (int j = 0; j < EVENTS_PER_CLIENT; j++) {
+						listener.dataReceived(connectionId, 10, 2);
+						listener.dataPointsWritten(2);
+					}
+				}));
+			}
+			
+			for (Thread client : clients) {
+				client.join();
+			}
+			
+			// long enough for the rates to drop back to zero
+			Thread.sleep(1500);
+			listener.clientDisconnected(CLIENTS);
+			Thread.sleep(200);
+			
+			double seconds = (System.nanoTime() - started) / 1e9;
+			assertTrue(updates.size() <= seconds * 30 + 2, updates.size() + " updates in " + seconds + "s");
+		}
+		
+		ServerStatistics last = updates.get(updates.size() - 1);
+		assertEquals(last.getDataPointsWritten(), 2L * CLIENTS * EVENTS_PER_CLIENT);
+		assertEquals(last.getBytesReceived(), 10L * CLIENTS * EVENTS_PER_CLIENT);
+		assertEquals(last.getDataPointsPerSecond(), 0.0);
+		assertEquals(last.getClients().size(), CLIENTS - 1);
+		
+		for (ClientStatistics client : last.getClients()) {
+			assertEquals(client.getSamplesReceived(), 2L * EVENTS_PER_CLIENT);
+			assertEquals(client.getBytesReceived(), 10L * EVENTS_PER_CLIENT);
+		}
+	}
+}
@@ -0,0 +1,82 @@
+package com.matthiasrothe.emerald.dl4j.recorder.server;
+
+import static org.testng.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.SplittableRandom;
+
+import org.testng.annotations.Test;
+
+public class CsvRecordingSinkTest {
+	private static final double[] EDGE_VALUES = { 0.0, -0.0, 1.0, -1.5, 0.1, 1e-7, 1e7, 123456789.125,
+			Double.MIN_VALUE, Double.MAX_VALUE, Double.MIN_NORMAL, Double.NaN, Double.POSITIVE_INFINITY,
+			Double.NEGATIVE_INFINITY };
+
+	@Test
+	public void shouldWriteSameLinesAsStringConcatenation() throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		StringBuilder expected = new StringBuilder();
+		SplittableRandom random = new SplittableRandom(13);
+		int expectedLength = 0;
+		int writtenLength = 0;
+
+		try (CsvRecordingSink sink = new CsvRecordingSink(bytes)) {
+			for (double x : EDGE_VALUES) {
+				for (double y : EDGE_VALUES) {
+					String line = x + "," + y + "," + -x + "\n";
+					expected.append(line);
+					expectedLength += line.length();
+					writtenLength += sink.append(x, y, -x);
+				}
+			}
+
+			// enough samples to wrap the output buffer several times
+			for (int i = 0; i < 20_000; i++) {
+				double x = Double.longBitsToDouble(random.nextLong());
+				double y = random.nextDouble() * 1e-300;
+				double z = random.nextDouble(-1000, 1000);
+				String line = x + "," + y + "," + z + "\n";
+				expected.append(line);
+				expectedLength += line.length();
+				writtenLength += sink.append(x, y, z);
+			}
+		}
+
+		assertEquals(writtenLength, expectedLength);
+		assertEquals(bytes.toString(StandardCharsets.US_ASCII), expected.toString());
+	}
+
+	// sensor readings have few digits and mostly take the path of DecimalFormatter that doesn't allocate
+	@Test
+	public void shouldWriteTimestampsAndReadingsAsStringConcatenationWould() throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		StringBuilder expected = new StringBuilder();
+		SplittableRandom random = new SplittableRandom(17);
+		double[] values = new double[4];
+		long[] timestamps = { 0, -1, 9, 10, Long.MIN_VALUE, Long.MAX_VALUE, 1_714_564_800_000_000L };
+
+		try (CsvRecordingSink sink = new CsvRecordingSink(bytes, true, values.length)) {
+			for (int i = 0; i < 200_000; i++) {
+				long timestamp = i < timestamps.length ? timestamps[i] : random.nextLong();
+				double scale = Math.pow(10, random.nextInt(-5, 10));
+
+				// readings rounded to a few digits, exact boundaries and arbitrary doubles of the same magnitude
+				values[0] = Math.round(random.nextDouble(-1, 1) * scale) / scale;
+				values[1] = Math.round(random.nextDouble(-1e7, 1e7) * 1e4) / 1e4;
+				values[2] = random.nextBoolean() ? scale : Math.nextDown(scale);
+				values[3] = random.nextDouble(-1, 1) * scale;
+
+				expected.append(timestamp);
+				for (double value : values) {
+					expected.append(',').append(value);
+				}
+				expected.append('\n');
+
+				sink.append(timestamp, values, 0);
+			}
+		}
+
+		assertEquals(bytes.toString(StandardCharsets.US_ASCII), expected.toString());
+	}
+}
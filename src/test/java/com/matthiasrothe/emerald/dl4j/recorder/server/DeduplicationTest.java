@@ -0,0 +1,82 @@
+package com.matthiasrothe.emerald.dl4j.recorder.server;
+
+import static org.testng.Assert.assertEquals;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.UUID;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+public class DeduplicationTest {
+	private static final String DATA_DIRECTORY = "./test-recorded-data-deduplication";
+	// the tree builder path, for the escaped id of the default session
+	private static final String TREE_PATH = ",\"session\":\"d\\u0065fault\"";
+	
+	private Server server;
+	
+	@BeforeClass
+	public void setup() throws Exception {
+		server = new Server(5015, DATA_DIRECTORY, TestConfigFile.create());
+		server.start();
+		
+		Thread.sleep(2000);
+	}
+	
+	@Test
+	public void shouldAcknowledgeRetransmissionsWithoutRecordingThem() throws Exception {
+		server.startRecording(2);
+		int fileNumber = server.activeRecording().getFileNumber();
+		
+		try (Socket socket = new Socket("localhost", 5015)) {
+			BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+			BufferedWriter out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream()));
+			String first = UUID.randomUUID().toString();
+			String second = UUID.randomUUID().toString();
+			
+			send(in, out, first, "", "[{\"values\":[1,2,3]}]");
+			send(in, out, first, "", "[{\"values\":[1,2,3]}]");
+			send(in, out, first, TREE_PATH, "[{\"values\":[1,2,3]}]");
+			send(in, out, second, TREE_PATH, "{\"values\":[4,5,6]}");
+			send(in, out, second, "", "{\"values\":[4,5,6]}");
+		} finally {
+			server.stopRecording();
+		}
+		
+		assertEquals(Files.readAllLines(Paths.get(DATA_DIRECTORY, "data_" + fileNumber + ".csv")),
+				List.of("1.0,2.0,3.0", "4.0,5.0,6.0"));
+		assertEquals(server.getMetrics().duplicates(), 3);
+	}
+	
+	private void send(final BufferedReader in, final BufferedWriter out, final String uuid, final String headerFields,
+			final String body) throws Exception {
+		String type = body.startsWith("[") ? "batch" : "single-value";
+		
+		out.write("{\"header\":{\"type\":\"" + type + "\",\"uuid\":\"" + uuid + "\"" + headerFields + "},\"body\":"
+				+ body + "}");
+		out.newLine();
+		out.flush();
+		
+		assertEquals(in.readLine(), "{\"status\":\"OK\",\"statusCode\":200,\"uuid\":\"" + uuid + "\"}");
+	}
+	
+	@AfterClass
+	public void teardown() throws Exception {
+		server.abort();
+		
+		File dataDirectory = Paths.get(DATA_DIRECTORY).toFile();
+		for (File file : dataDirectory.listFiles()) {
+			file.delete();
+		}
+		dataDirectory.delete();
+	}
+}
@@ -0,0 +1,95 @@
+package com.matthiasrothe.emerald.dl4j.recorder.server;
+
+import static org.testng.Assert.assertEquals;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.UUID;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+public class DurabilityTest {
+	private static final String DATA_DIRECTORY = "./test-recorded-data-durability";
+	private static final String NON_BLOCKING_DATA_DIRECTORY = "./test-recorded-data-durability-nio";
+	
+	private Server server;
+	private Server nonBlockingServer;
+	
+	@BeforeClass
+	public void setup() throws Exception {
+		server = new Server(5008, DATA_DIRECTORY, TestConfigFile.create());
+		server.setDurability(Durability.ACK_AFTER_SYNC);
+		server.start();
+		
+		nonBlockingServer = new Server(5019, NON_BLOCKING_DATA_DIRECTORY, TestConfigFile.create());
+		nonBlockingServer.setDurability(Durability.ACK_AFTER_SYNC);
+		nonBlockingServer.setIoMode(IoMode.NON_BLOCKING);
+		nonBlockingServer.start();
+		
+		Thread.sleep(2000);
+	}
+	
+	@Test
+	public void shouldAcknowledgeSamplesOnlyOnceTheyAreSynced() throws Exception {
+		assertAcknowledgedOnceSynced(server, 5008, DATA_DIRECTORY);
+	}
+	
+	// the selector thread holds the responses back instead of waiting for the sync
+	@Test
+	public void shouldAcknowledgeSamplesOnlyOnceTheyAreSyncedWithoutBlocking() throws Exception {
+		assertAcknowledgedOnceSynced(nonBlockingServer, 5019, NON_BLOCKING_DATA_DIRECTORY);
+	}
+	
+	private static void assertAcknowledgedOnceSynced(final Server server, final int port, final String directory)
+			throws Exception {
+		server.startRecording(3);
+		int fileNumber = server.activeRecording().getFileNumber();
+		
+		try (Socket socket = new Socket("localhost", port)) {
+			BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+			BufferedWriter out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream()));
+			String uuid = UUID.randomUUID().toString();
+			
+			out.write("{\"header\":{\"type\":\"batch\",\"uuid\":\"" + uuid + "\"},\"body\":["
+					+ "{\"values\":[1.5,2.5,3.5]},{\"values\":[-1.0,0.0,1.0E-7]}]}");
+			out.newLine();
+			out.flush();
+			
+			assertEquals(in.readLine(), "{\"status\":\"OK\",\"statusCode\":200,\"uuid\":\"" + uuid + "\"}");
+			
+			// the CSV sink buffers far more than two lines, so only the sync can have put them into the file
+			assertEquals(Files.readAllLines(Paths.get(directory, "data_" + fileNumber + ".csv")),
+					List.of("1.5,2.5,3.5", "-1.0,0.0,1.0E-7"));
+		} finally {
+			server.stopRecording();
+		}
+		
+		assertEquals(Files.readAllLines(Paths.get(directory, "label_" + fileNumber + ".csv")), List.of("3"));
+	}
+	
+	@AfterClass
+	public void teardown() throws Exception {
+		server.abort();
+		nonBlockingServer.abort();
+		
+		deleteDirectory(DATA_DIRECTORY);
+		deleteDirectory(NON_BLOCKING_DATA_DIRECTORY);
+	}
+	
+	private static void deleteDirectory(final String directory) {
+		File dataDirectory = Paths.get(directory).toFile();
+		for (File file : dataDirectory.listFiles()) {
+			file.delete();
+		}
+		dataDirectory.delete();
+	}
+}
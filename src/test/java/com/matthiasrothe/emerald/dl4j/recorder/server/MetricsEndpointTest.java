@@ -0,0 +1,89 @@
+package com.matthiasrothe.emerald.dl4j.recorder.server;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.Socket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.UUID;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+public class MetricsEndpointTest {
+	private Server server;
+	
+	@BeforeClass
+	public void setup() throws Exception {
+		server = new Server(5004, "./test-recorded-data-metrics");
+		server.setMetricsPort(5005);
+		server.start();
+		
+		Thread.sleep(2000);
+	}
+	
+	@Test
+	public void shouldExposeMetrics() throws Exception {
+		try (Socket socket = new Socket("localhost", 5004)) {
+			BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+			BufferedWriter out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream()));
+			
+			out.write("{\"header\":{\"type\":\"single-value\",\"uuid\":\"" + UUID.randomUUID() + "\"},\"body\":"
+					+ "{\"sensor\":\"testdata\",\"timestamp\":\"2024-05-01T12:00\",\"values\":[0.1,0.2,0.3]}}");
+			out.newLine();
+			out.write("{\"header\":{\"type\":\"unknown\",\"uuid\":\"" + UUID.randomUUID() + "\"}}");
+			out.newLine();
+			out.flush();
+			
+			in.readLine();
+			in.readLine();
+			
+			HttpResponse<String> response = HttpClient.newHttpClient().send(
+					HttpRequest.newBuilder(URI.create("http://localhost:5005/metrics")).build(),
+					HttpResponse.BodyHandlers.ofString());
+			String metrics = response.body();
+			
+			assertEquals(response.statusCode(), 200);
+			assertTrue(metrics.contains("\nrecorder_messages_total 2\n"), metrics);
+			assertTrue(metrics.contains("\nrecorder_samples_received_total 1\n"), metrics);
+			assertTrue(metrics.contains("\nrecorder_responses_total{status=\"200\"} 1\n"), metrics);
+			assertTrue(metrics.contains("\nrecorder_responses_total{status=\"403\"} 1\n"), metrics);
+			assertTrue(metrics.contains("\nrecorder_connections 1\n"), metrics);
+			assertTrue(metrics.contains("\nrecorder_recording{session=\"default\"} 0\n"), metrics);
+			assertTrue(metrics.contains("\nrecorder_parse_to_ack_seconds_bucket{le=\"+Inf\"} 2\n"), metrics);
+			assertTrue(metrics.contains("\nrecorder_parse_to_ack_seconds_count 2\n"), metrics);
+		}
+	}
+	
+	@Test
+	public void shouldBucketDurations() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		histogram.record(0);
+		histogram.record(1024);
+		histogram.record(1025);
+		histogram.record(Long.MAX_VALUE);
+		
+		assertEquals(histogram.count(0), 2);
+		assertEquals(histogram.upperBoundNanos(0), 1024);
+		assertEquals(histogram.count(1), 1);
+		assertEquals(histogram.count(histogram.bucketCount() - 1), 1);
+		assertEquals(histogram.upperBoundNanos(histogram.bucketCount() - 1), Long.MAX_VALUE);
+	}
+	
+	@AfterClass
+	public void teardown() {
+		server.abort();
+		
+		File dataDirectory = new File("./test-recorded-data-metrics");
+		dataDirectory.delete();
+	}
+}
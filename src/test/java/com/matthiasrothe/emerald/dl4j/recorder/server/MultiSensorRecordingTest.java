@@ -0,0 +1,93 @@
+package com.matthiasrothe.emerald.dl4j.recorder.server;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.UUID;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+public class MultiSensorRecordingTest {
+	private static final String DATA_DIRECTORY = "./test-recorded-data-multi-sensor";
+	
+	private Server server;
+	
+	@BeforeClass
+	public void setup() throws Exception {
+		server = new Server(5011, DATA_DIRECTORY, TestConfigFile.create());
+		server.start();
+		
+		Thread.sleep(2000);
+	}
+	
+	@Test
+	public void shouldRecordEachSensorIntoFileOfItsOwn() throws Exception {
+		try (Socket socket = new Socket("localhost", 5011)) {
+			BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+			BufferedWriter out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream()));
+			
+			server.startRecording(3);
+			int fileNumber = server.activeRecording().getFileNumber();
+			
+			send(in, out, "batch", "[{\"sensor\":\"accelerometer\",\"values\":[0.5,-9.8,0.25]},"
+					+ "{\"sensor\":\"gyroscope\",\"values\":[1,2,3]},{\"sensor\":\"light\",\"values\":[250]}]",
+					Server.STATUS_CODE_OK);
+			// the tree builder path, for the escaped name
+			send(in, out, "single-value", "{\"sensor\":\"ambient \\u0074emperature\",\"values\":[21.5,40]}",
+					Server.STATUS_CODE_OK);
+			send(in, out, "batch", "[{\"sensor\":\"light\",\"values\":[260]},"
+					+ "{\"sensor\":\"accelerometer\",\"values\":[0.75,-9.7,0.5]}]", Server.STATUS_CODE_OK);
+			// the width of a sensor is fixed by its first sample
+			send(in, out, "single-value", "{\"sensor\":\"light\",\"values\":[270,1]}",
+					Server.STATUS_CODE_MALFORMED_MESSAGE);
+			
+			server.stopRecording();
+			
+			assertEquals(lines("data_" + fileNumber + "_accelerometer.csv"),
+					List.of("0.5,-9.8,0.25", "0.75,-9.7,0.5"));
+			assertEquals(lines("data_" + fileNumber + "_gyroscope.csv"), List.of("1.0,2.0,3.0"));
+			assertEquals(lines("data_" + fileNumber + "_light.csv"), List.of("250.0", "260.0"));
+			assertEquals(lines("data_" + fileNumber + "_ambient_temperature.csv"), List.of("21.5,40.0"));
+			assertFalse(Files.exists(Paths.get(DATA_DIRECTORY, "data_" + fileNumber + ".csv")));
+		}
+	}
+	
+	private List<String> lines(final String fileName) throws Exception {
+		return Files.readAllLines(Paths.get(DATA_DIRECTORY, fileName));
+	}
+	
+	private void send(final BufferedReader in, final BufferedWriter out, final String type, final String body,
+			final int expectedStatusCode) throws Exception {
+		String uuid = UUID.randomUUID().toString();
+		
+		out.write("{\"header\":{\"type\":\"" + type + "\",\"uuid\":\"" + uuid + "\"},\"body\":" + body + "}");
+		out.newLine();
+		out.flush();
+		
+		String response = in.readLine();
+		assertTrue(response.contains("\"statusCode\":" + expectedStatusCode + ","), response);
+	}
+	
+	@AfterClass
+	public void teardown() throws Exception {
+		server.abort();
+		
+		File dataDirectory = Paths.get(DATA_DIRECTORY).toFile();
+		for (File file : dataDirectory.listFiles()) {
+			file.delete();
+		}
+		dataDirectory.delete();
+	}
+}
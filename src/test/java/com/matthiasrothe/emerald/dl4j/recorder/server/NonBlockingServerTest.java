@@ -0,0 +1,136 @@
+package com.matthiasrothe.emerald.dl4j.recorder.server;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+public class NonBlockingServerTest {
+	private static final String DATA_DIRECTORY = "./test-nio-recorded-data";
+	
+	private Server server;
+	
+	@BeforeClass
+	public void setup() throws Exception {
+		server = new Server(5002, DATA_DIRECTORY);
+		server.setIoMode(IoMode.NON_BLOCKING);
+		server.setSelectorThreads(2);
+		server.start();
+		
+		Thread.sleep(2000);
+	}
+	
+	@Test
+	public void shouldFrameMessagesSplitAcrossWrites() throws Exception {
+		try (Socket clientSocket = new Socket("localhost", 5002)) {
+			BufferedReader in = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
+			OutputStream out = clientSocket.getOutputStream();
+			
+			String firstUuid = UUID.randomUUID().toString();
+			String secondUuid = UUID.randomUUID().toString();
+			String messages = singleValueMessage(firstUuid) + "\r\n" + singleValueMessage(secondUuid) + "\n";
+			byte[] bytes = messages.getBytes(StandardCharsets.UTF_8);
+			
+			out.write(bytes, 0, 17);
+			out.flush();
+			Thread.sleep(100);
+			out.write(bytes, 17, bytes.length - 17);
+			out.flush();
+			
+			assertEquals(in.readLine(), "{\"status\":\"OK\",\"statusCode\":200,\"uuid\":\"" + firstUuid + "\"}");
+			assertEquals(in.readLine(), "{\"status\":\"OK\",\"statusCode\":200,\"uuid\":\"" + secondUuid + "\"}");
+		}
+	}
+	
+	@Test
+	public void shouldRespondWithSameStatusCodesAsBlockingMode() throws Exception {
+		try (Socket clientSocket = new Socket("localhost", 5002)) {
+			BufferedReader in = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
+			OutputStream out = clientSocket.getOutputStream();
+			
+			String uuid = UUID.randomUUID().toString();
+			
+			out.write(("{\"header\":{\"type\":\"unknown\",\"uuid\":\"" + uuid + "\"},\"body\":{}}\n"
+					+ "{\"body\":{}}\n"
+					+ "{\"header\":{\"type\":\"single-value\",\"uuid\":\"" + uuid + "\"}}\n"
+					+ "{\"header\":{\"type\":\"single-value\"}}\n"
+					+ "no json\n").getBytes(StandardCharsets.UTF_8));
+			out.flush();
+			
+			assertEquals(in.readLine(), "{\"status\":\"Bad Request: Unsupported message type [unknown].\","
+					+ "\"statusCode\":403,\"uuid\":\"" + uuid + "\"}");
+			assertEquals(in.readLine(), "{\"status\":\"Bad Request: Header missing.\",\"statusCode\":402}");
+			assertEquals(in.readLine(), "{\"status\":\"Bad Request: Body Missing.\",\"statusCode\":404,"
+					+ "\"uuid\":\"" + uuid + "\"}");
+			assertEquals(in.readLine(), "{\"status\":\"Bad Request: Malformed message.\",\"statusCode\":401}");
+			assertEquals(in.readLine(), "{\"status\":\"Bad Request: Invalid JSON: [no json]. Connection will be closed.\","
+					+ "\"statusCode\":400}");
+			assertNull(in.readLine());
+		}
+	}
+	
+	@Test
+	public void shouldAnswerEveryMessageOfAClientThatReadsLate() throws Exception {
+		// far more responses than the server keeps pending before it stops reading
+		int messages = 3 * NioConnection.MAX_PENDING_OUTPUT_SIZE / 64;
+		
+		try (Socket clientSocket = new Socket("localhost", 5002)) {
+			clientSocket.setSoTimeout(10000);
+			BufferedReader in = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
+			OutputStream out = clientSocket.getOutputStream();
+			
+			// the writes block once the server stops reading, so they can't happen on the reading thread
+			CompletableFuture<Void> writer = CompletableFuture.runAsync(() -> {
+				try {
+					for (int i = 0; i < messages; i++) {
+						out.write((singleValueMessage(UUID.randomUUID().toString()) + "\n")
+								.getBytes(StandardCharsets.UTF_8));
+					}
+					
+					out.flush();
+				} catch (Exception e) {
+					throw new IllegalStateException(e);
+				}
+			});
+			
+			Thread.sleep(500);
+			
+			for (int i = 0; i < messages; i++) {
+				String response = in.readLine();
+				assertTrue(response.startsWith("{\"status\":\"OK\",\"statusCode\":200,"), response);
+			}
+			
+			writer.get();
+		}
+	}
+	
+	private String singleValueMessage(final String uuid) {
+		return "{\"header\":{\"type\":\"single-value\",\"uuid\":\"" + uuid + "\"},"
+				+ "\"body\":{\"sensor\":\"testdata\",\"timestamp\":\"2023-11-05T10:15:30\","
+				+ "\"values\":[0.12345,2.6789012,9.3456789]}}";
+	}
+	
+	@AfterClass
+	public void teardown() throws Exception {
+		server.abort();
+		
+		File dataDirectory = Paths.get(DATA_DIRECTORY).toFile();
+		for (String fileName : dataDirectory.list()) {
+			Paths.get(DATA_DIRECTORY + "/" + fileName).toFile().delete();
+		}
+		dataDirectory.delete();
+	}
+}
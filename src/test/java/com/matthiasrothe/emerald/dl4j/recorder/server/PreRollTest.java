@@ -0,0 +1,118 @@
+package com.matthiasrothe.emerald.dl4j.recorder.server;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+public class PreRollTest {
+	private static final String DATA_DIRECTORY = "./test-recorded-data-pre-roll";
+	private static final String POST_ROLL_DATA_DIRECTORY = "./test-recorded-data-post-roll";
+	
+	private Server server;
+	
+	@BeforeClass
+	public void setup() throws Exception {
+		server = new Server(5009, DATA_DIRECTORY, TestConfigFile.create());
+		server.setPreRollMillis(60_000);
+		server.setPreRollCapacity(2);
+		server.setPostRollMillis(1000);
+		server.start();
+		
+		Thread.sleep(2000);
+	}
+	
+	@Test
+	public void shouldRecordSamplesFromBeforeStartAndAfterStop() throws Exception {
+		try (Socket socket = new Socket("localhost", 5009)) {
+			BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+			BufferedWriter out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream()));
+			
+			// the oldest of the three exceeds the capacity of the pre-roll
+			send(in, out, 0.0);
+			send(in, out, 1.0);
+			send(in, out, 2.0);
+			
+			server.startRecording(5);
+			int fileNumber = server.activeRecording().getFileNumber();
+			send(in, out, 3.0);
+			
+			CompletableFuture<Void> stopped = CompletableFuture.runAsync(() -> {
+				try {
+					server.stopRecording();
+				} catch (Exception e) {
+					throw new RuntimeException(e);
+				}
+			});
+			
+			Thread.sleep(200);
+			send(in, out, 4.0);
+			stopped.get();
+			
+			assertEquals(Files.readAllLines(Paths.get(DATA_DIRECTORY, "data_" + fileNumber + ".csv")),
+					List.of("1.0,1.0,1.0", "2.0,2.0,2.0", "3.0,3.0,3.0", "4.0,4.0,4.0"));
+		}
+	}
+	
+	@Test
+	public void shouldRunThePostRollsOfAllSessionsAtOnce() throws Exception {
+		// a server of its own, which is never started, as stopping all recordings would stop the other test's
+		Server postRollServer = new Server(5020, POST_ROLL_DATA_DIRECTORY, TestConfigFile.create());
+		postRollServer.setPostRollMillis(1000);
+		
+		try {
+			postRollServer.startRecording("first", 1);
+			postRollServer.startRecording("second", 2);
+			
+			long started = System.nanoTime();
+			postRollServer.stopAllRecordings();
+			long stoppedMillis = (System.nanoTime() - started) / 1_000_000;
+			
+			assertTrue(stoppedMillis >= 1000 && stoppedMillis < 2000, "stopped after " + stoppedMillis + " ms");
+			assertFalse(postRollServer.isRecording("first") || postRollServer.isRecording("second"));
+		} finally {
+			postRollServer.abort();
+			deleteDirectory(POST_ROLL_DATA_DIRECTORY);
+		}
+	}
+	
+	private void send(final BufferedReader in, final BufferedWriter out, final double value) throws Exception {
+		String uuid = UUID.randomUUID().toString();
+		
+		out.write("{\"header\":{\"type\":\"single-value\",\"uuid\":\"" + uuid + "\"},\"body\":{\"values\":["
+				+ value + "," + value + "," + value + "]}}");
+		out.newLine();
+		out.flush();
+		
+		assertEquals(in.readLine(), "{\"status\":\"OK\",\"statusCode\":200,\"uuid\":\"" + uuid + "\"}");
+	}
+	
+	@AfterClass
+	public void teardown() throws Exception {
+		server.abort();
+		deleteDirectory(DATA_DIRECTORY);
+	}
+	
+	private static void deleteDirectory(final String directory) {
+		File dataDirectory = Paths.get(directory).toFile();
+		for (File file : dataDirectory.listFiles()) {
+			file.delete();
+		}
+		dataDirectory.delete();
+	}
+}
@@ -0,0 +1,68 @@
+package com.matthiasrothe.emerald.dl4j.recorder.server;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertThrows;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Random;
+import java.util.UUID;
+
+import org.testng.annotations.Test;
+
+public class RecentMessageIdsTest {
+	@Test
+	public void shouldForgetTheOldestIds() {
+		RecentMessageIds ids = new RecentMessageIds(3);
+		
+		for (int i = 1; i <= 4; i++) {
+			ids.add(i, -i);
+		}
+		
+		assertFalse(ids.contains(1, -1));
+		assertTrue(ids.contains(2, -2));
+		assertTrue(ids.contains(4, -4));
+		assertFalse(ids.contains(4, 4));
+	}
+	
+	@Test
+	public void shouldKeepExactlyTheLastIdsWhileEvicting() {
+		int capacity = 100;
+		RecentMessageIds ids = new RecentMessageIds(capacity);
+		Deque<UUID> expected = new ArrayDeque<>();
+		// few distinct high bits provoke long probe sequences
+		Random random = new Random(42);
+		
+		for (int i = 0; i < 100_000; i++) {
+			UUID id = new UUID(random.nextInt(8), random.nextInt(4096));
+			
+			if (expected.contains(id)) {
+				assertTrue(ids.contains(id.getMostSignificantBits(), id.getLeastSignificantBits()));
+				continue;
+			}
+			
+			assertFalse(ids.contains(id.getMostSignificantBits(), id.getLeastSignificantBits()));
+			ids.add(id.getMostSignificantBits(), id.getLeastSignificantBits());
+			expected.addLast(id);
+			
+			if (expected.size() > capacity) {
+				UUID evicted = expected.removeFirst();
+				assertFalse(ids.contains(evicted.getMostSignificantBits(), evicted.getLeastSignificantBits()));
+			}
+		}
+		
+		assertEquals(expected.size(), capacity);
+		for (UUID id : expected) {
+			assertTrue(ids.contains(id.getMostSignificantBits(), id.getLeastSignificantBits()));
+		}
+	}
+	
+	@Test
+	public void shouldRejectCapacitiesBeyondTheMaximum() {
+		assertEquals(new RecentMessageIds(RecentMessageIds.MAX_CAPACITY).capacity(), RecentMessageIds.MAX_CAPACITY);
+		assertThrows(IllegalArgumentException.class, () -> new RecentMessageIds(RecentMessageIds.MAX_CAPACITY + 1));
+		assertThrows(IllegalArgumentException.class, () -> new RecentMessageIds(1 << 29));
+	}
+}
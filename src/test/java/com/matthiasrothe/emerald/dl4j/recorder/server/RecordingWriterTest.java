@@ -0,0 +1,71 @@
+package com.matthiasrothe.emerald.dl4j.recorder.server;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.expectThrows;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.testng.annotations.Test;
+
+public class RecordingWriterTest {
+	private static class CountingSink implements RecordingSink {
+		private int samples;
+		
+		@Override
+		public int append(final double x, final double y, final double z) {
+			samples++;
+			return 1;
+		}
+		
+		@Override
+		public void sync() {
+		}
+		
+		@Override
+		public void close() {
+		}
+	}
+	
+	@Test
+	public void shouldFailOnlyTheRecordingWhoseSinkThrows() throws Exception {
+		Path dataDirectory = Files.createTempDirectory("recording-writer");
+		// never started; the writer only takes its settings and metrics
+		Server server = new Server(5018, dataDirectory.toString(), TestConfigFile.create());
+		SampleRingBuffer ringBuffer = new SampleRingBuffer(64, WaitStrategy.BLOCKING);
+		Thread writer = Thread.ofPlatform().daemon().start(new RecordingWriter(ringBuffer, server));
+		
+		CountingSink sink = new CountingSink();
+		Recording working = new Recording(1, 0, sink);
+		Recording failing = new Recording(2, 0, new CountingSink() {
+			@Override
+			public int append(final double x, final double y, final double z) {
+				throw new IllegalStateException("broken sink");
+			}
+		});
+		double[] values = { 1, 2, 3 };
+		
+		try {
+			ringBuffer.publishSample(failing, "", 0, values, 0, 3);
+			ringBuffer.publishSample(working, "", 0, values, 0, 3);
+			ringBuffer.publishClose(failing);
+			ringBuffer.publishSample(working, "", 1, values, 0, 3);
+			ringBuffer.publishClose(working);
+			
+			expectThrows(IOException.class, () -> failing.awaitClosed(writer));
+			working.awaitClosed(writer);
+			assertEquals(sink.samples, 2);
+			
+			// nothing closes a recording once the writer is gone, so waiting for it fails instead of hanging
+			writer.interrupt();
+			writer.join();
+			Recording orphan = new Recording(3, 0, new CountingSink());
+			ringBuffer.publishClose(orphan);
+			expectThrows(IOException.class, () -> orphan.awaitClosed(writer));
+		} finally {
+			writer.interrupt();
+			Files.delete(dataDirectory);
+		}
+	}
+}
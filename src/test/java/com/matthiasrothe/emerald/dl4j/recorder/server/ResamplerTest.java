@@ -0,0 +1,65 @@
+package com.matthiasrothe.emerald.dl4j.recorder.server;
+
+import static org.testng.Assert.assertEquals;
+
+import org.testng.annotations.Test;
+
+public class ResamplerTest {
+	// 100 Hz, a sample every 10 ms
+	private static final double RATE_HERTZ = 100;
+	private static final long START = 1_714_564_800_000_000L;
+	
+	@Test
+	public void shouldInterpolateJitteryBurstsToFixedRate() {
+		Resampler resampler = new Resampler(RATE_HERTZ);
+		
+		assertEquals(add(resampler, 3, START, 0, 10, -1), 1);
+		assertSample(resampler, 0, START, 0, 10, -1);
+		
+		// a burst of three samples 4 ms apart yields the 10 ms grid point between the first two
+		assertEquals(add(resampler, 3, START + 4_000, 4, 10, -1), 0);
+		assertEquals(add(resampler, 3, START + 8_000, 8, 10, -1), 0);
+		assertEquals(add(resampler, 3, START + 12_000, 12, 10, -1), 1);
+		assertSample(resampler, 0, START + 10_000, 10, 10, -1);
+		assertEquals(resampler.sensor(0), 3);
+		
+		// a late sample yields every grid point it passes
+		assertEquals(add(resampler, 3, START + 42_000, 42, 40, -1), 3);
+		
+		for (int i = 0; i < 3; i++) {
+			long timestamp = START + (20 + i * 10) * 1_000;
+			assertSample(resampler, i, timestamp, 20 + i * 10, 18 + i * 10, -1);
+		}
+		
+		// out of order
+		assertEquals(add(resampler, 3, START + 41_000, 0, 0, 0), 0);
+	}
+	
+	@Test
+	public void shouldStartOverAfterLongGap() {
+		Resampler resampler = new Resampler(RATE_HERTZ);
+		add(resampler, 0, START, 1, 1, 1);
+		
+		long restart = START + (Resampler.MAX_GAP_PERIODS + 1) * 10_000 + 3_000;
+		assertEquals(add(resampler, 0, restart, 2, 2, 2), 1);
+		assertSample(resampler, 0, restart, 2, 2, 2);
+		
+		assertEquals(add(resampler, 0, restart + 10_000, 3, 3, 3), 1);
+		assertSample(resampler, 0, restart + 10_000, 3, 3, 3);
+	}
+	
+	private static int add(final Resampler resampler, final int sensor, final long timestamp, final double... values) {
+		SampleVector sample = new SampleVector();
+		sample.set(sensor, timestamp, values.length);
+		System.arraycopy(values, 0, sample.values(), 0, values.length);
+		return resampler.add(sensor, timestamp, sample, 0);
+	}
+	
+	private static void assertSample(final Resampler resampler, final int sample, final long timestamp,
+			final double x, final double y, final double z) {
+		assertEquals(resampler.timestamp(sample), timestamp);
+		assertEquals(resampler.value(sample, 0), x, 1e-9);
+		assertEquals(resampler.value(sample, 1), y, 1e-9);
+		assertEquals(resampler.value(sample, 2), z, 1e-9);
+	}
+}
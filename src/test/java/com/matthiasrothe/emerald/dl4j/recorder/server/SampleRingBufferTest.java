@@ -0,0 +1,110 @@
+package com.matthiasrothe.emerald.dl4j.recorder.server;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+public class SampleRingBufferTest {
+	private static final int PRODUCERS = 4;
+	private static final int SAMPLES_PER_PRODUCER = 20_000;
+	
+	@DataProvider
+	public Object[][] waitStrategies() {
+		WaitStrategy[] strategies = WaitStrategy.values();
+		Object[][] data = new Object[strategies.length][];
+		
+		for (int i = 0; i < strategies.length; i++) {
+			data[i] = new Object[] { strategies[i] };
+		}
+		
+		return data;
+	}
+	
+	@Test(dataProvider = "waitStrategies")
+	public void shouldDeliverAllSamplesInPublicationOrderPerProducer(final WaitStrategy waitStrategy)
+			throws Exception {
+		SampleRingBuffer ringBuffer = new SampleRingBuffer(64, waitStrategy);
+		Recording recording = new Recording(0, 0, (RecordingSink) null);
+		List<Thread> producers = new ArrayList<>();
+		
+		for (int producer = 0; producer < PRODUCERS; producer++) {
+			int producerId = producer;
+			
+			producers.add(Thread.ofPlatform().start(() -> {
+				// every producer's samples have a width of their own
+				SampleVector sample = new SampleVector();
+				
+				for (int i = 0; i < SAMPLES_PER_PRODUCER; i++) {
+					sample.set(0, i, 3 + producerId);
+					sample.values()[0] = producerId;
+					sample.values()[1] = i;
+					sample.values()[2 + producerId] = -i;
+					ringBuffer.publishSample(recording, "producer-" + producerId, i, sample, 0);
+				}
+			}));
+		}
+		
+		long[] nextExpected = new long[PRODUCERS];
+		long received = 0;
+		
+		while (received < PRODUCERS * SAMPLES_PER_PRODUCER) {
+			long first = ringBuffer.consumedSequence() + 1;
+			long last = ringBuffer.awaitBatch(16);
+			
+			for (long sequence = first; sequence <= last; sequence++) {
+				int producerId = (int) ringBuffer.value(sequence, 0);
+				
+				assertSame(ringBuffer.recording(sequence), recording);
+				assertEquals(ringBuffer.sensor(sequence), "producer-" + producerId);
+				assertEquals(ringBuffer.timestamp(sequence), nextExpected[producerId]);
+				assertEquals(ringBuffer.width(sequence), 3 + producerId);
+				assertEquals(ringBuffer.value(sequence, 1), (double) nextExpected[producerId]);
+				assertEquals(ringBuffer.value(sequence, 2 + producerId), (double) -nextExpected[producerId]);
+				nextExpected[producerId]++;
+				received++;
+			}
+			
+			ringBuffer.release(first, last);
+		}
+		
+		for (Thread producer : producers) {
+			producer.join();
+		}
+		
+		PipelineStatistics statistics = ringBuffer.statistics();
+		
+		assertEquals(statistics.getPublishedEntries(), (long) PRODUCERS * SAMPLES_PER_PRODUCER);
+		assertEquals(statistics.getQueueDepth(), 0);
+		assertTrue(statistics.getMaxQueueDepth() <= 64);
+	}
+	
+	@Test
+	public void shouldDropSamplesOnceTheConsumerHasStopped() throws Exception {
+		SampleRingBuffer ringBuffer = new SampleRingBuffer(2, WaitStrategy.BLOCKING);
+		Recording recording = new Recording(0, 0, (RecordingSink) null);
+		double[] values = { 1, 2, 3 };
+		
+		assertEquals(ringBuffer.publishSample(recording, "", 0, values, 0, 3), 0);
+		assertEquals(ringBuffer.publishSample(recording, "", 1, values, 0, 3), 1);
+		
+		// the ring is full, so the producer waits for a consumer that stops instead
+		long[] sequence = new long[1];
+		Thread producer = Thread.ofPlatform().start(
+				() -> sequence[0] = ringBuffer.publishSample(recording, "", 2, values, 0, 3));
+		Thread.sleep(100);
+		ringBuffer.consumerStopped();
+		producer.join(5000);
+		
+		assertFalse(producer.isAlive());
+		assertEquals(sequence[0], SampleRingBuffer.NOT_PUBLISHED);
+		assertEquals(ringBuffer.publishSample(recording, "", 3, values, 0, 3), SampleRingBuffer.NOT_PUBLISHED);
+		assertEquals(ringBuffer.statistics().getDroppedEntries(), 2);
+	}
+}
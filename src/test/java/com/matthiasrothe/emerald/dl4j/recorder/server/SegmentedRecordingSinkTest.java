@@ -0,0 +1,70 @@
+package com.matthiasrothe.emerald.dl4j.recorder.server;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.testng.annotations.Test;
+
+import net.sf.jetro.tree.JsonArray;
+import net.sf.jetro.tree.JsonObject;
+import net.sf.jetro.tree.builder.JsonTreeBuilder;
+
+public class SegmentedRecordingSinkTest {
+	@Test
+	public void shouldRollOverIntoSegmentsListedInManifest() throws Exception {
+		Path directory = Files.createTempDirectory("segments");
+		
+		try {
+			List<String> expectedLines = new ArrayList<>();
+			
+			try (SegmentedRecordingSink sink = new SegmentedRecordingSink(RecordingFormat.CSV, directory, 7, 2,
+					new SegmentRolling(0, 4, 0))) {
+				JsonObject manifest = readManifest(directory);
+				assertEquals(manifest.get("complete").toJson(), "false");
+				assertEquals(((JsonArray) manifest.get("segments")).size(), 0);
+				
+				for (int i = 0; i < 10; i++) {
+					sink.append(i, -i, i * 0.5);
+					expectedLines.add((double) i + "," + (double) -i + "," + i * 0.5);
+				}
+				
+				// finished segments are listed while the recording goes on
+				sink.sync();
+				assertEquals(((JsonArray) readManifest(directory).get("segments")).size(), 2);
+			}
+			
+			JsonObject manifest = readManifest(directory);
+			assertEquals(manifest.get("recording").toJson(), "7");
+			assertEquals(manifest.get("label").toJson(), "2");
+			assertEquals(manifest.get("complete").toJson(), "true");
+			
+			JsonArray segments = (JsonArray) manifest.get("segments");
+			assertEquals(segments.size(), 3);
+			
+			List<String> lines = new ArrayList<>();
+			for (int i = 0; i < segments.size(); i++) {
+				JsonObject segment = (JsonObject) segments.get(i);
+				assertEquals(segment.get("file").toJson(), "\"data_7-000" + i + ".csv\"");
+				assertEquals(segment.get("samples").toJson(), i < 2 ? "4" : "2");
+				lines.addAll(Files.readAllLines(directory.resolve("data_7-000" + i + ".csv")));
+			}
+			
+			assertEquals(lines, expectedLines);
+		} finally {
+			try (Stream<Path> files = Files.list(directory)) {
+				files.forEach(file -> assertTrue(file.toFile().delete()));
+			}
+			Files.delete(directory);
+		}
+	}
+	
+	private static JsonObject readManifest(final Path directory) throws Exception {
+		return (JsonObject) new JsonTreeBuilder().build(Files.readString(directory.resolve("recording_7.json")));
+	}
+}
@@ -0,0 +1,140 @@
+package com.matthiasrothe.emerald.dl4j.recorder.server;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Random;
+import java.util.UUID;
+
+import org.testng.annotations.Test;
+
+public class SensorMessageDecoderTest {
+	private static final String UUID_STRING = "0f8fad5b-d9cb-469f-a165-70867728950e";
+	
+	@Test
+	public void shouldDecodeSingleValueMessage() {
+		SensorMessageDecoder decoder = new SensorMessageDecoder();
+		
+		assertTrue(decode(decoder, "{\"header\":{\"type\":\"single-value\",\"uuid\":\"" + UUID_STRING + "\"},"
+				+ "\"body\":{\"sensor\":\"testdata\",\"timestamp\":\"2023-11-05T10:15:30\","
+				+ "\"values\":[0.12345,-2.6789012,9.3456789e2,42]}}"));
+		
+		UUID uuid = UUID.fromString(UUID_STRING);
+		
+		assertEquals(decoder.type(), SensorMessageDecoder.TYPE_SINGLE_VALUE);
+		assertEquals(decoder.uuid(), UUID_STRING);
+		assertEquals(decoder.uuidMostSignificantBits(), uuid.getMostSignificantBits());
+		assertEquals(decoder.uuidLeastSignificantBits(), uuid.getLeastSignificantBits());
+		assertEquals(decoder.sampleCount(), 1);
+		assertEquals(decoder.value(0, 0), 0.12345);
+		assertEquals(decoder.value(0, 1), -2.6789012);
+		assertEquals(decoder.value(0, 2), 934.56789);
+		assertEquals(decoder.sensors().name(decoder.sensor(0)), "testdata");
+		assertEquals(decoder.timestamp(0), TimestampParser.parseMicros("2023-11-05T10:15:30"));
+		assertEquals(decoder.width(0), 4);
+		assertEquals(decoder.value(0, 3), 42.0);
+	}
+	
+	@Test
+	public void shouldKeepWidthOfEachSensor() {
+		SensorMessageDecoder decoder = new SensorMessageDecoder();
+		String header = "\"header\":{\"type\":\"batch\",\"uuid\":\"" + UUID_STRING + "\"}";
+		
+		assertTrue(decode(decoder, "{" + header + ",\"body\":[{\"sensor\":\"light\",\"values\":[250]},"
+				+ "{\"sensor\":\"gyroscope\",\"values\":[0.1,0.2,0.3]},{\"values\":[1,2,3,4,5,6,7,8,9]}]}"));
+		
+		assertEquals(decoder.sampleCount(), 3);
+		assertEquals(decoder.width(0), 1);
+		assertEquals(decoder.width(1), 3);
+		assertEquals(decoder.width(2), 9);
+		assertEquals(decoder.value(2, 8), 9.0);
+		assertEquals(decoder.sensors().name(decoder.sensor(2)), "");
+		
+		// the tree builder path rejects it as well
+		assertFalse(decode(decoder, "{" + header + ",\"body\":[{\"sensor\":\"light\",\"values\":[250,1]}]}"));
+		assertTrue(decode(decoder, "{" + header + ",\"body\":[{\"values\":[9,8,7,6,5,4,3,2,1]},"
+				+ "{\"values\":[3],\"sensor\":\"light\"}]}"));
+	}
+	
+	@Test
+	public void shouldForgetSensorsOfRejectedMessages() {
+		SensorMessageDecoder decoder = new SensorMessageDecoder();
+		String header = "\"header\":{\"type\":\"batch\",\"uuid\":\"" + UUID_STRING + "\"}";
+		
+		assertTrue(decode(decoder, "{" + header + ",\"body\":[{\"sensor\":\"light\",\"values\":[250]}]}"));
+		decoder.sensors().commit();
+		
+		// a sample after the first two is malformed, so the message is rejected as a whole
+		assertFalse(decode(decoder, "{" + header + ",\"body\":[{\"sensor\":\"gyroscope\",\"values\":[0.1,0.2]},"
+				+ "{\"values\":[1,2]},{\"values\":true}]}"));
+		decoder.sensors().rollback();
+		assertEquals(decoder.sensors().size(), 1);
+		
+		assertTrue(decode(decoder, "{" + header + ",\"body\":[{\"sensor\":\"gyroscope\",\"values\":[0.1,0.2,0.3]},"
+				+ "{\"values\":[1,2,3,4]}]}"));
+		assertEquals(decoder.sensors().size(), 3);
+	}
+	
+	@Test
+	public void shouldDecodeBatchMessageWithBodyBeforeHeader() {
+		SensorMessageDecoder decoder = new SensorMessageDecoder();
+		
+		assertTrue(decode(decoder, " { \"body\" : [ {\"values\":[1,2,3]}, {\"values\":[4,5,6],\"extra\":{\"a\":[true,null]}} ],"
+				+ " \"header\" : {\"uuid\":\"" + UUID_STRING + "\",\"type\":\"batch\"} } "));
+		
+		assertEquals(decoder.type(), SensorMessageDecoder.TYPE_BATCH);
+		assertEquals(decoder.sampleCount(), 2);
+		assertEquals(decoder.value(1, 0), 4.0);
+		assertEquals(decoder.value(1, 2), 6.0);
+	}
+	
+	@Test
+	public void shouldLeaveEverythingElseToTheTreeBuilder() {
+		SensorMessageDecoder decoder = new SensorMessageDecoder();
+		String header = "\"header\":{\"type\":\"single-value\",\"uuid\":\"" + UUID_STRING + "\"}";
+		
+		assertFalse(decode(decoder, "no json"));
+		assertFalse(decode(decoder, ""));
+		assertFalse(decode(decoder, "{" + header + "}"));
+		assertFalse(decode(decoder, "{" + header + ",\"body\":{\"values\":[]}}"));
+		assertFalse(decode(decoder, "{" + header
+				+ ",\"body\":{\"values\":[1,2,3,4,5,6,7,8,9,10,11,12,13,14,15,16,17]}}"));
+		assertFalse(decode(decoder, "{" + header + ",\"body\":{\"values\":[1,2,\"3\"]}}"));
+		assertFalse(decode(decoder, "{" + header + ",\"body\":[{\"values\":[1,2,3]}]}"));
+		assertFalse(decode(decoder, "{" + header + ",\"body\":{\"values\":[1,2,3]}} trailing"));
+		assertFalse(decode(decoder, "{" + header + ",\"body\":{\"values\":[01,2,3]}}"));
+		assertFalse(decode(decoder, "{" + header + ",\"body\":{\"values\":[1,2,3]},\"b\\u006fdy\":{}}"));
+		assertFalse(decode(decoder, "{" + header + ",\"body\":{\"values\":[1,2,3],\"values\":[1,2,3]}}"));
+		assertFalse(decode(decoder, "{\"header\":{\"type\":\"unknown\",\"uuid\":\"" + UUID_STRING + "\"},"
+				+ "\"body\":{\"values\":[1,2,3]}}"));
+		assertFalse(decode(decoder, "{\"header\":{\"type\":\"single-value\",\"uuid\":\"1-2-3-4-5\"},"
+				+ "\"body\":{\"values\":[1,2,3]}}"));
+	}
+	
+	@Test
+	public void shouldParseNumbersExactlyLikeDoubleParseDouble() {
+		SensorMessageDecoder decoder = new SensorMessageDecoder();
+		Random random = new Random(42);
+		
+		for (int i = 0; i < 10_000; i++) {
+			String x = Double.toString(random.nextGaussian() * 10);
+			String y = String.format(Locale.ROOT, "%.6f", random.nextDouble() * 1000);
+			String z = (random.nextInt(2000) - 1000) + "e" + (random.nextInt(60) - 30);
+			
+			assertTrue(decode(decoder, "{\"header\":{\"type\":\"single-value\",\"uuid\":\"" + UUID_STRING + "\"},"
+					+ "\"body\":{\"values\":[" + x + "," + y + "," + z + "]}}"));
+			
+			assertEquals(decoder.value(0, 0), Double.parseDouble(x));
+			assertEquals(decoder.value(0, 1), Double.parseDouble(y));
+			assertEquals(decoder.value(0, 2), Double.parseDouble(z));
+		}
+	}
+	
+	private boolean decode(final SensorMessageDecoder decoder, final String message) {
+		byte[] bytes = ("xx" + message).getBytes(StandardCharsets.UTF_8);
+		return decoder.decode(bytes, 2, bytes.length - 2);
+	}
+}
@@ -1,19 +1,31 @@
 package com.matthiasrothe.emerald.dl4j.recorder.server;
 
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertThrows;
+import static org.testng.Assert.assertTrue;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.net.Socket;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Paths;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.testng.annotations.AfterClass;
 import org.testng.annotations.BeforeClass;
@@ -23,28 +35,26 @@ import net.sf.jetro.tree.JsonArray;
 import net.sf.jetro.tree.JsonNumber;
 import net.sf.jetro.tree.JsonObject;
 import net.sf.jetro.tree.JsonProperty;
-import net.sf.jetro.tree.builder.JsonTreeBuilder;
 
 public class ServerTest {
-	private static final File CONFIG_FILE = Paths.get("./config/config.json").toFile();
-	private static final JsonTreeBuilder BUILDER = new JsonTreeBuilder();
 	private static final String DATA_DIRECTORY = "./test-recorded-data";
+	private static final String CONCURRENT_DATA_DIRECTORY = "./test-recorded-data-concurrent";
+	private static final String ABORTED_DATA_DIRECTORY = "./test-recorded-data-aborted";
 	
 	private Server server;
+	private Server recordingServer;
 	private Socket clientSocket;
 	private BufferedReader in;
 	private BufferedWriter out;
-	private JsonObject config;
 	
 	@BeforeClass
 	public void setup() throws Exception {
-		try (BufferedReader configReader = new BufferedReader(new FileReader(CONFIG_FILE))) {
-			config = (JsonObject) BUILDER.build(configReader);
-		}
-		
-		server = new Server(5001, DATA_DIRECTORY);
+		server = new Server(5001, DATA_DIRECTORY, TestConfigFile.create());
 		server.start();
 		
+		// never started; records on its own because the test methods run in parallel
+		recordingServer = new Server(5003, CONCURRENT_DATA_DIRECTORY, TestConfigFile.create());
+		
 		Thread.sleep(2000);
 		
 		clientSocket = new Socket("localhost", 5001);
@@ -130,19 +140,302 @@ public class ServerTest {
 		assertEquals(response, "{\"status\":\"OK\",\"statusCode\":200,\"uuid\":\"" + uuid + "\"}");
 	}
 	
+	@Test
+	public void shouldServeConcurrentClients() throws Exception {
+		try (Socket secondSocket = new Socket("localhost", 5001);
+				Socket thirdSocket = new Socket("localhost", 5001)) {
+			BufferedReader secondIn = new BufferedReader(new InputStreamReader(secondSocket.getInputStream()));
+			BufferedWriter secondOut = new BufferedWriter(new OutputStreamWriter(secondSocket.getOutputStream()));
+			BufferedReader thirdIn = new BufferedReader(new InputStreamReader(thirdSocket.getInputStream()));
+			BufferedWriter thirdOut = new BufferedWriter(new OutputStreamWriter(thirdSocket.getOutputStream()));
+			
+			String secondUuid = UUID.randomUUID().toString();
+			String thirdUuid = UUID.randomUUID().toString();
+			
+			thirdOut.write(createSingleValueMessage(thirdUuid).toJson());
+			thirdOut.newLine();
+			thirdOut.flush();
+			
+			secondOut.write(createSingleValueMessage(secondUuid).toJson());
+			secondOut.newLine();
+			secondOut.flush();
+			
+			assertEquals(thirdIn.readLine(), "{\"status\":\"OK\",\"statusCode\":200,\"uuid\":\"" + thirdUuid + "\"}");
+			assertEquals(secondIn.readLine(), "{\"status\":\"OK\",\"statusCode\":200,\"uuid\":\"" + secondUuid + "\"}");
+		}
+	}
+	
+	@Test
+	public void shouldCloseClientConnectionsAndRecordingsWhenAborted() throws Exception {
+		// a server of its own, as the other tests go on using theirs
+		Server abortedServer = new Server(5021, ABORTED_DATA_DIRECTORY, TestConfigFile.create());
+		abortedServer.start();
+		
+		Thread.sleep(2000);
+		
+		abortedServer.startRecording(7);
+		Recording recording = abortedServer.activeRecording();
+		
+		try (Socket abortedSocket = new Socket("localhost", 5021)) {
+			abortedSocket.setSoTimeout(5000);
+			BufferedReader abortedIn = new BufferedReader(new InputStreamReader(abortedSocket.getInputStream()));
+			BufferedWriter abortedOut = new BufferedWriter(new OutputStreamWriter(abortedSocket.getOutputStream()));
+			String uuid = UUID.randomUUID().toString();
+			
+			abortedOut.write(createSingleValueMessage(uuid).toJson());
+			abortedOut.newLine();
+			abortedOut.flush();
+			assertEquals(abortedIn.readLine(), "{\"status\":\"OK\",\"statusCode\":200,\"uuid\":\"" + uuid + "\"}");
+			
+			abortedServer.abort();
+			
+			// the server closes the connection instead of going on reading from it
+			assertEquals(abortedIn.read(), -1);
+			
+			// and has the writer close the recording before it stops
+			long deadline = System.currentTimeMillis() + 5000;
+			while (!recording.isClosed() && System.currentTimeMillis() < deadline) {
+				Thread.sleep(10);
+			}
+			
+			assertTrue(recording.isClosed());
+			assertFalse(abortedServer.isRecording());
+		} finally {
+			abortedServer.abort();
+			deleteDirectory(ABORTED_DATA_DIRECTORY);
+		}
+	}
+	
+	@Test
+	public void shouldStartOnlyOneOfConcurrentRecordings() throws Exception {
+		int threads = 8;
+		CountDownLatch startSignal = new CountDownLatch(1);
+		AtomicInteger started = new AtomicInteger();
+		AtomicInteger rejected = new AtomicInteger();
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		
+		try {
+			List<Future<?>> futures = new ArrayList<>();
+			for (int i = 0; i < threads; i++) {
+				futures.add(executor.submit(() -> {
+					startSignal.await();
+					
+					try {
+						recordingServer.startRecording(2);
+						started.incrementAndGet();
+					} catch (IllegalStateException e) {
+						rejected.incrementAndGet();
+					}
+					
+					return null;
+				}));
+			}
+			
+			startSignal.countDown();
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		} finally {
+			executor.shutdown();
+		}
+		
+		assertEquals(started.get(), 1);
+		assertEquals(rejected.get(), threads - 1);
+		assertTrue(recordingServer.isRecording());
+		
+		recordingServer.stopRecording();
+		
+		assertFalse(recordingServer.isRecording());
+		assertThrows(IllegalStateException.class, () -> recordingServer.stopRecording());
+	}
+	
+	@Test
+	public void shouldSwitchToBinaryProtocol() throws Exception {
+		try (Socket binarySocket = new Socket("localhost", 5001)) {
+			DataInputStream binaryIn = new DataInputStream(binarySocket.getInputStream());
+			DataOutputStream binaryOut = new DataOutputStream(new BufferedOutputStream(binarySocket.getOutputStream()));
+			
+			String negotiationUuid = UUID.randomUUID().toString();
+			UUID frameUuid = UUID.randomUUID();
+			UUID malformedFrameUuid = UUID.randomUUID();
+			
+			binaryOut.write(("{\"header\":{\"type\":\"binary-stream\",\"uuid\":\"" + negotiationUuid + "\"}}\r\n")
+					.getBytes(StandardCharsets.UTF_8));
+			writeSampleFrame(binaryOut, frameUuid, 3, new double[] { 0.5, 1.5, 2.5, 3.5, 4.5, 5.5 });
+			writeSampleFrame(binaryOut, malformedFrameUuid, 2, new double[] { 0.5, 1.5 });
+			binaryOut.flush();
+			
+			StringBuilder response = new StringBuilder();
+			int c;
+			while ((c = binaryIn.read()) != '\n') {
+				response.append((char) c);
+			}
+			
+			assertEquals(response.toString(), "{\"status\":\"OK\",\"statusCode\":200,\"uuid\":\"" + negotiationUuid + "\"}");
+			assertAck(binaryIn, 200, frameUuid);
+			assertAck(binaryIn, 401, malformedFrameUuid);
+		}
+	}
+	
+	@Test
+	public void shouldAcknowledgeCumulatively() throws Exception {
+		try (Socket ackSocket = new Socket("localhost", 5001)) {
+			BufferedReader ackIn = new BufferedReader(new InputStreamReader(ackSocket.getInputStream()));
+			BufferedWriter ackOut = new BufferedWriter(new OutputStreamWriter(ackSocket.getOutputStream()));
+			
+			String[] uuids = new String[5];
+			for (int i = 0; i < uuids.length; i++) {
+				uuids[i] = UUID.randomUUID().toString();
+			}
+			
+			JsonObject first = createSingleValueMessage(uuids[0]);
+			JsonObject header = (JsonObject) first.get("header");
+			header.add(new JsonProperty("ackMode", "cumulative"));
+			header.add(new JsonProperty("ackCount", 3));
+			header.add(new JsonProperty("ackIntervalMillis", 0));
+			
+			ackOut.write(first.toJson());
+			ackOut.newLine();
+			for (int i = 1; i < uuids.length; i++) {
+				ackOut.write(createSingleValueMessage(uuids[i]).toJson());
+				ackOut.newLine();
+			}
+			ackOut.write("{\"header\":{\"type\":\"unknown\"}}");
+			ackOut.newLine();
+			ackOut.flush();
+			
+			assertEquals(ackIn.readLine(), "{\"status\":\"OK\",\"statusCode\":200,\"uuids\":[\""
+					+ uuids[0] + "\",\"" + uuids[1] + "\",\"" + uuids[2] + "\"]}");
+			// pending acknowledgements are written before any other response
+			assertEquals(ackIn.readLine(), "{\"status\":\"OK\",\"statusCode\":200,\"uuids\":[\""
+					+ uuids[3] + "\",\"" + uuids[4] + "\"]}");
+			assertEquals(ackIn.readLine(), "{\"status\":\"Bad Request: Malformed message.\",\"statusCode\":401}");
+		}
+	}
+	
+	@Test
+	public void shouldFlushCumulativeAcknowledgementsAfterInterval() throws Exception {
+		try (Socket ackSocket = new Socket("localhost", 5001)) {
+			BufferedReader ackIn = new BufferedReader(new InputStreamReader(ackSocket.getInputStream()));
+			BufferedWriter ackOut = new BufferedWriter(new OutputStreamWriter(ackSocket.getOutputStream()));
+			
+			String uuid = UUID.randomUUID().toString();
+			JsonObject message = createSingleValueMessage(uuid);
+			JsonObject header = (JsonObject) message.get("header");
+			header.add(new JsonProperty("ackMode", "cumulative"));
+			header.add(new JsonProperty("ackCount", 100));
+			header.add(new JsonProperty("ackIntervalMillis", 20));
+			
+			ackOut.write(message.toJson());
+			ackOut.newLine();
+			ackOut.flush();
+			
+			assertEquals(ackIn.readLine(), "{\"status\":\"OK\",\"statusCode\":200,\"uuids\":[\"" + uuid + "\"]}");
+		}
+	}
+	
+	@Test
+	public void shouldFlushCumulativeAcknowledgementsAfterDefaultInterval() throws Exception {
+		try (Socket ackSocket = new Socket("localhost", 5001)) {
+			// fails instead of waiting forever if no timer flushes the acknowledgement
+			ackSocket.setSoTimeout(5000);
+			BufferedReader ackIn = new BufferedReader(new InputStreamReader(ackSocket.getInputStream()));
+			BufferedWriter ackOut = new BufferedWriter(new OutputStreamWriter(ackSocket.getOutputStream()));
+			
+			String uuid = UUID.randomUUID().toString();
+			JsonObject message = createSingleValueMessage(uuid);
+			((JsonObject) message.get("header")).add(new JsonProperty("ackMode", "cumulative"));
+			
+			ackOut.write(message.toJson());
+			ackOut.newLine();
+			ackOut.flush();
+			
+			assertEquals(ackIn.readLine(), "{\"status\":\"OK\",\"statusCode\":200,\"uuids\":[\"" + uuid + "\"]}");
+		}
+	}
+	
+	@Test
+	public void shouldGrantCreditsWithAcknowledgements() throws Exception {
+		try (Socket creditSocket = new Socket("localhost", 5001)) {
+			BufferedReader creditIn = new BufferedReader(new InputStreamReader(creditSocket.getInputStream()));
+			BufferedWriter creditOut = new BufferedWriter(new OutputStreamWriter(creditSocket.getOutputStream()));
+			
+			String uuid = UUID.randomUUID().toString();
+			JsonObject message = createSingleValueMessage(uuid);
+			((JsonObject) message.get("header")).add(new JsonProperty("flowControl", "credits"));
+			
+			creditOut.write(message.toJson());
+			creditOut.newLine();
+			creditOut.flush();
+			
+			String response = creditIn.readLine();
+			String prefix = "{\"status\":\"OK\",\"statusCode\":200,\"uuid\":\"" + uuid + "\",\"credits\":";
+			assertTrue(response.startsWith(prefix) && response.endsWith("}"), response);
+			
+			int credits = Integer.parseInt(response.substring(prefix.length(), response.length() - 1));
+			assertTrue(credits > 0 && credits <= Server.MAX_CREDITS, response);
+		}
+	}
+	
+	private void writeSampleFrame(final DataOutputStream out, final UUID uuid, final int width, final double[] values)
+			throws Exception {
+		out.writeInt(31 + values.length * Double.BYTES);
+		out.writeByte(1);
+		out.writeLong(uuid.getMostSignificantBits());
+		out.writeLong(uuid.getLeastSignificantBits());
+		out.writeShort(7);
+		out.writeLong(System.currentTimeMillis() * 1000);
+		out.writeByte(Double.BYTES);
+		out.writeByte(width);
+		out.writeShort(values.length / width);
+		
+		for (double value : values) {
+			out.writeDouble(value);
+		}
+	}
+	
+	private void assertAck(final DataInputStream in, final int statusCode, final UUID uuid) throws Exception {
+		assertEquals(in.readInt(), 19);
+		assertEquals(in.readByte(), 2);
+		assertEquals(in.readShort(), statusCode);
+		assertEquals(in.readLong(), uuid.getMostSignificantBits());
+		assertEquals(in.readLong(), uuid.getLeastSignificantBits());
+	}
+	
+	private JsonObject createSingleValueMessage(final String uuid) {
+		JsonObject header = new JsonObject();
+		header.add(new JsonProperty("type", "single-value"));
+		header.add(new JsonProperty("uuid", uuid));
+		
+		JsonObject body = new JsonObject();
+		body.add(new JsonProperty("sensor", "testdata"));
+		body.add(new JsonProperty("timestamp", LocalDateTime.now().toString()));
+		body.add(new JsonProperty("values", new JsonArray(Arrays.asList(
+				new JsonNumber(0.12345), new JsonNumber(2.6789012), new JsonNumber(9.3456789)))));
+		
+		JsonObject message = new JsonObject();
+		message.add(new JsonProperty("header", header));
+		message.add(new JsonProperty("body", body));
+		
+		return message;
+	}
+	
+	private void deleteDirectory(final String directory) {
+		File dataDirectory = Paths.get(directory).toFile();
+		if (dataDirectory.exists()) {
+			for (String fileName : dataDirectory.list()) {
+				Paths.get(directory + "/" + fileName).toFile().delete();
+			}
+			dataDirectory.delete();
+		}
+	}
+	
 	@AfterClass
 	public void teardown() throws Exception {
 		clientSocket.close();		
 		server.abort();
 		
-		File dataDirectory = Paths.get(DATA_DIRECTORY).toFile();
-		for (String fileName : dataDirectory.list()) {
-			Paths.get(DATA_DIRECTORY + "/" + fileName).toFile().delete();
-		}
-		dataDirectory.delete();
-		
-		try (BufferedWriter configWriter = new BufferedWriter(new FileWriter(CONFIG_FILE))) {
-			configWriter.write(config.toJson());
-		}
+		deleteDirectory(DATA_DIRECTORY);
+		deleteDirectory(CONCURRENT_DATA_DIRECTORY);
 	}
 }
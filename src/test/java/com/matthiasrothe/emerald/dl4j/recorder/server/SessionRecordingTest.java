@@ -0,0 +1,136 @@
+package com.matthiasrothe.emerald.dl4j.recorder.server;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+public class SessionRecordingTest {
+	private static final String DATA_DIRECTORY = "./test-recorded-data-sessions";
+	
+	private Server server;
+	
+	@BeforeClass
+	public void setup() throws Exception {
+		server = new Server(5012, DATA_DIRECTORY, TestConfigFile.create());
+		server.start();
+		
+		Thread.sleep(2000);
+	}
+	
+	@Test
+	public void shouldRecordEachSessionIndependently() throws Exception {
+		try (Socket first = new Socket("localhost", 5012); Socket second = new Socket("localhost", 5012)) {
+			BufferedReader firstIn = new BufferedReader(new InputStreamReader(first.getInputStream()));
+			BufferedWriter firstOut = new BufferedWriter(new OutputStreamWriter(first.getOutputStream()));
+			BufferedReader secondIn = new BufferedReader(new InputStreamReader(second.getInputStream()));
+			BufferedWriter secondOut = new BufferedWriter(new OutputStreamWriter(second.getOutputStream()));
+			
+			server.startRecording("watch-1", 4);
+			server.startRecording("watch-2", 7);
+			int firstFileNumber = server.activeRecording("watch-1").getFileNumber();
+			int secondFileNumber = server.activeRecording("watch-2").getFileNumber();
+			assertFalse(server.isRecording());
+			
+			send(firstIn, firstOut, ",\"session\":\"watch-1\"", "{\"values\":[1,2,3]}", Server.STATUS_CODE_OK);
+			send(secondIn, secondOut, ",\"session\":\"watch-2\"", "[{\"values\":[4,5,6]}]", Server.STATUS_CODE_OK);
+			// the connection stays in its session until a message names another one
+			send(firstIn, firstOut, "", "{\"values\":[7,8,9]}", Server.STATUS_CODE_OK);
+			// the tree builder path, for the escaped id
+			send(secondIn, secondOut, ",\"session\":\"watch\\u002d2\"", "[{\"values\":[1.5,0,0]}]",
+					Server.STATUS_CODE_OK);
+			send(firstIn, firstOut, ",\"session\":\"" + "x".repeat(Session.MAX_ID_LENGTH + 1) + "\"",
+					"{\"values\":[0,0,0]}", Server.STATUS_CODE_MALFORMED_MESSAGE);
+			
+			server.stopRecording("watch-1");
+			assertTrue(server.isRecording("watch-2"));
+			send(secondIn, secondOut, "", "[{\"values\":[10,11,12]}]", Server.STATUS_CODE_OK);
+			server.stopRecording("watch-2");
+			
+			assertEquals(lines("data_" + firstFileNumber + ".csv"), List.of("1.0,2.0,3.0", "7.0,8.0,9.0"));
+			assertEquals(lines("data_" + secondFileNumber + ".csv"),
+					List.of("4.0,5.0,6.0", "1.5,0.0,0.0", "10.0,11.0,12.0"));
+			assertEquals(lines("label_" + firstFileNumber + ".csv"), List.of("4"));
+			assertEquals(lines("label_" + secondFileNumber + ".csv"), List.of("7"));
+		}
+	}
+	
+	@Test
+	public void shouldNeverGiveTwoRecordingsTheSameFileNumber() throws Exception {
+		int sessions = 8;
+		ExecutorService executor = Executors.newFixedThreadPool(sessions);
+		List<Future<Integer>> fileNumbers = new ArrayList<>();
+		
+		try {
+			for (int i = 0; i < sessions; i++) {
+				String session = "device-" + i;
+				
+				fileNumbers.add(executor.submit(() -> {
+					server.startRecording(session, 1);
+					int fileNumber = server.activeRecording(session).getFileNumber();
+					server.stopRecording(session);
+					return fileNumber;
+				}));
+			}
+			
+			Set<Integer> distinct = new HashSet<>();
+			for (Future<Integer> fileNumber : fileNumbers) {
+				distinct.add(fileNumber.get());
+			}
+			
+			assertEquals(distinct.size(), sessions);
+			// nothing is connected to the sessions, so they are forgotten once their recordings are stopped
+			assertFalse(server.sessions().stream().anyMatch(session -> session.getId().startsWith("device-")));
+		} finally {
+			executor.shutdown();
+		}
+	}
+	
+	private List<String> lines(final String fileName) throws Exception {
+		return Files.readAllLines(Paths.get(DATA_DIRECTORY, fileName));
+	}
+	
+	private void send(final BufferedReader in, final BufferedWriter out, final String headerFields, final String body,
+			final int expectedStatusCode) throws Exception {
+		String type = body.startsWith("[") ? "batch" : "single-value";
+		
+		out.write("{\"header\":{\"type\":\"" + type + "\",\"uuid\":\"" + UUID.randomUUID() + "\"" + headerFields
+				+ "},\"body\":" + body + "}");
+		out.newLine();
+		out.flush();
+		
+		String response = in.readLine();
+		assertTrue(response.contains("\"statusCode\":" + expectedStatusCode), response);
+	}
+	
+	@AfterClass
+	public void teardown() throws Exception {
+		server.abort();
+		
+		File dataDirectory = Paths.get(DATA_DIRECTORY).toFile();
+		for (File file : dataDirectory.listFiles()) {
+			file.delete();
+		}
+		dataDirectory.delete();
+	}
+}
@@ -0,0 +1,21 @@
+package com.matthiasrothe.emerald.dl4j.recorder.server;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+// a config file of its own for each test server, so the servers recording in parallel don't share the file numbers
+// of ./config/config.json and the test run leaves it untouched
+final class TestConfigFile {
+	
+	private TestConfigFile() {
+	}
+	
+	static Path create() throws IOException {
+		Path configFile = Files.createTempFile("recorder-config", ".json");
+		configFile.toFile().deleteOnExit();
+		Files.write(configFile, "{\"nextFileNumber\":0}".getBytes(StandardCharsets.UTF_8));
+		return configFile;
+	}
+}
@@ -0,0 +1,37 @@
+package com.matthiasrothe.emerald.dl4j.recorder.server;
+
+import static org.testng.Assert.assertEquals;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+public class TimestampParserTest {
+	@DataProvider
+	public Object[][] timestamps() {
+		return new Object[][] { { "2024-05-01T12:00" }, { "2024-05-01T12:00:07" }, { "1970-01-01T00:00:00" },
+				{ "1969-12-31T23:59:59.999999" }, { "2000-02-29T01:02:03.4" }, { "2100-03-01T23:59:59.123456789" },
+				{ "0001-01-01T00:00" }, { "9999-12-31T23:59:59.999" } };
+	}
+	
+	@Test(dataProvider = "timestamps")
+	public void shouldParseLikeLocalDateTime(final String timestamp) {
+		LocalDateTime expected = LocalDateTime.parse(timestamp);
+		long expectedMicros = ChronoUnit.MICROS.between(LocalDateTime.ofEpochSecond(0, 0, ZoneOffset.UTC), expected);
+		
+		assertEquals(TimestampParser.parseMicros(timestamp), expectedMicros);
+		assertEquals(TimestampParser.parseMicros(timestamp + "Z"), expectedMicros);
+	}
+	
+	@Test
+	public void shouldRejectMalformedTimestamps() {
+		for (String timestamp : new String[] { "", "2024-05-01", "2024-05-01 12:00", "2024-13-01T12:00",
+				"2024-02-30T12:00", "2024-05-01T24:00", "2024-05-01T12:00:60", "2024-05-01T12:00:00.",
+				"2024-05-01T12:00:00.1234567890", "2024-05-01T12:00+02:00", "2024-o5-01T12:00" }) {
+			assertEquals(TimestampParser.parseMicros(timestamp), TimestampParser.NO_TIMESTAMP, timestamp);
+		}
+	}
+}
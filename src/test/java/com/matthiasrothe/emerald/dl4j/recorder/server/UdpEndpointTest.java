@@ -0,0 +1,134 @@
+package com.matthiasrothe.emerald.dl4j.recorder.server;
+
+import static org.testng.Assert.assertEquals;
+
+import java.io.File;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.UUID;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+public class UdpEndpointTest {
+	private static final String DATA_DIRECTORY = "./test-recorded-data-udp";
+	private static final int UDP_PORT = 5014;
+	
+	private Server server;
+	
+	@BeforeClass
+	public void setup() throws Exception {
+		server = new Server(5013, DATA_DIRECTORY, TestConfigFile.create());
+		server.setUdpPort(UDP_PORT);
+		server.start();
+		
+		Thread.sleep(2000);
+	}
+	
+	@Test
+	public void shouldRecordDatagramsAndCountTheLostOnes() throws Exception {
+		ServerMetrics metrics = server.getMetrics();
+		server.startRecording(5);
+		int fileNumber = server.activeRecording().getFileNumber();
+		
+		try (DatagramSocket socket = new DatagramSocket()) {
+			send(socket, json(0, "[{\"values\":[1,2,3]},{\"values\":[4,5,6]}]"));
+			send(socket, frame(1, 7, 0.5, 1.5));
+			// the datagram with sequence number 2 is lost, then arrives too late
+			send(socket, json(3, "[{\"values\":[7,8,9]}]"));
+			send(socket, json(2, "[{\"values\":[0,0,0]}]"));
+			send(socket, new byte[4]);
+			
+			long deadline = System.currentTimeMillis() + 5000;
+			while (metrics.datagrams() + metrics.datagramsDropped(ServerMetrics.DATAGRAM_DROPPED_LATE)
+					+ metrics.datagramsDropped(ServerMetrics.DATAGRAM_DROPPED_MALFORMED) < 5
+					&& System.currentTimeMillis() < deadline) {
+				Thread.sleep(10);
+			}
+		}
+		
+		server.stopRecording();
+		
+		assertEquals(metrics.datagrams(), 3);
+		assertEquals(metrics.datagramsLost(), 1);
+		assertEquals(metrics.datagramsDropped(ServerMetrics.DATAGRAM_DROPPED_LATE), 1);
+		assertEquals(metrics.datagramsDropped(ServerMetrics.DATAGRAM_DROPPED_MALFORMED), 1);
+		assertEquals(Files.readAllLines(Paths.get(DATA_DIRECTORY, "data_" + fileNumber + ".csv")),
+				List.of("1.0,2.0,3.0", "4.0,5.0,6.0", "7.0,8.0,9.0"));
+		assertEquals(Files.readAllLines(Paths.get(DATA_DIRECTORY, "data_" + fileNumber + "_7.csv")),
+				List.of("0.5,1.5"));
+	}
+	
+	@Test
+	public void shouldForgetIdleSenders() throws Exception {
+		// a server of its own, which is never started, keeps the metrics of the other test apart
+		UdpEndpoint endpoint = new UdpEndpoint(new Server(5016, DATA_DIRECTORY, TestConfigFile.create()), 5017, 100);
+		// nothing to record, only the senders count
+		byte[] message = "{}".getBytes(StandardCharsets.UTF_8);
+		
+		try {
+			endpoint.process(sender(40001), 0, message, message.length);
+			endpoint.process(sender(40002), 0, message, message.length);
+			assertEquals(endpoint.peerCount(), 2);
+			
+			Thread.sleep(200);
+			endpoint.process(sender(40002), 1, message, message.length);
+			assertEquals(endpoint.peerCount(), 1);
+		} finally {
+			endpoint.stop();
+		}
+	}
+	
+	private static InetSocketAddress sender(final int port) {
+		return new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+	}
+	
+	private static byte[] json(final long sequence, final String body) {
+		byte[] message = ("{\"header\":{\"type\":\"batch\",\"uuid\":\"" + UUID.randomUUID() + "\"},\"body\":" + body
+				+ "}").getBytes(StandardCharsets.UTF_8);
+		
+		return ByteBuffer.allocate(UdpEndpoint.SEQUENCE_SIZE + message.length).putLong(sequence).put(message).array();
+	}
+	
+	// a binary sample frame of one sample without its length field
+	private static byte[] frame(final long sequence, final int sensorId, final double... values) {
+		ByteBuffer datagram = ByteBuffer.allocate(UdpEndpoint.SEQUENCE_SIZE + 31 + values.length * Double.BYTES);
+		UUID uuid = UUID.randomUUID();
+		
+		datagram.putLong(sequence).put((byte) BinaryFrameCodec.FRAME_TYPE_SAMPLES)
+				.putLong(uuid.getMostSignificantBits()).putLong(uuid.getLeastSignificantBits())
+				.putShort((short) sensorId).putLong(0).put((byte) Double.BYTES).put((byte) values.length)
+				.putShort((short) 1);
+		
+		for (double value : values) {
+			datagram.putDouble(value);
+		}
+		
+		return datagram.array();
+	}
+	
+	private static void send(final DatagramSocket socket, final byte[] datagram) throws Exception {
+		socket.send(new DatagramPacket(datagram, datagram.length, InetAddress.getLoopbackAddress(), UDP_PORT));
+		// keeps the order of the datagrams on the loopback interface
+		Thread.sleep(50);
+	}
+	
+	@AfterClass
+	public void teardown() throws Exception {
+		server.abort();
+		
+		File dataDirectory = Paths.get(DATA_DIRECTORY).toFile();
+		for (File file : dataDirectory.listFiles()) {
+			file.delete();
+		}
+		dataDirectory.delete();
+	}
+}